@@ -46,6 +46,30 @@ implements AssetsBundleConfiguration // comment out when compiling for deploymen
     @JsonProperty
     private String restrictAccessToLocalhost = "true";
 
+    @NotNull
+    @JsonProperty
+    private int moduleCacheSize = 256;
+
+    @NotNull
+    @JsonProperty
+    private long fileCatalogInterval = 2000;
+
+    @NotNull
+    @JsonProperty
+    private int fileCatalogThreads = 8;
+
+    @NotNull
+    @JsonProperty
+    private int backupRetention = 10;
+
+    @NotNull
+    @JsonProperty
+    private boolean moduleJournal = false;
+
+    @NotNull
+    @JsonProperty
+    private long moduleJournalIdleTime = 2000;
+
     @JsonProperty
     private final AssetsConfiguration assets = new AssetsConfiguration();
 
@@ -73,6 +97,30 @@ implements AssetsBundleConfiguration // comment out when compiling for deploymen
         return restrictAccessToLocalhost;
     }
 
+    public int getModuleCacheSize() {
+        return moduleCacheSize;
+    }
+
+    public long getFileCatalogInterval() {
+        return fileCatalogInterval;
+    }
+
+    public int getFileCatalogThreads() {
+        return fileCatalogThreads;
+    }
+
+    public int getBackupRetention() {
+        return backupRetention;
+    }
+
+    public boolean getModuleJournal() {
+        return moduleJournal;
+    }
+
+    public long getModuleJournalIdleTime() {
+        return moduleJournalIdleTime;
+    }
+
     public AssetsConfiguration getAssetsConfiguration() {
         return assets;
     }
@@ -13,8 +13,13 @@ import com.yammer.dropwizard.config.Environment;
 
 //import com.sun.jersey.api.core.ResourceConfig;
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileCatalog;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ArchiveModuleResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ArchiveResource;
+import com.cisco.dvbu.ps.deploytool.gui.resources.BackupResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DataSourceModuleResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DataSourceResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DeploymentPlanResource;
@@ -25,6 +30,7 @@ import com.cisco.dvbu.ps.deploytool.gui.resources.FileResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.GroupModuleResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.GroupResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.LogResource;
+import com.cisco.dvbu.ps.deploytool.gui.resources.ModuleUsageResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.PreferenceResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.PrivilegeModuleResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.PrivilegeResource;
@@ -49,13 +55,14 @@ import com.cisco.dvbu.ps.deploytool.gui.resources.VCSInitResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.VCSModuleResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.VCSResource;
 import com.yammer.metrics.core.PDToolGUIHealthCheck;
+import com.cisco.dvbu.ps.deploytool.gui.util.AssetFilter;
 //import com.cisco.dvbu.ps.deploytool.gui.util.GenericExceptionMapper;
 import com.cisco.dvbu.ps.deploytool.gui.util.JsonMappingExceptionHandler;
 
 //import java.util.ArrayList;
 //import java.util.HashMap;
 //import java.util.List;
-//import java.util.Map;
+import java.util.Map;
 //import java.util.Set;
 
 //import javax.ws.rs.ext.ExceptionMapper;
@@ -107,6 +114,37 @@ public class PDToolGUIService extends Service<PDToolGUIConfiguration> {
             jrConfig.getSingletons().remove(s);
         }
 */
+        // size the parsed module cache (configured in megabytes)
+        //
+        ModuleCache.getInstance().setMaxBytes (configuration.getModuleCacheSize() * 1024L * 1024L);
+
+        // journal module item changes and write them to the module files in the background
+        //
+        ModuleJournal.getInstance().setEnabled (configuration.getModuleJournal());
+        ModuleJournal.getInstance().setIdleTime (configuration.getModuleJournalIdleTime());
+        environment.manage (ModuleJournal.getInstance());
+
+        // keep the file lists up to date in the background while the server runs
+        //
+        FileCatalog.getInstance().setInterval (configuration.getFileCatalogInterval());
+        FileCatalog.getInstance().setThreads (configuration.getFileCatalogThreads());
+        environment.manage (FileCatalog.getInstance());
+
+        // keep the backups of edited files, written in the background
+        //
+        BackupStore.getInstance().setRetention (configuration.getBackupRetention());
+        environment.manage (BackupStore.getInstance());
+
+        // cache headers and precompressed copies of the web assets. the copies are served from the same directory
+        // the assets bundle serves the assets from, if any.
+        //
+        String assetsDir = null;
+        for (Map.Entry<String, String> override : configuration.getAssetsConfiguration().getOverrides()) {
+            if (override.getKey().replaceAll ("/+$", "").equals ("/pdtoolgui"))
+                assetsDir = override.getValue();
+        }
+        environment.addFilter (new AssetFilter ("/pdtoolgui/", assetsDir), "/pdtoolgui/*");
+
         // Register the custom ExceptionMapper(s)
         //
         environment.addResource (new JsonMappingExceptionHandler());
@@ -116,6 +154,7 @@ public class PDToolGUIService extends Service<PDToolGUIConfiguration> {
         //
         environment.addResource (new ArchiveModuleResource());
         environment.addResource (new ArchiveResource());
+        environment.addResource (new BackupResource());
         environment.addResource (new DataSourceModuleResource());
         environment.addResource (new DataSourceResource());
         environment.addResource (new DeploymentPlanResource());
@@ -126,6 +165,7 @@ public class PDToolGUIService extends Service<PDToolGUIConfiguration> {
         environment.addResource (new GroupModuleResource());
         environment.addResource (new GroupResource());
         environment.addResource (new LogResource());
+        environment.addResource (new ModuleUsageResource());
         environment.addResource (new PreferenceResource (configuration)); // passing in the configuration object to pick up preferences set in the .yml file.
         environment.addResource (new PrivilegeModuleResource());
         environment.addResource (new PrivilegeResource());
@@ -457,5 +457,56 @@ public class DeploymentPlan {
         public String getParam9 () {
             return param9;
         }
+
+        /**
+         * <p>
+         * Returns the value of a numbered parameter field.
+         * </p>
+         * 
+         * @param  n  The parameter number (0 - 9.)
+         * @return    The value or <code>null</code> if <code>n</code> is out of range.
+         */
+        public String getParam (int n) {
+            switch (n) {
+                case 0: return param0;
+                case 1: return param1;
+                case 2: return param2;
+                case 3: return param3;
+                case 4: return param4;
+                case 5: return param5;
+                case 6: return param6;
+                case 7: return param7;
+                case 8: return param8;
+                case 9: return param9;
+            }
+
+            return null;
+        }
+
+        /**
+         * <p>
+         * Sets a numbered parameter field. Numbers out of range are ignored.
+         * </p>
+         * 
+         * @param  n      The parameter number (0 - 9.)
+         * @param  value  The parameter's value.
+         */
+        public void setParam (
+            int n,
+            String value
+        ) {
+            switch (n) {
+                case 0: param0 = value; break;
+                case 1: param1 = value; break;
+                case 2: param2 = value; break;
+                case 3: param3 = value; break;
+                case 4: param4 = value; break;
+                case 5: param5 = value; break;
+                case 6: param6 = value; break;
+                case 7: param7 = value; break;
+                case 8: param8 = value; break;
+                case 9: param9 = value; break;
+            }
+        }
     }
 }
@@ -5,11 +5,14 @@ package com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan;
  */
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
-import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DeploymentPlanResource;
+import com.cisco.dvbu.ps.deploytool.gui.resources.ModuleUsageResource;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -22,8 +25,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-
-import org.apache.commons.io.FileUtils;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -141,6 +143,45 @@ public class DeploymentPlansDAO {
                        param
                    );
     }
+    /**
+     * <p>
+     * Returns the plan steps that refer to a module file, as found by the {@link ModuleReferenceIndex}. Each row
+     * holds the plan's path, the plan's name, the step's line number, the number of the parameter holding the
+     * reference and the parameter's value.
+     * </p>
+     * 
+     * @param  name   The module's path relative to the modules folder, without the ".xml" suffix.
+     * @param  param  Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @return        The list of references.
+     * @see           ModuleUsageResource
+     */
+    public ListResult listModuleUsage (
+        String name,
+        String param
+    ) {
+        List<ListResult.Row> resultList = new ArrayList<ListResult.Row>();
+        
+        for (ModuleReferenceIndex.Reference ref : ModuleReferenceIndex.getInstance().getReferences (name)) {
+            List<String> tmpCell = new ArrayList<String>();
+            
+            tmpCell.add (ref.getPlan());
+            tmpCell.add (StringUtils.removeFileSuffix (new File (ref.getPlan()).getName()));
+            tmpCell.add (ref.getLineNum());
+            tmpCell.add (ref.getParam() + "");
+            tmpCell.add (ref.getValue());
+            
+            resultList.add (new ListResult.Row (ref.getPlan() + ":" + ref.getLineNum() + ":" + ref.getParam(), tmpCell));
+        }
+        
+        return new ListResult (
+                       1, 
+                       1, 
+                       resultList.size(), 
+                       resultList,
+                       param
+                   );
+    }
+
     /**
      * <p>
      * Searches for a single {@link DeploymentPlan} object given a URL encoded file path.
@@ -171,11 +212,16 @@ public class DeploymentPlansDAO {
             return null;
         }
         
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
             dp = parsePlanFile (f);
         } catch (Exception e) {
             log.error ("Unable to get contents of file \"" + path + "\": " + e.getMessage());
             return null;
+        } finally {
+            lock.unlock();
         }
         
         return dp;
@@ -186,11 +232,15 @@ public class DeploymentPlansDAO {
      * Updates a {@link DeploymentPlan} properties file and writes it to disk. Attempts to preserve any comments.
      * </p>
      * 
-     * @param  dp  The {@link DeploymentPlan} object to update.
-     * @return     A {@link ResultMessage} object containing the results of the edit request.
-     * @see        DeploymentPlanResource
+     * @param  dp       The {@link DeploymentPlan} object to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A {@link ResultMessage} object containing the results of the edit request.
+     * @see             DeploymentPlanResource
      */
-    public ResultMessage edit (DeploymentPlan dp) {
+    public ResultMessage edit (
+        DeploymentPlan dp,
+        String version
+    ) {
         List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
         File f;
         File ft = new File (FilesDAO.getPdtHome() + "/" + FilesDAO.fileTypeProperties.get (FilesDAO.FILE_TYPE_DEPLOY_PLAN).getTemplate());
@@ -238,129 +288,136 @@ public class DeploymentPlansDAO {
         if (msgList.size() > 0)
             return new ResultMessage ("error", null, msgList);
         
+        Lock lock = FileLocks.getInstance().writeLock (dp.getPath());
+
+        lock.lock();
         try {
-            String line;
-            
-            // if user preferences indicate to save backups of edited files, rename the original file.
+            // the plan may have been changed since the client read it.
             //
-            if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-                File fb = new File (dp.getPath() + ".bak");
-                
-                log.debug ("Copying \"" + f.getAbsolutePath() + "\" to \"" + fb.getAbsolutePath() + "\".");
-                
-                // windows doesn't let you copy a file to an existing file's name
-                //
-                if (fb.exists() && fb.canWrite())
-                    FileUtils.deleteQuietly (fb);
-    
-                FileUtils.copyFile (f, fb);
+            if (! ConditionalWrite.isCurrent (dp.getPath(), version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Error updating file \"" + dp.getPath() + "\": file was changed by another request. Reload it and try again.", null);
             }
+
+            try {
+                String line;
+            
+                // if user preferences indicate to save backups of edited files, back up the original file.
+                //
+                BackupStore.getInstance().backup (f);
     
-            // open the template file for reading
-            //
-            log.debug ("opening " + ft.getPath() + " for reading.");
-            br = new BufferedReader (new FileReader (ft));
+                // open the template file for reading
+                //
+                log.debug ("opening " + ft.getPath() + " for reading.");
+                br = new BufferedReader (new FileReader (ft));
             
-            // open the temp file for writing
-            //
-            log.debug ("opening " + f.getPath() + " for writing.");
-            bw = new BufferedWriter (new FileWriter (f, false));
+                // open the temp file for writing
+                //
+                log.debug ("opening " + f.getPath() + " for writing.");
+                bw = new BufferedWriter (new FileWriter (f, false));
+                FileLocks.getInstance().changed (dp.getPath());
             
-            // write out the template portion
-            //
-            while ((line = br.readLine()) != null) {
-                if (line.equals("# empty.dp")) {
-                    log.debug ("updating plan name in text to " + StringUtils.basename (f.getPath()));
-                    bw.write ("# " + StringUtils.basename (f.getPath()));
-                } else {
-                    bw.write (line);
-                }
+                // write out the template portion
+                //
+                while ((line = br.readLine()) != null) {
+                    if (line.equals("# empty.dp")) {
+                        log.debug ("updating plan name in text to " + StringUtils.basename (f.getPath()));
+                        bw.write ("# " + StringUtils.basename (f.getPath()));
+                    } else {
+                        bw.write (line);
+                    }
 
-                bw.newLine();                
-            }
+                    bw.newLine();                
+                }
             
-            log.debug ("number of steps to write = " + dp.getSteps().size());
+                log.debug ("number of steps to write = " + dp.getSteps().size());
             
-            for (int i = 0; i < dp.getSteps().size(); i++) {
-                DeploymentPlan.Step s = dp.getSteps().get (i);
+                for (int i = 0; i < dp.getSteps().size(); i++) {
+                    DeploymentPlan.Step s = dp.getSteps().get (i);
                 
-                log.debug ("writing step " + i + " (rowid = " + s.getLineNum() + ")");
+                    log.debug ("writing step " + i + " (rowid = " + s.getLineNum() + ")");
                 
-                if (! s.isEnabled())
-                    bw.write ("#");
+                    if (! s.isEnabled())
+                        bw.write ("#");
                 
-                bw.write ((s.isExpectedBehavior()) ? "PASS" : "FAIL");
-                bw.write ("\t");
-                bw.write ((s.isExitOnError()) ? "TRUE" : "FALSE");
-                bw.write ("\t");
-                bw.write (s.getBatchName());
-                bw.write ("\t");
-                bw.write (s.getMethod());
-                bw.write ("\t");
-                bw.write ("\"" + s.getParam0() + "\"");
+                    bw.write ((s.isExpectedBehavior()) ? "PASS" : "FAIL");
+                    bw.write ("\t");
+                    bw.write ((s.isExitOnError()) ? "TRUE" : "FALSE");
+                    bw.write ("\t");
+                    bw.write (s.getBatchName());
+                    bw.write ("\t");
+                    bw.write (s.getMethod());
+                    bw.write ("\t");
+                    bw.write ("\"" + s.getParam0() + "\"");
                 
-                int numParams = countParams (s);
-                log.debug ("number of params for " + s.getMethod() + ": " + numParams);
+                    int numParams = countParams (s);
+                    log.debug ("number of params for " + s.getMethod() + ": " + numParams);
                 
-                if (numParams >= 2) {
-                    bw.write ("\t");
-                    bw.write ("\"" + s.getParam1() + "\"");
-	                if (numParams >= 3) {
-	                    bw.write ("\t");
-	                    bw.write ("\"" + s.getParam2() + "\"");
-	                    if (numParams >= 4) {
-	                        bw.write ("\t");
-	                        bw.write ("\"" + s.getParam3() + "\"");
-	                        if (numParams >= 5) {
-	                            bw.write ("\t");
-	                            bw.write ("\"" + s.getParam4() + "\"");
-	                            if (numParams >= 6) {
-	                                bw.write ("\t");
-	                                bw.write ("\"" + s.getParam5() + "\"");
-	                                if (numParams >= 7) {
-	                                    bw.write ("\t");
-	                                    bw.write ("\"" + s.getParam6() + "\"");
-	                                    if (numParams >= 8) {
-	                                        bw.write ("\t");
-	                                        bw.write ("\"" + s.getParam7() + "\"");
-	                                        if (numParams >= 9) {
-	                                            bw.write ("\t");
-	                                            bw.write ("\"" + s.getParam8() + "\"");
-	                                            if (numParams >= 10) {
-	                                                bw.write ("\t");
-	                                                bw.write ("\"" + s.getParam9() + "\"");
-	                                            }
-	                                        }
-	                                    }
-	                                }
-	                            }
-	                        }
-	                    }
-	                }
-                }
+                    if (numParams >= 2) {
+                        bw.write ("\t");
+                        bw.write ("\"" + s.getParam1() + "\"");
+    	                if (numParams >= 3) {
+    	                    bw.write ("\t");
+    	                    bw.write ("\"" + s.getParam2() + "\"");
+    	                    if (numParams >= 4) {
+    	                        bw.write ("\t");
+    	                        bw.write ("\"" + s.getParam3() + "\"");
+    	                        if (numParams >= 5) {
+    	                            bw.write ("\t");
+    	                            bw.write ("\"" + s.getParam4() + "\"");
+    	                            if (numParams >= 6) {
+    	                                bw.write ("\t");
+    	                                bw.write ("\"" + s.getParam5() + "\"");
+    	                                if (numParams >= 7) {
+    	                                    bw.write ("\t");
+    	                                    bw.write ("\"" + s.getParam6() + "\"");
+    	                                    if (numParams >= 8) {
+    	                                        bw.write ("\t");
+    	                                        bw.write ("\"" + s.getParam7() + "\"");
+    	                                        if (numParams >= 9) {
+    	                                            bw.write ("\t");
+    	                                            bw.write ("\"" + s.getParam8() + "\"");
+    	                                            if (numParams >= 10) {
+    	                                                bw.write ("\t");
+    	                                                bw.write ("\"" + s.getParam9() + "\"");
+    	                                            }
+    	                                        }
+    	                                    }
+    	                                }
+    	                            }
+    	                        }
+    	                    }
+    	                }
+                    }
                 
-                bw.newLine();
-            }
+                    bw.newLine();
+                }
             
-            bw.flush();
+                bw.flush();
 
-        } catch (Exception e) {
-            return new ResultMessage ("error", "Error: " + e.getMessage(), null);
-        } finally {
-            try {
-                if (bw != null) bw.close();
-            } catch (Exception e2) {
-                return new ResultMessage ("error", "Error closing file \"" + dp.getPath() + "\": " + e2.getMessage(), null);
-            }
+            } catch (Exception e) {
+                return new ResultMessage ("error", "Error: " + e.getMessage(), null);
+            } finally {
+                try {
+                    if (bw != null) bw.close();
+                } catch (Exception e2) {
+                    return new ResultMessage ("error", "Error closing file \"" + dp.getPath() + "\": " + e2.getMessage(), null);
+                }
 
-            try {
-                if (br != null) br.close();
-            } catch (Exception e2) {
-                return new ResultMessage ("error", "Error closing template file \"" + ft.getPath() + "\": " + e2.getMessage(), null);
-            }
+                try {
+                    if (br != null) br.close();
+                } catch (Exception e2) {
+                    return new ResultMessage ("error", "Error closing template file \"" + ft.getPath() + "\": " + e2.getMessage(), null);
+                }
 
+            }
+        } finally {
+            lock.unlock();
         }
         
+        // the plan is re-indexed once its lock is released since the index reads plans while holding its own lock.
+        //
+        ModuleReferenceIndex.getInstance().reindex (dp.getPath());
+
         return new ResultMessage ("success", "Deployment plan updated.", null);
     }
     
@@ -0,0 +1,367 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileCatalog;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Index of the references to module files in the steps of the deployment plans. Plan steps refer to a module file
+ * either through the module home variable (<code>$MODULE_HOME/MyModule.xml</code> or
+ * <code>%MODULE_HOME%\MyModule.xml</code>) or by its full path under <code>&lt;PDTool home&gt;/resources/modules</code>.
+ * Each reference is keyed by the module's path relative to the modules folder without the ".xml" suffix and with
+ * "/" separators, so all of those forms of a module's path find the same references.
+ * </p>
+ * <p>
+ * The index follows the {@link FileCatalog} snapshot of the deployment plans: when the snapshot's tag changes, only
+ * the plans that were added or whose size or last modified time changed are parsed again and the references of
+ * removed plans are dropped. {@link DeploymentPlansDAO} re-indexes a plan as soon as it writes it.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link ModuleReferenceIndex#getInstance} static method to access the instance.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleReferenceIndex {
+    private static final Logger log = LoggerFactory.getLogger (ModuleReferenceIndex.class);
+    private static ModuleReferenceIndex mri = null;
+
+    // module home variable reference, e.g. "$MODULE_HOME/x.xml" or "%MODULE_HOME%\x.xml".
+    //
+    private static final String MODULE_HOME_RE = "[$%]MODULE_HOME[$%]?";
+
+    private final Pattern referencePattern;
+    private final DeploymentPlansDAO dao = new DeploymentPlansDAO();
+
+    // indexed plans keyed by path and the references keyed by module. guarded by "this".
+    //
+    private final Map<String, Plan> plans = new HashMap<String, Plan>();
+    private final Map<String, List<Reference>> references = new HashMap<String, List<Reference>>();
+    private String catalogTag = null;
+    private long version = 0;
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ModuleReferenceIndex() {
+        String[] parts = (FilesDAO.getPdtHome() + "/" + FilesDAO.MODULES_REL_PATH).split ("[/\\\\]", -1);
+        StringBuilder modulesRE = new StringBuilder();
+
+        // the PDTool home folder may be written with either separator.
+        //
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0)
+                modulesRE.append ("[/\\\\]");
+
+            if (parts[i].length() > 0)
+                modulesRE.append (Pattern.quote (parts[i]));
+        }
+
+        referencePattern = Pattern.compile ("^((?:" + MODULE_HOME_RE + "|" + modulesRE + ")[/\\\\])(.+)\\.xml$");
+    }
+
+    /**
+     * <p>
+     * Returns the instance of the index.
+     * </p>
+     *
+     * @return  The instance.
+     */
+    public static synchronized ModuleReferenceIndex getInstance() {
+        if (mri == null) {
+            log.debug ("Instanciating new object.");
+            mri = new ModuleReferenceIndex();
+        }
+
+        return mri;
+    }
+
+    /**
+     * <p>
+     * Returns the module key of a module file name (e.g. a {@link com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileRecord}
+     * name.)
+     * </p>
+     *
+     * @param  name  The module's path relative to the modules folder, without the ".xml" suffix.
+     * @return       The key.
+     */
+    public static String getKey (String name) {
+        return (name != null) ? name.replace ('\\', '/') : null;
+    }
+
+    /**
+     * <p>
+     * Returns the references to a module.
+     * </p>
+     *
+     * @param  name  The module's path relative to the modules folder, without the ".xml" suffix.
+     * @return       The references, ordered by plan path, line number and parameter number. Empty if there are
+     *               none.
+     */
+    public synchronized List<Reference> getReferences (String name) {
+        update();
+
+        List<Reference> refs = references.get (getKey (name));
+
+        if (refs == null)
+            return Collections.emptyList();
+
+        List<Reference> result = new ArrayList<Reference> (refs);
+
+        Collections.sort (result);
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Returns the plans among a list of references.
+     * </p>
+     *
+     * @param  refs  The references.
+     * @return       The paths to the plans, in the order of the references.
+     */
+    public static List<String> getPlans (List<Reference> refs) {
+        Set<String> seen = new HashSet<String>();
+        List<String> result = new ArrayList<String>();
+
+        for (Reference r : refs) {
+            if (seen.add (r.plan))
+                result.add (r.plan);
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Returns a tag that changes whenever the index does. Used as the version of "where used" responses.
+     * </p>
+     *
+     * @return  The tag.
+     */
+    public synchronized String getTag() {
+        update();
+
+        return catalogTag + "-" + version;
+    }
+
+    /**
+     * <p>
+     * Parses a plan again right away. Called after a plan has been written.
+     * </p>
+     *
+     * @param  path  The path to the plan file.
+     */
+    public synchronized void reindex (String path) {
+        if (catalogTag == null || path == null)
+            return;
+
+        indexPlan (path, new File (path));
+    }
+
+    // brings the index up to date with the catalog's snapshot of the plans.
+    //
+    private void update() {
+        FileCatalog.Snapshot snapshot = FileCatalog.getInstance().getSnapshot (FilesDAO.FILE_TYPE_DEPLOY_PLAN);
+
+        if (snapshot == null || snapshot.getTag().equals (catalogTag))
+            return;
+
+        Set<String> paths = snapshot.getPaths();
+        int parsed = 0;
+        int removed = 0;
+
+        for (Iterator<String> i = plans.keySet().iterator(); i.hasNext(); ) {
+            String path = i.next();
+
+            if (! paths.contains (path)) {
+                removeReferences (plans.get (path));
+                i.remove();
+                removed++;
+            }
+        }
+
+        for (String path : paths) {
+            if (indexPlan (path, new File (path)))
+                parsed++;
+        }
+
+        if (removed > 0)
+            version++;
+
+        catalogTag = snapshot.getTag();
+
+        log.debug ("indexed module references of " + paths.size() + " plans (" + parsed + " parsed, " + removed + " removed.)");
+    }
+
+    // parses a plan if it is new or has changed since it was last parsed. returns whether it was parsed.
+    //
+    private boolean indexPlan (
+        String path,
+        File f
+    ) {
+        Plan old = plans.get (path);
+        long lastModified = f.lastModified();
+        long length = f.length();
+
+        if (old != null && old.lastModified == lastModified && old.length == length)
+            return false;
+
+        Plan plan = new Plan (lastModified, length);
+        DeploymentPlan dp = dao.getById (path);
+
+        if (dp != null) {
+            for (DeploymentPlan.Step s : dp.getSteps()) {
+                for (int p = 1; p <= 9; p++) {
+                    String value = s.getParam (p);
+                    Matcher m = (value != null) ? referencePattern.matcher (value) : null;
+
+                    if (m != null && m.matches())
+                        plan.references.add (new Reference (getKey (m.group (2)), path, s.getLineNum(), p, value, m.group (1)));
+                }
+            }
+        }
+
+        if (old != null)
+            removeReferences (old);
+
+        for (Reference r : plan.references) {
+            List<Reference> refs = references.get (r.module);
+
+            if (refs == null) {
+                refs = new ArrayList<Reference>();
+                references.put (r.module, refs);
+            }
+
+            refs.add (r);
+        }
+
+        plans.put (path, plan);
+        version++;
+
+        return true;
+    }
+
+    private void removeReferences (Plan plan) {
+        for (Reference r : plan.references) {
+            List<Reference> refs = references.get (r.module);
+
+            if (refs != null) {
+                refs.remove (r);
+
+                if (refs.size() == 0)
+                    references.remove (r.module);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * A reference to a module file in a parameter of a plan step.
+     * </p>
+     */
+    public static class Reference implements Comparable<Reference> {
+        private String module;
+        private String plan;
+        private String lineNum;
+        private int param;
+        private String value;
+        private String prefix;
+
+        Reference (
+            String module,
+            String plan,
+            String lineNum,
+            int param,
+            String value,
+            String prefix
+        ) {
+            this.module = module;
+            this.plan = plan;
+            this.lineNum = lineNum;
+            this.param = param;
+            this.value = value;
+            this.prefix = prefix;
+        }
+
+        public String getModule() {
+            return module;
+        }
+
+        public String getPlan() {
+            return plan;
+        }
+
+        public String getLineNum() {
+            return lineNum;
+        }
+
+        public int getParam() {
+            return param;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * <p>
+         * Returns the parameter value with the module file name replaced, keeping the form of the path before it
+         * (module home variable or full path.)
+         * </p>
+         *
+         * @param  name  The new module path relative to the modules folder, without the ".xml" suffix.
+         * @return       The new parameter value.
+         */
+        public String getRenamedValue (String name) {
+            return prefix + name + ".xml";
+        }
+
+        public int compareTo (Reference o) {
+            int c = plan.compareTo (o.plan);
+
+            if (c == 0)
+                c = Integer.parseInt (lineNum) - Integer.parseInt (o.lineNum);
+
+            return (c != 0) ? c : param - o.param;
+        }
+    }
+
+    // the size and last modified time a plan was parsed at and the references found in it.
+    //
+    private static class Plan {
+        long lastModified;
+        long length;
+        List<Reference> references = new ArrayList<Reference>();
+
+        Plan (
+            long lastModified,
+            long length
+        ) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -4,11 +4,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
-import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.shared.EnvironmentVariable;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DeploymentProfileResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -26,6 +28,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.io.FileUtils;
 
@@ -114,12 +117,17 @@ public class DeploymentProfilesDAO {
             return null;
         }
         
+        Lock lock = FileLocks.getInstance().readLock (path);
+
         log.debug ("getById: Opening input stream and reading properties.");
+        lock.lock();
         try {
             p.load (new FileInputStream (f));
         } catch (Exception e) { 
             log.error ("Error retrieving file \"" + path + "\": " + e.getMessage());
             return null;
+        } finally {
+            lock.unlock();
         }
 
         log.debug ("getById: Extracting known properties.");
@@ -209,14 +217,18 @@ public class DeploymentProfilesDAO {
      * Updates a {@link DeploymentProfile} properties file and writes it to disk. Attempts to preserve any comments.
      * </p>
      * 
-     * @param  dp  The {@link DeploymentProfile} object to update.
-     * @return     A {@link ResultMessage} object containing the results of the edit request.
-     * @see        DeploymentProfileResource
+     * @param  dp       The {@link DeploymentProfile} object to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A {@link ResultMessage} object containing the results of the edit request.
+     * @see             DeploymentProfileResource
      */
-    public ResultMessage edit (DeploymentProfile dp) {
+    public ResultMessage edit (
+        DeploymentProfile dp,
+        String version
+    ) {
         File f;
         File ft = new File (FilesDAO.getPdtHome() + "/" + FilesDAO.fileTypeProperties.get (FilesDAO.FILE_TYPE_DEPLOY_CONFIG).getTemplate());
-        File fTemp = new File (FilesDAO.getPdtHome() + "/gui/temp.txt");
+        File fTemp;
         BufferedReader br = null;
         BufferedWriter bw = null;
         Matcher m = null;
@@ -249,398 +261,404 @@ public class DeploymentProfilesDAO {
             return new ResultMessage ("error", "Error retrieving file \"" + ft.getPath() + "\": file is not readable.", null);
         }
         
+        Lock lock = FileLocks.getInstance().writeLock (dp.getPath());
+
+        lock.lock();
         try {
-            String line;
-            int lineNum = 0;
-            boolean inCustomVarsSection = false;
-            int numSeparators = 0; // keep track of the number of "#====" lines after encountering the custom variable section. the second one indicates the end of the section.
-            Map<String, String> writtenCustomVars = new HashMap<String, String>();
-            
-            // if user preferences indicate to save backups of edited files, rename the original file.
+            // the profile may have been changed since the client read it.
             //
-            if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-                File fb = new File (dp.getPath() + ".bak");
-                
-                log.debug ("Copying \"" + f.getAbsolutePath() + "\" to \"" + fb.getAbsolutePath() + "\".");
-                
-                // windows doesn't let you copy a file to an existing file's name
-                //
-                if (fb.exists() && fb.canWrite())
-                    FileUtils.deleteQuietly (fb);
-    
-                FileUtils.copyFile (f, fb);
+            if (! ConditionalWrite.isCurrent (dp.getPath(), version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Error updating file \"" + dp.getPath() + "\": file was changed by another request. Reload it and try again.", null);
             }
+
+            try {
+                String line;
+                int lineNum = 0;
+                boolean inCustomVarsSection = false;
+                int numSeparators = 0; // keep track of the number of "#====" lines after encountering the custom variable section. the second one indicates the end of the section.
+                Map<String, String> writtenCustomVars = new HashMap<String, String>();
+            
+                // if user preferences indicate to save backups of edited files, back up the original file.
+                //
+                BackupStore.getInstance().backup (f);
     
-            log.debug ("Opening \"" + ft.getAbsolutePath() + "\" for reading.");
-            br = new BufferedReader (new FileReader (ft));
+                log.debug ("Opening \"" + ft.getAbsolutePath() + "\" for reading.");
+                br = new BufferedReader (new FileReader (ft));
 
-            //log.debug ("Opening \"" + f.getAbsolutePath() + "\" for writing.");
-            //bw = new BufferedWriter (new FileWriter (f, false));
+                //log.debug ("Opening \"" + f.getAbsolutePath() + "\" for writing.");
+                //bw = new BufferedWriter (new FileWriter (f, false));
             
-            // no idea why, but the BufferedWriter.close() method isn't releasing the file resource in this method
-            // on Windows (works fine in the DocumentPlansDAO, though.) The JDK can write to it but can't rename or 
-            // delete it. using a dummy file for now (shouldn't run into race condition issues as there should only
-            // be a single user using the application at a time.)
-            //
-            log.debug ("Opening temp file for writing.");
-            bw = new BufferedWriter (new FileWriter (fTemp, false));
+                // no idea why, but the BufferedWriter.close() method isn't releasing the file resource in this method
+                // on Windows (works fine in the DocumentPlansDAO, though.) The JDK can write to it but can't rename or 
+                // delete it. using a dummy file for now (each edit gets its own so that profiles can be edited at the
+                // same time.)
+                //
+                log.debug ("Opening temp file for writing.");
+                fTemp = File.createTempFile ("profile", ".tmp", new File (FilesDAO.getPdtHome() + "/gui"));
+                bw = new BufferedWriter (new FileWriter (fTemp, false));
             
-            while ((line = br.readLine()) != null) {
-                lineNum++;
+                while ((line = br.readLine()) != null) {
+                    lineNum++;
                 
-                if (! line.startsWith("#") && ! line.matches("\\s+")) {
-                    String varName = null;
+                    if (! line.startsWith("#") && ! line.matches("\\s+")) {
+                        String varName = null;
                 
-                    // extract the variable name out of the line.
-                    //
-                    m = variableNameREPattern.matcher (line);
-                    if (m.find()) {
-                        varName = m.group();
-                    }
+                        // extract the variable name out of the line.
+                        //
+                        m = variableNameREPattern.matcher (line);
+                        if (m.find()) {
+                            varName = m.group();
+                        }
                     
-                    // if the beginning part of the line didn't look like a variable, skip it.
-                    //
-                    if (varName == null) {
-                        log.debug ("unrecognized line in \"" + dp.getPath() + "\" line number " + lineNum + ": " + line);
-                        continue;
-                    }
-                    log.debug ("Found variable \"" + varName + "\".");
+                        // if the beginning part of the line didn't look like a variable, skip it.
+                        //
+                        if (varName == null) {
+                            log.debug ("unrecognized line in \"" + dp.getPath() + "\" line number " + lineNum + ": " + line);
+                            continue;
+                        }
+                        log.debug ("Found variable \"" + varName + "\".");
 
-                    if (inCustomVarsSection) {
-                        log.debug ("Matching variable \"" + varName + "\" to known custom variables.");
+                        if (inCustomVarsSection) {
+                            log.debug ("Matching variable \"" + varName + "\" to known custom variables.");
 
-                        if (dp.getEnvVars() != null) {
+                            if (dp.getEnvVars() != null) {
                             
-                            // see if this is an existing environment variable. if not in the envVars list then it's being
-                            // deleted and shouldn't be written out.
-                            //
-                            for (Iterator<EnvironmentVariable> i = dp.getEnvVars().iterator(); i.hasNext(); ) {
-                                EnvironmentVariable ev = i.next();
+                                // see if this is an existing environment variable. if not in the envVars list then it's being
+                                // deleted and shouldn't be written out.
+                                //
+                                for (Iterator<EnvironmentVariable> i = dp.getEnvVars().iterator(); i.hasNext(); ) {
+                                    EnvironmentVariable ev = i.next();
                                 
-                                if (varName.equals(ev.getVariable())) {
-                                    log.debug ("Setting custom variable \"" + varName + "\" to \"" + ev.getValue() + "\".");
-                                    bw.write (ev.getVariable() + "=" + ev.getValue());
-                                    bw.newLine();
+                                    if (varName.equals(ev.getVariable())) {
+                                        log.debug ("Setting custom variable \"" + varName + "\" to \"" + ev.getValue() + "\".");
+                                        bw.write (ev.getVariable() + "=" + ev.getValue());
+                                        bw.newLine();
                                     
-                                    writtenCustomVars.put (ev.getVariable(), "true"); // keep track of custom variables written out already.
+                                        writtenCustomVars.put (ev.getVariable(), "true"); // keep track of custom variables written out already.
                                     
-                                    break;
+                                        break;
+                                    }
                                 }
                             }
-                        }
-                    } else { // (! inCustomVarsSection)
-                        String outValue = null;
+                        } else { // (! inCustomVarsSection)
+                            String outValue = null;
                         
-                        log.debug ("Matching variable \"" + varName + "\" to known PDTool variables.");
+                            log.debug ("Matching variable \"" + varName + "\" to known PDTool variables.");
 
-                        if (varName.equals ("SUPPRESS_COMMENTS")) {
-                            outValue = "" + dp.isSuppressComments();
-                        }
+                            if (varName.equals ("SUPPRESS_COMMENTS")) {
+                                outValue = "" + dp.isSuppressComments();
+                            }
                         
-                        if (varName.equals ("DEBUG1")) {
-                            outValue = "" + dp.isDebug1();
-                        }
+                            if (varName.equals ("DEBUG1")) {
+                                outValue = "" + dp.isDebug1();
+                            }
                         
-                        if (varName.equals ("DEBUG2")) {
-                            outValue = "" + dp.isDebug2();
-                        }
+                            if (varName.equals ("DEBUG2")) {
+                                outValue = "" + dp.isDebug2();
+                            }
                         
-                        if (varName.equals ("DEBUG3")) {
-                            outValue = "" + dp.isDebug3();
-                        }
+                            if (varName.equals ("DEBUG3")) {
+                                outValue = "" + dp.isDebug3();
+                            }
                         
-                        if (varName.equals ("DIFFMERGER_VERBOSE")) {
-                            outValue = "" + dp.isDiffmergerVerbose();
-                        }
+                            if (varName.equals ("DIFFMERGER_VERBOSE")) {
+                                outValue = "" + dp.isDiffmergerVerbose();
+                            }
                         
-                        if (varName.equals ("propertyOrderPrecedence")) {
-                            outValue = dp.getPropertyOrderPrecedence();
-                        }
+                            if (varName.equals ("propertyOrderPrecedence")) {
+                                outValue = dp.getPropertyOrderPrecedence();
+                            }
                         
-                        if (varName.equals ("allResourcesIndicator")) {
-                            outValue = dp.getAllResourcesIndicator();
-                        }
+                            if (varName.equals ("allResourcesIndicator")) {
+                                outValue = dp.getAllResourcesIndicator();
+                            }
                         
-                        if (varName.equals ("exculdeResourcesIndiator")) {
-                            outValue = dp.getExcludeResourcesIndicator();
-                        }
+                            if (varName.equals ("exculdeResourcesIndiator")) {
+                                outValue = dp.getExcludeResourcesIndicator();
+                            }
                         
-                        if (varName.equals ("userOptionThreshold")) {
-                            outValue = "" + dp.getUserOptionThreshold();
-                        }
+                            if (varName.equals ("userOptionThreshold")) {
+                                outValue = "" + dp.getUserOptionThreshold();
+                            }
                         
-                        if (varName.equals ("DataSourceModule_NonUpdateableAttributes")) {
-                            outValue = dp.getDataSourceModuleNonUpdateableAttributes();
-                        }
+                            if (varName.equals ("DataSourceModule_NonUpdateableAttributes")) {
+                                outValue = dp.getDataSourceModuleNonUpdateableAttributes();
+                            }
                         
-                        if (varName.equals ("ServerAttributeModule_NonUpdateableAttributes")) {
-                            outValue = dp.getServerAttributeModuleNonUpdateableAttributes();
-                        }
+                            if (varName.equals ("ServerAttributeModule_NonUpdateableAttributes")) {
+                                outValue = dp.getServerAttributeModuleNonUpdateableAttributes();
+                            }
                         
-                        if (varName.equals ("DomainModule_NonUpdateableAttributes")) {
-                            outValue = dp.getDomainModuleNonUpdateableAttributes();
-                        }
+                            if (varName.equals ("DomainModule_NonUpdateableAttributes")) {
+                                outValue = dp.getDomainModuleNonUpdateableAttributes();
+                            }
                         
-                        if (varName.equals ("VCSModule_ExternalVcsResourceTypeList")) {
-                            outValue = dp.getVcsModuleExternalVcsResourceTypeList();
-                        }
+                            if (varName.equals ("VCSModule_ExternalVcsResourceTypeList")) {
+                                outValue = dp.getVcsModuleExternalVcsResourceTypeList();
+                            }
                         
-                        if (varName.equals ("CIS_PING_SERVER")) {
-                            outValue = "" + dp.isCisPingServer();
-                        }
+                            if (varName.equals ("CIS_PING_SERVER")) {
+                                outValue = "" + dp.isCisPingServer();
+                            }
                         
-                        if (varName.equals ("CIS_CONNECT_RETRY")) {
-                            outValue = "" + dp.getCisConnectRetry();
-                        }
+                            if (varName.equals ("CIS_CONNECT_RETRY")) {
+                                outValue = "" + dp.getCisConnectRetry();
+                            }
                         
-                        if (varName.equals ("CIS_CONNECT_RETRY_SLEEP_MILLIS")) {
-                            outValue = "" + dp.getCisConnectRetrySleepMillis();
-                        }
+                            if (varName.equals ("CIS_CONNECT_RETRY_SLEEP_MILLIS")) {
+                                outValue = "" + dp.getCisConnectRetrySleepMillis();
+                            }
                         
-                        if (varName.equals ("VCS_MULTI_USER_TOPOLOGY")) {
-                            outValue = "" + dp.isVcsMultiUserTopology();
-                        }
+                            if (varName.equals ("VCS_MULTI_USER_TOPOLOGY")) {
+                                outValue = "" + dp.isVcsMultiUserTopology();
+                            }
                         
-                        if (varName.equals ("VCS_TYPE")) {
-                            outValue = dp.getVcsType();
-                        }
+                            if (varName.equals ("VCS_TYPE")) {
+                                outValue = dp.getVcsType();
+                            }
                         
-                        if (varName.equals ("VCS_BASE_TYPE")) {
-                            outValue = dp.getVcsBaseType();
-                        }
+                            if (varName.equals ("VCS_BASE_TYPE")) {
+                                outValue = dp.getVcsBaseType();
+                            }
                         
-                        if (varName.equals ("VCS_HOME")) {
-                            outValue = dp.getVcsHome();
-                        }
+                            if (varName.equals ("VCS_HOME")) {
+                                outValue = dp.getVcsHome();
+                            }
                         
-                        if (varName.equals ("VCS_COMMAND")) {
-                            outValue = dp.getVcsCommand();
-                        }
+                            if (varName.equals ("VCS_COMMAND")) {
+                                outValue = dp.getVcsCommand();
+                            }
                         
-                        if (varName.equals ("VCS_EXEC_FULL_PATH")) {
-                            outValue = "" + dp.isVcsExecFullPath();
-                        }
+                            if (varName.equals ("VCS_EXEC_FULL_PATH")) {
+                                outValue = "" + dp.isVcsExecFullPath();
+                            }
                         
-                        if (varName.equals ("VCS_OPTIONS")) {
-                            outValue = dp.getVcsOptions();
-                        }
+                            if (varName.equals ("VCS_OPTIONS")) {
+                                outValue = dp.getVcsOptions();
+                            }
                         
-                        if (varName.equals ("VCS_WORKSPACE_INIT_NEW_OPTIONS")) {
-                            outValue = dp.getVcsWorkspaceInitNewOptions();
-                        }
+                            if (varName.equals ("VCS_WORKSPACE_INIT_NEW_OPTIONS")) {
+                                outValue = dp.getVcsWorkspaceInitNewOptions();
+                            }
                         
-                        if (varName.equals ("VCS_WORKSPACE_INIT_LINK_OPTIONS")) {
-                            outValue = dp.getVcsWorkspaceInitLinkOptions();
-                        }
+                            if (varName.equals ("VCS_WORKSPACE_INIT_LINK_OPTIONS")) {
+                                outValue = dp.getVcsWorkspaceInitLinkOptions();
+                            }
                         
-                        if (varName.equals ("VCS_WORKSPACE_INIT_GET_OPTIONS")) {
-                            outValue = dp.getVcsWorkspaceInitGetOptions();
-                        }
+                            if (varName.equals ("VCS_WORKSPACE_INIT_GET_OPTIONS")) {
+                                outValue = dp.getVcsWorkspaceInitGetOptions();
+                            }
                         
-                        if (varName.equals ("VCS_BASE_FOLDER_INIT_ADD")) {
-                            outValue = dp.getVcsBaseFolderInitAdd();
-                        }
+                            if (varName.equals ("VCS_BASE_FOLDER_INIT_ADD")) {
+                                outValue = dp.getVcsBaseFolderInitAdd();
+                            }
                         
-                        if (varName.equals ("VCS_CHECKIN_OPTIONS")) {
-                            outValue = dp.getVcsCheckinOptions();
-                        }
+                            if (varName.equals ("VCS_CHECKIN_OPTIONS")) {
+                                outValue = dp.getVcsCheckinOptions();
+                            }
                         
-                        if (varName.equals ("VCS_CHECKIN_OPTIONS_REQUIRED")) {
-                            outValue = dp.getVcsCheckinOptionsRequired();
-                        }
+                            if (varName.equals ("VCS_CHECKIN_OPTIONS_REQUIRED")) {
+                                outValue = dp.getVcsCheckinOptionsRequired();
+                            }
                         
-                        if (varName.equals ("VCS_CHECKOUT_OPTIONS")) {
-                            outValue = dp.getVcsCheckoutOptions();
-                        }
+                            if (varName.equals ("VCS_CHECKOUT_OPTIONS")) {
+                                outValue = dp.getVcsCheckoutOptions();
+                            }
                         
-                        if (varName.equals ("VCS_CHECKOUT_OPTIONS_REQUIRED")) {
-                            outValue = dp.getVcsCheckoutOptionsRequired();
-                        }
+                            if (varName.equals ("VCS_CHECKOUT_OPTIONS_REQUIRED")) {
+                                outValue = dp.getVcsCheckoutOptionsRequired();
+                            }
                         
-                        if (varName.equals ("VCS_CIS_IMPORT_OPTIONS")) {
-                            outValue = dp.getVcsCisImportOptions();
-                        }
+                            if (varName.equals ("VCS_CIS_IMPORT_OPTIONS")) {
+                                outValue = dp.getVcsCisImportOptions();
+                            }
                         
-                        if (varName.equals ("VCS_CIS_EXPORT_OPTIONS")) {
-                            outValue = dp.getVcsCisExportOptions();
-                        }
+                            if (varName.equals ("VCS_CIS_EXPORT_OPTIONS")) {
+                                outValue = dp.getVcsCisExportOptions();
+                            }
                         
-                        if (varName.equals ("VCS_REPOSITORY_URL")) {
-                            outValue = dp.getVcsRepositoryUrl();
-                        }
+                            if (varName.equals ("VCS_REPOSITORY_URL")) {
+                                outValue = dp.getVcsRepositoryUrl();
+                            }
                         
-                        if (varName.equals ("VCS_PROJECT_ROOT")) {
-                            outValue = dp.getVcsProjectRoot();
-                        }
+                            if (varName.equals ("VCS_PROJECT_ROOT")) {
+                                outValue = dp.getVcsProjectRoot();
+                            }
                         
-                        if (varName.equals ("VCS_WORKSPACE_HOME")) {
-                            outValue = dp.getVcsWorkspaceHome();
-                        }
+                            if (varName.equals ("VCS_WORKSPACE_HOME")) {
+                                outValue = dp.getVcsWorkspaceHome();
+                            }
                         
-                        if (varName.equals ("VCS_WORKSPACE_NAME")) {
-                            outValue = dp.getVcsWorkspaceName();
-                        }
+                            if (varName.equals ("VCS_WORKSPACE_NAME")) {
+                                outValue = dp.getVcsWorkspaceName();
+                            }
                         
-                        if (varName.equals ("VCS_WORKSPACE_DIR")) {
-                            outValue = dp.getVcsWorkspaceDir();
-                        }
+                            if (varName.equals ("VCS_WORKSPACE_DIR")) {
+                                outValue = dp.getVcsWorkspaceDir();
+                            }
                         
-                        if (varName.equals ("VCS_TEMP_DIR")) {
-                            outValue = dp.getVcsTempDir();
-                        }
+                            if (varName.equals ("VCS_TEMP_DIR")) {
+                                outValue = dp.getVcsTempDir();
+                            }
                         
-                        if (varName.equals ("VCS_USERNAME")) {
-                            outValue = dp.getVcsUsername();
-                        }
+                            if (varName.equals ("VCS_USERNAME")) {
+                                outValue = dp.getVcsUsername();
+                            }
                         
-                        if (varName.equals ("VCS_PASSWORD")) {
-                            outValue = dp.getVcsPassword();
-                        }
+                            if (varName.equals ("VCS_PASSWORD")) {
+                                outValue = dp.getVcsPassword();
+                            }
                         
-                        if (varName.equals ("VCS_IGNORE_MESSAGES")) {
-                            outValue = dp.getVcsIgnoreMessages();
-                        }
+                            if (varName.equals ("VCS_IGNORE_MESSAGES")) {
+                                outValue = dp.getVcsIgnoreMessages();
+                            }
                         
-                        if (varName.equals ("VCS_MESSAGE_PREPEND")) {
-                            outValue = dp.getVcsMessagePrepend();
-                        }
+                            if (varName.equals ("VCS_MESSAGE_PREPEND")) {
+                                outValue = dp.getVcsMessagePrepend();
+                            }
                         
-                        if (varName.equals ("SVN_EDITOR")) {
-                            outValue = dp.getSvnEditor();
-                        }
+                            if (varName.equals ("SVN_EDITOR")) {
+                                outValue = dp.getSvnEditor();
+                            }
                         
-                        if (varName.equals ("SVN_ENV")) {
-                            outValue = dp.getSvnEnv();
-                        }
+                            if (varName.equals ("SVN_ENV")) {
+                                outValue = dp.getSvnEnv();
+                            }
                         
-                        if (varName.equals ("P4EDITOR")) {
-                            outValue = dp.getP4Editor();
-                        }
+                            if (varName.equals ("P4EDITOR")) {
+                                outValue = dp.getP4Editor();
+                            }
                         
-                        if (varName.equals ("P4CLIENT")) {
-                            outValue = dp.getP4Client();
-                        }
+                            if (varName.equals ("P4CLIENT")) {
+                                outValue = dp.getP4Client();
+                            }
                         
-                        if (varName.equals ("P4PORT")) {
-                            outValue = dp.getP4Port();
-                        }
+                            if (varName.equals ("P4PORT")) {
+                                outValue = dp.getP4Port();
+                            }
                         
-                        if (varName.equals ("P4USER")) {
-                            outValue = dp.getP4User();
-                        }
+                            if (varName.equals ("P4USER")) {
+                                outValue = dp.getP4User();
+                            }
                         
-                        if (varName.equals ("P4PASSWD")) {
-                            outValue = dp.getP4Passwd();
-                        }
+                            if (varName.equals ("P4PASSWD")) {
+                                outValue = dp.getP4Passwd();
+                            }
                         
-                        if (varName.equals ("P4_ENV")) {
-                            outValue = dp.getP4Env();
-                        }
+                            if (varName.equals ("P4_ENV")) {
+                                outValue = dp.getP4Env();
+                            }
                         
-                        if (varName.equals ("P4DEL_LINK_OPTIONS")) {
-                            outValue = dp.getP4DelLinkOptions();
-                        }
+                            if (varName.equals ("P4DEL_LINK_OPTIONS")) {
+                                outValue = dp.getP4DelLinkOptions();
+                            }
                         
-                        if (varName.equals ("CVSROOT")) {
-                            outValue = dp.getCvsRoot();
-                        }
+                            if (varName.equals ("CVSROOT")) {
+                                outValue = dp.getCvsRoot();
+                            }
                         
-                        if (varName.equals ("CVS_RSH")) {
-                            outValue = dp.getCvsRsh();
-                        }
+                            if (varName.equals ("CVS_RSH")) {
+                                outValue = dp.getCvsRsh();
+                            }
                         
-                        if (varName.equals ("CVS_ENV")) {
-                            outValue = dp.getCvsEnv();
-                        }
+                            if (varName.equals ("CVS_ENV")) {
+                                outValue = dp.getCvsEnv();
+                            }
                         
-                        if (varName.equals ("TFS_EDITOR")) {
-                            outValue = dp.getTfsEditor();
-                        }
+                            if (varName.equals ("TFS_EDITOR")) {
+                                outValue = dp.getTfsEditor();
+                            }
                         
-                        if (varName.equals ("TFS_ENV")) {
-                            outValue = dp.getTfsEnv();
-                        }
+                            if (varName.equals ("TFS_ENV")) {
+                                outValue = dp.getTfsEnv();
+                            }
                         
-                        if (varName.equals ("TFS_CHECKIN_OPTIONS")) {
-                            outValue = dp.getTfsCheckinOptions();
-                        }
+                            if (varName.equals ("TFS_CHECKIN_OPTIONS")) {
+                                outValue = dp.getTfsCheckinOptions();
+                            }
                         
-                        if (varName.equals ("TFS_SERVER_URL")) {
-                            outValue = dp.getTfsServerUrl();
-                        }
+                            if (varName.equals ("TFS_SERVER_URL")) {
+                                outValue = dp.getTfsServerUrl();
+                            }
                         
-                        // these variables do not change so overriding possible user changes
-                        //
-                        if (varName.equals ("MODULE_HOME") || varName.equals ("SUMMARY_LOG") || varName.equals ("SCHEMA_LOCATION") || varName.equals ("nonRebindableResourceSubTypeList")) {
-                            log.debug ("Setting PDTool variable \"" + varName + "\" to default value.");
+                            // these variables do not change so overriding possible user changes
+                            //
+                            if (varName.equals ("MODULE_HOME") || varName.equals ("SUMMARY_LOG") || varName.equals ("SCHEMA_LOCATION") || varName.equals ("nonRebindableResourceSubTypeList")) {
+                                log.debug ("Setting PDTool variable \"" + varName + "\" to default value.");
 
-                            bw.write (line);
-                        } else {
-                            log.debug ("Setting PDTool variable \"" + varName + "\" to \"" + outValue + "\".");
+                                bw.write (line);
+                            } else {
+                                log.debug ("Setting PDTool variable \"" + varName + "\" to \"" + outValue + "\".");
 
-                            bw.write (varName + "=" + outValue);
-                        }
+                                bw.write (varName + "=" + outValue);
+                            }
 
-                        bw.newLine();
-                    }
+                            bw.newLine();
+                        }
                     
-                } else { // (line.startsWith("#") || line.matches("\\s+"))
+                    } else { // (line.startsWith("#") || line.matches("\\s+"))
 
-                    if (line.matches ("^.*Customer-defined Environment Variables.*$"))
-                        inCustomVarsSection = true;
+                        if (line.matches ("^.*Customer-defined Environment Variables.*$"))
+                            inCustomVarsSection = true;
                     
-                    if (inCustomVarsSection && line.matches ("^#===================.*$")) {
-                        numSeparators++;
+                        if (inCustomVarsSection && line.matches ("^#===================.*$")) {
+                            numSeparators++;
                         
-                        if (numSeparators == 2) {
-                            inCustomVarsSection = false;
+                            if (numSeparators == 2) {
+                                inCustomVarsSection = false;
                         
-                            // write out any new custom vars that haven't already been written.
-                            //
-                            for (Iterator<EnvironmentVariable> i = dp.getEnvVars().iterator(); i.hasNext(); ) {
-                                EnvironmentVariable ev = i.next();
+                                // write out any new custom vars that haven't already been written.
+                                //
+                                for (Iterator<EnvironmentVariable> i = dp.getEnvVars().iterator(); i.hasNext(); ) {
+                                    EnvironmentVariable ev = i.next();
                                 
-                                if (writtenCustomVars.get (ev.getVariable()) == null) {
-                                    log.debug ("Setting new custom variable \"" + ev.getVariable() + "\" to \"" + ev.getValue() + "\".");
-                                    bw.write (ev.getVariable() + "=" + ev.getValue());
-                                    bw.newLine();
+                                    if (writtenCustomVars.get (ev.getVariable()) == null) {
+                                        log.debug ("Setting new custom variable \"" + ev.getVariable() + "\" to \"" + ev.getValue() + "\".");
+                                        bw.write (ev.getVariable() + "=" + ev.getValue());
+                                        bw.newLine();
+                                    }
                                 }
                             }
                         }
-                    }
                     
-                    bw.write (line);
-                    bw.newLine();
-                }
+                        bw.write (line);
+                        bw.newLine();
+                    }
                 
-            }
+                }
             
-            bw.flush();
+                bw.flush();
             
-        } catch (Exception e) {
-            return new ResultMessage ("error", "Error: " + e.getMessage(), null);
-        } finally {
-            try {
-                if (bw != null) bw.close();
-            } catch (Exception e2) {
-                return new ResultMessage ("error", "Error closing file \"" + dp.getPath() + "\": " + e2.getMessage(), null);
-            }
+            } catch (Exception e) {
+                return new ResultMessage ("error", "Error: " + e.getMessage(), null);
+            } finally {
+                try {
+                    if (bw != null) bw.close();
+                } catch (Exception e2) {
+                    return new ResultMessage ("error", "Error closing file \"" + dp.getPath() + "\": " + e2.getMessage(), null);
+                }
 
-            try {
-                if (br != null) br.close();
-            } catch (Exception e2) {
-                return new ResultMessage ("error", "Error closing properties file \"" + dp.getPath() + "\": " + e2.getMessage(), null);
-            }
+                try {
+                    if (br != null) br.close();
+                } catch (Exception e2) {
+                    return new ResultMessage ("error", "Error closing properties file \"" + dp.getPath() + "\": " + e2.getMessage(), null);
+                }
 
-        }
+            }
         
-        // copy resulting temp file to file specified by user
-        //
-        try {
-            FileUtils.deleteQuietly (f);
-            FileUtils.copyFile (fTemp, f);
-        } catch (Exception e) {
-        	return new ResultMessage ("error", "Error copying temporary file to \"" + dp.getPath() + "\": " + e.getMessage(), null);
+            // copy resulting temp file to file specified by user
+            //
+            try {
+                FileLocks.getInstance().changed (dp.getPath());
+                FileUtils.deleteQuietly (f);
+                FileUtils.copyFile (fTemp, f);
+            } catch (Exception e) {
+            	return new ResultMessage ("error", "Error copying temporary file to \"" + dp.getPath() + "\": " + e.getMessage(), null);
+            } finally {
+                FileUtils.deleteQuietly (fTemp);
+            }
+        } finally {
+            lock.unlock();
         }
 
         
@@ -6,14 +6,15 @@ package com.cisco.dvbu.ps.deploytool.gui.core.config.prefs;
 
 import com.cisco.dvbu.ps.deploytool.gui.PDToolGUIConfiguration;
 
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.StringReader;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -99,22 +100,19 @@ public class PreferencesManager {
         }
         
         try {
-            File fb = new File (ymlPath + ".bak");
             String line;
             int lineNum = 0;
             
-            log.debug ("Copying \"" + f.getAbsolutePath() + "\" to \"" + fb.getAbsolutePath() + "\".");
-            
-            // windows doesn't let you copy a file to an existing file's name
+            // read the original contents before the file is overwritten and, if user preferences indicate to save
+            // backups of edited files, back it up.
             //
-            if (fb.exists() && fb.canWrite())
-                FileUtils.deleteQuietly (fb);
+            String original = FileUtils.readFileToString (f);
 
-            FileUtils.copyFile (f, fb);
+            BackupStore.getInstance().backup (f);
     
-            // open the source file for reading
+            // open the original contents for reading
             //
-            br = new BufferedReader (new FileReader (fb));
+            br = new BufferedReader (new StringReader (original));
             bw = new BufferedWriter (new FileWriter (f, false));
             
             while ((line = br.readLine()) != null) {
@@ -161,13 +159,6 @@ public class PreferencesManager {
             
             bw.flush();
 
-            // if user preferences indicate not to save backups of edited files, ditch the backup.
-            //
-            if (PreferencesManager.getInstance().getBackupFiles().equals ("false")) {
-                if (fb.exists() && fb.canWrite())
-                    FileUtils.deleteQuietly (fb);
-            }
-
         } catch (Exception e) {
             return new ResultMessage ("error", "Error: " + e.getMessage(), null);
         } finally {
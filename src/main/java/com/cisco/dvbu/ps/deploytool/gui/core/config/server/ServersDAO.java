@@ -4,7 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.config.server;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
-import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 
@@ -12,18 +12,17 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.XMLOutputter;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,9 +31,12 @@ import com.cisco.dvbu.ps.deploytool.gui.resources.ServerListResource;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 /**
  * <p>
@@ -99,7 +101,7 @@ public class ServersDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
@@ -135,6 +137,7 @@ public class ServersDAO {
             resultList = ListUtils.applySearchRules (
                              resultList, 
                              listColumnsInfo, 
+                             filters, 
                              searchField, 
                              searchString, 
                              searchOper
@@ -143,14 +146,7 @@ public class ServersDAO {
         
         // apply sorting to the servers list
         //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
-        }
+        resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, false).sort (resultList);
         
         return ListUtils.getListResult (
                    resultList, 
@@ -180,39 +176,56 @@ public class ServersDAO {
      * Adds a {@link Server} object to the servers list and writes the new servers list to disk.
      * </p>
      * 
-     * @param  server  The {@link Server} object to add.
-     * @return         A {@link ResultMessage} object containing the results of the add request.
-     * @see            ServerResource
+     * @param  server   The {@link Server} object to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A {@link ResultMessage} object containing the results of the add request.
+     * @see             ServerResource
      */
-    public ResultMessage add (Server server) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+    public ResultMessage add (
+        Server server,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (getServersXmlPath());
 
-        // make sure we have the latest version of the servers.xml file
-        //
-        getServers();
+        lock.lock();
+        try {
+            // the servers list may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (getServersXmlPath(), version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Error: servers list, " + getServersXmlPath() + ", was changed by another request. Reload it and try again.", null);
+            }
+
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+
+            // make sure we have the latest version of the servers.xml file
+            //
+            getServers();
         
-        // sanity check the inputs for an "add" operation
-        //
-        msgList = validate (server, DAOConstants.OPERATION_ADD);
+            // sanity check the inputs for an "add" operation
+            //
+            msgList = validate (server, DAOConstants.OPERATION_ADD);
 
-        if (msgList.size() == 0) {
-            serversDoc.getRootElement().addContent ("  ");
-            serversDoc.getRootElement().addContent (createServerElement (server));
-            serversDoc.getRootElement().addContent ("\n");
+            if (msgList.size() == 0) {
+                serversDoc.getRootElement().addContent ("  ");
+                serversDoc.getRootElement().addContent (createServerElement (server));
+                serversDoc.getRootElement().addContent ("\n");
             
-            try {
-                serialize();
-                result = new ResultMessage ("success", "Created server " + server.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing servers XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+                try {
+                    serialize();
+                    result = new ResultMessage ("success", "Created server " + server.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing servers XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -220,47 +233,64 @@ public class ServersDAO {
      * Updates a {@link Server} object in the servers list and writes the updated servers list to disk.
      * </p>
      * 
-     * @param  server  The {@link Server} object to update.
-     * @return         A {@link ResultMessage} object containing the results of the edit request.
-     * @see            ServerResource
+     * @param  server   The {@link Server} object to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A {@link ResultMessage} object containing the results of the edit request.
+     * @see             ServerResource
      */
-    public ResultMessage edit (Server server) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+    public ResultMessage edit (
+        Server server,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (getServersXmlPath());
 
-        // make sure we have the latest version of the servers.xml file
-        //
-        getServers();
-        
-        // sanity check the inputs for an "edit" operation
-        //
-        msgList = validate (server, DAOConstants.OPERATION_EDIT);
+        lock.lock();
+        try {
+            // the servers list may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (getServersXmlPath(), version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Error: servers list, " + getServersXmlPath() + ", was changed by another request. Reload it and try again.", null);
+            }
 
-        if (msgList.size() == 0) {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
 
-            // get rid of the old server element
+            // make sure we have the latest version of the servers.xml file
             //
-            Element oldServer = getServerElement (server.getOrigid());
-            serversDoc.getRootElement().removeContent (oldServer);
-            
-            // replace the new server element
+            getServers();
+        
+            // sanity check the inputs for an "edit" operation
             //
-            serversDoc.getRootElement().addContent ("  ");
-            serversDoc.getRootElement().addContent (createServerElement (server));
-            serversDoc.getRootElement().addContent ("\n");
+            msgList = validate (server, DAOConstants.OPERATION_EDIT);
+
+            if (msgList.size() == 0) {
+
+                // get rid of the old server element
+                //
+                Element oldServer = getServerElement (server.getOrigid());
+                serversDoc.getRootElement().removeContent (oldServer);
             
-            try {
-                serialize();
-                result = new ResultMessage ("success", "Updated server " + server.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing servers XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+                // replace the new server element
+                //
+                serversDoc.getRootElement().addContent ("  ");
+                serversDoc.getRootElement().addContent (createServerElement (server));
+                serversDoc.getRootElement().addContent ("\n");
+            
+                try {
+                    serialize();
+                    result = new ResultMessage ("success", "Updated server " + server.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing servers XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -268,86 +298,103 @@ public class ServersDAO {
      * Copies a list of {@link Server} objects in the servers list and writes the updated servers list to disk.
      * </p>
      * 
-     * @param  ids A comma separated list of server IDs to copy.
-     * @return     A {@link ResultMessage} object containing the results of the copy request.
-     * @see        ServerResource
+     * @param  ids      A comma separated list of server IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A {@link ResultMessage} object containing the results of the copy request.
+     * @see             ServerResource
      */
-    public ResultMessage copy (String ids) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneServerCopied = false;
-        ResultMessage result;
+    public ResultMessage copy (
+        String ids,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (getServersXmlPath());
+
+        lock.lock();
+        try {
+            // the servers list may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (getServersXmlPath(), version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Error: servers list, " + getServersXmlPath() + ", was changed by another request. Reload it and try again.", null);
+            }
+
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneServerCopied = false;
+            ResultMessage result;
         
-        // make sure we have the latest version of the servers.xml file
-        //
-        getServers();
+            // make sure we have the latest version of the servers.xml file
+            //
+            getServers();
         
-        // iterate over all the input server ids
-        //
-        String[] idArray = ids.split (",");
-        for (int i = 0; i < idArray.length; i++) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Server s = new Server();
-            s.setId (idArray[i]);
-            
-            // make sure the source server exists.
+            // iterate over all the input server ids
             //
-            tmpMsgList = validate (s, DAOConstants.OPERATION_COPY);
+            String[] idArray = ids.split (",");
+            for (int i = 0; i < idArray.length; i++) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Server s = new Server();
+                s.setId (idArray[i]);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // make sure the source server exists.
+                //
+                tmpMsgList = validate (s, DAOConstants.OPERATION_COPY);
+            
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                atLeastOneServerCopied = true;
-                Server ns = null;
+                    atLeastOneServerCopied = true;
+                    Server ns = null;
                 
-                try {
-                   ns = findById (s.getId());
-                } catch (Exception e) {
-                    log.error ("error encoding server id \"" + s.getId() + "\" for lookup of server to copy.");
-                }
+                    try {
+                       ns = findById (s.getId());
+                    } catch (Exception e) {
+                        log.error ("error encoding server id \"" + s.getId() + "\" for lookup of server to copy.");
+                    }
                 
-                if (ns == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate server id \"" + s.getId() + "\"."));
-                    continue;
-                }
+                    if (ns == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate server id \"" + s.getId() + "\"."));
+                        continue;
+                    }
                 
-                // generate a new server id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = s.getId() + "_copy" + ((j == 0) ? "" : j);
+                    // generate a new server id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    int j = 0;
+                    do {
+                        String newId = s.getId() + "_copy" + ((j == 0) ? "" : j);
                     
-                    ns.setId (newId);
+                        ns.setId (newId);
 
-                    j++;
-                } while (validate (ns, DAOConstants.OPERATION_COPY).size() == 0);
+                        j++;
+                    } while (validate (ns, DAOConstants.OPERATION_COPY).size() == 0);
     
-                // add the copy of the server element
-                //
-                serversDoc.getRootElement().addContent ("  ");
-                serversDoc.getRootElement().addContent (createServerElement (ns));
-                serversDoc.getRootElement().addContent ("\n");
+                    // add the copy of the server element
+                    //
+                    serversDoc.getRootElement().addContent ("  ");
+                    serversDoc.getRootElement().addContent (createServerElement (ns));
+                    serversDoc.getRootElement().addContent ("\n");
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server ID \"" + s.getId() + "\" copied to \"" + ns.getId() + "\"."));
-            }
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server ID \"" + s.getId() + "\" copied to \"" + ns.getId() + "\"."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneServerCopied) {
-            try {
-                serialize();
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing servers XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+            if (atLeastOneServerCopied) {
+                try {
+                    serialize();
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing servers XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -355,60 +402,90 @@ public class ServersDAO {
      * Deletes a list of {@link Server} objects in the servers list and writes the updated servers list to disk.
      * </p>
      * 
-     * @param  ids A comma separated list of server IDs to delete.
-     * @return     A {@link ResultMessage} object containing the results of the delete request.
-     * @see        ServerResource
+     * @param  ids      A comma separated list of server IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A {@link ResultMessage} object containing the results of the delete request.
+     * @see             ServerResource
      */
-    public ResultMessage delete (String ids) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneServerDeleted = false;
-        ResultMessage result;
+    public ResultMessage delete (
+        String ids,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (getServersXmlPath());
+
+        lock.lock();
+        try {
+            // the servers list may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (getServersXmlPath(), version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Error: servers list, " + getServersXmlPath() + ", was changed by another request. Reload it and try again.", null);
+            }
+
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneServerDeleted = false;
+            ResultMessage result;
         
-        // make sure we have the latest version of the servers.xml file
-        //
-        getServers();
+            // make sure we have the latest version of the servers.xml file
+            //
+            getServers();
         
-        // iterate over all the input server ids
-        //
-        String[] idArray = ids.split (",");
-        for (int i = 0; i < idArray.length; i++) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Server s = new Server();
-            s.setId (idArray[i]);
-            
-            // make sure the server exists.
+            // iterate over all the input server ids
             //
-            tmpMsgList = validate (s, DAOConstants.OPERATION_DELETE);
+            String[] idArray = ids.split (",");
+            for (int i = 0; i < idArray.length; i++) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Server s = new Server();
+                s.setId (idArray[i]);
             
-            // if so, then make sure the server doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneServerDeleted = true;
-                
-                // get rid of the server element
+                // make sure the server exists.
                 //
-                Element serverElement = getServerElement (s.getId());
-                serversDoc.getRootElement().removeContent (serverElement);
+                tmpMsgList = validate (s, DAOConstants.OPERATION_DELETE);
+            
+                // if so, then make sure the server doesn't :)
+                //
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneServerDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server ID \"" + s.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    Element serverElement = getServerElement (s.getId());
+                    serversDoc.getRootElement().removeContent (serverElement);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server ID \"" + s.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneServerDeleted) {
-            try {
-                serialize();
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing servers XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+            if (atLeastOneServerDeleted) {
+                try {
+                    serialize();
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing servers XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing servers XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Returns the location on the filesystem of the servers XML file that the servers list is read from.
+     * </p>
+     *
+     * @return         The path or <code>null</code> if the location of PDTool isn't set.
+     */
+    public static String getServersXmlPath() {
+        String pdtHome = System.getProperty ("apps.install.dir");
 
-        return result;
+        return (pdtHome == null || pdtHome.length() == 0) ? null : pdtHome + "/resources/modules/servers.xml";
     }
     
     /*
@@ -442,64 +519,71 @@ public class ServersDAO {
             return this.servers;
         }
 
+        Lock lock = FileLocks.getInstance().readLock (f.getPath());
+
+        lock.lock();
         try {
-            serversDoc = builder.build (pdtHome + "/resources/modules/servers.xml");
-            Element rootNode = serversDoc.getRootElement();
-            List<Element> list = rootNode.getChildren ("server");
+            try {
+                serversDoc = builder.build (pdtHome + "/resources/modules/servers.xml");
+                Element rootNode = serversDoc.getRootElement();
+                List<Element> list = rootNode.getChildren ("server");
             
-            for (Element node : list) {
-                List<String> tmpCell = new ArrayList<String>();
-                Server tmpServer = new Server();
+                for (Element node : list) {
+                    List<String> tmpCell = new ArrayList<String>();
+                    Server tmpServer = new Server();
             
-                tmpCell.add (node.getChildText ("id"));
-                tmpServer.setId(node.getChildText ("id"));
+                    tmpCell.add (node.getChildText ("id"));
+                    tmpServer.setId(node.getChildText ("id"));
                 
-                tmpCell.add (node.getChildText ("hostname"));
-                tmpServer.setHostname(node.getChildText ("hostname"));
+                    tmpCell.add (node.getChildText ("hostname"));
+                    tmpServer.setHostname(node.getChildText ("hostname"));
                 
-                tmpCell.add (node.getChildText ("port"));
-                tmpServer.setPort(node.getChildText ("port"));
+                    tmpCell.add (node.getChildText ("port"));
+                    tmpServer.setPort(node.getChildText ("port"));
                 
-                tmpCell.add (node.getChildText ("usage"));
-                tmpServer.setUsage(node.getChildText ("usage"));
+                    tmpCell.add (node.getChildText ("usage"));
+                    tmpServer.setUsage(node.getChildText ("usage"));
                 
-                tmpCell.add (node.getChildText ("user"));
-                tmpServer.setUser(node.getChildText ("user"));
+                    tmpCell.add (node.getChildText ("user"));
+                    tmpServer.setUser(node.getChildText ("user"));
                 
-                tmpCell.add (node.getChildText ("encryptedpassword"));
-                tmpServer.setEncryptedpassword (node.getChildText ("encryptedpassword"));
+                    tmpCell.add (node.getChildText ("encryptedpassword"));
+                    tmpServer.setEncryptedpassword (node.getChildText ("encryptedpassword"));
                 
-                tmpCell.add (node.getChildText ("domain"));
-                tmpServer.setDomain(node.getChildText ("domain"));
+                    tmpCell.add (node.getChildText ("domain"));
+                    tmpServer.setDomain(node.getChildText ("domain"));
                 
-                tmpCell.add (node.getChildText ("cishome"));
-                tmpServer.setCishome(node.getChildText ("cishome"));
+                    tmpCell.add (node.getChildText ("cishome"));
+                    tmpServer.setCishome(node.getChildText ("cishome"));
                 
-                tmpCell.add (node.getChildText ("clustername"));
-                tmpServer.setClustername(node.getChildText ("clustername"));
+                    tmpCell.add (node.getChildText ("clustername"));
+                    tmpServer.setClustername(node.getChildText ("clustername"));
                 
-                tmpCell.add (node.getChildText ("site"));
-                tmpServer.setSite(node.getChildText ("site"));
+                    tmpCell.add (node.getChildText ("site"));
+                    tmpServer.setSite(node.getChildText ("site"));
 
-                tmpCell.add ("" + ((node.getChildText ("useHttps") != null ) ? node.getChildText ("useHttps").matches ("(?i)^(yes|true|on|1)$") : false));
-                tmpServer.setUseHttps ((node.getChildText ("useHttps") != null ) ? node.getChildText ("useHttps").matches ("(?i)^(yes|true|on|1)$") : false);
+                    tmpCell.add ("" + ((node.getChildText ("useHttps") != null ) ? node.getChildText ("useHttps").matches ("(?i)^(yes|true|on|1)$") : false));
+                    tmpServer.setUseHttps ((node.getChildText ("useHttps") != null ) ? node.getChildText ("useHttps").matches ("(?i)^(yes|true|on|1)$") : false);
 
-                tmpCell.add ("" + ((node.getChildText ("allowVariables") != null ) ? node.getChildText ("allowVariables").matches ("(?i)^(yes|true|on|1)$") : false));
-                tmpServer.setAllowVariables ((node.getChildText ("allowVariables") != null ) ? node.getChildText ("allowVariables").matches ("(?i)^(yes|true|on|1)$") : false);
+                    tmpCell.add ("" + ((node.getChildText ("allowVariables") != null ) ? node.getChildText ("allowVariables").matches ("(?i)^(yes|true|on|1)$") : false));
+                    tmpServer.setAllowVariables ((node.getChildText ("allowVariables") != null ) ? node.getChildText ("allowVariables").matches ("(?i)^(yes|true|on|1)$") : false);
 
-                tmpServersList.add (new ListResult.Row(tmpServer.getId(), tmpCell));
-                tmpServers.put (tmpServer.getId(), tmpServer);
-            }
+                    tmpServersList.add (new ListResult.Row(tmpServer.getId(), tmpCell));
+                    tmpServers.put (tmpServer.getId(), tmpServer);
+                }
             
-        } catch (IOException io) {
-            log.error ("getServers() unable to load servers.xml:" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("getServers() unable to load servers.xml:" + jdomex.getMessage());
-        }
+            } catch (IOException io) {
+                log.error ("getServers() unable to load servers.xml:" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getServers() unable to load servers.xml:" + jdomex.getMessage());
+            }
 
-        this.serversList = tmpServersList;
-        this.servers = tmpServers;
-        serversXmlLastUpdated = f.lastModified();
+            this.serversList = tmpServersList;
+            this.servers = tmpServers;
+            serversXmlLastUpdated = f.lastModified();
+        } finally {
+            lock.unlock();
+        }
 
         return this.servers;
     }
@@ -630,19 +714,9 @@ public class ServersDAO {
 
         // if user preferences indicate to save backups of edited files, back up the original file.
         //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            File fb = new File (pdtHome + "/resources/modules/servers.xml.bak");
-            
-            log.debug ("Copying \"" + f.getAbsolutePath() + "\" to \"" + fb.getAbsolutePath() + "\".");
-            
-            // windows doesn't let you rename a file to an existing file's name
-            //
-            if (fb.exists() && fb.canWrite())
-                FileUtils.deleteQuietly (fb);
-
-            FileUtils.copyFile (f, fb);
-        }
+        BackupStore.getInstance().backup (f);
 
+        FileLocks.getInstance().changed (f.getPath());
         xmlo.output (serversDoc, new FileOutputStream (f));
     }
 }
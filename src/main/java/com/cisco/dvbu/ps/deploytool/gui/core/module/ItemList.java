@@ -0,0 +1,250 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * List of module records that keeps an index of the records by ID so that looking up a record doesn't
+ * require scanning the list. The list keeps the records in file order like any other list; the index is
+ * updated as records are added, replaced and removed. Where more than one record has the same ID, lookups
+ * return the first one in the list as a scan would.
+ * </p>
+ * <p>
+ * The ID of a record should not be changed while the record is in the list. A lookup that finds a record
+ * whose ID has changed rebuilds the index, but a lookup of the new ID may not find it.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ItemList<T extends ModuleItem> extends AbstractList<T> implements RandomAccess {
+    private ArrayList<T> items;
+
+    // the first record with each ID. null when the index needs to be rebuilt.
+    //
+    private HashMap<String, T> index;
+
+    // true when no two records in the list have the same ID.
+    //
+    private boolean unique;
+
+    // the lowest copy suffix that may still be free for each copy ID prefix. see newCopyId().
+    //
+    private HashMap<String, Integer> copySuffixes;
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     */
+    public ItemList() {
+        this.items = new ArrayList<T>();
+        this.index = new HashMap<String, T>();
+        this.unique = true;
+    }
+
+    /**
+     * <p>
+     * Constructor. Creates a list containing the records of another collection in the same order.
+     * </p>
+     *
+     * @param  c  The collection of records.
+     */
+    public ItemList (Collection<? extends T> c) {
+        this.items = new ArrayList<T> (c);
+
+        // copying another item list's index is cheaper than rebuilding it.
+        //
+        if (c instanceof ItemList && ((ItemList<?>) c).index != null) {
+            @SuppressWarnings ("unchecked")
+            ItemList<T> other = (ItemList<T>) c;
+
+            this.index = new HashMap<String, T> (other.index);
+            this.unique = other.unique;
+        }
+    }
+
+    @Override
+    public T get (int i) {
+        return items.get (i);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public T set (
+        int i,
+        T item
+    ) {
+        T old = items.set (i, item);
+
+        if (index != null && unique && index.get (old.getId()) == old) {
+            index.remove (old.getId());
+
+            if (! index.containsKey (item.getId()))
+                index.put (item.getId(), item);
+            else
+                invalidate();
+        } else {
+            invalidate();
+        }
+
+        copySuffixes = null;
+
+        return old;
+    }
+
+    @Override
+    public void add (
+        int i,
+        T item
+    ) {
+        items.add (i, item);
+        modCount++;
+
+        if (index == null)
+            return;
+
+        if (! index.containsKey (item.getId())) {
+            index.put (item.getId(), item);
+        } else if (i == items.size() - 1) {
+
+            // an appended duplicate leaves the earlier record first.
+            //
+            unique = false;
+        } else {
+            invalidate();
+        }
+    }
+
+    @Override
+    public T remove (int i) {
+        T old = items.remove (i);
+        modCount++;
+
+        if (index != null && unique && index.get (old.getId()) == old)
+            index.remove (old.getId());
+        else
+            invalidate();
+
+        // the removed record's ID is free again.
+        //
+        copySuffixes = null;
+
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        items.clear();
+        modCount++;
+
+        index = new HashMap<String, T>();
+        unique = true;
+        copySuffixes = null;
+    }
+
+    @Override
+    protected void removeRange (
+        int fromIndex,
+        int toIndex
+    ) {
+        items.subList (fromIndex, toIndex).clear();
+        modCount++;
+
+        invalidate();
+    }
+
+    /**
+     * <p>
+     * Locates a record by ID.
+     * </p>
+     *
+     * @param  id  The id of the record to look for.
+     * @return     The first record with the ID or <code>null</code> if there isn't one.
+     */
+    public T findById (String id) {
+        T item = getIndex().get (id);
+
+        // the record's ID was changed after it was added. start over.
+        //
+        if (item != null && ! sameId (item.getId(), id)) {
+            invalidate();
+            item = getIndex().get (id);
+        }
+
+        return item;
+    }
+
+    /**
+     * <p>
+     * Returns an ID for a copy of a record that isn't used by any record in the list. The ID is the original
+     * ID + "_copy" if that is free, otherwise the original ID + "_copy1", "_copy2", etc.
+     * </p>
+     * <p>
+     * Suffixes found to be in use are remembered until a record is removed or replaced so that making many
+     * copies of the same record doesn't check the same IDs over and over.
+     * </p>
+     *
+     * @param  id  The ID of the record being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        String prefix = id + "_copy";
+        Integer start = (copySuffixes != null) ? copySuffixes.get (prefix) : null;
+        int j = (start != null) ? start.intValue() : 0;
+        String newId;
+
+        while (findById (newId = prefix + ((j == 0) ? "" : "" + j)) != null)
+            j++;
+
+        if (copySuffixes == null)
+            copySuffixes = new HashMap<String, Integer>();
+
+        copySuffixes.put (prefix, j);
+
+        return newId;
+    }
+
+    private HashMap<String, T> getIndex() {
+        if (index == null) {
+            HashMap<String, T> tmp = new HashMap<String, T> (Math.max (16, (int) (items.size() / 0.75f) + 1));
+            boolean tmpUnique = true;
+
+            for (T item : items) {
+                if (tmp.containsKey (item.getId()))
+                    tmpUnique = false;
+                else
+                    tmp.put (item.getId(), item);
+            }
+
+            index = tmp;
+            unique = tmpUnique;
+        }
+
+        return index;
+    }
+
+    private void invalidate() {
+        index = null;
+        copySuffixes = null;
+    }
+
+    private static boolean sameId (
+        String a,
+        String b
+    ) {
+        return (a == null) ? b == null : a.equals (b);
+    }
+}
@@ -0,0 +1,375 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Process wide cache of the filtered and sorted list rows of module files. The jqGrid widget asks for one page at
+ * a time, and every page used to rebuild, search and sort all of a module's rows only to return a slice of them.
+ * The module DAO list() methods keep the result of the first request for a view of a module here so that
+ * flipping through its pages only slices the cached rows.
+ * </p>
+ * <p>
+ * A view is identified by the canonical path of the module file plus the search and sort parameters of the
+ * request. Views are only used while the module file's {@link FileLocks#getVersion version} and
+ * {@link ModuleCache#getGeneration generation} match the values recorded before its rows were read, and all of a
+ * file's views are dropped when the file is written (see {@link ModuleCache#invalidate}.) Both change with each
+ * change of the module, including journaled changes and rewrites that keep the file's last modified time and
+ * size, so rows read before a change and stored after it are never used. Eviction is least recently used and weighted by the number of rows.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link ListViewCache#getInstance} static method to access the instance. Hit and miss counts are published as
+ * gauges on the admin port's metrics page.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ListViewCache {
+    private static final Logger log = LoggerFactory.getLogger (ListViewCache.class);
+    private static ListViewCache lvc = null;
+
+    /**
+     * Default maximum number of rows to keep across all cached views.
+     */
+    public static final int DEFAULT_MAX_ROWS = 200000;
+
+    /**
+     * Default maximum number of views to keep.
+     */
+    public static final int DEFAULT_MAX_VIEWS = 64;
+
+    // access ordered map so that iteration starts with the least recently used entry. guarded by "this".
+    //
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry> (16, 0.75f, true);
+
+    private int maxRows = DEFAULT_MAX_ROWS;
+    private int maxViews = DEFAULT_MAX_VIEWS;
+    private long currentRows = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ListViewCache() {
+        Metrics.newGauge (ListViewCache.class, "hits", new Gauge<Long>() {
+            public Long value() { return getHits(); }
+        });
+        Metrics.newGauge (ListViewCache.class, "misses", new Gauge<Long>() {
+            public Long value() { return getMisses(); }
+        });
+        Metrics.newGauge (ListViewCache.class, "rows", new Gauge<Long>() {
+            public Long value() { return getCurrentRows(); }
+        });
+    }
+
+    /**
+     * <p>
+     * Returns the singleton ListViewCache instance. If it doesn't yet exist, it is created before being returned.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public static synchronized ListViewCache getInstance() {
+        if (lvc == null) {
+            log.debug ("Instanciating new object.");
+            lvc = new ListViewCache();
+        }
+
+        return lvc;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of rows and views to keep in the cache. Entries are evicted immediately if the
+     * cache is over the new limits. A value of zero for either disables caching.
+     * </p>
+     *
+     * @param  maxRows   The maximum total number of rows in cached views.
+     * @param  maxViews  The maximum number of cached views.
+     */
+    public synchronized void setLimits (
+        int maxRows,
+        int maxViews
+    ) {
+        this.maxRows = (maxRows < 0) ? 0 : maxRows;
+        this.maxViews = (maxViews < 0) ? 0 : maxViews;
+        evict();
+    }
+
+    /**
+     * <p>
+     * Looks up a view of a module file. The module file's state is captured when the view is looked up so that
+     * rows read after this call and stored with {@link View#setRows} are discarded if the file changes in the
+     * meantime. Search parameters are ignored unless <code>isSearch</code> is "true", just as they are by the
+     * list() methods.
+     * </p>
+     *
+     * @param  path          The path to the module file.
+     * @param  isSearch      Indicates whether the request is a search request ("true" or "false".)
+     * @param  filters       Multi-rule filtering (jqGrid "filters" JSON.)
+     * @param  searchField   Search field to search on.
+     * @param  searchString  String to search for.
+     * @param  searchOper    Search operation.
+     * @param  sortIndex     Column to sort on.
+     * @param  sortOrder     Sort order ("asc" or "desc".)
+     * @param  byId          Indicates whether rows with the same sort value are in row ID order (cursor paging.)
+     * @return               The view. Its rows are <code>null</code> if the view isn't cached.
+     */
+    public View getView (
+        String path,
+        String isSearch,
+        String filters,
+        String searchField,
+        String searchString,
+        String searchOper,
+        String sortIndex,
+        String sortOrder,
+        boolean byId
+    ) {
+        if (path == null)
+            return new View (null, null, 0, null);
+
+        File f = new File (path);
+        String fileKey = getKey (f);
+        StringBuilder sb = new StringBuilder (fileKey);
+
+        // unit separators keep the parameters from running into each other.
+        //
+        if (isSearch != null && isSearch.equalsIgnoreCase ("true"))
+            sb.append ('\u001f').append (filters).append ('\u001f').append (searchField).append ('\u001f').append (searchString).append ('\u001f').append (searchOper);
+        else
+            sb.append ('\u001f').append ('\u001f').append ('\u001f').append ('\u001f');
+
+        sb.append ('\u001f').append (sortIndex).append ('\u001f').append (sortOrder).append ('\u001f').append (byId);
+
+        // views of a file that doesn't exist aren't kept.
+        //
+        long generation = ModuleCache.getInstance().getGeneration (f);
+        String version = (f.isFile()) ? FileLocks.getInstance().getVersion (path).getToken() : null;
+        View view = new View (fileKey, sb.toString(), generation, version);
+
+        synchronized (this) {
+            CacheEntry ce = entries.get (view.key);
+
+            if (ce != null && ce.generation == view.generation && ce.version.equals (view.version)) {
+                hits++;
+                view.rows = ce.rows;
+            } else {
+                if (ce != null)
+                    remove (view.key);
+
+                misses++;
+            }
+        }
+
+        return view;
+    }
+
+    /**
+     * <p>
+     * Removes all the views of a module file, if any.
+     * </p>
+     *
+     * @param  path  The path to the module file.
+     */
+    public void invalidate (String path) {
+        if (path == null)
+            return;
+
+        String fileKey = getKey (new File (path));
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, CacheEntry>> itr = entries.entrySet().iterator();
+
+            while (itr.hasNext()) {
+                CacheEntry ce = itr.next().getValue();
+
+                if (ce.fileKey.equals (fileKey)) {
+                    currentRows -= ce.rows.size();
+                    itr.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all entries from the cache.
+     * </p>
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentRows = 0;
+    }
+
+    /**
+     * <p>
+     * Returns the number of lookups that found a valid view.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * <p>
+     * Returns the number of lookups that didn't find a valid view.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * <p>
+     * Returns the total number of rows in the cached views.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getCurrentRows() {
+        return currentRows;
+    }
+
+    private synchronized void put (View view) {
+        remove (view.key);
+
+        // don't let a single huge view flush everything else out of the cache.
+        //
+        if (view.rows.size() > maxRows || maxViews == 0)
+            return;
+
+        entries.put (view.key, new CacheEntry (view.fileKey, view.generation, view.version, view.rows));
+        currentRows += view.rows.size();
+
+        evict();
+    }
+
+    // callers must hold the lock.
+    //
+    private void remove (String key) {
+        CacheEntry ce = entries.remove (key);
+
+        if (ce != null)
+            currentRows -= ce.rows.size();
+    }
+
+    // callers must hold the lock.
+    //
+    private void evict() {
+        Iterator<Map.Entry<String, CacheEntry>> itr = entries.entrySet().iterator();
+
+        while ((currentRows > maxRows || entries.size() > maxViews) && itr.hasNext()) {
+            CacheEntry ce = itr.next().getValue();
+
+            currentRows -= ce.rows.size();
+            itr.remove();
+        }
+    }
+
+    private static String getKey (File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+
+    /**
+     * <p>
+     * A view of a module file as returned by {@link ListViewCache#getView}.
+     * </p>
+     */
+    public class View {
+        private String fileKey;
+        private String key;
+        private long generation;
+        private String version;
+        private List<ListResult.Row> rows;
+
+        private View (
+            String fileKey,
+            String key,
+            long generation,
+            String version
+        ) {
+            this.fileKey = fileKey;
+            this.key = key;
+            this.generation = generation;
+            this.version = version;
+        }
+
+        /**
+         * <p>
+         * Returns the cached rows of the view. The rows must not be modified.
+         * </p>
+         *
+         * @return     The rows or <code>null</code> if the view wasn't cached.
+         */
+        public List<ListResult.Row> getRows() {
+            return rows;
+        }
+
+        /**
+         * <p>
+         * Stores the filtered and sorted rows of the view in the cache. The list must not be modified
+         * afterwards. {@link RowStore} lists are stored as is and take a fraction of the memory of a list of row
+         * objects.
+         * </p>
+         *
+         * @param  rows  The rows.
+         */
+        public void setRows (List<ListResult.Row> rows) {
+            this.rows = (rows instanceof RowStore) ? rows : Collections.unmodifiableList (rows);
+
+            if (key != null && version != null)
+                put (this);
+        }
+    }
+
+    private static class CacheEntry {
+        String fileKey;
+        long generation;
+        String version;
+        List<ListResult.Row> rows;
+
+        CacheEntry (
+            String fileKey,
+            long generation,
+            String version,
+            List<ListResult.Row> rows
+        ) {
+            this.fileKey = fileKey;
+            this.generation = generation;
+            this.version = version;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Process wide cache of parsed module XML files. Parsing a large module file (regression and privilege modules
+ * can be tens of megabytes) takes seconds, and every list page flip, item lookup, and validation used to reparse
+ * the file. The module DAOs check this cache before parsing and hand out copies of the cached module objects.
+ * </p>
+ * <p>
+ * Entries are keyed by the canonical path of the module file and are only considered valid while the file's
+ * last modified time and size match the values recorded when the file was parsed. Eviction is least recently
+ * used and weighted by the size of the module file on disk. The DAO serialize() methods invalidate their entry
+ * (and the file's {@link ListViewCache} views) after writing the file.
+ * </p>
+ * <p>
+ * In journaled mode (see {@link ModuleJournal}) the entry of a module with changes not yet written to its file is
+ * {@link #pin pinned}: it is used whatever the state of the file, isn't evicted and isn't invalidated until the
+ * journal has been compacted into the file. Pinning a module changes its file's {@link #getGeneration generation},
+ * which the validators of the file's responses and list views include since a journaled change leaves the file's
+ * last modified time and size as they were.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link ModuleCache#getInstance} static method to access the instance. Hit, miss, and eviction counts are
+ * published as gauges on the admin port's metrics page.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleCache {
+    private static final Logger log = LoggerFactory.getLogger (ModuleCache.class);
+    private static ModuleCache mc = null;
+
+    /**
+     * Default maximum number of module file bytes to keep parsed in memory (256 MB).
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+    /**
+     * Maximum number of module files whose generation is kept.
+     */
+    public static final int MAX_GENERATIONS = 4096;
+
+    // access ordered map so that iteration starts with the least recently used entry. guarded by "this".
+    //
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry> (16, 0.75f, true);
+
+    // generation of the files pinned most recently, keyed by canonical path. generations are handed out in
+    // increasing order and a file without one is at the highest generation dropped, so a file's generation never
+    // goes back to a value it had before. guarded by "this".
+    //
+    private final LinkedHashMap<String, Long> generations = new LinkedHashMap<String, Long> (16, 0.75f, true) {
+        protected boolean removeEldestEntry (Map.Entry<String, Long> eldest) {
+            if (size() <= MAX_GENERATIONS)
+                return false;
+
+            droppedGeneration = Math.max (droppedGeneration, eldest.getValue());
+            return true;
+        }
+    };
+
+    private long lastGeneration = 0;
+    private long droppedGeneration = 0;
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long currentBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ModuleCache() {
+        Metrics.newGauge (ModuleCache.class, "hits", new Gauge<Long>() {
+            public Long value() { return getHits(); }
+        });
+        Metrics.newGauge (ModuleCache.class, "misses", new Gauge<Long>() {
+            public Long value() { return getMisses(); }
+        });
+        Metrics.newGauge (ModuleCache.class, "evictions", new Gauge<Long>() {
+            public Long value() { return getEvictions(); }
+        });
+        Metrics.newGauge (ModuleCache.class, "bytes", new Gauge<Long>() {
+            public Long value() { return getCurrentBytes(); }
+        });
+    }
+
+    /**
+     * <p>
+     * Returns the singleton ModuleCache instance. If it doesn't yet exist, it is created before being returned.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public static synchronized ModuleCache getInstance() {
+        if (mc == null) {
+            log.debug ("Instanciating new object.");
+            mc = new ModuleCache();
+        }
+
+        return mc;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of module file bytes to keep in the cache. Entries are evicted immediately
+     * if the cache is over the new limit. A value of zero disables caching.
+     * </p>
+     *
+     * @param  maxBytes  The maximum total size of cached module files.
+     */
+    public synchronized void setMaxBytes (long maxBytes) {
+        this.maxBytes = (maxBytes < 0) ? 0 : maxBytes;
+        evict();
+    }
+
+    /**
+     * <p>
+     * Returns the cached module for a file if the file hasn't changed since it was cached. The caller
+     * must not modify the returned object. Use the module's copy constructor to get a modifiable copy.
+     * </p>
+     *
+     * @param  f     The module file.
+     * @param  type  The expected module class.
+     * @return       The cached module or <code>null</code> if there is no valid entry for the file.
+     */
+    public <T> T get (
+        File f,
+        Class<T> type
+    ) {
+        String key = getKey (f);
+        long lastModified = f.lastModified();
+        long length = f.length();
+
+        synchronized (this) {
+            CacheEntry ce = entries.get (key);
+
+            if (ce == null) {
+                misses++;
+                return null;
+            }
+
+            // a pinned entry is newer than the file.
+            //
+            if (ce.pinned && type.isInstance (ce.module)) {
+                hits++;
+                return type.cast (ce.module);
+            }
+
+            // stale or the wrong module type for the file (the user pointed a different module page at it.)
+            //
+            if (ce.pinned) {
+                misses++;
+                return null;
+            }
+
+            if (ce.lastModified != lastModified || ce.length != length || ! type.isInstance (ce.module)) {
+                log.debug ("Discarding stale entry for " + key);
+                remove (key);
+                misses++;
+                return null;
+            }
+
+            hits++;
+            return type.cast (ce.module);
+        }
+    }
+
+    /**
+     * <p>
+     * Adds a parsed module to the cache. The last modified time and size should be captured before the
+     * file is parsed so that changes made to the file while it was being parsed invalidate the entry.
+     * </p>
+     *
+     * @param  f             The module file.
+     * @param  lastModified  The last modified time of the file when it was parsed.
+     * @param  length        The size of the file when it was parsed.
+     * @param  module        The parsed module. The caller must not modify the object after adding it.
+     */
+    public void put (
+        File f,
+        long lastModified,
+        long length,
+        Object module
+    ) {
+        String key = getKey (f);
+
+        synchronized (this) {
+            CacheEntry ce = entries.get (key);
+
+            // a module parsed from the file is older than a pinned one.
+            //
+            if (ce != null && ce.pinned)
+                return;
+
+            remove (key);
+
+            // don't let a single huge file flush everything else out of the cache.
+            //
+            if (length > maxBytes)
+                return;
+
+            entries.put (key, new CacheEntry (lastModified, length, module, false));
+            currentBytes += length;
+
+            evict();
+        }
+    }
+
+    /**
+     * <p>
+     * Adds a module with changes that haven't been written to its file yet. The entry replaces any entry for the
+     * file and is kept, whatever the size limit and the state of the file, until it is {@link #unpin unpinned}.
+     * The file's {@link ListViewCache} views are invalidated.
+     * </p>
+     *
+     * @param  f       The module file.
+     * @param  module  The module. The caller must not modify the object after adding it.
+     */
+    public void pin (
+        File f,
+        Object module
+    ) {
+        String key = getKey (f);
+
+        synchronized (this) {
+            remove (key);
+
+            entries.put (key, new CacheEntry (f.lastModified(), f.length(), module, true));
+            currentBytes += f.length();
+
+            generations.put (key, ++lastGeneration);
+        }
+
+        ListViewCache.getInstance().invalidate (f.getPath());
+    }
+
+    /**
+     * <p>
+     * Returns the generation of a module file. It changes whenever a module with changes not yet written to the
+     * file is {@link #pin pinned}, and is kept when the changes are written to the file.
+     * </p>
+     *
+     * @param  f  The module file.
+     * @return    The generation.
+     */
+    public long getGeneration (File f) {
+        String key = getKey (f);
+
+        synchronized (this) {
+            Long generation = generations.get (key);
+
+            return (generation != null) ? generation : droppedGeneration;
+        }
+    }
+
+    /**
+     * <p>
+     * Turns a pinned entry back into a regular one once its changes have been written to the file. The entry is
+     * recorded against the file's current last modified time and size and is subject to eviction again.
+     * </p>
+     *
+     * @param  f  The module file.
+     */
+    public void unpin (File f) {
+        String key = getKey (f);
+
+        synchronized (this) {
+            CacheEntry ce = entries.get (key);
+
+            if (ce == null || ! ce.pinned)
+                return;
+
+            remove (key);
+
+            if (f.length() <= maxBytes) {
+                entries.put (key, new CacheEntry (f.lastModified(), f.length(), ce.module, false));
+                currentBytes += f.length();
+            }
+
+            evict();
+        }
+    }
+
+    /**
+     * <p>
+     * Removes the entry for a module file, if any, unless it is pinned.
+     * </p>
+     *
+     * @param  path  The path to the module file.
+     */
+    public void invalidate (String path) {
+        if (path == null)
+            return;
+
+        String key = getKey (new File (path));
+
+        synchronized (this) {
+            CacheEntry ce = entries.get (key);
+
+            if (ce != null && ! ce.pinned)
+                remove (key);
+        }
+
+        // the list views of the file are no good either.
+        //
+        ListViewCache.getInstance().invalidate (path);
+    }
+
+    /**
+     * <p>
+     * Removes all entries from the cache except the pinned ones.
+     * </p>
+     */
+    public void clear() {
+        synchronized (this) {
+            Iterator<Map.Entry<String, CacheEntry>> itr = entries.entrySet().iterator();
+
+            while (itr.hasNext()) {
+                CacheEntry ce = itr.next().getValue();
+
+                if (! ce.pinned) {
+                    currentBytes -= ce.length;
+                    itr.remove();
+                }
+            }
+        }
+
+        ListViewCache.getInstance().clear();
+    }
+
+    /**
+     * <p>
+     * Returns the number of lookups that found a valid entry.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * <p>
+     * Returns the number of lookups that did not find a valid entry.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * <p>
+     * Returns the number of entries evicted to stay under the size limit.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * <p>
+     * Returns the total size of the module files currently in the cache.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * <p>
+     * Returns the maximum total size of the module files kept in the cache.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // removes an entry and updates the byte count. caller must hold the lock.
+    //
+    private void remove (String key) {
+        CacheEntry ce = entries.remove (key);
+
+        if (ce != null)
+            currentBytes -= ce.length;
+    }
+
+    // drops least recently used entries until the cache is under its size limit. pinned entries are skipped. caller
+    // must hold the lock.
+    //
+    private void evict() {
+        Iterator<Map.Entry<String, CacheEntry>> itr = entries.entrySet().iterator();
+
+        while (currentBytes > maxBytes && itr.hasNext()) {
+            Map.Entry<String, CacheEntry> e = itr.next();
+
+            if (e.getValue().pinned)
+                continue;
+
+            log.debug ("Evicting " + e.getKey());
+
+            currentBytes -= e.getValue().length;
+            evictions++;
+            itr.remove();
+        }
+    }
+
+    // canonical paths let different spellings of the same file (relative paths, "..", symlinks) share an entry.
+    //
+    private static String getKey (File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+
+    // holder for a cached module and the state of its file when it was parsed.
+    //
+    private static class CacheEntry {
+        final long lastModified;
+        final long length;
+        final Object module;
+        final boolean pinned;
+
+        CacheEntry (
+            long lastModified,
+            long length,
+            Object module,
+            boolean pinned
+        ) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.module = module;
+            this.pinned = pinned;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+
+import org.jdom2.input.SAXBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Keeps the {@link ModuleLayout} (id to byte range index) of module files so that single items can be read
+ * straight out of a module file without parsing the rest of it. Layouts are held in memory and also saved as
+ * sidecar files in the GUI's cache directory (<code>&lt;PDTool home&gt;/gui/cache/index</code>) so that they
+ * survive restarts. A layout is only used while the module file's last modified time and size match the values
+ * recorded when the layout was built.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link ModuleIndex#getInstance} static method to access the instance.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleIndex {
+    private static final Logger log = LoggerFactory.getLogger (ModuleIndex.class);
+    private static ModuleIndex mi = null;
+
+    private static final int MAX_LAYOUTS = 32;
+    private static final int SIDECAR_VERSION = 1;
+
+    // most recently used layouts keyed by canonical path. guarded by "layouts".
+    //
+    private final LinkedHashMap<String, ModuleLayout> layouts = new LinkedHashMap<String, ModuleLayout> (16, 0.75f, true);
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ModuleIndex() {
+    }
+
+    /**
+     * <p>
+     * Returns the singleton ModuleIndex instance. If it doesn't yet exist, it is created before being returned.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public static synchronized ModuleIndex getInstance() {
+        if (mi == null) {
+            log.debug ("Instanciating new object.");
+            mi = new ModuleIndex();
+        }
+
+        return mi;
+    }
+
+    /**
+     * <p>
+     * Returns the current layout of a module file. The in-memory copy is checked first, then the sidecar file.
+     * If neither is current the module file is scanned and the result is saved in both places.
+     * </p>
+     *
+     * @param  f        The module file.
+     * @param  handler  The module type's item handler.
+     * @return          The layout or <code>null</code> if the file can't be scanned.
+     * @throws IOException  If the file cannot be read.
+     */
+    public ModuleLayout getLayout (
+        File f,
+        ModuleXmlReader.ItemHandler<?> handler
+    ) throws IOException {
+        String key = getKey (f);
+        ModuleLayout layout;
+
+        synchronized (layouts) {
+            layout = layouts.get (key);
+        }
+
+        if (layout != null && layout.isCurrent (f))
+            return layout;
+
+        layout = readSidecar (key);
+
+        if (layout != null && layout.isCurrent (f)) {
+            remember (key, layout);
+            return layout;
+        }
+
+        layout = ModuleLayout.scan (f, handler);
+
+        if (layout != null) {
+            remember (key, layout);
+            writeSidecar (key, layout);
+        }
+
+        return layout;
+    }
+
+    /**
+     * <p>
+     * Replaces the layout of a module file after the file has been changed by someone who knows exactly how
+     * the items moved (i.e. {@link ModuleXmlPatcher}.) The layout is kept in memory only. The sidecar file is
+     * removed and will be rewritten the next time the file is scanned.
+     * </p>
+     *
+     * @param  f       The module file.
+     * @param  layout  The file's new layout.
+     */
+    public void putLayout (
+        File f,
+        ModuleLayout layout
+    ) {
+        String key = getKey (f);
+
+        remember (key, layout);
+
+        File sidecar = getSidecarFile (key);
+        if (sidecar != null && sidecar.exists())
+            sidecar.delete();
+    }
+
+    /**
+     * <p>
+     * Reads a single item from a module file using the file's layout. Only the item's own bytes are read
+     * and parsed.
+     * </p>
+     *
+     * @param  path     The path to the module file.
+     * @param  id       The id of the item.
+     * @param  handler  The module type's item handler (used to build the item from its element.)
+     * @return          The item or <code>null</code> if the item couldn't be located this way (the caller should
+     *                  then parse the entire module.)
+     */
+    public <T> T findById (
+        String path,
+        String id,
+        ModuleXmlReader.ItemHandler<T> handler
+    ) {
+        long start = System.currentTimeMillis();
+        File f = new File (path);
+
+        try {
+            ModuleLayout layout = getLayout (f, handler);
+            if (layout == null)
+                return null;
+
+            int index = layout.indexOf (id);
+            if (index < 0)
+                return null;
+
+            ModuleLayout.Item item = layout.getItems().get (index);
+            byte[] b = new byte[(int) (item.getEnd() - item.getStart())];
+            RandomAccessFile raf = new RandomAccessFile (f, "r");
+
+            try {
+                raf.seek (item.getStart());
+                raf.readFully (b);
+            } finally {
+                raf.close();
+            }
+
+            // the file may have changed between getting the layout and reading the item.
+            //
+            if (! layout.isCurrent (f))
+                return null;
+
+            Element e = new SAXBuilder().build (new ByteArrayInputStream (b)).detachRootElement();
+
+            if (! id.equals (e.getChildText ("id")))
+                return null;
+
+            T result = handler.newItem (e, item.getParentName());
+
+            log.debug ("Read item \"" + id + "\" from " + path + " in " + (System.currentTimeMillis() - start) + " ms.");
+
+            return result;
+        } catch (IOException e) {
+            log.debug ("Unable to read item \"" + id + "\" from " + path + ": " + e.getMessage());
+        } catch (JDOMException e) {
+            log.debug ("Unable to parse item \"" + id + "\" from " + path + ": " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    private void remember (
+        String key,
+        ModuleLayout layout
+    ) {
+        synchronized (layouts) {
+            layouts.put (key, layout);
+
+            Iterator<Map.Entry<String, ModuleLayout>> itr = layouts.entrySet().iterator();
+            while (layouts.size() > MAX_LAYOUTS && itr.hasNext()) {
+                itr.next();
+                itr.remove();
+            }
+        }
+    }
+
+    // the sidecar files live under the GUI's home directory. the name is made unique by a hash of the module
+    // file's path and the full path is stored in the file to catch hash collisions.
+    //
+    private static File getSidecarFile (String key) {
+        if (System.getProperty ("apps.install.dir") == null)
+            return null;
+
+        String name = new File (key).getName().replaceAll ("[^\\w.-]", "_");
+
+        return new File (FilesDAO.getPdtHome() + "/gui/cache/index", name + "_" + Integer.toHexString (key.hashCode()) + ".idx");
+    }
+
+    private static ModuleLayout readSidecar (String key) {
+        File sidecar = getSidecarFile (key);
+
+        if (sidecar == null || ! sidecar.exists())
+            return null;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream (new BufferedInputStream (new FileInputStream (sidecar)));
+
+            if (in.readInt() != SIDECAR_VERSION || ! in.readUTF().equals (key))
+                return null;
+
+            long lastModified = in.readLong();
+            long length = in.readLong();
+            int count = in.readInt();
+            List<ModuleLayout.Item> items = new ArrayList<ModuleLayout.Item> (count);
+
+            for (int i = 0; i < count; i++) {
+                long start = in.readLong();
+                long end = in.readLong();
+                String name = in.readUTF();
+                String parentName = in.readUTF();
+                int parentLevel = in.readInt();
+                String id = (in.readBoolean()) ? in.readUTF() : null;
+
+                items.add (new ModuleLayout.Item (start, end, name, parentName, parentLevel, id));
+            }
+
+            return new ModuleLayout (lastModified, length, items);
+        } catch (IOException e) {
+            log.debug ("Unable to read index file " + sidecar.getPath() + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void writeSidecar (
+        String key,
+        ModuleLayout layout
+    ) {
+        File sidecar = getSidecarFile (key);
+
+        if (sidecar == null)
+            return;
+
+        DataOutputStream out = null;
+
+        try {
+            sidecar.getParentFile().mkdirs();
+
+            out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (sidecar)));
+
+            out.writeInt (SIDECAR_VERSION);
+            out.writeUTF (key);
+            out.writeLong (layout.getLastModified());
+            out.writeLong (layout.getLength());
+            out.writeInt (layout.getItems().size());
+
+            for (ModuleLayout.Item item : layout.getItems()) {
+                out.writeLong (item.getStart());
+                out.writeLong (item.getEnd());
+                out.writeUTF (item.getName());
+                out.writeUTF (item.getParentName());
+                out.writeInt (item.getParentLevel());
+                out.writeBoolean (item.getId() != null);
+
+                if (item.getId() != null)
+                    out.writeUTF (item.getId());
+            }
+        } catch (IOException e) {
+            log.warn ("Unable to write index file " + sidecar.getPath() + ": " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String getKey (File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+/**
+ * <p>
+ * Implemented by the records kept in PD Tool modules (archives, data sources, groups, etc.) so that the
+ * module containers can index them by ID (see {@link ItemList}.)
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public interface ModuleItem {
+
+    /**
+     * <p>
+     * Returns the ID of the module record.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public String getId();
+}
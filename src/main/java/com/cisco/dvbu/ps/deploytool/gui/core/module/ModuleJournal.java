@@ -0,0 +1,968 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
+
+import com.yammer.dropwizard.lifecycle.Managed;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import org.jdom2.Attribute;
+import org.jdom2.CDATA;
+import org.jdom2.Comment;
+import org.jdom2.Content;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.Text;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Journal of item changes to module files. Without the journal each add, edit or delete of an item rewrites the
+ * module file (see {@link ModuleXmlPatcher}), which takes a while for modules of tens of megabytes. When the journal
+ * is {@link #setEnabled enabled}, a change is instead appended to the module's journal file
+ * (<code>&lt;PDTool home&gt;/gui/journal/&lt;hash of path&gt;.journal</code>) and synced to disk, and the changed
+ * module is {@link ModuleCache#pin pinned} in the module cache so that the GUI reads it rather than the file.
+ * </p>
+ * <p>
+ * The changes are compacted into the module file by splicing them in one at a time once the module hasn't been
+ * edited for the {@link #setIdleTime idle time}, before PDTool is run ({@link #compactAll}), before the file is
+ * copied, renamed or restored from a backup ({@link #compact}) and when the server stops. Journals left behind by a
+ * server that didn't stop cleanly are compacted when the server starts. Before each change is spliced in, the number
+ * of changes already in the file is appended to the journal and synced to disk, so a compaction cut short by a crash
+ * or an error resumes with the change it was splicing in. Only that change may or may not be in the file, which its
+ * ids tell apart (an added id that exists, an edited or deleted id that doesn't.)
+ * </p>
+ * <p>
+ * Only changes that can be spliced into the file are journaled. The journal tracks the items of the module the
+ * same way the patcher does and turns down any other change (e.g. one that moves an item to a different grouping
+ * element). The module's journal is then compacted and the caller writes the file as it would without the
+ * journal. A module written in full (see {@link ModuleXmlWriter}) already contains its journaled changes, so its
+ * journal is {@link #discard discarded}.
+ * </p>
+ * <p>
+ * The module DAOs {@link #register register} the item handler of their module type so that journals can be
+ * compacted without the DAO that wrote them. A journal is compacted while holding the module file's rewrite lock
+ * (see {@link FileLocks}), which is always taken before the journal's own lock. Compacting doesn't change what the
+ * module holds, so it doesn't change the file's version.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link ModuleJournal#getInstance} static method to access the instance. The number of journaled changes not yet
+ * compacted is published as a gauge on the admin port's metrics page.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleJournal implements Managed {
+    private static final Logger log = LoggerFactory.getLogger (ModuleJournal.class);
+    private static ModuleJournal mj = null;
+
+    /**
+     * Default number of milliseconds a module must go without edits before its journal is compacted.
+     */
+    public static final long DEFAULT_IDLE_TIME = 2000;
+
+    private static final int MAGIC = 0x504a4e4c;
+    private static final int VERSION = 1;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_EDIT = 2;
+    private static final byte OP_DELETE = 3;
+    private static final byte OP_COMPACTED = 4;
+
+    private static final byte CONTENT_ELEMENT = 1;
+    private static final byte CONTENT_TEXT = 2;
+    private static final byte CONTENT_CDATA = 3;
+    private static final byte CONTENT_COMMENT = 4;
+
+    // item handlers keyed by module type (the module's root element name.)
+    //
+    private static final Map<String, ModuleXmlReader.ItemHandler<?>> handlers = new ConcurrentHashMap<String, ModuleXmlReader.ItemHandler<?>>();
+
+    // journals with changes not yet compacted keyed by the module file's canonical path. guarded by "this".
+    //
+    private final Map<String, Journal> journals = new HashMap<String, Journal>();
+
+    private volatile boolean enabled = false;
+    private volatile long idleTime = DEFAULT_IDLE_TIME;
+    private Thread compactor = null; // guarded by "this".
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ModuleJournal() {
+        Metrics.newGauge (ModuleJournal.class, "pending", new Gauge<Integer>() {
+            public Integer value() { return getPending(); }
+        });
+    }
+
+    /**
+     * <p>
+     * Returns the instance of the journal.
+     * </p>
+     *
+     * @return  The instance.
+     */
+    public static synchronized ModuleJournal getInstance() {
+        if (mj == null) {
+            log.debug ("Instanciating new object.");
+            mj = new ModuleJournal();
+        }
+
+        return mj;
+    }
+
+    /**
+     * <p>
+     * Registers the item handler of a module type. Called by the module DAOs when they're loaded.
+     * </p>
+     *
+     * @param  type     The module type (the name of the module's root element, e.g. "ArchiveModule".)
+     * @param  handler  The module type's item handler.
+     */
+    public static void register (
+        String type,
+        ModuleXmlReader.ItemHandler<?> handler
+    ) {
+        handlers.put (type, handler);
+    }
+
+    /**
+     * <p>
+     * Sets whether item changes are journaled. Journals left from when the journal was enabled are still
+     * compacted when it isn't.
+     * </p>
+     *
+     * @param  enabled  <code>true</code> to journal item changes.
+     */
+    public void setEnabled (boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * <p>
+     * Sets the number of milliseconds a module must go without edits before its journal is compacted.
+     * </p>
+     *
+     * @param  idleTime  The idle time. Values less than zero mean zero.
+     */
+    public void setIdleTime (long idleTime) {
+        this.idleTime = Math.max (0, idleTime);
+    }
+
+    /**
+     * <p>
+     * Compacts the journals left behind by a server that didn't stop cleanly and starts the background compactor.
+     * </p>
+     */
+    public void start() {
+        recover();
+
+        synchronized (this) {
+            if (compactor != null)
+                return;
+
+            compactor = new Thread ("module-journal") {
+                public void run() {
+                    while (awaitNextCheck())
+                        compactIdle();
+                }
+            };
+
+            compactor.setDaemon (true);
+            compactor.start();
+        }
+    }
+
+    /**
+     * <p>
+     * Stops the background compactor and compacts all journals.
+     * </p>
+     *
+     * @throws InterruptedException  If interrupted while waiting for the compactor to finish.
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+
+        synchronized (this) {
+            t = compactor;
+            compactor = null;
+            notifyAll();
+        }
+
+        if (t != null)
+            t.join();
+
+        compactAll();
+    }
+
+    /**
+     * <p>
+     * Journals an item change instead of writing it to the module file. The change is synced to disk before this
+     * method returns and the changed module is pinned in the {@link ModuleCache}.
+     * </p>
+     * <p>
+     * When <code>false</code> is returned the change was not journaled and any earlier changes of the module
+     * have been compacted into the file, so the caller writes the change to the file itself.
+     * </p>
+     *
+     * @param  type    The module type (the name of the module's root element, e.g. "ArchiveModule".)
+     * @param  path    The path to the module file.
+     * @param  id      The id of the item being replaced or deleted or <code>null</code> if the item was added.
+     * @param  e       The added or updated item element or <code>null</code> if the item was deleted. The
+     *                 element must already contain its own indentation as for {@link ModuleXmlWriter#writeItem}.
+     * @param  module  A copy of the module containing the change. Must not be modified after the call.
+     * @return         <code>true</code> if the change was journaled.
+     * @throws IOException  If the journal can't be written or the earlier changes can't be compacted.
+     */
+    public boolean append (
+        String type,
+        String path,
+        String id,
+        Element e,
+        Object module
+    ) throws IOException {
+        if (path == null || (id == null && e == null))
+            return false;
+
+        File f = new File (path);
+        ModuleXmlReader.ItemHandler<?> handler = handlers.get (type);
+        Journal j;
+
+        if (! enabled || handler == null || ! f.isFile() || System.getProperty ("apps.install.dir") == null) {
+            compact (path);
+            return false;
+        }
+
+        String key = getKey (f);
+
+        synchronized (this) {
+            j = journals.get (key);
+
+            if (j == null) {
+                j = new Journal (key, path, type, handler);
+                journals.put (key, j);
+            }
+        }
+
+        synchronized (j) {
+
+            // the journal was compacted and dropped in the meantime.
+            //
+            if (j.removed)
+                return append (type, path, id, e, module);
+
+            // a recovered journal that couldn't be compacted has changes the file doesn't.
+            //
+            if (j.items == null && j.records.size() > 0) {
+                if (! compact (j))
+                    throw new IOException ("Unable to compact the journal of " + path + ".");
+
+                return append (type, path, id, e, module);
+            }
+
+            if (j.items == null) {
+                ModuleLayout layout = ModuleIndex.getInstance().getLayout (f, handler);
+
+                if (layout == null) {
+                    drop (j);
+                    return false;
+                }
+
+                j.items = new ArrayList<ModuleLayout.Item> (layout.getItems());
+            }
+
+            Record r = new Record ((id == null) ? OP_ADD : (e == null) ? OP_DELETE : OP_EDIT, id, e);
+            int index = check (j.items, r);
+
+            if (index < 0) {
+                log.debug ("Change to \"" + ((id != null) ? id : e.getChildText ("id")) + "\" in " + path + " can't be journaled.");
+
+                if (! compact (j))
+                    throw new IOException ("Unable to compact the journal of " + path + ".");
+
+                return false;
+            }
+
+            write (j, r);
+            FileLocks.getInstance().changed (path);
+            apply (j.items, r, index);
+
+            j.records.add (r);
+            j.module = module;
+            j.lastAppend = System.currentTimeMillis();
+            j.failed = false;
+
+            ModuleCache.getInstance().pin (f, module);
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>
+     * Compacts a module's journal into the module file, if the module has one.
+     * </p>
+     *
+     * @param  path  The path to the module file.
+     * @return       <code>true</code> if the module file is up to date.
+     */
+    public boolean compact (String path) {
+        Journal j;
+
+        if (path == null)
+            return true;
+
+        synchronized (this) {
+            j = journals.get (getKey (new File (path)));
+        }
+
+        if (j == null)
+            return true;
+
+        Lock lock = FileLocks.getInstance().rewriteLock (path);
+
+        lock.lock();
+        try {
+            synchronized (j) {
+                return j.removed || compact (j);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Compacts all journals into their module files. Called before PDTool is run.
+     * </p>
+     *
+     * @return  The number of modules whose journals could not be compacted.
+     */
+    public int compactAll() {
+        int errorCount = 0;
+
+        for (Journal j : getJournals()) {
+            Lock lock = FileLocks.getInstance().rewriteLock (j.path);
+
+            lock.lock();
+            try {
+                synchronized (j) {
+                    if (! j.removed && ! compact (j))
+                        errorCount++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return errorCount;
+    }
+
+    /**
+     * <p>
+     * Drops a module's journal without compacting it. Called once a module has been written in full (its changes are
+     * in the file) or deleted.
+     * </p>
+     *
+     * @param  path  The path to the module file.
+     */
+    public void discard (String path) {
+        Journal j;
+
+        if (path == null)
+            return;
+
+        synchronized (this) {
+            j = journals.get (getKey (new File (path)));
+        }
+
+        if (j == null)
+            return;
+
+        synchronized (j) {
+            if (! j.removed) {
+                log.debug ("Discarding " + j.records.size() + " journaled changes of " + path);
+
+                forget (j);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the number of journaled changes not yet compacted.
+     * </p>
+     *
+     * @return  The value.
+     */
+    public int getPending() {
+        int result = 0;
+
+        for (Journal j : getJournals()) {
+            synchronized (j) {
+                result += j.records.size();
+            }
+        }
+
+        return result;
+    }
+
+    // waits for the next check of the idle modules. returns false once the compactor is being stopped.
+    //
+    private synchronized boolean awaitNextCheck() {
+        try {
+            wait (Math.max (100, Math.min (idleTime, 1000)));
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        return (compactor == Thread.currentThread());
+    }
+
+    // compacts the journals of the modules that haven't been edited for the idle time. a journal that failed is only
+    // tried again after another change.
+    //
+    private void compactIdle() {
+        for (Journal j : getJournals()) {
+            Lock lock = FileLocks.getInstance().rewriteLock (j.path);
+
+            lock.lock();
+            try {
+                synchronized (j) {
+                    if (! j.removed && ! j.failed && System.currentTimeMillis() - j.lastAppend >= idleTime)
+                        compact (j);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private synchronized List<Journal> getJournals() {
+        return new ArrayList<Journal> (journals.values());
+    }
+
+    // applies a journal's changes to the module file and drops the journal. caller must hold the journal's lock.
+    //
+    private boolean compact (Journal j) {
+        long start = System.currentTimeMillis();
+        File f = new File (j.path);
+        int applied = 0;
+
+        if (j.records.size() > 0 && ! f.isFile()) {
+            log.warn ("Dropping " + j.records.size() + " journaled changes of " + j.path + ": file does not exist.");
+            forget (j);
+            return true;
+        }
+
+        try {
+            for (int i = j.applied; i < j.records.size(); i++) {
+                Record r = j.records.get (i);
+                ModuleLayout layout = ModuleIndex.getInstance().getLayout (f, j.handler);
+
+                if (layout == null)
+                    throw new IOException ("unable to scan the file");
+
+                // the first change may have been spliced in by a compaction that was cut short before the next one
+                // was marked. the changes before it are in the file and the ones after it aren't, so its ids tell.
+                //
+                if (i == j.marked && ((r.op == OP_ADD) ? layout.indexOf (r.element.getChildText ("id")) >= 0 : layout.indexOf (r.id) < 0)) {
+                    j.applied = i + 1;
+                    continue;
+                }
+
+                if (j.marked != i) {
+                    write (j, new Record (OP_COMPACTED, String.valueOf (i), null));
+                    j.marked = i;
+                }
+
+                if (! ModuleXmlPatcher.patch (j.path, j.handler, r.id, r.element))
+                    throw new IOException ("unable to splice the change to \"" + ((r.id != null) ? r.id : r.element.getChildText ("id")) + "\" into the file");
+
+                j.applied = i + 1;
+                applied++;
+            }
+        } catch (IOException e) {
+            log.error ("Error compacting the journal of " + j.path + ": " + e.getMessage());
+            j.failed = true;
+            return false;
+        }
+
+        log.debug ("Compacted " + applied + " of " + j.records.size() + " journaled changes into " + j.path + " in " + (System.currentTimeMillis() - start) + " ms.");
+
+        // the pinned module is the module that's now in the file.
+        //
+        drop (j);
+        ModuleCache.getInstance().unpin (f);
+
+        return true;
+    }
+
+    // deletes a journal's file and forgets it. caller must hold the journal's lock.
+    //
+    private void drop (Journal j) {
+        if (j.out != null) {
+            try {
+                j.out.close();
+            } catch (IOException ignored) {
+            }
+
+            j.out = null;
+        }
+
+        if (j.file.exists() && ! j.file.delete())
+            log.warn ("Unable to delete journal file " + j.file.getPath());
+
+        j.removed = true;
+
+        synchronized (this) {
+            journals.remove (j.key);
+        }
+    }
+
+    // drops a journal whose changes won't be compacted along with the module it pinned.
+    //
+    private void forget (Journal j) {
+        drop (j);
+
+        ModuleCache.getInstance().unpin (new File (j.path));
+        ModuleCache.getInstance().invalidate (j.path);
+    }
+
+    // appends a change to a journal's file and syncs it to disk. the file and its header are written with the first
+    // change. caller must hold the journal's lock.
+    //
+    private void write (
+        Journal j,
+        Record r
+    ) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream (body);
+
+        if (j.out == null && j.length > 0) {
+
+            // a recovered journal. anything after its last whole record was cut off by a crash and is dropped.
+            //
+            j.out = new FileOutputStream (j.file, true);
+            j.out.getChannel().truncate (j.length);
+        } else if (j.out == null) {
+            j.file.getParentFile().mkdirs();
+            j.out = new FileOutputStream (j.file);
+
+            out.writeInt (MAGIC);
+            out.writeInt (VERSION);
+            out.writeUTF (j.type);
+            out.writeUTF (j.path);
+        }
+
+        byte[] record = r.toBytes();
+        CRC32 crc = new CRC32();
+
+        crc.update (record);
+
+        out.writeInt (record.length);
+        out.write (record);
+        out.writeLong (crc.getValue());
+        out.flush();
+
+        j.out.write (body.toByteArray());
+        j.out.flush();
+        j.out.getFD().sync();
+    }
+
+    // compacts the journals in the journal folder. a change cut off by a crash (short or failing its checksum) and
+    // anything after it is ignored since it was never acknowledged. compaction resumes where the journal's last
+    // mark says it got to.
+    //
+    private void recover() {
+        File[] files = getJournalDir().listFiles();
+
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            if (! file.getName().endsWith (".journal"))
+                continue;
+
+            DataInputStream in = null;
+            Journal j = null;
+
+            try {
+                CountingInputStream counter = new CountingInputStream (new BufferedInputStream (new FileInputStream (file)));
+
+                in = new DataInputStream (counter);
+
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException ("not a journal file");
+
+                String type = in.readUTF();
+                String path = in.readUTF();
+                ModuleXmlReader.ItemHandler<?> handler = handlers.get (type);
+
+                if (handler == null) {
+                    log.warn ("Leaving journal file " + file.getPath() + " of " + path + ": unknown module type " + type + ".");
+                    continue;
+                }
+
+                j = new Journal (getKey (new File (path)), path, type, handler);
+
+                try {
+                    while (true) {
+                        byte[] record = new byte[in.readInt()];
+                        CRC32 crc = new CRC32();
+
+                        in.readFully (record);
+                        crc.update (record);
+
+                        if (in.readLong() != crc.getValue())
+                            break;
+
+                        Record r = Record.fromBytes (record);
+
+                        if (r.op == OP_COMPACTED)
+                            j.applied = j.marked = Math.min (Integer.parseInt (r.id), j.records.size());
+                        else
+                            j.records.add (r);
+
+                        j.length = counter.getByteCount();
+                    }
+                } catch (EOFException ignored) {
+                }
+            } catch (Exception e) {
+                log.error ("Unable to read journal file " + file.getPath() + ": " + e.getMessage());
+                continue;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+
+            log.info ("Recovering " + (j.records.size() - j.applied) + " journaled changes of " + j.path);
+
+            synchronized (this) {
+                journals.put (j.key, j);
+            }
+
+            Lock lock = FileLocks.getInstance().rewriteLock (j.path);
+
+            lock.lock();
+            try {
+                synchronized (j) {
+                    compact (j);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // checks that a change can be spliced into the module as the journal has it and returns the index of the item it
+    // goes after (add), replaces (edit) or removes (delete). returns -1 if it can't. the rules are the patcher's.
+    //
+    private static int check (
+        List<ModuleLayout.Item> items,
+        Record r
+    ) {
+        if (r.op == OP_ADD) {
+            int index = -1;
+
+            for (int i = items.size() - 1; i >= 0 && index < 0; i--) {
+                if (items.get (i).getName().equals (r.element.getName()))
+                    index = i;
+            }
+
+            if (index < 0)
+                return -1;
+
+            ModuleLayout.Item sibling = items.get (index);
+
+            for (int i = index + 1; i < items.size(); i++) {
+                if (items.get (i).getParentLevel() == sibling.getParentLevel() && items.get (i).getParentName().equals (sibling.getParentName()))
+                    index = i;
+            }
+
+            // an id already in the module would look like an add that's in the file already when compacting.
+            //
+            return (indexOf (items, r.element.getChildText ("id")) < 0) ? index : -1;
+        }
+
+        int index = indexOf (items, r.id);
+
+        if (index < 0)
+            return -1;
+
+        if (r.op == OP_EDIT)
+            return (items.get (index).getName().equals (r.element.getName())) ? index : -1;
+
+        return (items.get (index).getParentLevel() == 0 || ModuleXmlPatcher.hasSibling (items, index)) ? index : -1;
+    }
+
+    // updates the journal's items for a change that passed check().
+    //
+    private static void apply (
+        List<ModuleLayout.Item> items,
+        Record r,
+        int index
+    ) {
+        if (r.op == OP_DELETE) {
+            items.remove (index);
+            return;
+        }
+
+        ModuleLayout.Item target = items.get (index);
+        ModuleLayout.Item item = new ModuleLayout.Item (0, 0, r.element.getName(), target.getParentName(), target.getParentLevel(), r.element.getChildText ("id"));
+
+        if (r.op == OP_ADD)
+            items.add (index + 1, item);
+        else
+            items.set (index, item);
+    }
+
+    // same as ModuleLayout.indexOf(): the index of the item with an id, or -1 if there is none or more than one.
+    //
+    private static int indexOf (
+        List<ModuleLayout.Item> items,
+        String id
+    ) {
+        int result = -1;
+
+        if (id == null)
+            return -1;
+
+        for (int i = 0; i < items.size(); i++) {
+            if (id.equals (items.get (i).getId())) {
+                if (result >= 0)
+                    return -1;
+
+                result = i;
+            }
+        }
+
+        return result;
+    }
+
+    private static File getJournalDir() {
+        return new File (FilesDAO.getPdtHome() + "/gui/journal");
+    }
+
+    // canonical paths let different spellings of the same file share a journal.
+    //
+    private static String getKey (File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+
+    private static String hash (String s) {
+        try {
+            return DatatypeConverter.printHexBinary (MessageDigest.getInstance ("SHA-1").digest (s.getBytes ("UTF-8"))).toLowerCase();
+        } catch (Exception e) { // SHA-1 and UTF-8 are always supported.
+            throw new IllegalStateException (e);
+        }
+    }
+
+    // the journaled changes of a module file.
+    //
+    private static class Journal {
+        final String key;
+        final String path;
+        final String type;
+        final ModuleXmlReader.ItemHandler<?> handler;
+        final File file;
+        final List<Record> records = new ArrayList<Record>();
+
+        FileOutputStream out = null;
+        long length = 0; // the length of a recovered journal's file up to its last whole record.
+        int applied = 0; // the number of changes that are in the module file.
+        int marked = -1; // the number of changes the journal's file last said were in the module file.
+        List<ModuleLayout.Item> items = null; // the module's items with the journaled changes applied.
+        Object module = null;
+        long lastAppend = 0;
+        boolean failed = false;
+        boolean removed = false;
+
+        Journal (
+            String key,
+            String path,
+            String type,
+            ModuleXmlReader.ItemHandler<?> handler
+        ) {
+            this.key = key;
+            this.path = path;
+            this.type = type;
+            this.handler = handler;
+            this.file = new File (getJournalDir(), hash (key) + ".journal");
+        }
+    }
+
+    // a single journaled change.
+    //
+    private static class Record {
+        final byte op;
+        final String id;
+        final Element element;
+
+        Record (
+            byte op,
+            String id,
+            Element element
+        ) {
+            this.op = op;
+            this.id = id;
+            this.element = element;
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream (bytes);
+
+            out.writeByte (op);
+            writeString (out, (id != null) ? id : "");
+
+            if (element != null)
+                writeElement (out, element);
+
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+
+        static Record fromBytes (byte[] b) throws IOException {
+            DataInputStream in = new DataInputStream (new ByteArrayInputStream (b));
+            byte op = in.readByte();
+            String id = readString (in);
+            Element element = (op == OP_ADD || op == OP_EDIT) ? readElement (in) : null;
+
+            return new Record (op, (op != OP_ADD) ? id : null, element);
+        }
+
+        // the element is written as its tree rather than as XML text, which loses the difference between an empty
+        // text node and no text at all (i.e. "<pkgName></pkgName>" and "<pkgName/>".)
+        //
+        private static void writeElement (
+            DataOutputStream out,
+            Element e
+        ) throws IOException {
+            writeString (out, e.getName());
+            writeString (out, e.getNamespacePrefix());
+            writeString (out, e.getNamespaceURI());
+
+            out.writeInt (e.getAttributes().size());
+
+            for (Attribute a : e.getAttributes()) {
+                writeString (out, a.getName());
+                writeString (out, a.getNamespacePrefix());
+                writeString (out, a.getNamespaceURI());
+                writeString (out, a.getValue());
+            }
+
+            out.writeInt (e.getContentSize());
+
+            for (Content c : e.getContent()) {
+                if (c instanceof Element) {
+                    out.writeByte (CONTENT_ELEMENT);
+                    writeElement (out, (Element) c);
+                } else if (c instanceof CDATA) {
+                    out.writeByte (CONTENT_CDATA);
+                    writeString (out, ((CDATA) c).getText());
+                } else if (c instanceof Text) {
+                    out.writeByte (CONTENT_TEXT);
+                    writeString (out, ((Text) c).getText());
+                } else if (c instanceof Comment) {
+                    out.writeByte (CONTENT_COMMENT);
+                    writeString (out, ((Comment) c).getText());
+                } else {
+                    throw new IOException ("unsupported content " + c.getCType());
+                }
+            }
+        }
+
+        private static Element readElement (DataInputStream in) throws IOException {
+            String name = readString (in);
+            Element e = new Element (name, Namespace.getNamespace (readString (in), readString (in)));
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String attrName = readString (in);
+                Namespace ns = Namespace.getNamespace (readString (in), readString (in));
+
+                e.setAttribute (new Attribute (attrName, readString (in), ns));
+            }
+
+            count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+
+                switch (kind) {
+                    case CONTENT_ELEMENT: e.addContent (readElement (in)); break;
+                    case CONTENT_CDATA:   e.addContent (new CDATA (readString (in))); break;
+                    case CONTENT_TEXT:    e.addContent (new Text (readString (in))); break;
+                    case CONTENT_COMMENT: e.addContent (new Comment (readString (in))); break;
+                    default:              throw new IOException ("unknown content kind " + kind);
+                }
+            }
+
+            return e;
+        }
+
+        // strings are written with an int length since item text (e.g. a regression query) may be longer than
+        // writeUTF() allows.
+        //
+        private static void writeString (
+            DataOutputStream out,
+            String s
+        ) throws IOException {
+            byte[] b = s.getBytes ("UTF-8");
+
+            out.writeInt (b.length);
+            out.write (b);
+        }
+
+        private static String readString (DataInputStream in) throws IOException {
+            byte[] b = new byte[in.readInt()];
+
+            in.readFully (b);
+
+            return new String (b, "UTF-8");
+        }
+    }
+}
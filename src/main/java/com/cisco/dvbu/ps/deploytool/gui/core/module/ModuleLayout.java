@@ -0,0 +1,526 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Records where each item element of a module XML file is located in the file. The file is scanned as raw
+ * bytes (no XML parser is involved) and the byte offsets of the start and end of every item element are
+ * recorded along with the item's id (the text of its <code>&lt;id&gt;</code> child element.) This lets
+ * single item changes be spliced into the file without rewriting every other item.
+ * </p>
+ * <p>
+ * Only files encoded in UTF-8 (or plain ASCII) without a DOCTYPE can be scanned. {@link #scan} returns
+ * <code>null</code> for anything else and callers should fall back to processing the whole file.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleLayout {
+    private static final Logger log = LoggerFactory.getLogger (ModuleLayout.class);
+
+    private long lastModified;
+    private long length;
+    private List<Item> items;
+
+    /**
+     * <p>
+     * The location of a single item element.
+     * </p>
+     */
+    public static class Item {
+        private long start;
+        private long end;
+        private String name;
+        private String parentName;
+        private int parentLevel;
+        private String id;
+
+        public Item (
+            long start,
+            long end,
+            String name,
+            String parentName,
+            int parentLevel,
+            String id
+        ) {
+            this.start = start;
+            this.end = end;
+            this.name = name;
+            this.parentName = parentName;
+            this.parentLevel = parentLevel;
+            this.id = id;
+        }
+
+        /**
+         * @return  The offset of the item's start tag's "&lt;".
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return  The offset just past the item's end tag's "&gt;".
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return  The local name of the item element.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return  The local name of the element containing the item (the root element or a grouping element.)
+         */
+        public String getParentName() {
+            return parentName;
+        }
+
+        /**
+         * @return  The nesting level of the element containing the item (0 for the root element.)
+         */
+        public int getParentLevel() {
+            return parentLevel;
+        }
+
+        /**
+         * @return  The item's id or <code>null</code> if it has no id element.
+         */
+        public String getId() {
+            return id;
+        }
+
+        // returns a copy of the item moved by a number of bytes.
+        //
+        Item shift (long delta) {
+            return new Item (start + delta, end + delta, name, parentName, parentLevel, id);
+        }
+    }
+
+    public ModuleLayout (
+        long lastModified,
+        long length,
+        List<Item> items
+    ) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.items = Collections.unmodifiableList (items);
+    }
+
+    /**
+     * @return  The last modified time of the file when it was scanned.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return  The size of the file when it was scanned.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return  The items in document order.
+     */
+    public List<Item> getItems() {
+        return items;
+    }
+
+    /**
+     * <p>
+     * Indicates whether the layout still describes a file (i.e. the file hasn't changed since it was scanned.)
+     * </p>
+     *
+     * @param  f  The module file.
+     * @return    The value.
+     */
+    public boolean isCurrent (File f) {
+        return f.lastModified() == lastModified && f.length() == length;
+    }
+
+    /**
+     * <p>
+     * Returns the index of the item with an id. Returns -1 if there is no such item or if more than one item
+     * has the id (in which case it's impossible to tell which one is meant.)
+     * </p>
+     *
+     * @param  id  The item id.
+     * @return     The index into {@link #getItems}.
+     */
+    public int indexOf (String id) {
+        int result = -1;
+
+        if (id == null)
+            return -1;
+
+        for (int i = 0; i < items.size(); i++) {
+            if (id.equals (items.get (i).getId())) {
+                if (result >= 0)
+                    return -1;
+
+                result = i;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Scans a module file for its item elements. The handler's <code>isContainer()</code> method is used to
+     * tell grouping elements from items exactly as {@link ModuleXmlReader} does.
+     * </p>
+     *
+     * @param  f        The module file.
+     * @param  handler  The handler for the module type.
+     * @return          The layout or <code>null</code> if the file can't be scanned.
+     * @throws IOException  If the file cannot be read.
+     */
+    public static ModuleLayout scan (
+        File f,
+        ModuleXmlReader.ItemHandler<?> handler
+    ) throws IOException {
+        long start = System.currentTimeMillis();
+        long lastModified = f.lastModified();
+        long length = f.length();
+        InputStream in = new FileInputStream (f);
+
+        try {
+            List<Item> items;
+
+            try {
+                items = new Scanner (in, handler).scan();
+            } catch (NumberFormatException e) {
+                items = null; // bad character reference
+            }
+
+            if (items == null) {
+                log.debug ("Unable to scan " + f.getPath() + ".");
+                return null;
+            }
+
+            log.debug ("Scanned " + items.size() + " items from " + f.getPath() + " in " + (System.currentTimeMillis() - start) + " ms.");
+
+            return new ModuleLayout (lastModified, length, items);
+        } finally {
+            in.close();
+        }
+    }
+
+    // byte level XML tokenizer. only tracks as much as is needed to find the item elements and their ids.
+    //
+    private static class Scanner {
+        private InputStream in;
+        private ModuleXmlReader.ItemHandler<?> handler;
+        private byte[] buf = new byte[65536];
+        private int bufPos = 0;
+        private int bufLen = 0;
+        private long pos = 0;
+
+        private List<Item> items = new ArrayList<Item>();
+        private List<String> names = new ArrayList<String>();
+        private int itemDepth = -1;
+        private long itemStart;
+        private String itemName;
+        private String itemParent;
+        private String itemId;
+        private boolean capturing = false;
+        private ByteArrayOutputStream idBuf = new ByteArrayOutputStream();
+        private ByteArrayOutputStream nameBuf = new ByteArrayOutputStream();
+
+        Scanner (
+            InputStream in,
+            ModuleXmlReader.ItemHandler<?> handler
+        ) {
+            this.in = in;
+            this.handler = handler;
+        }
+
+        List<Item> scan() throws IOException {
+            int c = next();
+
+            // UTF-16 and other multi-byte encodings aren't supported. skip a UTF-8 byte order mark.
+            //
+            if (c == 0xFE || c == 0xFF || c == 0x00)
+                return null;
+
+            if (c == 0xEF) {
+                next();
+                next();
+                c = next();
+            }
+
+            for (; c != -1; c = next()) {
+                if (c != '<') {
+                    if (capturing)
+                        idBuf.write (c);
+
+                    continue;
+                }
+
+                long tagStart = pos - 1;
+
+                c = next();
+
+                // processing instruction or XML declaration
+                //
+                if (c == '?') {
+                    String pi = readUntil ("?>");
+
+                    if (pi == null || (pi.startsWith ("xml ") && ! isSupportedDeclaration (pi)))
+                        return null;
+
+                // comment, CDATA section or DOCTYPE
+                //
+                } else if (c == '!') {
+                    c = next();
+
+                    if (c == '-') {
+                        if (next() != '-' || readUntil ("-->") == null)
+                            return null;
+                    } else if (c == '[') {
+                        String cdata = readUntil ("]]>");
+
+                        if (cdata == null || ! cdata.startsWith ("CDATA["))
+                            return null;
+
+                        if (capturing)
+                            idBuf.write (cdata.substring (6).replace ("&", "&amp;").replace ("<", "&lt;").getBytes ("UTF-8"));
+                    } else {
+                        return null;
+                    }
+
+                // end tag
+                //
+                } else if (c == '/') {
+                    String name = readUntil (">");
+
+                    if (name == null)
+                        return null;
+
+                    endElement (localName (name.trim()));
+
+                // start tag
+                //
+                } else if (c != -1) {
+                    nameBuf.reset();
+
+                    while (c != -1 && c != '>' && c != '/' && ! Character.isWhitespace (c)) {
+                        nameBuf.write (c);
+                        c = next();
+                    }
+
+                    // skip over the attributes (keeping in mind that attribute values may contain ">".)
+                    //
+                    int quote = 0;
+                    int prev = 0;
+
+                    while (c != -1 && (c != '>' || quote != 0)) {
+                        if (quote == 0 && (c == '"' || c == '\''))
+                            quote = c;
+                        else if (c == quote)
+                            quote = 0;
+
+                        prev = c;
+                        c = next();
+                    }
+
+                    if (c == -1)
+                        return null;
+
+                    String name = localName (nameBuf.toString ("UTF-8"));
+
+                    startElement (name, tagStart);
+
+                    if (prev == '/')
+                        endElement (name);
+                }
+
+                if (c == -1)
+                    return null;
+            }
+
+            // unbalanced tags
+            //
+            if (! names.isEmpty())
+                return null;
+
+            return items;
+        }
+
+        private void startElement (
+            String name,
+            long tagStart
+        ) {
+            int depth = names.size();
+
+            if (depth > 0 && itemDepth < 0 && ! handler.isContainer (name, depth)) {
+                itemDepth = depth;
+                itemStart = tagStart;
+                itemName = name;
+                itemParent = names.get (depth - 1);
+                itemId = null;
+            } else if (itemDepth >= 0 && depth == itemDepth + 1 && name.equals ("id")) {
+                capturing = true;
+                idBuf.reset();
+            }
+
+            names.add (name);
+        }
+
+        private void endElement (String name) throws UnsupportedEncodingException {
+            if (names.isEmpty())
+                return;
+
+            names.remove (names.size() - 1);
+
+            if (capturing && names.size() == itemDepth + 1) {
+                capturing = false;
+                itemId = unescape (idBuf.toString ("UTF-8"));
+            }
+
+            if (names.size() == itemDepth) {
+                items.add (new Item (itemStart, pos, itemName, itemParent, itemDepth - 1, itemId));
+                itemDepth = -1;
+            }
+        }
+
+        // reads up to and including a terminator and returns what came before the terminator.
+        //
+        private String readUntil (String terminator) throws IOException {
+            byte[] t = terminator.getBytes ("US-ASCII");
+            byte[] b = new byte[256];
+            int len = 0;
+            int c;
+
+            while ((c = next()) != -1) {
+                if (len == b.length) {
+                    byte[] tmp = new byte[b.length * 2];
+                    System.arraycopy (b, 0, tmp, 0, len);
+                    b = tmp;
+                }
+
+                b[len++] = (byte) c;
+
+                if (len >= t.length && endsWith (b, len, t))
+                    return new String (b, 0, len - t.length, "UTF-8");
+            }
+
+            return null;
+        }
+
+        private static boolean endsWith (
+            byte[] b,
+            int len,
+            byte[] t
+        ) {
+            for (int i = 0; i < t.length; i++) {
+                if (b[len - t.length + i] != t[i])
+                    return false;
+            }
+
+            return true;
+        }
+
+        private int next() throws IOException {
+            if (bufPos == bufLen) {
+                bufLen = in.read (buf);
+                bufPos = 0;
+
+                if (bufLen <= 0) {
+                    bufLen = 0;
+                    return -1;
+                }
+            }
+
+            pos++;
+            return buf[bufPos++] & 0xFF;
+        }
+    }
+
+    // makes sure the XML declaration doesn't specify an encoding that isn't a superset of ASCII.
+    //
+    private static boolean isSupportedDeclaration (String decl) {
+        int i = decl.indexOf ("encoding");
+
+        if (i < 0)
+            return true;
+
+        String enc = decl.substring (i + 8).replaceAll ("^\\s*=\\s*[\"']([^\"']*)[\"'].*$", "$1").trim();
+
+        return enc.equalsIgnoreCase ("UTF-8") || enc.equalsIgnoreCase ("UTF8") || enc.equalsIgnoreCase ("US-ASCII");
+    }
+
+    private static String localName (String name) {
+        int i = name.indexOf (':');
+
+        return (i < 0) ? name : name.substring (i + 1);
+    }
+
+    // replaces the predefined entities and character references with the characters they stand for.
+    //
+    static String unescape (String s) {
+        if (s.indexOf ('&') < 0)
+            return s;
+
+        StringBuilder result = new StringBuilder (s.length());
+        int i = 0;
+
+        while (i < s.length()) {
+            char c = s.charAt (i);
+            int semi = (c == '&') ? s.indexOf (';', i) : -1;
+
+            if (semi < 0) {
+                result.append (c);
+                i++;
+                continue;
+            }
+
+            String ent = s.substring (i + 1, semi);
+
+            if (ent.equals ("amp"))
+                result.append ('&');
+            else if (ent.equals ("lt"))
+                result.append ('<');
+            else if (ent.equals ("gt"))
+                result.append ('>');
+            else if (ent.equals ("quot"))
+                result.append ('"');
+            else if (ent.equals ("apos"))
+                result.append ('\'');
+            else if (ent.startsWith ("#x"))
+                result.appendCodePoint (Integer.parseInt (ent.substring (2), 16));
+            else if (ent.startsWith ("#"))
+                result.appendCodePoint (Integer.parseInt (ent.substring (1)));
+            else
+                result.append ('&').append (ent).append (';');
+
+            i = semi + 1;
+        }
+
+        return result.toString();
+    }
+}
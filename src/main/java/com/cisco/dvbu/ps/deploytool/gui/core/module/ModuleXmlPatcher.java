@@ -0,0 +1,366 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
+import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.Element;
+
+import org.jdom2.output.Format;
+import org.jdom2.output.StAXStreamOutputter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Applies a single item change (add, replace or delete) to a module XML file by splicing the item's bytes into
+ * a copy of the file rather than regenerating every item. The unchanged portions of the file are copied with
+ * {@link FileChannel#transferTo} and the copy then replaces the original file.
+ * </p>
+ * <p>
+ * The item locations come from a {@link ModuleLayout} kept by {@link ModuleIndex}. Layouts are adjusted after each
+ * patch so that consecutive edits to the same file don't require rescanning it.
+ * </p>
+ * <p>
+ * The patch methods return <code>false</code> whenever a change can't be spliced in such that the file ends up
+ * the same as a full serialize would have made it (e.g. the file can't be scanned, the id isn't unique, or an
+ * item moves to a different grouping element.) Callers should then serialize the entire module.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleXmlPatcher {
+    private static final Logger log = LoggerFactory.getLogger (ModuleXmlPatcher.class);
+    private static final XMLOutputFactory xof = XMLOutputFactory.newInstance();
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ModuleXmlPatcher() {
+    }
+
+    /**
+     * <p>
+     * Applies a single item change to a module file. If user preferences indicate to save backups of edited
+     * files, the original file is kept as a backup.
+     * </p>
+     *
+     * @param  path     The path to the module file.
+     * @param  handler  The module type's item handler (used to locate the items in the file.)
+     * @param  id       The id of the item being replaced or deleted or <code>null</code> to add an item.
+     * @param  e        The new item element or <code>null</code> to delete an item. The element must already
+     *                  contain its own indentation as for {@link ModuleXmlWriter#writeItem}.
+     * @return          <code>true</code> if the file was patched, <code>false</code> if the caller must serialize
+     *                  the entire module instead.
+     * @throws IOException  If the file cannot be written.
+     */
+    public static boolean patch (
+        String path,
+        ModuleXmlReader.ItemHandler<?> handler,
+        String id,
+        Element e
+    ) throws IOException {
+        if (path == null || (id == null && e == null))
+            return false;
+
+        long start = System.currentTimeMillis();
+        File f = new File (path);
+
+        if (! f.exists())
+            return false;
+
+        ModuleLayout layout = ModuleIndex.getInstance().getLayout (f, handler);
+        if (layout == null)
+            return false;
+
+        List<ModuleLayout.Item> items = layout.getItems();
+        ModuleLayout.Item target = null;
+        int index;
+        long spliceStart, spliceEnd;
+        int prefixLength = 0;
+        byte[] bytes;
+
+        if (id == null) {
+
+            // new items go after the last item of the same kind (i.e. into the same grouping element.)
+            //
+            index = -1;
+            for (int i = items.size() - 1; i >= 0 && index < 0; i--) {
+                if (items.get (i).getName().equals (e.getName()))
+                    index = i;
+            }
+
+            if (index < 0) {
+                log.debug ("No " + e.getName() + " elements in " + path + " to add after.");
+                return false;
+            }
+
+            ModuleLayout.Item sibling = items.get (index);
+            for (int i = index + 1; i < items.size(); i++) {
+                if (items.get (i).getParentLevel() == sibling.getParentLevel() && items.get (i).getParentName().equals (sibling.getParentName()))
+                    index = i;
+            }
+
+            target = items.get (index);
+            spliceStart = spliceEnd = target.getEnd();
+            String prefix = "\n" + StringUtils.getIndent (target.getParentLevel() + 1);
+
+            bytes = toBytes (prefix, e);
+            prefixLength = prefix.length();
+            index++;
+        } else {
+            index = layout.indexOf (id);
+
+            if (index < 0) {
+                log.debug ("Id \"" + id + "\" not found or not unique in " + path + ".");
+                return false;
+            }
+
+            target = items.get (index);
+
+            if (e != null) {
+
+                // changing the element name (e.g. a regression query becoming a regression test) moves it elsewhere.
+                //
+                if (! target.getName().equals (e.getName()))
+                    return false;
+
+                spliceStart = target.getStart();
+                spliceEnd = target.getEnd();
+                bytes = toBytes ("", e);
+            } else {
+
+                // removing the last item of a grouping element would leave an empty grouping element behind.
+                //
+                if (target.getParentLevel() > 0 && ! hasSibling (items, index))
+                    return false;
+
+                spliceStart = target.getStart() - leadingWhitespace (f, target.getStart());
+                spliceEnd = target.getEnd();
+                bytes = new byte[0];
+            }
+        }
+
+        if (! verify (f, target, layout))
+            return false;
+
+        // write the spliced copy next to the original and swap it in.
+        //
+        File tmp = File.createTempFile (f.getName() + ".", ".tmp", f.getAbsoluteFile().getParentFile());
+
+        try {
+            splice (f, tmp, spliceStart, spliceEnd, bytes);
+            replace (f, tmp);
+            FileLocks.getInstance().changed (path);
+        } finally {
+            if (tmp.exists())
+                tmp.delete();
+        }
+
+        ModuleCache.getInstance().invalidate (path);
+
+        // adjust the layout for the new file rather than throwing it away.
+        //
+        long delta = bytes.length - (spliceEnd - spliceStart);
+        List<ModuleLayout.Item> newItems = new ArrayList<ModuleLayout.Item> (items.size() + 1);
+
+        for (ModuleLayout.Item item : items) {
+            if (item != target || id == null)
+                newItems.add ((item.getStart() >= spliceEnd) ? item.shift (delta) : item);
+        }
+
+        if (e != null) {
+            long itemStart = spliceStart + prefixLength;
+
+            newItems.add (index, new ModuleLayout.Item (itemStart, spliceStart + bytes.length, e.getName(), target.getParentName(), target.getParentLevel(), e.getChildText ("id")));
+        }
+
+        ModuleIndex.getInstance().putLayout (f, new ModuleLayout (f.lastModified(), f.length(), newItems));
+
+        log.debug ("Patched " + path + " in " + (System.currentTimeMillis() - start) + " ms.");
+
+        return true;
+    }
+
+    // serializes an item element to UTF-8 bytes with the same writer ModuleXmlWriter uses.
+    //
+    private static byte[] toBytes (
+        String prefix,
+        Element e
+    ) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            XMLStreamWriter writer;
+
+            synchronized (xof) {
+                writer = xof.createXMLStreamWriter (out, "UTF-8");
+            }
+
+            writer.writeCharacters (prefix);
+            new StAXStreamOutputter (Format.getRawFormat()).output (e, writer);
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException xe) {
+            throw new IOException ("Unable to write element " + e.getName() + ": " + xe.getMessage());
+        }
+
+        return out.toByteArray();
+    }
+
+    // indicates whether an item shares its grouping element with any other item.
+    //
+    static boolean hasSibling (
+        List<ModuleLayout.Item> items,
+        int index
+    ) {
+        ModuleLayout.Item item = items.get (index);
+
+        for (int i = 0; i < items.size(); i++) {
+            ModuleLayout.Item other = items.get (i);
+
+            if (i != index && other.getParentLevel() == item.getParentLevel() && other.getParentName().equals (item.getParentName()))
+                return true;
+        }
+
+        return false;
+    }
+
+    // counts the indentation and line break that precede an item so that deleting it doesn't leave a blank line.
+    //
+    private static int leadingWhitespace (
+        File f,
+        long offset
+    ) throws IOException {
+        int len = (int) Math.min (offset, 256);
+        byte[] b = new byte[len];
+        RandomAccessFile raf = new RandomAccessFile (f, "r");
+
+        try {
+            raf.seek (offset - len);
+            raf.readFully (b);
+        } finally {
+            raf.close();
+        }
+
+        for (int i = len - 1; i >= 0; i--) {
+            if (b[i] == '\n')
+                return len - i;
+
+            if (b[i] != ' ' && b[i] != '\t' && b[i] != '\r')
+                return 0;
+        }
+
+        return 0;
+    }
+
+    // makes sure the bytes at an item's recorded location look like that item. guards against the file having
+    // been changed without its modification time or size changing.
+    //
+    private static boolean verify (
+        File f,
+        ModuleLayout.Item item,
+        ModuleLayout layout
+    ) throws IOException {
+        if (! layout.isCurrent (f) || item.getEnd() > f.length())
+            return false;
+
+        byte[] head = ("<" + item.getName()).getBytes ("UTF-8");
+        byte[] b = new byte[head.length];
+        byte[] last = new byte[1];
+        RandomAccessFile raf = new RandomAccessFile (f, "r");
+
+        try {
+            raf.seek (item.getStart());
+            raf.readFully (b);
+            raf.seek (item.getEnd() - 1);
+            raf.readFully (last);
+        } finally {
+            raf.close();
+        }
+
+        return last[0] == '>' && new String (b, "UTF-8").equals ("<" + item.getName());
+    }
+
+    // copies a file to another replacing a byte range.
+    //
+    private static void splice (
+        File src,
+        File dest,
+        long start,
+        long end,
+        byte[] bytes
+    ) throws IOException {
+        FileInputStream in = new FileInputStream (src);
+        FileOutputStream out = new FileOutputStream (dest);
+
+        try {
+            FileChannel inCh = in.getChannel();
+            FileChannel outCh = out.getChannel();
+
+            transfer (inCh, 0, start, outCh);
+
+            ByteBuffer bb = ByteBuffer.wrap (bytes);
+            while (bb.hasRemaining())
+                outCh.write (bb);
+
+            transfer (inCh, end, inCh.size() - end, outCh);
+
+            outCh.force (false);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    // transferTo() may copy less than requested, so loop until it's all there.
+    //
+    private static void transfer (
+        FileChannel in,
+        long position,
+        long count,
+        FileChannel out
+    ) throws IOException {
+        while (count > 0) {
+            long n = in.transferTo (position, count, out);
+
+            if (n <= 0)
+                throw new IOException ("Unable to copy module file contents.");
+
+            position += n;
+            count -= n;
+        }
+    }
+
+    // swaps the new file in for the old, backing up the original if backups are turned on.
+    //
+    private static void replace (
+        File f,
+        File tmp
+    ) throws IOException {
+        BackupStore.getInstance().backup (f);
+        ModuleXmlWriter.rename (tmp, f);
+    }
+}
@@ -0,0 +1,443 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.input.StAXStreamBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Reads the items out of a PD Tool module XML file. The file is read with a StAX pull parser and only the
+ * element for the item currently being read is built in memory, so loading a module no longer requires a
+ * JDOM document of the entire file to exist alongside the model objects built from it.
+ * </p>
+ * <p>
+ * Each item element is handed to an {@link ItemHandler} which builds the model object (typically by way of
+ * the model's <code>Element</code> constructor.) Handlers indicate which elements are just grouping elements
+ * (such as <code>regressionQueries</code> or <code>triggerList</code>) whose children are the actual items.
+ * </p>
+ * <p>
+ * List views only need a few values from each item. For those, {@link #project} reads the file the same way
+ * but builds neither elements nor model objects: it just captures the text of the elements named by a
+ * {@link RowProjection} and hands them to the projection to build a list row.
+ * </p>
+ * <p>
+ * If the streaming parse fails for any reason, the file is reparsed into a full JDOM document and the same
+ * handler is applied to it, so errors are reported exactly as they were before.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleXmlReader {
+    private static final Logger log = LoggerFactory.getLogger (ModuleXmlReader.class);
+    private static final XMLInputFactory xif;
+
+    static {
+        xif = XMLInputFactory.newInstance();
+        xif.setProperty (XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    /**
+     * <p>
+     * Builds model objects from module item elements.
+     * </p>
+     */
+    public static abstract class ItemHandler<T> {
+
+        /**
+         * <p>
+         * Indicates whether an element groups items rather than being an item itself. The default
+         * is that every child of the root element is an item.
+         * </p>
+         *
+         * @param  name   The local name of the element.
+         * @param  depth  The depth of the element (children of the root element are at depth 1.)
+         * @return        <code>true</code> if the element's children should be examined as items.
+         */
+        public boolean isContainer (
+            String name,
+            int depth
+        ) {
+            return false;
+        }
+
+        /**
+         * <p>
+         * Builds a model object from an item element.
+         * </p>
+         *
+         * @param  e           The item element.
+         * @param  parentName  The local name of the element's parent (the root element or a container.)
+         * @return             The model object or <code>null</code> if the element should be skipped.
+         */
+        public abstract T newItem (
+            Element e,
+            String parentName
+        );
+    }
+
+    /**
+     * <p>
+     * Builds list rows from the values of selected elements within module items. Fields are paths relative to
+     * the item element with "/" separating element names (e.g. <code>"id"</code> or
+     * <code>"cacheConfig/storage/mode"</code>.) A "*" matches an element of any name.
+     * </p>
+     */
+    public static abstract class RowProjection<T> {
+        private String[][] fields;
+
+        /**
+         * <p>
+         * Constructor.
+         * </p>
+         *
+         * @param  fields  The paths of the elements whose values are needed.
+         */
+        public RowProjection (String... fields) {
+            this.fields = new String[fields.length][];
+
+            for (int i = 0; i < fields.length; i++)
+                this.fields[i] = fields[i].split ("/");
+        }
+
+        /**
+         * <p>
+         * Builds a row from an item's values.
+         * </p>
+         *
+         * @param  name        The local name of the item element.
+         * @param  parentName  The local name of the item element's parent (the root element or a container.)
+         * @param  values      The text of the last element matching each field or <code>null</code> for fields
+         *                     with no matching element. Values are in the same order as the fields.
+         * @return             The row or <code>null</code> if the item should be skipped.
+         */
+        public abstract T newRow (
+            String name,
+            String parentName,
+            String[] values
+        );
+
+        // returns the indexes of the fields matching an element path (relative to the item element.)
+        //
+        private int[] match (List<String> path) {
+            int[] result = null;
+            int count = 0;
+
+            for (int i = 0; i < fields.length; i++) {
+                String[] f = fields[i];
+
+                if (f.length != path.size())
+                    continue;
+
+                boolean matches = true;
+
+                for (int j = 0; j < f.length && matches; j++)
+                    matches = f[j].equals ("*") || f[j].equals (path.get (j));
+
+                if (matches) {
+                    if (result == null)
+                        result = new int[fields.length];
+
+                    result[count++] = i;
+                }
+            }
+
+            if (result == null)
+                return null;
+
+            int[] tmp = new int[count];
+            System.arraycopy (result, 0, tmp, 0, count);
+
+            return tmp;
+        }
+    }
+
+    // reads an item either from the stream or from an element.
+    //
+    private static abstract class ItemReader<T> {
+        abstract T read (XMLStreamReader reader, String parentName) throws XMLStreamException, JDOMException;
+
+        abstract T read (Element e, String parentName);
+    }
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private ModuleXmlReader() {
+    }
+
+    /**
+     * <p>
+     * Reads all the items from a module file.
+     * </p>
+     *
+     * @param  path     The path to the module file.
+     * @param  handler  The handler used to build model objects from the item elements.
+     * @return          The list of model objects in document order.
+     * @throws IOException    If the file cannot be read.
+     * @throws JDOMException  If the file is not well formed XML.
+     */
+    public static <T> List<T> read (
+        String path,
+        final ItemHandler<T> handler
+    ) throws IOException, JDOMException {
+        return read (path, handler, new ItemReader<T>() {
+            private StAXStreamBuilder builder = new StAXStreamBuilder();
+
+            // build the item's element. this leaves the reader on the event following the item's end tag.
+            //
+            T read (XMLStreamReader reader, String parentName) throws XMLStreamException, JDOMException {
+                return handler.newItem ((Element) builder.fragment (reader), parentName);
+            }
+
+            T read (Element e, String parentName) {
+                return handler.newItem (e, parentName);
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Reads the list rows for all the items in a module file without building model objects.
+     * </p>
+     *
+     * @param  path        The path to the module file.
+     * @param  handler     The module type's item handler (used to identify grouping elements.)
+     * @param  projection  The projection used to build rows from item values.
+     * @return             The list of rows in document order.
+     * @throws IOException    If the file cannot be read.
+     * @throws JDOMException  If the file is not well formed XML.
+     */
+    public static <T> List<T> project (
+        String path,
+        ItemHandler<?> handler,
+        final RowProjection<T> projection
+    ) throws IOException, JDOMException {
+        return read (path, handler, new ItemReader<T>() {
+            T read (XMLStreamReader reader, String parentName) throws XMLStreamException {
+                String name = reader.getLocalName();
+                String[] values = new String[projection.fields.length];
+                List<String> elementPath = new ArrayList<String>();
+                List<int[]> matches = new ArrayList<int[]>();
+                List<StringBuilder> text = new ArrayList<StringBuilder>();
+
+                // capture the text of matching elements until the item's end tag.
+                //
+                for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT || ! elementPath.isEmpty(); event = reader.next()) {
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        elementPath.add (reader.getLocalName());
+
+                        int[] m = projection.match (elementPath);
+                        matches.add (m);
+                        text.add ((m != null) ? new StringBuilder() : null);
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        int last = elementPath.size() - 1;
+                        int[] m = matches.remove (last);
+                        StringBuilder sb = text.remove (last);
+
+                        if (m != null) {
+                            for (int i : m)
+                                values[i] = sb.toString();
+                        }
+
+                        elementPath.remove (last);
+                    } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                        if (! text.isEmpty() && text.get (text.size() - 1) != null)
+                            text.get (text.size() - 1).append (reader.getText());
+                    }
+                }
+
+                reader.next();
+
+                return projection.newRow (name, parentName, values);
+            }
+
+            T read (Element e, String parentName) {
+                String[] values = new String[projection.fields.length];
+
+                collect (e, new ArrayList<String>(), projection, values);
+
+                return projection.newRow (e.getName(), parentName, values);
+            }
+        });
+    }
+
+    private static <T> List<T> read (
+        String path,
+        ItemHandler<?> handler,
+        ItemReader<T> itemReader
+    ) throws IOException, JDOMException {
+        long start = System.currentTimeMillis();
+        List<T> result;
+
+        try {
+            result = readStream (path, handler, itemReader);
+
+            log.debug ("Streamed " + result.size() + " items from " + path + " in " + (System.currentTimeMillis() - start) + " ms.");
+        } catch (XMLStreamException e) {
+            log.warn ("Streaming parse of " + path + " failed (" + e.getMessage() + "). Falling back to DOM parse.");
+            result = readDocument (path, handler, itemReader);
+
+            log.debug ("Parsed " + result.size() + " items from " + path + " in " + (System.currentTimeMillis() - start) + " ms.");
+        } catch (JDOMException e) {
+            log.warn ("Streaming parse of " + path + " failed (" + e.getMessage() + "). Falling back to DOM parse.");
+            result = readDocument (path, handler, itemReader);
+
+            log.debug ("Parsed " + result.size() + " items from " + path + " in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+
+        return result;
+    }
+
+    // pulls the file through a StAX reader, building an element for one item at a time.
+    //
+    private static <T> List<T> readStream (
+        String path,
+        ItemHandler<?> handler,
+        ItemReader<T> itemReader
+    ) throws IOException, XMLStreamException, JDOMException {
+        List<T> result = new ArrayList<T>();
+        List<String> parents = new ArrayList<String>();
+        InputStream in = null;
+        XMLStreamReader reader = null;
+
+        try {
+            in = new BufferedInputStream (new FileInputStream (path));
+
+            synchronized (xif) {
+                reader = xif.createXMLStreamReader (in);
+            }
+
+            // skip the prolog and position the reader on the module's root element.
+            //
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT);
+
+            if (! reader.isStartElement())
+                throw new XMLStreamException ("No root element found.");
+
+            parents.add (reader.getLocalName());
+            int event = reader.next();
+
+            while (! parents.isEmpty()) {
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+
+                    if (handler.isContainer (name, parents.size())) {
+                        parents.add (name);
+                        event = reader.next();
+                        continue;
+                    }
+
+                    // this leaves the reader on the event following the item's end tag.
+                    //
+                    T item = itemReader.read (reader, parents.get (parents.size() - 1));
+
+                    if (item != null)
+                        result.add (item);
+
+                    event = reader.getEventType();
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    parents.remove (parents.size() - 1);
+
+                    if (! parents.isEmpty())
+                        event = reader.next();
+                } else {
+                    event = reader.next();
+                }
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+
+            if (in != null)
+                in.close();
+        }
+
+        return result;
+    }
+
+    // the original way of doing things: build a document of the entire file and walk it.
+    //
+    private static <T> List<T> readDocument (
+        String path,
+        ItemHandler<?> handler,
+        ItemReader<T> itemReader
+    ) throws IOException, JDOMException {
+        List<T> result = new ArrayList<T>();
+        Document doc = new SAXBuilder().build (path);
+        Element rootNode = doc.getRootElement();
+
+        walk (rootNode, 1, handler, itemReader, result);
+
+        return result;
+    }
+
+    // recursively applies the handler to the children of an element.
+    //
+    private static <T> void walk (
+        Element parent,
+        int depth,
+        ItemHandler<?> handler,
+        ItemReader<T> itemReader,
+        List<T> result
+    ) {
+        for (Element child : parent.getChildren()) {
+            if (handler.isContainer (child.getName(), depth)) {
+                walk (child, depth + 1, handler, itemReader, result);
+            } else {
+                T item = itemReader.read (child, parent.getName());
+
+                if (item != null)
+                    result.add (item);
+            }
+        }
+    }
+
+    // captures the text of the descendants of an element matching a projection's fields.
+    //
+    private static void collect (
+        Element parent,
+        List<String> path,
+        RowProjection<?> projection,
+        String[] values
+    ) {
+        for (Element child : parent.getChildren()) {
+            path.add (child.getName());
+
+            int[] m = projection.match (path);
+            if (m != null) {
+                for (int i : m)
+                    values[i] = child.getText();
+            }
+
+            collect (child, path, projection, values);
+            path.remove (path.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.module;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.io.FileUtils;
+
+import org.jdom2.Element;
+
+import org.jdom2.output.Format;
+import org.jdom2.output.StAXStreamOutputter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes a PD Tool module XML file one item at a time. The module DAOs used to build a JDOM document of the
+ * entire module before writing it out. With this class only the element of the item currently being written
+ * exists in memory and it is streamed through a buffered output stream to a temporary file next to the module
+ * file. {@link #finish} renames the temporary file over the module file, so a module that fails part way through
+ * being written leaves the original file as it was.
+ * </p>
+ * <p>
+ * The layout matches what the DAOs produced before: items are indented using the configured XML indent width
+ * and grouping elements (such as <code>regressionQueries</code>) place each of their children on its own line.
+ * Usage is:
+ * </p>
+ * <pre>
+ *     ModuleXmlWriter w = new ModuleXmlWriter (path, "ArchiveModule");
+ *     try {
+ *         for (Archive a : archives)
+ *             w.writeItem (a.toElement ("archive", 2).addContent ("\n" + indent));
+ *         w.finish();
+ *     } finally {
+ *         w.close();
+ *     }
+ * </pre>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ModuleXmlWriter {
+    private static final Logger log = LoggerFactory.getLogger (ModuleXmlWriter.class);
+    private static final XMLOutputFactory xof = XMLOutputFactory.newInstance();
+
+    private String path;
+    private File tmp;
+    private OutputStream out;
+    private XMLStreamWriter writer;
+    private StAXStreamOutputter outputter = new StAXStreamOutputter (Format.getRawFormat());
+    private int depth = 0;
+    private int count = 0;
+    private long start;
+
+    /**
+     * <p>
+     * Opens a temporary file next to a module file for writing and writes the XML declaration and the start tag
+     * of the module's root element. The module file itself isn't touched until {@link #finish} is called.
+     * </p>
+     *
+     * @param  path      The path of the module file.
+     * @param  rootName  The name of the module's root element (e.g. "ArchiveModule".)
+     * @throws IOException         If the temporary file cannot be created.
+     * @throws XMLStreamException  If the XML writer cannot be created.
+     */
+    public ModuleXmlWriter (
+        String path,
+        String rootName
+    ) throws IOException, XMLStreamException {
+        this.path = path;
+        this.start = System.currentTimeMillis();
+
+        File f = new File (path);
+
+        this.tmp = File.createTempFile (f.getName() + ".", ".tmp", f.getAbsoluteFile().getParentFile());
+
+        try {
+            this.out = new BufferedOutputStream (new FileOutputStream (tmp));
+
+            synchronized (xof) {
+                writer = xof.createXMLStreamWriter (out, "UTF-8");
+            }
+
+            writer.writeStartDocument ("UTF-8", "1.0");
+            writer.writeCharacters ("\n");
+            writer.writeStartElement ("ns1", rootName, DAOConstants.MODULES_NS);
+            writer.writeNamespace ("ns1", DAOConstants.MODULES_NS);
+            writer.writeCharacters ("\n");
+        } catch (XMLStreamException e) {
+            close();
+            throw e;
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>
+     * Writes an item at the current level. The element should already contain its own indentation
+     * (including the whitespace before its end tag) as produced by the models' <code>toElement()</code>
+     * methods.
+     * </p>
+     *
+     * @param  e  The item element.
+     * @throws XMLStreamException  If the element cannot be written.
+     */
+    public void writeItem (Element e) throws XMLStreamException {
+        writeBefore();
+        outputter.output (e, writer);
+        writeAfter();
+
+        count++;
+    }
+
+    /**
+     * <p>
+     * Writes the start tag of a grouping element. Subsequent items are written as children of the
+     * grouping element until {@link #endContainer} is called.
+     * </p>
+     *
+     * @param  name  The name of the grouping element.
+     * @throws XMLStreamException  If the start tag cannot be written.
+     */
+    public void startContainer (String name) throws XMLStreamException {
+        writeBefore();
+        writer.writeStartElement (name);
+        depth++;
+    }
+
+    /**
+     * <p>
+     * Writes the end tag of the current grouping element.
+     * </p>
+     *
+     * @throws XMLStreamException  If the end tag cannot be written.
+     */
+    public void endContainer() throws XMLStreamException {
+        if (depth == 0)
+            throw new IllegalStateException ("No grouping element is open.");
+
+        depth--;
+        writer.writeCharacters ("\n" + StringUtils.getIndent (depth + 1));
+        writer.writeEndElement();
+        writeAfter();
+    }
+
+    /**
+     * <p>
+     * Closes any open grouping elements and the root element and renames the temporary file over the module file.
+     * The module written contains any changes still in the file's {@link ModuleJournal journal}, so the journal is
+     * discarded once the module file has been replaced. {@link #close} must still be called afterwards.
+     * </p>
+     *
+     * @throws IOException         If the temporary file cannot be written or renamed.
+     * @throws XMLStreamException  If the end tags cannot be written.
+     */
+    public void finish() throws IOException, XMLStreamException {
+        while (depth > 0)
+            endContainer();
+
+        writer.writeEndElement();
+        writer.writeCharacters ("\n");
+        writer.writeEndDocument();
+        writer.flush();
+
+        // the file must be complete and closed before it's renamed.
+        //
+        closeStreams();
+        rename (tmp, new File (path));
+        FileLocks.getInstance().changed (path);
+        ModuleJournal.getInstance().discard (path);
+
+        log.debug ("Wrote " + count + " items to " + path + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * <p>
+     * Closes the file. Safe to call more than once. If {@link #finish} was not called (or failed) the temporary
+     * file is deleted and the module file is left as it was.
+     * </p>
+     *
+     * @throws IOException  If the file cannot be closed.
+     */
+    public void close() throws IOException {
+        try {
+            closeStreams();
+        } finally {
+            if (tmp != null && tmp.exists())
+                tmp.delete();
+        }
+    }
+
+    // renames a new copy of a file over the file. renaming is atomic where the platform allows it. windows won't
+    // rename over an existing file, so the original is deleted first.
+    //
+    static void rename (
+        File tmp,
+        File f
+    ) throws IOException {
+        if (tmp.renameTo (f))
+            return;
+
+        if (f.exists() && ! f.delete())
+            throw new IOException ("Unable to replace " + f.getPath());
+
+        if (! tmp.renameTo (f))
+            FileUtils.copyFile (tmp, f);
+    }
+
+    private void closeStreams() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (XMLStreamException ignored) {
+            }
+
+            writer = null;
+        }
+
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    // children of the root element start on their own line, indented one level. children of grouping
+    // elements are preceded by a line break and indented one level deeper than the grouping element.
+    //
+    private void writeBefore() throws XMLStreamException {
+        if (depth == 0)
+            writer.writeCharacters (StringUtils.getIndent (1));
+        else
+            writer.writeCharacters ("\n" + StringUtils.getIndent (depth + 1));
+    }
+
+    private void writeAfter() throws XMLStreamException {
+        if (depth == 0)
+            writer.writeCharacters ("\n");
+    }
+}
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.archive;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
 import java.util.ArrayList;
@@ -23,7 +24,7 @@ import org.jdom2.Element;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class Archive {
+public class Archive implements ModuleItem {
     
 //    private static final Logger log = LoggerFactory.getLogger (Archive.class);
 
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.archive;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -16,7 +18,7 @@ import java.util.List;
  */
 public class ArchiveModule {
     String path;
-    List<Archive> archives;
+    ItemList<Archive> archives;
     
     /**
      * <p>
@@ -25,6 +27,21 @@ public class ArchiveModule {
      */
     public ArchiveModule() {}
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached archive modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the archive list (meaning that adding or removing archives
+     * in the copy leaves the original alone, but changing an archive in the copy will update it in the original.)
+     * </p>
+     */
+    public ArchiveModule (ArchiveModule am) {
+        if (am != null) {
+            this.path = am.getPath();
+            this.archives = (am.getArchives() != null) ? new ItemList<Archive> (am.getArchives()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -55,7 +72,7 @@ public class ArchiveModule {
      * @param  archives  The list of archive records.
      */
     public void setArchives (List<Archive> archives) {
-        this.archives = archives;
+        this.archives = (archives != null) ? new ItemList<Archive> (archives) : null;
     }
 
     /**
@@ -84,11 +101,21 @@ public class ArchiveModule {
         if (this.archives == null)
             return null;
 
-        for (Archive tmp : this.archives) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.archives.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of an archive record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the archive being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.archives == null)
+            return id + "_copy";
+
+        return this.archives.newCopyId (id);
     }
 }
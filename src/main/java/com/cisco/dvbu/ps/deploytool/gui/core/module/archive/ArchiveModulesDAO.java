@@ -9,33 +9,38 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ArchiveModuleResource;
 
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,9 +59,38 @@ public class ArchiveModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (ArchiveModulesDAO.class);
 
+    // builds archives from the item elements of archive module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<Archive> itemHandler = new ModuleXmlReader.ItemHandler<Archive>() {
+        public Archive newItem (Element e, String parentName) {
+            return new Archive (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("ArchiveModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of archive module files without building archive objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "pkgName", "archiveFileName", "description") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                v[1],
+                v[2],
+                v[3]
+            };
+        }
+    };
+
     private PDToolGUIConfiguration conf = new PDToolGUIConfiguration();
     private String indent; //, indentX2, indentX3, indentX4;
-    private XMLOutputter xmlo = new XMLOutputter();
 
     public ArchiveModulesDAO () {
         super ();
@@ -92,10 +126,12 @@ public class ArchiveModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                ArchiveModuleResource
@@ -111,6 +147,7 @@ public class ArchiveModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -144,38 +181,51 @@ public class ArchiveModulesDAO {
         }
         
         log.debug ("Getting list of archives in " + path);
-        ArchiveModule am = findByPath (path);
-
-        if (am == null) {
-            log.error ("parsed archive module is null.");
-            return null;
-        }
         
-        // get current list of archive modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getArchiveList (am);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of archive modules in display list form
+            //
+            resultList = getArchiveList (path);
+
+            if (resultList == null) {
+                log.error ("parsed archive module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -198,8 +248,6 @@ public class ArchiveModulesDAO {
     public ArchiveModule findByPath (String path) {
         ArchiveModule am = new ArchiveModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document amDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -222,32 +270,86 @@ public class ArchiveModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        am.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            amDoc = builder.build (path);
-            Element rootNode = amDoc.getRootElement();
-//            Namespace ns = amDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Archive> archives = new ArrayList<Archive>();
-            List<Element> amList = rootNode.getChildren();
-            
-            log.debug ("Located " + amList.size() + " child elements.");
-            // iterate over all the "archive" elements
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
             //
-            log.debug ("Iterating over child elements.");
-            for (Element amChild : amList) {
-                archives.add (new Archive (amChild));
+            ArchiveModule cachedArchiveModule = ModuleCache.getInstance().get (f, ArchiveModule.class);
+            if (cachedArchiveModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new ArchiveModule (cachedArchiveModule);
             }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            am.setPath (path);
+        
+            try {
+                List<Archive> archives = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + archives.size() + " archive elements.");
             
-            am.setArchives (archives);
+                am.setArchives (archives);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new ArchiveModule (am));
+
+            } catch (IOException io) {
+                log.error ("getById() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            }
 
-        } catch (IOException io) {
-            log.error ("getById() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            return am;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return am;
+    /**
+     * <p>
+     * Searches a archive module for an archive by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the archive's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the archive module.
+     * @param  id    The ID of the archive to look for.
+     * @return       The requested archive or <code>null</code> if it does not exist.
+     */
+    public Archive findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            ArchiveModule cachedArchiveModule = ModuleCache.getInstance().get (new File (path), ArchiveModule.class);
+            if (cachedArchiveModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedArchiveModule.findById (id);
+            }
+        
+            Archive result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            ArchiveModule am = findByPath (path);
+        
+            return (am != null) ? am.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -261,48 +363,138 @@ public class ArchiveModulesDAO {
         if (am.getPath() == null)
             throw new IllegalArgumentException ("Archive module's path may not be null.");
         
-        File f = new File (am.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (am.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (am.getPath() + ".bak"));
+        lock.lock();
+        try {
+            File f = new File (am.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter amWriter = new ModuleXmlWriter (am.getPath(), "ArchiveModule");
+        
+            try {
+                if (am.getArchives() != null) {
+                    for (Archive a : am.getArchives()) {
+                        amWriter.writeItem (toItemElement (a));
+                    }
+                }
+            
+                amWriter.finish();
+            } finally {
+                amWriter.close();
+            }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (am.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single archive change to an archive module's XML file. When possible only the changed archive is
+     * spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  am  The archive module (already containing the change.)
+     * @param  id  The id of the archive being replaced or deleted or <code>null</code> if the archive was added.
+     * @param  a  The added or updated archive or <code>null</code> if the archive was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        ArchiveModule am,
+        String id,
+        Archive a
+    ) throws Exception {
+        if (am.getPath() == null)
+            throw new IllegalArgumentException ("Archive module's path may not be null.");
         
-        Document amDoc = new Document (new Element ("ArchiveModule", "ns1", DAOConstants.MODULES_NS));
-        amDoc.getRootElement().addContent ("\n");
+        Lock lock = FileLocks.getInstance().writeLock (am.getPath());
+
+        lock.lock();
+        try {
+            Element e = (a != null) ? toItemElement (a) : null;
+
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("ArchiveModule", am.getPath(), id, e, new ArchiveModule (am)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (am.getPath(), itemHandler, id, e))
+                serialize (am);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for an archive laid out as it is in the module file.
+    //
+    private Element toItemElement (Archive a) {
+        return a.toElement ("archive", 2).addContent ("\n" + indent);
+    }
+    
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getArchiveList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
         
-        if (am.getArchives() != null) {
-            for (Archive a : am.getArchives()) {
-                Element aNode = a.toElement ("archive", 2).addContent ("\n" + indent);
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-                amDoc.getRootElement().addContent (indent);
-                amDoc.getRootElement().addContent (aNode);
-                amDoc.getRootElement().addContent ("\n");
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            ArchiveModule am = ModuleCache.getInstance().get (f, ArchiveModule.class);
+            if (am != null) {
+                log.debug ("Using cached copy of " + path);
+                return getArchiveList (am);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
             }
-        }
         
-        xmlo.output (amDoc, new FileOutputStream (am.getPath()));
+            try {
+                return new RowStore.Builder (4).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getArchiveList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getArchiveList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
     }
     
     // assembles the list result row list
     //
     private List<ListResult.Row> getArchiveList (ArchiveModule am) {
-        List<ListResult.Row> al = new ArrayList<ListResult.Row>();
+        RowStore.Builder al = new RowStore.Builder (4);
         
         if (am.getArchives() != null && am.getArchives().size() > 0) {
             for (Archive a : am.getArchives()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (a.getId());
-                cell.add (a.getPkgName());
-                cell.add (a.getArchiveFileName());
-                cell.add (a.getDescription());
-                
-                al.add (new ListResult.Row (a.getId(), cell));
+                al.add (
+                    a.getId(),
+                    a.getId(),
+                    a.getPkgName(),
+                    a.getArchiveFileName(),
+                    a.getDescription()
+                );
             }
         }
         
-        return al;
+        return al.build();
     }
 }
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.archive;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ArchiveResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class ArchivesDAO {
         String path,
         String id
     ) {
-        ArchiveModule am = amDao.findByPath (path);
-        if (am == null) {
-            log.error ("Unable to locate archive module " + path);
-        }
-        
-        log.debug ("Archive module located. Looking for archive ID " + id);
-        return am.findById (id);
+        log.debug ("Looking for archive ID " + id + " in archive module " + path);
+        return amDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class ArchivesDAO {
      * Adds an archive to an archive module.
      * </p>
      * 
-     * @param  path  The path to the archive module.
-     * @param  a     The {@link Archive} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the archive module.
+     * @param  a        The {@link Archive} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Archive a
+        Archive a,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        ArchiveModule am = amDao.findByPath (path);
-        if (am == null) {
-            return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
-        }
+            ArchiveModule am = amDao.findByPath (path);
+            if (am == null) {
+                return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Archive module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (a, am, DAOConstants.OPERATION_ADD);
+            msgList = validate (a, am, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-        am.getArchives().add (a);
+            am.getArchives().add (a);
         
-            try {
-                amDao.serialize (am);
-                result = new ResultMessage ("success", "Created archive " + a.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
+                try {
+                    amDao.serialize (am, null, a);
+                    result = new ResultMessage ("success", "Created archive " + a.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class ArchivesDAO {
      * Updates an archive in an archive module.
      * </p>
      * 
-     * @param  path  The path to the archive module.
-     * @param  a     The {@link Archive} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the archive module.
+     * @param  a        The {@link Archive} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Archive a
+        Archive a,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Archive origArchive = null;
-        
-        ArchiveModule am = amDao.findByPath (path);
-        if (am == null) {
-            return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Archive origArchive = null;
         
-        for (Archive tmp : am.getArchives()) {
-            if (tmp.getId().equals (a.getOrigId())) {
-                origArchive = tmp;
-                break;
+            ArchiveModule am = amDao.findByPath (path);
+            if (am == null) {
+                return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Archive module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (a, am, DAOConstants.OPERATION_EDIT);
+            origArchive = am.findById (a.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (a, am, DAOConstants.OPERATION_EDIT);
         
-            am.getArchives().remove(origArchive);
-            am.getArchives().add (a);
+            if (msgList.size() == 0) {
         
-            try {
-                amDao.serialize (am);
-                result = new ResultMessage ("success", "Updated archive " + a.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = am.getArchives().indexOf (origArchive);
+                if (i >= 0)
+                    am.getArchives().set (i, a);
+                else
+                    am.getArchives().add (a);
+        
+                try {
+                    amDao.serialize (am, (origArchive != null) ? origArchive.getId() : null, a);
+                    result = new ResultMessage ("success", "Updated archive " + a.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class ArchivesDAO {
      * Copies one or more archives in an archive module.
      * </p>
      * 
-     * @param  path  The path to the archive module.
-     * @param  ids   The a comma separated list of archive IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the archive module.
+     * @param  ids      The a comma separated list of archive IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
 	@SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        ArchiveModule am = amDao.findByPath (path);
-        if (am == null) {
-            return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
-        }
+            ArchiveModule am = amDao.findByPath (path);
+            if (am == null) {
+                return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Archive module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Archive a = new Archive();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Archive a = new Archive();
 
-            a.setId (id);
+                a.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (a, am, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (a, am, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Archive na = new Archive (am.findById (a.getId())); // find the original archive and make a copy of it.
+                    Archive na = new Archive (am.findById (a.getId())); // find the original archive and make a copy of it.
                 
-                if (na == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate archive id \"" + a.getId() + "\"."));
-                    continue;
-                }
+                    if (na == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate archive id \"" + a.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = a.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    na.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (na, am, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    na.setId (am.newCopyId (a.getId()));
                 
-                // add the copy of the element
-                //
-                am.getArchives().add (na);
+                    // add the copy of the element
+                    //
+                    am.getArchives().add (na);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Archive ID \"" + a.getId() + "\" copied to \"" + na.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Archive ID \"" + a.getId() + "\" copied to \"" + na.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    amDao.serialize (am);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing archive module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing archive module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several archives in an archive module and then writes the module once. The
+     * <code>operation</code> property of each archive says what to do with it: "add", "edit" (replaces the
+     * archive whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path      The path to the archive module.
+     * @param  archives  The list of archives to add, update or delete.
+     * @param  version   The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return           A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Archive> archives,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            ArchiveModule am = amDao.findByPath (path);
+            if (am == null) {
+                return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
+            }
 
-        if (atLeastOneItemCopied) {
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Archive module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (archives == null || archives.size() == 0) {
+                return new ResultMessage ("error", "No archives were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Archive a : archives) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (a.getOperation() != null) ? a.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (a, am, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        am.getArchives().add (a);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created archive " + a.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (a, am, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        am.getArchives().set (am.getArchives().indexOf (am.findById (a.getOrigId())), a);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated archive " + a.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (a, am, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        am.getArchives().remove (am.findById (a.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Archive ID \"" + a.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + a.getOperation() + "\" for archive ID \"" + a.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 amDao.serialize (am);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing archive module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing archive module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class ArchivesDAO {
      * Deletes one or more archives in an archive module.
      * </p>
      * 
-     * @param  path  The path to the archive module.
-     * @param  ids   The a comma separated list of archive IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the archive module.
+     * @param  ids      The a comma separated list of archive IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        ArchiveModule am = amDao.findByPath (path);
-        if (am == null) {
-            return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
-        }
+            ArchiveModule am = amDao.findByPath (path);
+            if (am == null) {
+                return new ResultMessage ("error", "Archive module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Archive module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Archive a = new Archive();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Archive a = new Archive();
 
-            a.setId (id);
+                a.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (a, am, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (a, am, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                a = am.findById (a.getId());
-                am.getArchives().remove (a);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Archive ID \"" + a.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    a = am.findById (a.getId());
+                    am.getArchives().remove (a);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Archive ID \"" + a.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                amDao.serialize (am);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing archive module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing archive module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        amDao.serialize (am, idArray[0], null);
+                    else
+                        amDao.serialize (am);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing archive module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing archive module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.data_source;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.core.shared.GenericAttribute;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
@@ -23,7 +24,7 @@ import org.slf4j.LoggerFactory;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class DataSource {
+public class DataSource implements ModuleItem {
     
     // public constants
     public static final int TYPE_GENERIC = 0;
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.data_source;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -16,7 +18,7 @@ import java.util.List;
  */
 public class DataSourceModule {
     String path;
-    List<DataSource> dataSources;
+    ItemList<DataSource> dataSources;
     
     /**
      * <p>
@@ -25,6 +27,21 @@ public class DataSourceModule {
      */
     public DataSourceModule() {}
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached data source modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the data source list (meaning that adding or removing data sources
+     * in the copy leaves the original alone, but changing a data source in the copy will update it in the original.)
+     * </p>
+     */
+    public DataSourceModule (DataSourceModule dsm) {
+        if (dsm != null) {
+            this.path = dsm.getPath();
+            this.dataSources = (dsm.getDataSources() != null) ? new ItemList<DataSource> (dsm.getDataSources()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -55,7 +72,7 @@ public class DataSourceModule {
      * @param  dataSources  The list of data source records.
      */
     public void setDataSources (List<DataSource> dataSources) {
-        this.dataSources = dataSources;
+        this.dataSources = (dataSources != null) ? new ItemList<DataSource> (dataSources) : null;
     }
 
     /**
@@ -84,11 +101,21 @@ public class DataSourceModule {
         if (this.dataSources == null)
             return null;
 
-        for (DataSource tmp : this.dataSources) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.dataSources.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a data source record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the data source being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.dataSources == null)
+            return id + "_copy";
+
+        return this.dataSources.newCopyId (id);
     }
 }
@@ -8,39 +8,45 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DataSourceModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,7 +65,50 @@ public class DataSourceModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (DataSourceModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds data sources from the item elements of data source module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<DataSource> itemHandler = new ModuleXmlReader.ItemHandler<DataSource>() {
+        public DataSource newItem (Element e, String parentName) {
+            return new DataSource (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("DatasourceModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of data source module files without building data source objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("relationalDataSource", "introspectDataSource", "attributeDefsDataSource", "dataSourceTypesDataSource", "*/id", "*/resourcePath") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            int type = DataSource.TYPE_GENERIC;
+            
+            if (v[0] != null)
+                type = DataSource.TYPE_RELATIONAL;
+            else if (v[1] != null)
+                type = DataSource.TYPE_INTROSPECT;
+            else if (v[2] != null)
+                type = DataSource.TYPE_ATTRIBUTE_DEFS;
+            else if (v[3] != null)
+                type = DataSource.TYPE_DATA_SOURCE_TYPES;
+            
+            // don't display attribute defs or data source types. users don't need to see or edit them.
+            //
+            if (type == DataSource.TYPE_ATTRIBUTE_DEFS || type == DataSource.TYPE_DATA_SOURCE_TYPES)
+                return null;
+            
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[4],
+                v[4],
+                v[5],
+                DataSource.TYPE_LABELS[type]
+            };
+        }
+    };
 
     public DataSourceModulesDAO () {
         super ();
@@ -86,10 +135,12 @@ public class DataSourceModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                DataSourceModuleResource
@@ -105,6 +156,7 @@ public class DataSourceModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -138,42 +190,55 @@ public class DataSourceModulesDAO {
         }
         
         log.debug ("Getting list of data sources in " + path);
-        DataSourceModule dsm = findByPath (path);
-
-        if (dsm == null) {
-            log.error ("parsed data source module is null.");
-            return null;
-        }
         
-        // get current list of data source modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getDataSourceList (dsm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
-        }
+        if (resultList == null) {
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+            // get current list of data source modules in display list form
+            //
+            resultList = getDataSourceList (path);
+
+            if (resultList == null) {
+                log.error ("parsed data source module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
         log.debug ("numRows = " + numRows + "; pageNum = " + pageNum);
         
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
+        }
+        
         return ListUtils.getListResult (
                    resultList, 
                    numRows, 
@@ -194,8 +259,6 @@ public class DataSourceModulesDAO {
     public DataSourceModule findByPath (String path) {
         DataSourceModule dsm = new DataSourceModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document dsmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -218,33 +281,86 @@ public class DataSourceModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        dsm.setPath (path);
-        
-        try {
-            dsmDoc = builder.build (path);
-            Element rootNode = dsmDoc.getRootElement();
-//            Namespace ns = dsmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<DataSource> dataSources = new ArrayList<DataSource>();
-            List<Element> dsmList = rootNode.getChildren();
-            
-            log.debug ("Located " + dsmList.size() + " child elements.");
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-            // iterate over all the "data source" elements
+        lock.lock();
+        try {
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
             //
-            log.debug ("Iterating over child elements.");
-            for (Element dsmChild : dsmList) {
-                dataSources.add (new DataSource (dsmChild));
+            DataSourceModule cachedDataSourceModule = ModuleCache.getInstance().get (f, DataSourceModule.class);
+            if (cachedDataSourceModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new DataSourceModule (cachedDataSourceModule);
             }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            dsm.setPath (path);
+        
+            try {
+                List<DataSource> dataSources = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + dataSources.size() + " data source elements.");
             
-            dsm.setDataSources (dataSources);
+                dsm.setDataSources (dataSources);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new DataSourceModule (dsm));
+
+            } catch (IOException io) {
+                log.error ("getById() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            }
 
-        } catch (IOException io) {
-            log.error ("getById() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            return dsm;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return dsm;
+    /**
+     * <p>
+     * Searches a data source module for a data source by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the data source's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the data source module.
+     * @param  id    The ID of the data source to look for.
+     * @return       The requested data source or <code>null</code> if it does not exist.
+     */
+    public DataSource findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            DataSourceModule cachedDataSourceModule = ModuleCache.getInstance().get (new File (path), DataSourceModule.class);
+            if (cachedDataSourceModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedDataSourceModule.findById (id);
+            }
+        
+            DataSource result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            DataSourceModule dsm = findByPath (path);
+        
+            return (dsm != null) ? dsm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -258,30 +374,81 @@ public class DataSourceModulesDAO {
         if (dsm.getPath() == null)
             throw new IllegalArgumentException ("Data source module's path may not be null.");
         
-        File f = new File (dsm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (dsm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (dsm.getPath() + ".bak"));
-        }
-        
-        Document dsmDoc = new Document (new Element ("DatasourceModule", "ns1", DAOConstants.MODULES_NS));
-        dsmDoc.getRootElement().addContent ("\n");
+        lock.lock();
+        try {
+            File f = new File (dsm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
         
-        String indent = StringUtils.getIndent (1);
+            ModuleXmlWriter dsmWriter = new ModuleXmlWriter (dsm.getPath(), "DatasourceModule");
         
-        if (dsm.getDataSources() != null) {
-            for (DataSource ds : dsm.getDataSources()) {
-                Element dsNode = ds.toElement ("datasource", 2).addContent ("\n" + indent);
-
-                dsmDoc.getRootElement().addContent (indent);
-                dsmDoc.getRootElement().addContent (dsNode);
-                dsmDoc.getRootElement().addContent ("\n");
+            try {
+                if (dsm.getDataSources() != null) {
+                    for (DataSource ds : dsm.getDataSources()) {
+                        dsmWriter.writeItem (toItemElement (ds));
+                    }
+                }
+            
+                dsmWriter.finish();
+            } finally {
+                dsmWriter.close();
             }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (dsm.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single data source change to a data source module's XML file. When possible only the changed data
+     * source is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is
+     * serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  dsm  The data source module (already containing the change.)
+     * @param  id  The id of the data source being replaced or deleted or <code>null</code> if the data source was added.
+     * @param  ds  The added or updated data source or <code>null</code> if the data source was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        DataSourceModule dsm,
+        String id,
+        DataSource ds
+    ) throws Exception {
+        if (dsm.getPath() == null)
+            throw new IllegalArgumentException ("Data source module's path may not be null.");
         
-        xmlo.output (dsmDoc, new FileOutputStream (dsm.getPath()));
+        Lock lock = FileLocks.getInstance().writeLock (dsm.getPath());
+
+        lock.lock();
+        try {
+            Element e = (ds != null) ? toItemElement (ds) : null;
+
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("DatasourceModule", dsm.getPath(), id, e, new DataSourceModule (dsm)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (dsm.getPath(), itemHandler, id, e))
+                serialize (dsm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a data source laid out as it is in the module file.
+    //
+    private Element toItemElement (DataSource ds) {
+        return ds.toElement ("datasource", 2).addContent ("\n" + StringUtils.getIndent (1));
     }
     
     /**
@@ -396,24 +563,38 @@ public class DataSourceModulesDAO {
             return new ResultMessage ("error", "Data sources did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("merging generated data sources with original data sources ...");
-        DataSourceModule mergedDsm = mergeDataSourceModules (path, generatedXmlPath);
-        
-        // delete the generated data source module
-        //
-        log.debug ("deleting generated data sources file ...");
-        (new File (generatedXmlPath)).delete();
+        DataSourceModule generatedDsm = findByPath (generatedXmlPath);
 
-        // write out the merged data sources module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged data sources ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedDsm);
-            result = new ResultMessage ("success", "Data sources from server " + serverId + ", startPath " + startPath + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated data sources!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated data sources with original data sources ...");
+            DataSourceModule mergedDsm = mergeDataSourceModules (path, generatedDsm);
+        
+            // delete the generated data source module
+            //
+            log.debug ("deleting generated data sources file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged data sources module
+            //
+            log.debug ("writing out merged data sources ...");
+            try {
+                serialize (mergedDsm);
+                result = new ResultMessage ("success", "Data sources from server " + serverId + ", startPath " + startPath + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated data sources!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
@@ -492,10 +673,49 @@ public class DataSourceModulesDAO {
         return dsm.getDataSources().get (0);
     }
 
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getDataSourceList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            DataSourceModule dsm = ModuleCache.getInstance().get (f, DataSourceModule.class);
+            if (dsm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getDataSourceList (dsm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (3).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getDataSourceList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getDataSourceList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getDataSourceList (DataSourceModule dsm) {
-        List<ListResult.Row> dsl = new ArrayList<ListResult.Row>();
+        RowStore.Builder dsl = new RowStore.Builder (3);
         
         if (dsm.getDataSources() != null && dsm.getDataSources().size() > 0) {
             for (DataSource ds : dsm.getDataSources()) {
@@ -505,17 +725,16 @@ public class DataSourceModulesDAO {
                 if (ds.getType() == DataSource.TYPE_ATTRIBUTE_DEFS || ds.getType() == DataSource.TYPE_DATA_SOURCE_TYPES)
                     continue;
 
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (ds.getId());
-                cell.add (ds.getResourcePath());
-                cell.add (DataSource.TYPE_LABELS[ds.getType()]);
-                
-                dsl.add (new ListResult.Row (ds.getId(), cell));
+                dsl.add (
+                    ds.getId(),
+                    ds.getId(),
+                    ds.getResourcePath(),
+                    DataSource.TYPE_LABELS[ds.getType()]
+                );
             }
         }
                 
-        return dsl;
+        return dsl.build();
     }
     
     // writes out a temporary data source generation plan
@@ -532,10 +751,9 @@ public class DataSourceModulesDAO {
     
     private DataSourceModule mergeDataSourceModules (
         String origPath,
-        String toMergePath
+        DataSourceModule toMergeDsm
     ) {
         DataSourceModule origDsm = findByPath (origPath);
-        DataSourceModule toMergeDsm = findByPath (toMergePath);
         int i;
         
         for (DataSource ds : toMergeDsm.getDataSources()) {
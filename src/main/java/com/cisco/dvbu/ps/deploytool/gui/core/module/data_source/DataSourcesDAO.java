@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.data_source;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.DataSourceModuleResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,220 +38,368 @@ public class DataSourcesDAO {
         String path,
         String id
     ) {
-        DataSourceModule dsm = dsmDao.findByPath (path);
-        if (dsm == null) {
-            log.error ("Unable to locate data source module " + path);
-        }
-        
-        log.debug ("Data source module located. Looking for data source ID " + id);
-        return dsm.findById (id);
+        log.debug ("Looking for data source ID " + id + " in data source module " + path);
+        return dsmDao.findItemById (path, id);
     }
   
     public ResultMessage add (
         String path, 
-        DataSource ds
+        DataSource ds,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        DataSourceModule dsm = dsmDao.findByPath (path);
-        if (dsm == null) {
-            return new ResultMessage ("error", "Data source module, " + path + ", does not exist!", null);
-        }
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+
+            DataSourceModule dsm = dsmDao.findByPath (path);
+            if (dsm == null) {
+                return new ResultMessage ("error", "Data source module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Data source, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (ds, dsm, DAOConstants.OPERATION_ADD);
+            msgList = validate (ds, dsm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            dsm.getDataSources().add (ds);
+                dsm.getDataSources().add (ds);
         
-            try {
-                dsmDao.serialize (dsm);
-                result = new ResultMessage ("success", "Created data source " + ds.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
+                try {
+                    dsmDao.serialize (dsm, null, ds);
+                    result = new ResultMessage ("success", "Created data source " + ds.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing archive module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize archive module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     public ResultMessage edit (
         String path, 
-        DataSource ds
+        DataSource ds,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        DataSource origDS = null;
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        DataSourceModule dsm = dsmDao.findByPath (path);
-        if (dsm == null) {
-            return new ResultMessage ("error", "Data source, " + path + ", does not exist!", null);
-        }
-        
-        for (DataSource tmp : dsm.getDataSources()) {
-            if (tmp.getId().equals (ds.getOrigId())) {
-                origDS = tmp;
-                break;
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            DataSource origDS = null;
+
+            DataSourceModule dsm = dsmDao.findByPath (path);
+            if (dsm == null) {
+                return new ResultMessage ("error", "Data source, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Data source, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (ds, dsm, DAOConstants.OPERATION_EDIT);
+            origDS = dsm.findById (ds.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (ds, dsm, DAOConstants.OPERATION_EDIT);
         
-            dsm.getDataSources().remove(origDS);
-            dsm.getDataSources().add (ds);
+            if (msgList.size() == 0) {
         
-            try {
-                dsmDao.serialize (dsm);
-                result = new ResultMessage ("success", "Updated data source " + ds.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing data source module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize data source module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = dsm.getDataSources().indexOf (origDS);
+                if (i >= 0)
+                    dsm.getDataSources().set (i, ds);
+                else
+                    dsm.getDataSources().add (ds);
+        
+                try {
+                    dsmDao.serialize (dsm, (origDS != null) ? origDS.getId() : null, ds);
+                    result = new ResultMessage ("success", "Updated data source " + ds.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing data source module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize data source module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        DataSourceModule dsm = dsmDao.findByPath (path);
-        if (dsm == null) {
-            return new ResultMessage ("error", "Data source, " + path + ", does not exist!", null);
-        }
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
+
+            DataSourceModule dsm = dsmDao.findByPath (path);
+            if (dsm == null) {
+                return new ResultMessage ("error", "Data source, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Data source, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            DataSource ds = new DataSource ();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                DataSource ds = new DataSource ();
 
-            ds.setId (id);
+                ds.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                DataSource nds = new DataSource (dsm.findById (ds.getId())); // find the original archive and make a copy of it.
+                    DataSource nds = new DataSource (dsm.findById (ds.getId())); // find the original archive and make a copy of it.
                 
-                if (nds == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate data source id \"" + ds.getId() + "\"."));
-                    continue;
-                }
+                    if (nds == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate data source id \"" + ds.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
+                    atLeastOneItemCopied = true;
 
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = ds.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nds.setId (newId);
-
-                    j++;
-                } while (validate (nds, dsm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nds.setId (dsm.newCopyId (ds.getId()));
                 
-                // add the copy of the element
-                //
-                dsm.getDataSources().add (nds);
+                    // add the copy of the element
+                    //
+                    dsm.getDataSources().add (nds);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Data source ID \"" + ds.getId() + "\" copied to \"" + nds.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Data source ID \"" + ds.getId() + "\" copied to \"" + nds.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
+            }
+
+            if (atLeastOneItemCopied) {
+                try {
+                    dsmDao.serialize (dsm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing archive module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing archive module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several data sources in a data source module and then writes the module once. The
+     * <code>operation</code> property of each data source says what to do with it: "add", "edit" (replaces the
+     * data source whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path         The path to the data source module.
+     * @param  dataSources  The list of data sources to add, update or delete.
+     * @param  version      The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return              A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<DataSource> dataSources,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            DataSourceModule dsm = dsmDao.findByPath (path);
+            if (dsm == null) {
+                return new ResultMessage ("error", "Data source module, " + path + ", does not exist!", null);
+            }
 
-        if (atLeastOneItemCopied) {
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Data source, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (dataSources == null || dataSources.size() == 0) {
+                return new ResultMessage ("error", "No data sources were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (DataSource ds : dataSources) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (ds.getOperation() != null) ? ds.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        dsm.getDataSources().add (ds);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created data source " + ds.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        dsm.getDataSources().set (dsm.getDataSources().indexOf (dsm.findById (ds.getOrigId())), ds);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated data source " + ds.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        dsm.getDataSources().remove (dsm.findById (ds.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Data source ID \"" + ds.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + ds.getOperation() + "\" for data source ID \"" + ds.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 dsmDao.serialize (dsm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing archive module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing archive module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing data source module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize data source module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        DataSourceModule dsm = dsmDao.findByPath (path);
-        if (dsm == null) {
-            return new ResultMessage ("error", "Data source, " + path + ", does not exist!", null);
-        }
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
+
+            DataSourceModule dsm = dsmDao.findByPath (path);
+            if (dsm == null) {
+                return new ResultMessage ("error", "Data source, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Data source, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            DataSource ds = new DataSource();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                DataSource ds = new DataSource();
 
-            ds.setId (id);
+                ds.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (ds, dsm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                ds = dsm.findById (ds.getId());
-                dsm.getDataSources().remove (ds);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Data source ID \"" + ds.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    ds = dsm.findById (ds.getId());
+                    dsm.getDataSources().remove (ds);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Data source ID \"" + ds.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                dsmDao.serialize (dsm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing data source module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing data source module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        dsmDao.serialize (dsm, idArray[0], null);
+                    else
+                        dsmDao.serialize (dsm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing data source module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing data source module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
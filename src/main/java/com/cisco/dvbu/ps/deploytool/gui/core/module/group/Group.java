@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.group;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
 import org.jdom2.Element;
@@ -19,7 +20,7 @@ import org.slf4j.LoggerFactory;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class Group {
+public class Group implements ModuleItem {
 
     private static final Logger log = LoggerFactory.getLogger (Group.class);
 
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.group;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class GroupModule {
 
     String path;
-    List<Group> groups;
+    ItemList<Group> groups;
     
     /**
      * <p>
@@ -28,6 +30,21 @@ public class GroupModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached group modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the group list (meaning that adding or removing groups
+     * in the copy leaves the original alone, but changing a group in the copy will update it in the original.)
+     * </p>
+     */
+    public GroupModule (GroupModule gm) {
+        if (gm != null) {
+            this.path = gm.getPath();
+            this.groups = (gm.getGroups() != null) ? new ItemList<Group> (gm.getGroups()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -58,7 +75,7 @@ public class GroupModule {
      * @param  groups  The list of group records.
      */
     public void setGroups (List<Group> groups) {
-        this.groups = groups;
+        this.groups = (groups != null) ? new ItemList<Group> (groups) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class GroupModule {
         if (this.groups == null)
             return null;
 
-        for (Group tmp : this.groups) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.groups.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a group record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the group being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.groups == null)
+            return id + "_copy";
+
+        return this.groups.newCopyId (id);
     }
 }
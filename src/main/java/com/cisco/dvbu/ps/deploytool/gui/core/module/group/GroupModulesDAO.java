@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
@@ -15,33 +22,31 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.GroupModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +65,35 @@ public class GroupModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (GroupModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds groups from the item elements of group module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<Group> itemHandler = new ModuleXmlReader.ItemHandler<Group>() {
+        public Group newItem (Element e, String parentName) {
+            return new Group (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("GroupModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of group module files without building group objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "groupName", "groupDomain", "privilege") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                v[1],
+                v[2],
+                (v[3] != null) ? v[3].toUpperCase() : null
+            };
+        }
+    };
 
     public GroupModulesDAO () {
         super ();
@@ -88,10 +121,12 @@ public class GroupModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                GroupModuleResource
@@ -107,6 +142,7 @@ public class GroupModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -140,38 +176,51 @@ public class GroupModulesDAO {
         }
         
         log.debug ("Getting list of groups in " + path);
-        GroupModule gm = findByPath (path);
-
-        if (gm == null) {
-            log.error ("parsed group module is null.");
-            return null;
-        }
         
-        // get current list of group modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getGroupList (gm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of group modules in display list form
+            //
+            resultList = getGroupList (path);
+
+            if (resultList == null) {
+                log.error ("parsed group module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -194,8 +243,6 @@ public class GroupModulesDAO {
     public GroupModule findByPath (String path) {
         GroupModule gm = new GroupModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document gmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -218,37 +265,86 @@ public class GroupModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        gm.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            gmDoc = builder.build (path);
-            Element rootNode = gmDoc.getRootElement();
-//            Namespace ns = gmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Group> groups = new ArrayList<Group>();
-            List<Element> gmList = rootNode.getChildren();
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
+            //
+            GroupModule cachedGroupModule = ModuleCache.getInstance().get (f, GroupModule.class);
+            if (cachedGroupModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new GroupModule (cachedGroupModule);
+            }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            gm.setPath (path);
+        
+            try {
+                List<Group> groups = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + groups.size() + " group elements.");
             
-            log.debug ("Located " + gmList.size() + " child elements.");
+                gm.setGroups (groups);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new GroupModule (gm));
 
-            // iterate over all the "group" elements
-            // 
-            int i = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element gmChild : gmList) {
-                
-                log.debug ("Examining child #" + i++ + ": " + gmChild.getName() + "{" + gmChild.getNamespace().getURI() + "}");
-                
-                groups.add (new Group (gmChild));
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
             }
-            
-            gm.setGroups (groups);
 
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            return gm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Searches a group module for a group by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the group's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the group module.
+     * @param  id    The ID of the group to look for.
+     * @return       The requested group or <code>null</code> if it does not exist.
+     */
+    public Group findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
         }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-        return gm;
+        lock.lock();
+        try {
+            GroupModule cachedGroupModule = ModuleCache.getInstance().get (new File (path), GroupModule.class);
+            if (cachedGroupModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedGroupModule.findById (id);
+            }
+        
+            Group result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            GroupModule gm = findByPath (path);
+        
+            return (gm != null) ? gm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -259,32 +355,83 @@ public class GroupModulesDAO {
      * @param  gm  The group module to write out.
      */
     public void serialize (GroupModule gm) throws Exception {
-        String indent = StringUtils.getIndent (1);
         if (gm.getPath() == null)
             throw new IllegalArgumentException ("Group module's path may not be null.");
         
-        File f = new File (gm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (gm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (gm.getPath() + ".bak"));
+        lock.lock();
+        try {
+            File f = new File (gm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter gmWriter = new ModuleXmlWriter (gm.getPath(), "GroupModule");
+        
+            try {
+                if (gm.getGroups() != null) {
+                    for (Group g : gm.getGroups()) {
+                        gmWriter.writeItem (toItemElement (g));
+                    }
+                }
+            
+                gmWriter.finish();
+            } finally {
+                gmWriter.close();
+            }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (gm.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single group change to a group module's XML file. When possible only the changed group is spliced
+     * into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  gm  The group module (already containing the change.)
+     * @param  id  The id of the group being replaced or deleted or <code>null</code> if the group was added.
+     * @param  g  The added or updated group or <code>null</code> if the group was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        GroupModule gm,
+        String id,
+        Group g
+    ) throws Exception {
+        if (gm.getPath() == null)
+            throw new IllegalArgumentException ("Group module's path may not be null.");
         
-        Document gmDoc = new Document (new Element ("GroupModule", "ns1", DAOConstants.MODULES_NS));
-        gmDoc.getRootElement().addContent ("\n");
+        Lock lock = FileLocks.getInstance().writeLock (gm.getPath());
 
-        if (gm.getGroups() != null) {
-            for (Group g : gm.getGroups()) {
-                Element gNode = g.toElement ("group", 2).addContent ("\n" + indent);
+        lock.lock();
+        try {
+            Element e = (g != null) ? toItemElement (g) : null;
 
-                gmDoc.getRootElement().addContent (indent);
-                gmDoc.getRootElement().addContent (gNode);
-                gmDoc.getRootElement().addContent ("\n");
-            }
-        }
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("GroupModule", gm.getPath(), id, e, new GroupModule (gm)))
+                return;
 
-        xmlo.output (gmDoc, new FileOutputStream (gm.getPath()));
+            if (! ModuleXmlPatcher.patch (gm.getPath(), itemHandler, id, e))
+                serialize (gm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a group laid out as it is in the module file.
+    //
+    private Element toItemElement (Group g) {
+        return g.toElement ("group", 2).addContent ("\n" + StringUtils.getIndent (1));
     }
     
     public ResultMessage generate (
@@ -388,49 +535,101 @@ public class GroupModulesDAO {
             return new ResultMessage ("error", "Groups did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
-        //
-        log.debug ("merging generated groups with original groups ...");
-        GroupModule mergedGm = mergeGroupModules (path, generatedXmlPath);
-        
-        // delete the generated group module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("deleting generated groups file ...");
-        (new File (generatedXmlPath)).delete();
+        GroupModule generatedGm = findByPath (generatedXmlPath);
 
-        // write out the merged group module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged groups ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedGm);
-            result = new ResultMessage ("success", "Groups from server " + serverId + ", domain " + domain + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated groups!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated groups with original groups ...");
+            GroupModule mergedGm = mergeGroupModules (path, generatedGm);
+        
+            // delete the generated group module
+            //
+            log.debug ("deleting generated groups file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged group module
+            //
+            log.debug ("writing out merged groups ...");
+            try {
+                serialize (mergedGm);
+                result = new ResultMessage ("success", "Groups from server " + serverId + ", domain " + domain + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated groups!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getGroupList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            GroupModule gm = ModuleCache.getInstance().get (f, GroupModule.class);
+            if (gm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getGroupList (gm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (4).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getGroupList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getGroupList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getGroupList (GroupModule gm) {
-        List<ListResult.Row> gl = new ArrayList<ListResult.Row>();
+        RowStore.Builder gl = new RowStore.Builder (4);
         
         if (gm.getGroups() != null && gm.getGroups().size() > 0) {
             for (Group g : gm.getGroups()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (g.getId());
-                cell.add (g.getGroupName());
-                cell.add (g.getGroupDomain());
-                cell.add (g.getPrivilege());
-                
-                gl.add (new ListResult.Row (g.getId(), cell));
+                gl.add (
+                    g.getId(),
+                    g.getId(),
+                    g.getGroupName(),
+                    g.getGroupDomain(),
+                    g.getPrivilege()
+                );
             }
         }
         
-        return gl;
+        return gl.build();
     }
     
     // writes out a temporary group generation plan
@@ -447,10 +646,9 @@ public class GroupModulesDAO {
     
     private GroupModule mergeGroupModules (
         String origPath,
-        String toMergePath
+        GroupModule toMergeGm
     ) {
         GroupModule origGm = findByPath (origPath);
-        GroupModule toMergeGm = findByPath (toMergePath);
         int i;
         
         for (Group g : toMergeGm.getGroups()) {
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.group;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.GroupResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class GroupsDAO {
         String path,
         String id
     ) {
-        GroupModule gm = gmDao.findByPath (path);
-        if (gm == null) {
-            log.error ("Unable to locate group module " + path);
-        }
-        
-        log.debug ("Group module located. Looking for group ID " + id);
-        return gm.findById (id);
+        log.debug ("Looking for group ID " + id + " in group module " + path);
+        return gmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class GroupsDAO {
      * Adds a group to a group module.
      * </p>
      * 
-     * @param  path  The path to the group module.
-     * @param  g     The {@link Group} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the group module.
+     * @param  g        The {@link Group} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Group g
+        Group g,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        GroupModule gm = gmDao.findByPath (path);
-        if (gm == null) {
-            return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
-        }
+            GroupModule gm = gmDao.findByPath (path);
+            if (gm == null) {
+                return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Group module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (g, gm, DAOConstants.OPERATION_ADD);
+            msgList = validate (g, gm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-        gm.getGroups().add (g);
+            gm.getGroups().add (g);
         
-            try {
-                gmDao.serialize (gm);
-                result = new ResultMessage ("success", "Created group " + g.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing group module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize group module, " + path + ": " + e.getMessage(), null);
+                try {
+                    gmDao.serialize (gm, null, g);
+                    result = new ResultMessage ("success", "Created group " + g.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing group module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize group module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class GroupsDAO {
      * Updates a group in a group module.
      * </p>
      * 
-     * @param  path  The path to the group module.
-     * @param  g     The {@link Group} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the group module.
+     * @param  g        The {@link Group} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Group g
+        Group g,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Group origGroup = null;
-        
-        GroupModule gm = gmDao.findByPath (path);
-        if (gm == null) {
-            return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Group origGroup = null;
         
-        for (Group tmp : gm.getGroups()) {
-            if (tmp.getId().equals (g.getOrigId())) {
-                origGroup = tmp;
-                break;
+            GroupModule gm = gmDao.findByPath (path);
+            if (gm == null) {
+                return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Group module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (g, gm, DAOConstants.OPERATION_EDIT);
+            origGroup = gm.findById (g.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (g, gm, DAOConstants.OPERATION_EDIT);
         
-            gm.getGroups().remove (origGroup);
-            gm.getGroups().add (g);
+            if (msgList.size() == 0) {
         
-            try {
-                gmDao.serialize (gm);
-                result = new ResultMessage ("success", "Updated group " + g.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing group module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize group module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = gm.getGroups().indexOf (origGroup);
+                if (i >= 0)
+                    gm.getGroups().set (i, g);
+                else
+                    gm.getGroups().add (g);
+        
+                try {
+                    gmDao.serialize (gm, (origGroup != null) ? origGroup.getId() : null, g);
+                    result = new ResultMessage ("success", "Updated group " + g.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing group module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize group module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class GroupsDAO {
      * Copies one or more groups in a group module.
      * </p>
      * 
-     * @param  path  The path to the group module.
-     * @param  ids   The a comma separated list of group IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the group module.
+     * @param  ids      The a comma separated list of group IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        GroupModule gm = gmDao.findByPath (path);
-        if (gm == null) {
-            return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
-        }
+            GroupModule gm = gmDao.findByPath (path);
+            if (gm == null) {
+                return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Group module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Group g = new Group();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Group g = new Group();
 
-            g.setId (id);
+                g.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (g, gm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (g, gm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Group ng = new Group (gm.findById (g.getId())); // find the original group and make a copy of it.
+                    Group ng = new Group (gm.findById (g.getId())); // find the original group and make a copy of it.
                 
-                if (ng == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate group id \"" + g.getId() + "\"."));
-                    continue;
-                }
+                    if (ng == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate group id \"" + g.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = g.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    ng.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (ng, gm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    ng.setId (gm.newCopyId (g.getId()));
                 
-                // add the copy of the element
-                //
-                gm.getGroups().add (ng);
+                    // add the copy of the element
+                    //
+                    gm.getGroups().add (ng);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Group ID \"" + g.getId() + "\" copied to \"" + ng.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Group ID \"" + g.getId() + "\" copied to \"" + ng.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    gmDao.serialize (gm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing group module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several groups in a group module and then writes the module once. The
+     * <code>operation</code> property of each group says what to do with it: "add", "edit" (replaces the
+     * group whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path     The path to the group module.
+     * @param  groups   The list of groups to add, update or delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Group> groups,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            GroupModule gm = gmDao.findByPath (path);
+            if (gm == null) {
+                return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
+            }
 
-        if (atLeastOneItemCopied) {
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Group module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (groups == null || groups.size() == 0) {
+                return new ResultMessage ("error", "No groups were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Group g : groups) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (g.getOperation() != null) ? g.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (g, gm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        gm.getGroups().add (g);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created group " + g.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (g, gm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        gm.getGroups().set (gm.getGroups().indexOf (gm.findById (g.getOrigId())), g);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated group " + g.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (g, gm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        gm.getGroups().remove (gm.findById (g.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Group ID \"" + g.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + g.getOperation() + "\" for group ID \"" + g.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 gmDao.serialize (gm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing group module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing group module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize group module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class GroupsDAO {
      * Deletes one or more groups in a group module.
      * </p>
      * 
-     * @param  path  The path to the group module.
-     * @param  ids   The a comma separated list of group IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the group module.
+     * @param  ids      The a comma separated list of group IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        GroupModule gm = gmDao.findByPath (path);
-        if (gm == null) {
-            return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
-        }
+            GroupModule gm = gmDao.findByPath (path);
+            if (gm == null) {
+                return new ResultMessage ("error", "Group module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Group module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Group g = new Group();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Group g = new Group();
 
-            g.setId (id);
+                g.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (g, gm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (g, gm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the group element
+                // if so, then make sure the item doesn't :)
                 //
-                g = gm.findById (g.getId());
-                gm.getGroups().remove (g);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Group ID \"" + g.getId() + "\" deleted."));
-            }
+                    // get rid of the group element
+                    //
+                    g = gm.findById (g.getId());
+                    gm.getGroups().remove (g);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Group ID \"" + g.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                gmDao.serialize (gm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing group module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        gmDao.serialize (gm, idArray[0], null);
+                    else
+                        gmDao.serialize (gm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing group module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.privilege;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
 import java.util.ArrayList;
@@ -20,7 +21,7 @@ import org.jdom2.Element;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class Privilege {
+public class Privilege implements ModuleItem {
 
     // attributes used by the UI
     //
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.privilege;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -16,7 +18,7 @@ import java.util.List;
  */
 public class PrivilegeModule {
     String path;
-    List<Privilege> privileges;
+    ItemList<Privilege> privileges;
     
     /**
      * <p>
@@ -27,6 +29,21 @@ public class PrivilegeModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached privilege modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the privilege list (meaning that adding or removing privileges
+     * in the copy leaves the original alone, but changing a privilege in the copy will update it in the original.)
+     * </p>
+     */
+    public PrivilegeModule (PrivilegeModule pm) {
+        if (pm != null) {
+            this.path = pm.getPath();
+            this.privileges = (pm.getPrivileges() != null) ? new ItemList<Privilege> (pm.getPrivileges()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -57,7 +74,7 @@ public class PrivilegeModule {
      * @param  privileges  The list of archive records.
      */
     public void setPrivileges (List<Privilege> privileges) {
-        this.privileges = privileges;
+        this.privileges = (privileges != null) ? new ItemList<Privilege> (privileges) : null;
     }
 
     /**
@@ -86,11 +103,21 @@ public class PrivilegeModule {
         if (this.privileges == null)
             return null;
 
-        for (Privilege tmp : this.privileges) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.privileges.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a privilege record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the privilege being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.privileges == null)
+            return id + "_copy";
+
+        return this.privileges.newCopyId (id);
     }
 }
@@ -9,6 +9,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
@@ -16,32 +23,30 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.PrivilegeModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,9 +65,39 @@ public class PrivilegeModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (PrivilegeModulesDAO.class);
 
+    // builds privileges from the item elements of privilege module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<Privilege> itemHandler = new ModuleXmlReader.ItemHandler<Privilege>() {
+        public Privilege newItem (Element e, String parentName) {
+            return new Privilege (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("PrivilegeModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of privilege module files without building privilege objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "resourcePath", "resourceType", "recurse", "mode") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                v[1],
+                v[2],
+                "" + ((v[3] == null) ? false : v[3].matches ("(?i)^(yes|true|on|1)$")),
+                v[4]
+            };
+        }
+    };
+
     private PDToolGUIConfiguration conf = new PDToolGUIConfiguration();
     private String indent; //, indentX2, indentX3, indentX4;
-    private XMLOutputter xmlo = new XMLOutputter();
 
     public PrivilegeModulesDAO () {
         super ();
@@ -99,10 +134,12 @@ public class PrivilegeModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                PrivilegeModuleResource
@@ -118,6 +155,7 @@ public class PrivilegeModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -151,42 +189,55 @@ public class PrivilegeModulesDAO {
         }
         
         log.debug ("Getting list of privileges in " + path);
-        PrivilegeModule pm = findByPath (path);
-
-        if (pm == null) {
-            log.error ("parsed privilege module is null.");
-            return null;
-        }
         
-        // get current list of privilege modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getPrivilegeList (pm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
-        }
+        if (resultList == null) {
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+            // get current list of privilege modules in display list form
+            //
+            resultList = getPrivilegeList (path);
+
+            if (resultList == null) {
+                log.error ("parsed privilege module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
         log.debug ("Returning " + resultList.size() + " items in result list.");
         
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
+        }
+        
         return ListUtils.getListResult (
                    resultList, 
                    numRows, 
@@ -207,8 +258,6 @@ public class PrivilegeModulesDAO {
     public PrivilegeModule findByPath (String path) {
         PrivilegeModule pm = new PrivilegeModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document pmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -233,36 +282,86 @@ public class PrivilegeModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        pm.setPath (path);
-        
-        try {
-            pmDoc = builder.build (path);
-            Element rootNode = pmDoc.getRootElement();
-//            Namespace ns = pmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Privilege> privileges = new ArrayList<Privilege>();
-            List<Element> pmList = rootNode.getChildren();
-            
-            log.debug ("Located " + pmList.size() + " child elements.");
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-            // iterate over all the "privilege" elements
+        lock.lock();
+        try {
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
             //
-            int i = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element pmChild : pmList) {
-                log.debug ("Examining child #" + i++ + ": " + pmChild.getName() + "{" + pmChild.getNamespace().getURI() + "}");
-                
-                privileges.add (new Privilege (pmChild));
+            PrivilegeModule cachedPrivilegeModule = ModuleCache.getInstance().get (f, PrivilegeModule.class);
+            if (cachedPrivilegeModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new PrivilegeModule (cachedPrivilegeModule);
             }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            pm.setPath (path);
+        
+            try {
+                List<Privilege> privileges = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + privileges.size() + " privilege elements.");
+            
+                pm.setPrivileges (privileges);
             
-            pm.setPrivileges (privileges);
+                ModuleCache.getInstance().put (f, lastModified, length, new PrivilegeModule (pm));
             
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            }
+
+            return pm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Searches a privilege module for a privilege by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the privilege's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the privilege module.
+     * @param  id    The ID of the privilege to look for.
+     * @return       The requested privilege or <code>null</code> if it does not exist.
+     */
+    public Privilege findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
         }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-        return pm;
+        lock.lock();
+        try {
+            PrivilegeModule cachedPrivilegeModule = ModuleCache.getInstance().get (new File (path), PrivilegeModule.class);
+            if (cachedPrivilegeModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedPrivilegeModule.findById (id);
+            }
+        
+            Privilege result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            PrivilegeModule pm = findByPath (path);
+        
+            return (pm != null) ? pm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -276,28 +375,80 @@ public class PrivilegeModulesDAO {
         if (pm.getPath() == null)
             throw new IllegalArgumentException ("Privilege module's path may not be null.");
         
-        File f = new File (pm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (pm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (pm.getPath() + ".bak"));
-        }
+        lock.lock();
+        try {
+            File f = new File (pm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
         
-        Document pmDoc = new Document (new Element ("PrivilegeModule", "ns1", DAOConstants.MODULES_NS));
-        pmDoc.getRootElement().addContent ("\n");
+            ModuleXmlWriter pmWriter = new ModuleXmlWriter (pm.getPath(), "PrivilegeModule");
         
-        if (pm.getPrivileges() != null) {
-            for (Privilege p : pm.getPrivileges()) {
-                Element pNode = p.toElement ("resourcePrivilege", 2).addContent ("\n" + indent);
-
-                pmDoc.getRootElement().addContent (indent);
-                pmDoc.getRootElement().addContent (pNode);
-                pmDoc.getRootElement().addContent ("\n");
+            try {
+                if (pm.getPrivileges() != null) {
+                    for (Privilege p : pm.getPrivileges()) {
+                        pmWriter.writeItem (toItemElement (p));
+                    }
+                }
+            
+                pmWriter.finish();
+            } finally {
+                pmWriter.close();
             }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (pm.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single privilege change to a privilege module's XML file. When possible only the changed privilege
+     * is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  pm  The privilege module (already containing the change.)
+     * @param  id  The id of the privilege being replaced or deleted or <code>null</code> if the privilege was added.
+     * @param  p  The added or updated privilege or <code>null</code> if the privilege was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        PrivilegeModule pm,
+        String id,
+        Privilege p
+    ) throws Exception {
+        if (pm.getPath() == null)
+            throw new IllegalArgumentException ("Privilege module's path may not be null.");
         
-        xmlo.output (pmDoc, new FileOutputStream (pm.getPath()));
+        Lock lock = FileLocks.getInstance().writeLock (pm.getPath());
+
+        lock.lock();
+        try {
+            Element e = (p != null) ? toItemElement (p) : null;
+
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("PrivilegeModule", pm.getPath(), id, e, new PrivilegeModule (pm)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (pm.getPath(), itemHandler, id, e))
+                serialize (pm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a privilege laid out as it is in the module file.
+    //
+    private Element toItemElement (Privilege p) {
+        return p.toElement ("resourcePrivilege", 2).addContent ("\n" + indent);
     }
     
     public ResultMessage generate (
@@ -404,50 +555,102 @@ public class PrivilegeModulesDAO {
             return new ResultMessage ("error", "Privileges did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("merging generated privileges with original privileges ...");
-        PrivilegeModule mergedPm = mergePrivilegeModules (path, generatedXmlPath);
-        
-        // delete the generated privilege module
-        //
-        log.debug ("deleting generated users file ...");
-        (new File (generatedXmlPath)).delete();
+        PrivilegeModule generatedPm = findByPath (generatedXmlPath);
 
-        // write out the merged users module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged users ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedPm);
-            result = new ResultMessage ("success", "Privileges from server " + serverId + ", starting path " + startPath + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated privileges!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated privileges with original privileges ...");
+            PrivilegeModule mergedPm = mergePrivilegeModules (path, generatedPm);
+        
+            // delete the generated privilege module
+            //
+            log.debug ("deleting generated users file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged users module
+            //
+            log.debug ("writing out merged users ...");
+            try {
+                serialize (mergedPm);
+                result = new ResultMessage ("success", "Privileges from server " + serverId + ", starting path " + startPath + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated privileges!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getPrivilegeList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            PrivilegeModule pm = ModuleCache.getInstance().get (f, PrivilegeModule.class);
+            if (pm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getPrivilegeList (pm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (5).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getPrivilegeList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getPrivilegeList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getPrivilegeList (PrivilegeModule pm) {
-        List<ListResult.Row> al = new ArrayList<ListResult.Row>();
+        RowStore.Builder al = new RowStore.Builder (5);
         
         if (pm.getPrivileges() != null && pm.getPrivileges().size() > 0) {
             for (Privilege p : pm.getPrivileges()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (p.getId());
-                cell.add (p.getResourcePath());
-                cell.add (p.getResourceType());
-                cell.add ("" + p.isRecurse());
-                cell.add (p.getMode());
-                
-                al.add (new ListResult.Row (p.getId(), cell));
+                al.add (
+                    p.getId(),
+                    p.getId(),
+                    p.getResourcePath(),
+                    p.getResourceType(),
+                    "" + p.isRecurse(),
+                    p.getMode()
+                );
             }
         }
         
-        return al;
+        return al.build();
     }
     
     // writes out a temporary group generation plan
@@ -471,10 +674,9 @@ public class PrivilegeModulesDAO {
     
     private PrivilegeModule mergePrivilegeModules (
         String origPath,
-        String toMergePath
+        PrivilegeModule toMergePm
     ) {
         PrivilegeModule origPm = findByPath (origPath);
-        PrivilegeModule toMergePm = findByPath (toMergePath);
         int i;
         
         for (Privilege p : toMergePm.getPrivileges()) {
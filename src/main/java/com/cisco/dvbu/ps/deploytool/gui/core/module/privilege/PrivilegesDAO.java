@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.privilege;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.PrivilegeResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class PrivilegesDAO {
         String path,
         String id
     ) {
-        PrivilegeModule pm = pmDao.findByPath (path);
-        if (pm == null) {
-            log.error ("Unable to locate privilege module " + path);
-        }
-        
-        log.debug ("Privilege module located. Looking for privilege ID " + id);
-        return pm.findById (id);
+        log.debug ("Looking for privilege ID " + id + " in privilege module " + path);
+        return pmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class PrivilegesDAO {
      * Adds a privilege to a privilege module.
      * </p>
      * 
-     * @param  path  The path to the privilege module.
-     * @param  p     The {@link Privilege} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the privilege module.
+     * @param  p        The {@link Privilege} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Privilege p
+        Privilege p,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        PrivilegeModule pm = pmDao.findByPath (path);
-        if (pm == null) {
-            return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
-        }
+            PrivilegeModule pm = pmDao.findByPath (path);
+            if (pm == null) {
+                return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Privilege module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (p, pm, DAOConstants.OPERATION_ADD);
+            msgList = validate (p, pm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            pm.getPrivileges().add (p);
+                pm.getPrivileges().add (p);
         
-            try {
-                pmDao.serialize (pm);
-                result = new ResultMessage ("success", "Created privilege " + p.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing privilege module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize privilege module, " + path + ": " + e.getMessage(), null);
+                try {
+                    pmDao.serialize (pm, null, p);
+                    result = new ResultMessage ("success", "Created privilege " + p.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing privilege module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize privilege module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class PrivilegesDAO {
      * Updates a privilege in a privilege module.
      * </p>
      * 
-     * @param  path  The path to the user module.
-     * @param  p     The {@link Privilege} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the user module.
+     * @param  p        The {@link Privilege} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Privilege p
+        Privilege p,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Privilege origPrivilege = null;
-        
-        PrivilegeModule pm = pmDao.findByPath (path);
-        if (pm == null) {
-            return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Privilege origPrivilege = null;
         
-        for (Privilege tmp : pm.getPrivileges()) {
-            if (tmp.getId().equals (p.getOrigId())) {
-                origPrivilege = tmp;
-                break;
+            PrivilegeModule pm = pmDao.findByPath (path);
+            if (pm == null) {
+                return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Privilege module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (p, pm, DAOConstants.OPERATION_EDIT);
+            origPrivilege = pm.findById (p.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (p, pm, DAOConstants.OPERATION_EDIT);
         
-            pm.getPrivileges().remove (origPrivilege);
-            pm.getPrivileges().add (p);
+            if (msgList.size() == 0) {
         
-            try {
-                pmDao.serialize (pm);
-                result = new ResultMessage ("success", "Updated privilege " + p.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing privilege module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize privilege module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = pm.getPrivileges().indexOf (origPrivilege);
+                if (i >= 0)
+                    pm.getPrivileges().set (i, p);
+                else
+                    pm.getPrivileges().add (p);
+        
+                try {
+                    pmDao.serialize (pm, (origPrivilege != null) ? origPrivilege.getId() : null, p);
+                    result = new ResultMessage ("success", "Updated privilege " + p.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing privilege module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize privilege module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class PrivilegesDAO {
      * Copies one or more privilege in a privilege module.
      * </p>
      * 
-     * @param  path  The path to the privilege module.
-     * @param  ids   The a comma separated list of privilege IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the privilege module.
+     * @param  ids      The a comma separated list of privilege IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        PrivilegeModule pm = pmDao.findByPath (path);
-        if (pm == null) {
-            return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
-        }
+            PrivilegeModule pm = pmDao.findByPath (path);
+            if (pm == null) {
+                return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Privilege module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Privilege p = new Privilege();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Privilege p = new Privilege();
 
-            p.setId (id);
+                p.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (p, pm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (p, pm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Privilege np = new Privilege (pm.findById (p.getId())); // find the original privilege and make a copy of it.
+                    Privilege np = new Privilege (pm.findById (p.getId())); // find the original privilege and make a copy of it.
                 
-                if (np == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate privilege id \"" + p.getId() + "\"."));
-                    continue;
-                }
+                    if (np == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate privilege id \"" + p.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = p.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    np.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (np, pm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    np.setId (pm.newCopyId (p.getId()));
                 
-                // add the copy of the element
-                //
-                pm.getPrivileges().add (np);
+                    // add the copy of the element
+                    //
+                    pm.getPrivileges().add (np);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Privilege ID \"" + p.getId() + "\" copied to \"" + np.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Privilege ID \"" + p.getId() + "\" copied to \"" + np.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    pmDao.serialize (pm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing privilege module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing privilege module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several privileges in a privilege module and then writes the module once. The
+     * <code>operation</code> property of each privilege says what to do with it: "add", "edit" (replaces the
+     * privilege whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path        The path to the privilege module.
+     * @param  privileges  The list of privileges to add, update or delete.
+     * @param  version     The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return             A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Privilege> privileges,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            PrivilegeModule pm = pmDao.findByPath (path);
+            if (pm == null) {
+                return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Privilege module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (privileges == null || privileges.size() == 0) {
+                return new ResultMessage ("error", "No privileges were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Privilege p : privileges) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (p.getOperation() != null) ? p.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (p, pm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        pm.getPrivileges().add (p);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created privilege " + p.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (p, pm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        pm.getPrivileges().set (pm.getPrivileges().indexOf (pm.findById (p.getOrigId())), p);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated privilege " + p.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (p, pm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        pm.getPrivileges().remove (pm.findById (p.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Privilege ID \"" + p.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + p.getOperation() + "\" for privilege ID \"" + p.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 pmDao.serialize (pm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing privilege module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing privilege module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing privilege module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize privilege module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class PrivilegesDAO {
      * Deletes one or more privileges in a privilege module.
      * </p>
      * 
-     * @param  path  The path to the privilege module.
-     * @param  ids   The a comma separated list of privilege IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the privilege module.
+     * @param  ids      The a comma separated list of privilege IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        PrivilegeModule pm = pmDao.findByPath (path);
-        if (pm == null) {
-            return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
-        }
+            PrivilegeModule pm = pmDao.findByPath (path);
+            if (pm == null) {
+                return new ResultMessage ("error", "Privilege module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Privilege module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Privilege p = new Privilege();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Privilege p = new Privilege();
 
-            p.setId (id);
+                p.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (p, pm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (p, pm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                p = pm.findById (p.getId());
-                pm.getPrivileges().remove (p);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Privilege ID \"" + p.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    p = pm.findById (p.getId());
+                    pm.getPrivileges().remove (p);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Privilege ID \"" + p.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                pmDao.serialize (pm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing privilege module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing privilege module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        pmDao.serialize (pm, idArray[0], null);
+                    else
+                        pmDao.serialize (pm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing privilege module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing privilege module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.rebind;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
 import java.util.ArrayList;
@@ -22,7 +23,7 @@ import org.slf4j.LoggerFactory;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class Rebind {
+public class Rebind implements ModuleItem {
 
     // public constants
     //
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.rebind;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -16,7 +18,7 @@ import java.util.List;
  */
 public class RebindModule {
     String path;
-    List<Rebind> rebinds;
+    ItemList<Rebind> rebinds;
 
     /**
      * <p>
@@ -26,6 +28,21 @@ public class RebindModule {
     public RebindModule () {
         super ();
     }
+
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached rebind modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the rebind list (meaning that adding or removing rebinds
+     * in the copy leaves the original alone, but changing a rebind in the copy will update it in the original.)
+     * </p>
+     */
+    public RebindModule (RebindModule rm) {
+        if (rm != null) {
+            this.path = rm.getPath();
+            this.rebinds = (rm.getRebinds() != null) ? new ItemList<Rebind> (rm.getRebinds()) : null;
+        }
+    }
     
     /**
      * <p>
@@ -57,7 +74,7 @@ public class RebindModule {
      * @param  rebinds  The list of rebind records.
      */
     public void setRebinds (List<Rebind> rebinds) {
-        this.rebinds = rebinds;
+        this.rebinds = (rebinds != null) ? new ItemList<Rebind> (rebinds) : null;
     }
 
     /**
@@ -86,11 +103,21 @@ public class RebindModule {
         if (this.rebinds == null)
             return null;
 
-        for (Rebind tmp : this.rebinds) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.rebinds.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a rebind record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the rebind being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.rebinds == null)
+            return id + "_copy";
+
+        return this.rebinds.newCopyId (id);
     }
 }
@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
@@ -15,33 +22,31 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.RebindModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +65,35 @@ public class RebindModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (RebindModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds rebinds from the item elements of rebind module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<Rebind> itemHandler = new ModuleXmlReader.ItemHandler<Rebind>() {
+        public Rebind newItem (Element e, String parentName) {
+            return new Rebind (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("RebindModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of rebind module files without building rebind objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("rebindResource", "rebindFolder", "*/id", "*/resourcePath", "*/startingFolderPath") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            boolean resource = v[0] != null || v[1] == null;
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[2],
+                v[2],
+                (resource) ? "Resource Rebind" : "Folder Rebind",
+                (resource) ? v[3] : v[4]
+            };
+        }
+    };
 
     public RebindModulesDAO () {
         super ();
@@ -87,10 +120,12 @@ public class RebindModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                RebindModuleResource
@@ -106,6 +141,7 @@ public class RebindModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -139,42 +175,55 @@ public class RebindModulesDAO {
         }
         
         log.debug ("Getting list of rebinds in " + path);
-        RebindModule rm = findByPath (path);
-
-        if (rm == null) {
-            log.error ("parsed rebind module is null.");
-            return null;
-        }
         
-        // get current list of rebind modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getRebindList (rm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
-        }
+        if (resultList == null) {
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+            // get current list of rebind modules in display list form
+            //
+            resultList = getRebindList (path);
+
+            if (resultList == null) {
+                log.error ("parsed rebind module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
         log.debug ("numRows = " + numRows + "; pageNum = " + pageNum);
         
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
+        }
+        
         return ListUtils.getListResult (
                    resultList, 
                    numRows, 
@@ -195,8 +244,6 @@ public class RebindModulesDAO {
     public RebindModule findByPath (String path) {
         RebindModule rm = new RebindModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document rmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -219,33 +266,86 @@ public class RebindModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        rm.setPath (path);
-        
-        try {
-            rmDoc = builder.build (path);
-            Element rootNode = rmDoc.getRootElement();
-//            Namespace ns = rmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Rebind> rebinds = new ArrayList<Rebind>();
-            List<Element> rmList = rootNode.getChildren();
-            
-            log.debug ("Located " + rmList.size() + " child elements.");
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-            // iterate over all the "rebind" elements
+        lock.lock();
+        try {
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
             //
-            log.debug ("Iterating over child elements.");
-            for (Element rmChild : rmList) {
-                rebinds.add (new Rebind (rmChild));
+            RebindModule cachedRebindModule = ModuleCache.getInstance().get (f, RebindModule.class);
+            if (cachedRebindModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new RebindModule (cachedRebindModule);
             }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            rm.setPath (path);
+        
+            try {
+                List<Rebind> rebinds = ModuleXmlReader.read (path, itemHandler);
             
-            rm.setRebinds (rebinds);
+                log.debug ("Located " + rebinds.size() + " rebind elements.");
+            
+                rm.setRebinds (rebinds);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new RebindModule (rm));
+
+            } catch (IOException io) {
+                log.error ("getById() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            }
 
-        } catch (IOException io) {
-            log.error ("getById() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            return rm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Searches a rebind module for a rebind by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the rebind's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the rebind module.
+     * @param  id    The ID of the rebind to look for.
+     * @return       The requested rebind or <code>null</code> if it does not exist.
+     */
+    public Rebind findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
         }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-        return rm;
+        lock.lock();
+        try {
+            RebindModule cachedRebindModule = ModuleCache.getInstance().get (new File (path), RebindModule.class);
+            if (cachedRebindModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedRebindModule.findById (id);
+            }
+        
+            Rebind result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            RebindModule rm = findByPath (path);
+        
+            return (rm != null) ? rm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -259,30 +359,80 @@ public class RebindModulesDAO {
         if (rm.getPath() == null)
             throw new IllegalArgumentException ("Rebind module's path may not be null.");
         
-        File f = new File (rm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (rm.getPath() + ".bak"));
-        }
-        
-        Document rmDoc = new Document (new Element ("RebindModule", "ns1", DAOConstants.MODULES_NS));
-        rmDoc.getRootElement().addContent ("\n");
+        lock.lock();
+        try {
+            File f = new File (rm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
         
-        String indent = StringUtils.getIndent (1);
+            ModuleXmlWriter rmWriter = new ModuleXmlWriter (rm.getPath(), "RebindModule");
         
-        if (rm.getRebinds() != null) {
-            for (Rebind r : rm.getRebinds()) {
-                Element rNode = r.toElement ("rebind", 2).addContent ("\n" + indent);
-
-                rmDoc.getRootElement().addContent (indent);
-                rmDoc.getRootElement().addContent (rNode);
-                rmDoc.getRootElement().addContent ("\n");
+            try {
+                if (rm.getRebinds() != null) {
+                    for (Rebind r : rm.getRebinds()) {
+                        rmWriter.writeItem (toItemElement (r));
+                    }
+                }
+            
+                rmWriter.finish();
+            } finally {
+                rmWriter.close();
             }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (rm.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single rebind change to a rebind module's XML file. When possible only the changed rebind is
+     * spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  rm  The rebind module (already containing the change.)
+     * @param  id  The id of the rebind being replaced or deleted or <code>null</code> if the rebind was added.
+     * @param  r  The added or updated rebind or <code>null</code> if the rebind was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        RebindModule rm,
+        String id,
+        Rebind r
+    ) throws Exception {
+        if (rm.getPath() == null)
+            throw new IllegalArgumentException ("Rebind module's path may not be null.");
         
-        xmlo.output (rmDoc, new FileOutputStream (rm.getPath()));
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
+
+        lock.lock();
+        try {
+            Element e = (r != null) ? toItemElement (r) : null;
+
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("RebindModule", rm.getPath(), id, e, new RebindModule (rm)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (rm.getPath(), itemHandler, id, e))
+                serialize (rm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a rebind laid out as it is in the module file.
+    //
+    private Element toItemElement (Rebind r) {
+        return r.toElement ("rebind", 2).addContent ("\n" + StringUtils.getIndent (1));
     }
     
     /**
@@ -397,49 +547,101 @@ public class RebindModulesDAO {
             return new ResultMessage ("error", "Rebinds did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
-        //
-        log.debug ("merging generated rebinds with original rebinds ...");
-        RebindModule mergedRm = mergeRebindModules (path, generatedXmlPath);
-        
-        // delete the generated rebind module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("deleting generated rebinds file ...");
-        (new File (generatedXmlPath)).delete();
+        RebindModule generatedRm = findByPath (generatedXmlPath);
 
-        // write out the merged rebind module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged rebinds ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedRm);
-            result = new ResultMessage ("success", "Rebinds from server " + serverId + ", startPath " + startPath + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated rebinds!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated rebinds with original rebinds ...");
+            RebindModule mergedRm = mergeRebindModules (path, generatedRm);
+        
+            // delete the generated rebind module
+            //
+            log.debug ("deleting generated rebinds file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged rebind module
+            //
+            log.debug ("writing out merged rebinds ...");
+            try {
+                serialize (mergedRm);
+                result = new ResultMessage ("success", "Rebinds from server " + serverId + ", startPath " + startPath + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated rebinds!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getRebindList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            RebindModule rm = ModuleCache.getInstance().get (f, RebindModule.class);
+            if (rm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getRebindList (rm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (3).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getRebindList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getRebindList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getRebindList (RebindModule rm) {
-        List<ListResult.Row> rl = new ArrayList<ListResult.Row>();
+        RowStore.Builder rl = new RowStore.Builder (3);
         
         if (rm.getRebinds() != null && rm.getRebinds().size() > 0) {
             for (Rebind r : rm.getRebinds()) {
 
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (r.getId());
-                cell.add ((r.getType() == Rebind.TYPE_RESOURCE) ? "Resource Rebind" : "Folder Rebind");
-                cell.add ((r.getType() == Rebind.TYPE_RESOURCE) ? r.getResourcePath() : r.getStartingFolderPath());
-                
-                rl.add (new ListResult.Row (r.getId(), cell));
+                rl.add (
+                    r.getId(),
+                    r.getId(),
+                    (r.getType() == Rebind.TYPE_RESOURCE) ? "Resource Rebind" : "Folder Rebind",
+                    (r.getType() == Rebind.TYPE_RESOURCE) ? r.getResourcePath() : r.getStartingFolderPath()
+                );
             }
         }
                 
-        return rl;
+        return rl.build();
     }
     
     // writes out a temporary rebind generation plan
@@ -456,10 +658,9 @@ public class RebindModulesDAO {
     
     private RebindModule mergeRebindModules (
         String origPath,
-        String toMergePath
+        RebindModule toMergeRm
     ) {
         RebindModule origRm = findByPath (origPath);
-        RebindModule toMergeRm = findByPath (toMergePath);
         int i;
         
         for (Rebind r : toMergeRm.getRebinds()) {
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.rebind;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.RebindResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class RebindsDAO {
         String path,
         String id
     ) {
-        RebindModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            log.error ("Unable to locate rebind module " + path);
-        }
-        
-        log.debug ("Rebind module located. Looking for rebind ID " + id);
-        return rm.findById (id);
+        log.debug ("Looking for rebind ID " + id + " in rebind module " + path);
+        return rmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class RebindsDAO {
      * Adds a rebind to a rebind module.
      * </p>
      * 
-     * @param  path  The path to the rebind module.
-     * @param  r     The {@link Rebind} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the rebind module.
+     * @param  r        The {@link Rebind} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Rebind r
+        Rebind r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        RebindModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
-        }
+            RebindModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Rebind module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+            msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            rm.getRebinds().add (r);
+                rm.getRebinds().add (r);
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Created rebind " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing rebind module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize rebind module, " + path + ": " + e.getMessage(), null);
+                try {
+                    rmDao.serialize (rm, null, r);
+                    result = new ResultMessage ("success", "Created rebind " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing rebind module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize rebind module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class RebindsDAO {
      * Updates a rebind in a rebind module.
      * </p>
      * 
-     * @param  path  The path to the rebind module.
-     * @param  r     The {@link Rebind} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the rebind module.
+     * @param  r        The {@link Rebind} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Rebind r
+        Rebind r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Rebind origRebind = null;
-        
-        RebindModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Rebind origRebind = null;
         
-        for (Rebind tmp : rm.getRebinds()) {
-            if (tmp.getId().equals (r.getOrigId())) {
-                origRebind = tmp;
-                break;
+            RebindModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Rebind module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+            origRebind = rm.findById (r.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
         
-            rm.getRebinds().remove(origRebind);
-            rm.getRebinds().add (r);
+            if (msgList.size() == 0) {
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Updated rebind " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing rebind module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize rebind module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = rm.getRebinds().indexOf (origRebind);
+                if (i >= 0)
+                    rm.getRebinds().set (i, r);
+                else
+                    rm.getRebinds().add (r);
+        
+                try {
+                    rmDao.serialize (rm, (origRebind != null) ? origRebind.getId() : null, r);
+                    result = new ResultMessage ("success", "Updated rebind " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing rebind module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize rebind module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class RebindsDAO {
      * Copies one or more rebinds in a rebind module.
      * </p>
      * 
-     * @param  path  The path to the rebind module.
-     * @param  ids   The a comma separated list of rebind IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the rebind module.
+     * @param  ids      The a comma separated list of rebind IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        RebindModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
-        }
+            RebindModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Rebind module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Rebind r = new Rebind();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Rebind r = new Rebind();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Rebind nr = new Rebind (rm.findById (r.getId())); // find the original archive and make a copy of it.
+                    Rebind nr = new Rebind (rm.findById (r.getId())); // find the original archive and make a copy of it.
                 
-                if (nr == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate archive id \"" + r.getId() + "\"."));
-                    continue;
-                }
+                    if (nr == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate archive id \"" + r.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = r.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nr.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nr, rm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nr.setId (rm.newCopyId (r.getId()));
                 
-                // add the copy of the element
-                //
-                rm.getRebinds().add (nr);
+                    // add the copy of the element
+                    //
+                    rm.getRebinds().add (nr);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Rebind ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Rebind ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing rebind module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing rebind module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several rebinds in a rebind module and then writes the module once. The
+     * <code>operation</code> property of each rebind says what to do with it: "add", "edit" (replaces the
+     * rebind whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path     The path to the rebind module.
+     * @param  rebinds  The list of rebinds to add, update or delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Rebind> rebinds,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            RebindModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Rebind module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (rebinds == null || rebinds.size() == 0) {
+                return new ResultMessage ("error", "No rebinds were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Rebind r : rebinds) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (r.getOperation() != null) ? r.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getRebinds().add (r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created rebind " + r.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        rm.getRebinds().set (rm.getRebinds().indexOf (rm.findById (r.getOrigId())), r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated rebind " + r.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getRebinds().remove (rm.findById (r.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Rebind ID \"" + r.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + r.getOperation() + "\" for rebind ID \"" + r.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 rmDao.serialize (rm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing rebind module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing rebind module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing rebind module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize rebind module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class RebindsDAO {
      * Deletes one or more rebinds in a rebind module.
      * </p>
      * 
-     * @param  path  The path to the rebind module.
-     * @param  ids   The a comma separated list of rebind IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the rebind module.
+     * @param  ids      The a comma separated list of rebind IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        RebindModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
-        }
+            RebindModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Rebind module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Rebind module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Rebind r = new Rebind();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Rebind r = new Rebind();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                r = rm.findById (r.getId());
-                rm.getRebinds().remove (r);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Rebind ID \"" + r.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    r = rm.findById (r.getId());
+                    rm.getRebinds().remove (r);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Rebind ID \"" + r.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing rebind module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing rebind module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        rmDao.serialize (rm, idArray[0], null);
+                    else
+                        rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing rebind module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing rebind module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.regression;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
 import java.util.ArrayList;
@@ -22,7 +23,7 @@ import org.jdom2.Element;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class Regression {
+public class Regression implements ModuleItem {
 
 
     // public constants
@@ -541,10 +542,29 @@ public class Regression {
      */
     public void setId() {
         if (this.type == TYPE_QUERY && this.datasource != null && this.query != null) {
-            this.id = "" + Math.abs (this.datasource.hashCode()) + Math.abs (this.query.hashCode());
+            this.id = getQueryId (this.datasource, this.query);
         }
     }
 
+    /**
+     * <p>
+     * Returns the ID given to a query element with the specified data source and query (see {@link #setId()}.)
+     * </p>
+     * 
+     * @param  datasource  The query's data source.
+     * @param  query       The query text.
+     * @return             The ID or <code>null</code> if either input is <code>null</code>.
+     */
+    public static String getQueryId (
+        String datasource,
+        String query
+    ) {
+        if (datasource == null || query == null)
+            return null;
+        
+        return "" + Math.abs (datasource.hashCode()) + Math.abs (query.hashCode());
+    }
+
     /**
      * <p>
      * Sets the <code>id</code> field.
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.regression;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class RegressionModule {
 
     String path;
-    List<Regression> regressions;
+    ItemList<Regression> regressions;
 
     /**
      * <p>
@@ -27,6 +29,21 @@ public class RegressionModule {
     public RegressionModule () {
         super ();
     }
+
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached regression modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the regression list (meaning that adding or removing regressions
+     * in the copy leaves the original alone, but changing a regression in the copy will update it in the original.)
+     * </p>
+     */
+    public RegressionModule (RegressionModule rm) {
+        if (rm != null) {
+            this.path = rm.getPath();
+            this.regressions = (rm.getRegressions() != null) ? new ItemList<Regression> (rm.getRegressions()) : null;
+        }
+    }
     
     /**
      * <p>
@@ -58,7 +75,7 @@ public class RegressionModule {
      * @param  regressions  The list of regression records.
      */
     public void setRegressions (List<Regression> regressions) {
-        this.regressions = regressions;
+        this.regressions = (regressions != null) ? new ItemList<Regression> (regressions) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class RegressionModule {
         if (this.regressions == null)
             return null;
 
-        for (Regression tmp : this.regressions) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.regressions.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a regression record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the regression being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.regressions == null)
+            return id + "_copy";
+
+        return this.regressions.newCopyId (id);
     }
 }
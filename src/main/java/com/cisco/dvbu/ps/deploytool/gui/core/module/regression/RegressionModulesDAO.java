@@ -8,34 +8,39 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.resources.RegressionModuleResource;
 
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +59,94 @@ public class RegressionModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (RegressionModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds regressions from the item elements of regression module files. regression queries are grouped
+    // into a parent element and regression security elements are grouped into a parent element with
+    // subparents, so those are treated as containers.
+    //
+    private static final ModuleXmlReader.ItemHandler<Regression> itemHandler = new ModuleXmlReader.ItemHandler<Regression>() {
+        public boolean isContainer (String name, int depth) {
+            return name.equals ("regressionQueries") ||
+                   name.equals ("regressionSecurity") ||
+                   name.equals ("regressionSecurityUsers") ||
+                   name.equals ("regressionSecurityQueries") ||
+                   name.equals ("regressionSecurityPlans");
+        }
+        
+        public Regression newItem (Element e, String parentName) {
+            if (parentName.equals ("regressionQueries") && ! e.getName().equals ("regressionQuery"))
+                return null;
+            
+            if (parentName.equals ("regressionSecurity"))
+                return null;
+            
+            return new Regression (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("RegressionModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of regression module files without building regression objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "inputFilePath", "datasource", "query", "userName", "domain", "queryType") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            if (parentName.equals ("regressionQueries") && ! name.equals ("regressionQuery"))
+                return null;
+            
+            if (parentName.equals ("regressionSecurity"))
+                return null;
+            
+            int type = Regression.TYPE_TEST;
+            String id = v[0];
+            String ifp = "";
+            String ds = "";
+            String q = "";
+            
+            if (name.equals ("regressionTest")) {
+                ifp = v[1];
+            } else if (name.equals ("regressionQuery")) {
+                type = Regression.TYPE_QUERY;
+                id = Regression.getQueryId (v[2], v[3]);
+                ds = v[2];
+                q = v[3];
+            } else if (name.equals ("regressionSecurityUser")) {
+                type = Regression.TYPE_SECURITY_USER;
+                ifp = v[4] + "@" + v[5];
+            } else if (name.equals ("regressionSecurityQuery")) {
+                int queryType = Regression.QUERY_TYPE_NULL;
+                
+                for (int i = 0; v[6] != null && i < Regression.QUERY_TYPE_LABELS.length; i++) {
+                    if (v[6].equalsIgnoreCase (Regression.QUERY_TYPE_LABELS[i])) {
+                        queryType = i;
+                        break;
+                    }
+                }
+                
+                type = Regression.TYPE_SECURITY_QUERY;
+                ds = v[2];
+                q = Regression.QUERY_TYPE_LABELS[queryType] + ": " + v[3];
+            } else if (name.equals ("regressionSecurityPlan")) {
+                type = Regression.TYPE_SECURITY_PLAN;
+            } else {
+                id = null;
+                ifp = null;
+            }
+            
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                id,
+                id,
+                Regression.TYPE_LABELS[type],
+                ifp,
+                ds,
+                q
+            };
+        }
+    };
 
     public RegressionModulesDAO () {
         super ();
@@ -83,10 +175,12 @@ public class RegressionModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                RegressionModuleResource
@@ -102,6 +196,7 @@ public class RegressionModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -135,42 +230,55 @@ public class RegressionModulesDAO {
         }
         
         log.debug ("Getting list of reregressions in " + path);
-        RegressionModule rm = findByPath (path);
-
-        if (rm == null) {
-            log.error ("parsed regression module is null.");
-            return null;
-        }
         
-        // get current list of regression modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getRegressionList (rm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
-        }
+        if (resultList == null) {
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+            // get current list of regression modules in display list form
+            //
+            resultList = getRegressionList (path);
+
+            if (resultList == null) {
+                log.error ("parsed regression module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
         log.debug ("numRows = " + numRows + "; pageNum = " + pageNum);
         
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
+        }
+        
         return ListUtils.getListResult (
                    resultList, 
                    numRows, 
@@ -191,8 +299,6 @@ public class RegressionModulesDAO {
     public RegressionModule findByPath (String path) {
         RegressionModule rm = new RegressionModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document rmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -215,68 +321,86 @@ public class RegressionModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        rm.setPath (path);
-        
-        try {
-            rmDoc = builder.build (path);
-            Element rootNode = rmDoc.getRootElement();
-//            Namespace ns = rmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Regression> regressions = new ArrayList<Regression>();
-            List<Element> rmList = rootNode.getChildren();
-            
-            log.debug ("Located " + rmList.size() + " child elements.");
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-            // iterate over all the "regressionTest" and "regressionQuery" elements
+        lock.lock();
+        try {
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
             //
-            log.debug ("Iterating over child elements.");
-            for (Element rmChild : rmList) {
-                
-                // regression queries are grouped into a parent element, so iterate over all its
-                // children to get the regression queries.
-                //
-                if (rmChild.getName().equals ("regressionQueries")) {
-                    for (Element rqChild : rmChild.getChildren()) {
-                        if (rqChild.getName().equals ("regressionQuery"))
-                            regressions.add (new Regression (rqChild));
-                    }
-                    
-                // regression security elements are grouped into a parent element, so iterate over
-                // all the children and subchildren to get the regression security elements.
-                //
-                } else if (rmChild.getName().equals ("regressionSecurity")) {
-                    for (Element rsNode : rmChild.getChildren()) {
-                        if (rsNode.getName().equals ("regressionSecurityUsers")) {
-                            for (Element rsuNode : rsNode.getChildren()) {
-                                regressions.add (new Regression (rsuNode));
-                            }
-                        }
+            RegressionModule cachedRegressionModule = ModuleCache.getInstance().get (f, RegressionModule.class);
+            if (cachedRegressionModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new RegressionModule (cachedRegressionModule);
+            }
         
-                        if (rsNode.getName().equals ("regressionSecurityQueries")) {
-                            for (Element rsqNode : rsNode.getChildren()) {
-                                regressions.add (new Regression (rsqNode));
-                            }
-                        }
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
         
-                        if (rsNode.getName().equals ("regressionSecurityPlans")) {
-                            for (Element rspNode : rsNode.getChildren()) {
-                                regressions.add (new Regression (rspNode));
-                            }
-                        }
-                    }
-                } else {
-                    regressions.add (new Regression (rmChild));
-                }
-            }
+            rm.setPath (path);
+        
+            try {
+                List<Regression> regressions = ModuleXmlReader.read (path, itemHandler);
             
-            rm.setRegressions (regressions);
+                log.debug ("Located " + regressions.size() + " regression elements.");
+            
+                rm.setRegressions (regressions);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new RegressionModule (rm));
+
+            } catch (IOException io) {
+                log.error ("getById() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            }
 
-        } catch (IOException io) {
-            log.error ("getById() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            return rm;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return rm;
+    /**
+     * <p>
+     * Searches a regression module for a regression by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the regression's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the regression module.
+     * @param  id    The ID of the regression to look for.
+     * @return       The requested regression or <code>null</code> if it does not exist.
+     */
+    public Regression findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            RegressionModule cachedRegressionModule = ModuleCache.getInstance().get (new File (path), RegressionModule.class);
+            if (cachedRegressionModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedRegressionModule.findById (id);
+            }
+        
+            Regression result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            RegressionModule rm = findByPath (path);
+        
+            return (rm != null) ? rm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -290,143 +414,223 @@ public class RegressionModulesDAO {
         if (rm.getPath() == null)
             throw new IllegalArgumentException ("Regression module's path may not be null.");
         
-        File f = new File (rm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (rm.getPath() + ".bak"));
-        }
-        
-        Document rmDoc = new Document (new Element ("RegressionModule", "ns1", DAOConstants.MODULES_NS));
-        rmDoc.getRootElement().addContent ("\n");
-        
-        String indentStr = StringUtils.getIndent (1);
-        String indentStr2 = StringUtils.getIndent (2);
-        String indentStr3 = StringUtils.getIndent (3);
-        
-        if (rm.getRegressions() != null) {
-            boolean hasQueries = false;
-            boolean hasSecurityUsers = false;
-            boolean hasSecurityQueries = false;
-            boolean hasSecurityPlans = false;
-            
-            // write out the regression tests first
-            //
-            for (Regression r : rm.getRegressions()) {
-                switch (r.getType()) {
-                    case Regression.TYPE_TEST:
-                        Element rNode = r.toElement ("regressionTest", 2).addContent ("\n" + indentStr);
-        
-                        rmDoc.getRootElement().addContent (indentStr);
-                        rmDoc.getRootElement().addContent (rNode);
-                        rmDoc.getRootElement().addContent ("\n");
-                        
-                        break;
-
-                    case Regression.TYPE_QUERY:
-                        hasQueries = true;
-                        break;
-
-                    case Regression.TYPE_SECURITY_USER:
-                        hasSecurityUsers = true;
-                        break;
-
-                    case Regression.TYPE_SECURITY_QUERY:
-                        hasSecurityQueries = true;
-                        break;
+        lock.lock();
+        try {
+            File f = new File (rm.getPath());
 
-                    case Regression.TYPE_SECURITY_PLAN:
-                        hasSecurityPlans = true;
-                        break;
-                }
-            }
-            
-            // next write out the queries, if any
+            // if user preferences indicate to save backups of edited files, back up the original file.
             //
-            if (hasQueries) {
-                Element rqNode = new Element ("regressionQueries");
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter rmWriter = new ModuleXmlWriter (rm.getPath(), "RegressionModule");
+        
+            try {
+                if (rm.getRegressions() != null) {
+                    boolean hasQueries = false;
+                    boolean hasSecurityUsers = false;
+                    boolean hasSecurityQueries = false;
+                    boolean hasSecurityPlans = false;
                 
-                for (Regression r : rm.getRegressions()) {
-                    if (r.getType() == Regression.TYPE_QUERY) {
-                        Element qNode = r.toElement ("regressionQuery", 3).addContent ("\n" + indentStr2);
+                    // write out the regression tests first
+                    //
+                    for (Regression r : rm.getRegressions()) {
+                        switch (r.getType()) {
+                            case Regression.TYPE_TEST:
+                                rmWriter.writeItem (toItemElement (r));
+                                break;
+    
+                            case Regression.TYPE_QUERY:
+                                hasQueries = true;
+                                break;
     
-                        rqNode.addContent ("\n" + indentStr2);
-                        rqNode.addContent (qNode);
+                            case Regression.TYPE_SECURITY_USER:
+                                hasSecurityUsers = true;
+                                break;
+    
+                            case Regression.TYPE_SECURITY_QUERY:
+                                hasSecurityQueries = true;
+                                break;
+    
+                            case Regression.TYPE_SECURITY_PLAN:
+                                hasSecurityPlans = true;
+                                break;
+                        }
+                    }
+                
+                    // next write out the queries, if any
+                    //
+                    if (hasQueries) {
+                        rmWriter.startContainer ("regressionQueries");
+                    
+                        for (Regression r : rm.getRegressions()) {
+                            if (r.getType() == Regression.TYPE_QUERY)
+                                rmWriter.writeItem (toItemElement (r));
+                        }
+    
+                        rmWriter.endContainer();
+                    }
+                
+                    // finally, write out the security elements, if any
+                    //
+                    if (hasSecurityUsers || hasSecurityQueries || hasSecurityPlans) {
+                        rmWriter.startContainer ("regressionSecurity");
+    
+                        if (hasSecurityUsers) {
+                            rmWriter.startContainer ("regressionSecurityUsers");
+    
+                            for (Regression r : rm.getRegressions()) {
+                                if (r.getType() == Regression.TYPE_SECURITY_USER)
+                                    rmWriter.writeItem (toItemElement (r));
+                            }
+    
+                            rmWriter.endContainer();
+                        }
+    
+                        if (hasSecurityQueries) {
+                            rmWriter.startContainer ("regressionSecurityQueries");
+    
+                            for (Regression r : rm.getRegressions()) {
+                                if (r.getType() == Regression.TYPE_SECURITY_QUERY)
+                                    rmWriter.writeItem (toItemElement (r));
+                            }
+    
+                            rmWriter.endContainer();
+                        }
+    
+                        if (hasSecurityPlans) {
+                            rmWriter.startContainer ("regressionSecurityPlans");
+    
+                            for (Regression r : rm.getRegressions()) {
+                                if (r.getType() == Regression.TYPE_SECURITY_PLAN)
+                                    rmWriter.writeItem (toItemElement (r));
+                            }
+    
+                            rmWriter.endContainer();
+                        }
+    
+                        rmWriter.endContainer();
                     }
                 }
-
-                rmDoc.getRootElement().addContent (indentStr);
-                rmDoc.getRootElement().addContent (rqNode.addContent ("\n" + indentStr));
-                rmDoc.getRootElement().addContent ("\n");
-            }
             
-            // finally, write out the security elements, if any
-            //
-            if (hasSecurityUsers || hasSecurityQueries || hasSecurityPlans) {
-                Element rsNode = new Element ("regressionSecurity");
+                rmWriter.finish();
+            } finally {
+                rmWriter.close();
+            }
 
-                if (hasSecurityUsers) {
-                    Element rsuNode = new Element ("regressionSecurityUsers");
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (rm.getPath());
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                    for (Regression r : rm.getRegressions()) {
-                        if (r.getType() == Regression.TYPE_SECURITY_USER) {
-                            Element uNode = r.toElement ("regressionSecurityUser", 4).addContent ("\n" + indentStr3);
+    /**
+     * <p>
+     * Writes a single regression change to a regression module's XML file. When possible only the changed
+     * regression is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module
+     * is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  rm  The regression module (already containing the change.)
+     * @param  id  The id of the regression being replaced or deleted or <code>null</code> if the regression was added.
+     * @param  r  The added or updated regression or <code>null</code> if the regression was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        RegressionModule rm,
+        String id,
+        Regression r
+    ) throws Exception {
+        if (rm.getPath() == null)
+            throw new IllegalArgumentException ("Regression module's path may not be null.");
         
-                            rsuNode.addContent ("\n" + indentStr3);
-                            rsuNode.addContent (uNode);
-                        }
-                    }
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-                    rsNode.addContent ("\n" + indentStr2);
-                    rsNode.addContent (rsuNode.addContent ("\n" + indentStr2));
-                }
+        lock.lock();
+        try {
+            Element e = (r != null) ? toItemElement (r) : null;
 
-                if (hasSecurityQueries) {
-                    Element rsqNode = new Element ("regressionSecurityQueries");
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("RegressionModule", rm.getPath(), id, e, new RegressionModule (rm)))
+                return;
 
-                    for (Regression r : rm.getRegressions()) {
-                        if (r.getType() == Regression.TYPE_SECURITY_QUERY) {
-                            Element qNode = r.toElement ("regressionSecurityQuery", 4).addContent ("\n" + indentStr3);
-        
-                            rsqNode.addContent ("\n" + indentStr3);
-                            rsqNode.addContent (qNode);
-                        }
-                    }
+            if (! ModuleXmlPatcher.patch (rm.getPath(), itemHandler, id, e))
+                serialize (rm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a regression laid out as it is in the module file (the element name and
+    // indent level depend on the type.)
+    //
+    private Element toItemElement (Regression r) {
+        switch (r.getType()) {
+            case Regression.TYPE_QUERY:
+                return r.toElement ("regressionQuery", 3).addContent ("\n" + StringUtils.getIndent (2));
 
-                    rsNode.addContent ("\n" + indentStr2);
-                    rsNode.addContent (rsqNode.addContent ("\n" + indentStr2));
-                }
+            case Regression.TYPE_SECURITY_USER:
+                return r.toElement ("regressionSecurityUser", 4).addContent ("\n" + StringUtils.getIndent (3));
 
-                if (hasSecurityPlans) {
-                    Element rspNode = new Element ("regressionSecurityPlans");
+            case Regression.TYPE_SECURITY_QUERY:
+                return r.toElement ("regressionSecurityQuery", 4).addContent ("\n" + StringUtils.getIndent (3));
 
-                    for (Regression r : rm.getRegressions()) {
-                        if (r.getType() == Regression.TYPE_SECURITY_PLAN) {
-                            Element pNode = r.toElement ("regressionSecurityPlan", 4).addContent ("\n" + indentStr3);
-        
-                            rspNode.addContent ("\n" + indentStr3);
-                            rspNode.addContent (pNode);
-                        }
-                    }
+            case Regression.TYPE_SECURITY_PLAN:
+                return r.toElement ("regressionSecurityPlan", 4).addContent ("\n" + StringUtils.getIndent (3));
 
-                    rsNode.addContent ("\n" + indentStr2);
-                    rsNode.addContent (rspNode.addContent ("\n" + indentStr2));
-                }
+            default:
+                return r.toElement ("regressionTest", 2).addContent ("\n" + StringUtils.getIndent (1));
+        }
+    }
+    
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getRegressionList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-                rmDoc.getRootElement().addContent (indentStr);
-                rmDoc.getRootElement().addContent (rsNode.addContent ("\n" + indentStr));
-                rmDoc.getRootElement().addContent ("\n");
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            RegressionModule rm = ModuleCache.getInstance().get (f, RegressionModule.class);
+            if (rm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getRegressionList (rm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (5).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getRegressionList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getRegressionList() unable to load " + path + ":" + jdomex.getMessage());
             }
-        }
         
-        xmlo.output (rmDoc, new FileOutputStream (rm.getPath()));
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
     }
     
     // assembles the list result row list
     //
     private List<ListResult.Row> getRegressionList (RegressionModule rm) {
-        List<ListResult.Row> rl = new ArrayList<ListResult.Row>();
+        RowStore.Builder rl = new RowStore.Builder (5);
         
         if (rm.getRegressions() != null && rm.getRegressions().size() > 0) {
             for (Regression r : rm.getRegressions()) {
@@ -466,18 +670,17 @@ public class RegressionModulesDAO {
                         break;
                 }
 
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (r.getId());
-                cell.add (Regression.TYPE_LABELS[r.getType()]);
-                cell.add (ifp);
-                cell.add (ds);
-                cell.add (q);
-                
-                rl.add (new ListResult.Row (r.getId(), cell));
+                rl.add (
+                    r.getId(),
+                    r.getId(),
+                    Regression.TYPE_LABELS[r.getType()],
+                    ifp,
+                    ds,
+                    q
+                );
             }
         }
                 
-        return rl;
+        return rl.build();
     }
 }
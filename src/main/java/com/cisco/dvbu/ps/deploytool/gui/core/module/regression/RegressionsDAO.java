@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.regression;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.RegressionResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class RegressionsDAO {
         String path,
         String id
     ) {
-        RegressionModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            log.error ("Unable to locate regression module " + path);
-        }
-        
-        log.debug ("Regression module located. Looking for regression ID " + id);
-        return rm.findById (id);
+        log.debug ("Looking for regression ID " + id + " in regression module " + path);
+        return rmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class RegressionsDAO {
      * Adds a regression to a regression module.
      * </p>
      * 
-     * @param  path  The path to the regression module.
-     * @param  r     The {@link Regression} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the regression module.
+     * @param  r        The {@link Regression} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Regression r
+        Regression r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        RegressionModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
-        }
+            RegressionModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Regression module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+            msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            rm.getRegressions().add (r);
+                rm.getRegressions().add (r);
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Created regression " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing regression module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize regression module, " + path + ": " + e.getMessage(), null);
+                try {
+                    rmDao.serialize (rm, null, r);
+                    result = new ResultMessage ("success", "Created regression " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing regression module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize regression module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class RegressionsDAO {
      * Updates a regression in a regression module.
      * </p>
      * 
-     * @param  path  The path to the regression module.
-     * @param  r     The {@link Regression} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the regression module.
+     * @param  r        The {@link Regression} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Regression r
+        Regression r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Regression origRegression = null;
-        
-        RegressionModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Regression origRegression = null;
         
-        for (Regression tmp : rm.getRegressions()) {
-            if (tmp.getId().equals (r.getOrigId())) {
-                origRegression = tmp;
-                break;
+            RegressionModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Regression module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+            origRegression = rm.findById (r.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
         
-            rm.getRegressions().remove (origRegression);
-            rm.getRegressions().add (r);
+            if (msgList.size() == 0) {
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Updated regression " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing regression module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize regression module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = rm.getRegressions().indexOf (origRegression);
+                if (i >= 0)
+                    rm.getRegressions().set (i, r);
+                else
+                    rm.getRegressions().add (r);
+        
+                try {
+                    rmDao.serialize (rm, (origRegression != null) ? origRegression.getId() : null, r);
+                    result = new ResultMessage ("success", "Updated regression " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing regression module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize regression module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,93 +182,200 @@ public class RegressionsDAO {
      * Copies one or more regressions in a regression module.
      * </p>
      * 
-     * @param  path  The path to the regression module.
-     * @param  ids   The a comma separated list of regression IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the regression module.
+     * @param  ids      The a comma separated list of regression IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        RegressionModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
-        }
+            RegressionModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Regression module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Regression r = new Regression();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Regression r = new Regression();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Regression nr = new Regression (rm.findById (r.getId())); // find the original archive and make a copy of it.
+                    Regression nr = new Regression (rm.findById (r.getId())); // find the original archive and make a copy of it.
                 
-                if (nr == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate archive id \"" + r.getId() + "\"."));
-                    continue;
-                }
+                    if (nr == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate archive id \"" + r.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
+                    atLeastOneItemCopied = true;
 
-                // query id's are dynamically generated (there's no id field in the XML for them.) adding
-                // a space to the end of the query string should(!) generate a new ID that doesn't conflict
-                // with the old one.
-                //
-                if (nr.getType() == Regression.TYPE_QUERY) {
-                    nr.setQuery(nr.getQuery() + " ");
-                } else {
-                    // generate a new id for the copy. start with the original id + "_copy", then look for
-                    // id + "_copy1", id + "_copy2", etc.
+                    // query id's are dynamically generated (there's no id field in the XML for them.) adding
+                    // a space to the end of the query string should(!) generate a new ID that doesn't conflict
+                    // with the old one.
                     //
-                    int j = 0;
-                    do {
-                        String newId = r.getId() + "_copy" + ((j == 0) ? "" : j);
-                        
-                        nr.setId (newId);
-    
-                        j++;
-                    } while (validate (nr, rm, DAOConstants.OPERATION_COPY).size() == 0);
-                }
+                    if (nr.getType() == Regression.TYPE_QUERY) {
+                        nr.setQuery(nr.getQuery() + " ");
+                    } else {
+                        // generate a new id for the copy. start with the original id + "_copy", then look for
+                        // id + "_copy1", id + "_copy2", etc.
+                        //
+                        nr.setId (rm.newCopyId (r.getId()));
+                    }
 
-                // add the copy of the element
-                //
-                rm.getRegressions().add (nr);
+                    // add the copy of the element
+                    //
+                    rm.getRegressions().add (nr);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Regression ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Regression ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing regression module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing regression module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several regressions in a regression module and then writes the module once. The
+     * <code>operation</code> property of each regression says what to do with it: "add", "edit" (replaces the
+     * regression whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path         The path to the regression module.
+     * @param  regressions  The list of regressions to add, update or delete.
+     * @param  version      The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return              A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Regression> regressions,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            RegressionModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Regression module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (regressions == null || regressions.size() == 0) {
+                return new ResultMessage ("error", "No regressions were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Regression r : regressions) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (r.getOperation() != null) ? r.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getRegressions().add (r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created regression " + r.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        rm.getRegressions().set (rm.getRegressions().indexOf (rm.findById (r.getOrigId())), r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated regression " + r.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getRegressions().remove (rm.findById (r.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Regression ID \"" + r.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + r.getOperation() + "\" for regression ID \"" + r.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 rmDao.serialize (rm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing regression module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing regression module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing regression module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize regression module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -248,65 +383,85 @@ public class RegressionsDAO {
      * Deletes one or more regressions in a regression module.
      * </p>
      * 
-     * @param  path  The path to the regression module.
-     * @param  ids   The a comma separated list of regression IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the regression module.
+     * @param  ids      The a comma separated list of regression IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        RegressionModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
-        }
+            RegressionModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Regression module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Regression module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Regression r = new Regression();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Regression r = new Regression();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                r = rm.findById (r.getId());
-                rm.getRegressions().remove (r);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Regression ID \"" + r.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    r = rm.findById (r.getId());
+                    rm.getRegressions().remove (r);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Regression ID \"" + r.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing regression module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing regression module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        rmDao.serialize (rm, idArray[0], null);
+                    else
+                        rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing regression module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing regression module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
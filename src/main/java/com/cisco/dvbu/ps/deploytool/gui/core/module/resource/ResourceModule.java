@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.resource;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class ResourceModule {
 
     String path;
-    List<Resource> resources;
+    ItemList<Resource> resources;
 
     /**
      * <p>
@@ -28,6 +30,21 @@ public class ResourceModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached resource modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the resource list (meaning that adding or removing resources
+     * in the copy leaves the original alone, but changing a resource in the copy will update it in the original.)
+     * </p>
+     */
+    public ResourceModule (ResourceModule rm) {
+        if (rm != null) {
+            this.path = rm.getPath();
+            this.resources = (rm.getResources() != null) ? new ItemList<Resource> (rm.getResources()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -58,7 +75,7 @@ public class ResourceModule {
      * @param  resources  The list of resource records.
      */
     public void setResources (List<Resource> resources) {
-        this.resources = resources;
+        this.resources = (resources != null) ? new ItemList<Resource> (resources) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class ResourceModule {
         if (this.resources == null)
             return null;
 
-        for (Resource tmp : this.resources) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.resources.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a resource record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the resource being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.resources == null)
+            return id + "_copy";
+
+        return this.resources.newCopyId (id);
     }
 }
@@ -8,34 +8,39 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ResourceModuleResource;
 
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +59,34 @@ public class ResourceModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (ResourceModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds resources from the item elements of resource module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<Resource> itemHandler = new ModuleXmlReader.ItemHandler<Resource>() {
+        public Resource newItem (Element e, String parentName) {
+            return new Resource (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("ResourceModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of resource module files without building resource objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "resourcePath", "resourceType") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                v[1],
+                v[2]
+            };
+        }
+    };
 
     public ResourceModulesDAO () {
         super ();
@@ -81,10 +113,12 @@ public class ResourceModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                ResourceModuleResource
@@ -100,6 +134,7 @@ public class ResourceModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -133,42 +168,55 @@ public class ResourceModulesDAO {
         }
         
         log.debug ("Getting list of rebinds in " + path);
-        ResourceModule rm = findByPath (path);
-
-        if (rm == null) {
-            log.error ("parsed resource module is null.");
-            return null;
-        }
         
-        // get current list of rebind modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getResourceList (rm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
-        }
+        if (resultList == null) {
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+            // get current list of rebind modules in display list form
+            //
+            resultList = getResourceList (path);
+
+            if (resultList == null) {
+                log.error ("parsed resource module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
         log.debug ("numRows = " + numRows + "; pageNum = " + pageNum);
         
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
+        }
+        
         return ListUtils.getListResult (
                    resultList, 
                    numRows, 
@@ -189,8 +237,6 @@ public class ResourceModulesDAO {
     public ResourceModule findByPath (String path) {
         ResourceModule rm = new ResourceModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document rmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -213,33 +259,86 @@ public class ResourceModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        rm.setPath (path);
-        
-        try {
-            rmDoc = builder.build (path);
-            Element rootNode = rmDoc.getRootElement();
-//            Namespace ns = rmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Resource> resources = new ArrayList<Resource>();
-            List<Element> rmList = rootNode.getChildren();
-            
-            log.debug ("Located " + rmList.size() + " child elements.");
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-            // iterate over all the "resource" elements
+        lock.lock();
+        try {
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
             //
-            log.debug ("Iterating over child elements.");
-            for (Element rmChild : rmList) {
-                resources.add (new Resource (rmChild));
+            ResourceModule cachedResourceModule = ModuleCache.getInstance().get (f, ResourceModule.class);
+            if (cachedResourceModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new ResourceModule (cachedResourceModule);
             }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            rm.setPath (path);
+        
+            try {
+                List<Resource> resources = ModuleXmlReader.read (path, itemHandler);
             
-            rm.setResources (resources);
+                log.debug ("Located " + resources.size() + " resource elements.");
+            
+                rm.setResources (resources);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new ResourceModule (rm));
+
+            } catch (IOException io) {
+                log.error ("getById() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+            }
+
+            return rm;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        } catch (IOException io) {
-            log.error ("getById() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("getById() unable to load " + path + ":" + jdomex.getMessage());
+    /**
+     * <p>
+     * Searches a resource module for a resource by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the resource's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the resource module.
+     * @param  id    The ID of the resource to look for.
+     * @return       The requested resource or <code>null</code> if it does not exist.
+     */
+    public Resource findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
         }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-        return rm;
+        lock.lock();
+        try {
+            ResourceModule cachedResourceModule = ModuleCache.getInstance().get (new File (path), ResourceModule.class);
+            if (cachedResourceModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedResourceModule.findById (id);
+            }
+        
+            Resource result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            ResourceModule rm = findByPath (path);
+        
+            return (rm != null) ? rm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -253,50 +352,138 @@ public class ResourceModulesDAO {
         if (rm.getPath() == null)
             throw new IllegalArgumentException ("Resource module's path may not be null.");
         
-        File f = new File (rm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (rm.getPath() + ".bak"));
-        }
+        lock.lock();
+        try {
+            File f = new File (rm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
         
-        Document rmDoc = new Document (new Element ("ResourceModule", "ns1", DAOConstants.MODULES_NS));
-        rmDoc.getRootElement().addContent ("\n");
+            ModuleXmlWriter rmWriter = new ModuleXmlWriter (rm.getPath(), "ResourceModule");
         
-        String indent = StringUtils.getIndent (1);
+            try {
+                if (rm.getResources() != null) {
+                    for (Resource r : rm.getResources()) {
+                        rmWriter.writeItem (toItemElement (r));
+                    }
+                }
+            
+                rmWriter.finish();
+            } finally {
+                rmWriter.close();
+            }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (rm.getPath());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Writes a single resource change to a resource module's XML file. When possible only the changed resource is
+     * spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  rm  The resource module (already containing the change.)
+     * @param  id  The id of the resource being replaced or deleted or <code>null</code> if the resource was added.
+     * @param  r  The added or updated resource or <code>null</code> if the resource was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        ResourceModule rm,
+        String id,
+        Resource r
+    ) throws Exception {
+        if (rm.getPath() == null)
+            throw new IllegalArgumentException ("Resource module's path may not be null.");
         
-        if (rm.getResources() != null) {
-            for (Resource r : rm.getResources()) {
-                Element rNode = r.toElement ("resource", 2).addContent ("\n" + indent);
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-                rmDoc.getRootElement().addContent (indent);
-                rmDoc.getRootElement().addContent (rNode);
-                rmDoc.getRootElement().addContent ("\n");
-            }
+        lock.lock();
+        try {
+            Element e = (r != null) ? toItemElement (r) : null;
+
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("ResourceModule", rm.getPath(), id, e, new ResourceModule (rm)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (rm.getPath(), itemHandler, id, e))
+                serialize (rm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a resource laid out as it is in the module file.
+    //
+    private Element toItemElement (Resource r) {
+        return r.toElement ("resource", 2).addContent ("\n" + StringUtils.getIndent (1));
+    }
+    
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getResourceList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
         }
         
-        xmlo.output (rmDoc, new FileOutputStream (rm.getPath()));
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            ResourceModule rm = ModuleCache.getInstance().get (f, ResourceModule.class);
+            if (rm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getResourceList (rm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (3).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getResourceList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getResourceList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
     }
     
     // assembles the list result row list
     //
     private List<ListResult.Row> getResourceList (ResourceModule rm) {
-        List<ListResult.Row> rl = new ArrayList<ListResult.Row>();
+        RowStore.Builder rl = new RowStore.Builder (3);
         
         if (rm.getResources() != null && rm.getResources().size() > 0) {
             for (Resource r : rm.getResources()) {
 
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (r.getId());
-                cell.add (r.getResourcePath());
-                cell.add (r.getResourceType());
-                
-                rl.add (new ListResult.Row (r.getId(), cell));
+                rl.add (
+                    r.getId(),
+                    r.getId(),
+                    r.getResourcePath(),
+                    r.getResourceType()
+                );
             }
         }
                 
-        return rl;
+        return rl.build();
     }
 }
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.resource;
 
 import com.cisco.dvbu.ps.deploytool.gui.resources.ResourceResource;
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class ResourcesDAO {
         String path,
         String id
     ) {
-        ResourceModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            log.error ("Unable to locate resource module " + path);
-        }
-        
-        log.debug ("Resource module located. Looking for resource ID " + id);
-        return rm.findById (id);
+        log.debug ("Looking for resource ID " + id + " in resource module " + path);
+        return rmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class ResourcesDAO {
      * Adds a resource to a resource module.
      * </p>
      * 
-     * @param  path  The path to the resource module.
-     * @param  r     The {@link Resource} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource module.
+     * @param  r        The {@link Resource} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Resource r
+        Resource r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        ResourceModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
-        }
+            ResourceModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+            msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            rm.getResources().add (r);
+                rm.getResources().add (r);
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Created resource " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing resource module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize resource module, " + path + ": " + e.getMessage(), null);
+                try {
+                    rmDao.serialize (rm, null, r);
+                    result = new ResultMessage ("success", "Created resource " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize resource module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class ResourcesDAO {
      * Updates a resource in a resource module.
      * </p>
      * 
-     * @param  path  The path to the resource module.
-     * @param  r     The {@link Resource} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource module.
+     * @param  r        The {@link Resource} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Resource r
+        Resource r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Resource origResource = null;
-        
-        ResourceModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Resource origResource = null;
         
-        for (Resource tmp : rm.getResources()) {
-            if (tmp.getId().equals (r.getOrigId())) {
-                origResource = tmp;
-                break;
+            ResourceModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+            origResource = rm.findById (r.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
         
-            rm.getResources().remove(origResource);
-            rm.getResources().add (r);
+            if (msgList.size() == 0) {
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Updated resource " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing resource module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize resource module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = rm.getResources().indexOf (origResource);
+                if (i >= 0)
+                    rm.getResources().set (i, r);
+                else
+                    rm.getResources().add (r);
+        
+                try {
+                    rmDao.serialize (rm, (origResource != null) ? origResource.getId() : null, r);
+                    result = new ResultMessage ("success", "Updated resource " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize resource module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class ResourcesDAO {
      * Copies one or more resources in a resource module.
      * </p>
      * 
-     * @param  path  The path to the resource module.
-     * @param  ids   The a comma separated list of resource IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource module.
+     * @param  ids      The a comma separated list of resource IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        ResourceModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
-        }
+            ResourceModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Resource r = new Resource();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Resource r = new Resource();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Resource nr = new Resource (rm.findById (r.getId())); // find the original resource and make a copy of it.
+                    Resource nr = new Resource (rm.findById (r.getId())); // find the original resource and make a copy of it.
                 
-                if (nr == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate resource id \"" + r.getId() + "\"."));
-                    continue;
-                }
+                    if (nr == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate resource id \"" + r.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = r.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nr.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nr, rm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nr.setId (rm.newCopyId (r.getId()));
                 
-                // add the copy of the element
-                //
-                rm.getResources().add (nr);
+                    // add the copy of the element
+                    //
+                    rm.getResources().add (nr);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing resource module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several resources in a resource module and then writes the module once. The
+     * <code>operation</code> property of each resource says what to do with it: "add", "edit" (replaces the
+     * resource whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path       The path to the resource module.
+     * @param  resources  The list of resources to add, update or delete.
+     * @param  version    The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return            A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Resource> resources,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            ResourceModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (resources == null || resources.size() == 0) {
+                return new ResultMessage ("error", "No resources were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Resource r : resources) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (r.getOperation() != null) ? r.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getResources().add (r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created resource " + r.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        rm.getResources().set (rm.getResources().indexOf (rm.findById (r.getOrigId())), r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated resource " + r.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getResources().remove (rm.findById (r.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Resource ID \"" + r.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + r.getOperation() + "\" for resource ID \"" + r.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 rmDao.serialize (rm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing resource module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing resource module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing resource module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize resource module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class ResourcesDAO {
      * Deletes one or more resources in a resource module.
      * </p>
      * 
-     * @param  path  The path to the resource module.
-     * @param  ids   The a comma separated list of resource IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource module.
+     * @param  ids      The a comma separated list of resource IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        ResourceModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
-        }
+            ResourceModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Resource r = new Resource();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Resource r = new Resource();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the resource element
+                // if so, then make sure the item doesn't :)
                 //
-                r = rm.findById (r.getId());
-                rm.getResources().remove (r);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource ID \"" + r.getId() + "\" deleted."));
-            }
+                    // get rid of the resource element
+                    //
+                    r = rm.findById (r.getId());
+                    rm.getResources().remove (r);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource ID \"" + r.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing resource module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing resource module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        rmDao.serialize (rm, idArray[0], null);
+                    else
+                        rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing resource module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
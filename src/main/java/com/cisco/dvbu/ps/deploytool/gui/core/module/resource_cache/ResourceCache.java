@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.resource_cache;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.core.shared.CalendarPeriod;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
@@ -23,7 +24,7 @@ import org.jdom2.Element;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class ResourceCache {
+public class ResourceCache implements ModuleItem {
     
     public static final int STORAGE_MODE_NULL = 0;
     public static final int STORAGE_MODE_AUTOMATIC = 1;
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.resource_cache;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class ResourceCacheModule {
 
     String path;
-    List<ResourceCache> resourceCaches;
+    ItemList<ResourceCache> resourceCaches;
 
     /**
      * <p>
@@ -28,6 +30,21 @@ public class ResourceCacheModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached resource cache modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the resource cache list (meaning that adding or removing resource caches
+     * in the copy leaves the original alone, but changing a resource cache in the copy will update it in the original.)
+     * </p>
+     */
+    public ResourceCacheModule (ResourceCacheModule rm) {
+        if (rm != null) {
+            this.path = rm.getPath();
+            this.resourceCaches = (rm.getResourceCaches() != null) ? new ItemList<ResourceCache> (rm.getResourceCaches()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -58,7 +75,7 @@ public class ResourceCacheModule {
      * @param  resourceCaches  The list of resource cache definitions.
      */
     public void setResourceCaches (List<ResourceCache> resourceCaches) {
-        this.resourceCaches = resourceCaches;
+        this.resourceCaches = (resourceCaches != null) ? new ItemList<ResourceCache> (resourceCaches) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class ResourceCacheModule {
         if (this.resourceCaches == null)
             return null;
 
-        for (ResourceCache tmp : this.resourceCaches) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.resourceCaches.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a resource cache record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the resource cache being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.resourceCaches == null)
+            return id + "_copy";
+
+        return this.resourceCaches.newCopyId (id);
     }
 }
@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
@@ -15,33 +22,31 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ResourceCacheModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +65,55 @@ public class ResourceCacheModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (ResourceCacheModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds resource caches from the item elements of resource cache module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<ResourceCache> itemHandler = new ModuleXmlReader.ItemHandler<ResourceCache>() {
+        public ResourceCache newItem (Element e, String parentName) {
+            return new ResourceCache (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("ResourceCacheModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of resource cache module files without building resource cache objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "cacheConfig/configured", "cacheConfig/enabled", "resourcePath", "resourceType", "cacheConfig/storage/mode", "cacheConfig/refresh/mode") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            int storageMode = 0;
+            int refreshMode = 0;
+            
+            for (int i = 0; v[5] != null && i < ResourceCache.STORAGE_MODE_LABELS.length; i++) {
+                if (v[5].toUpperCase().equals (ResourceCache.STORAGE_MODE_LABELS[i])) {
+                    storageMode = i;
+                    break;
+                }
+            }
+            
+            for (int i = 0; v[6] != null && i < ResourceCache.REFRESH_MODE_LABELS.length; i++) {
+                if (v[6].toUpperCase().equals (ResourceCache.REFRESH_MODE_LABELS[i])) {
+                    refreshMode = i;
+                    break;
+                }
+            }
+            
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                "" + ((v[1] == null) ? false : v[1].matches ("(?i)^(yes|true|on|1)$")),
+                "" + ((v[2] == null) ? false : v[2].matches ("(?i)^(yes|true|on|1)$")),
+                v[3],
+                v[4],
+                ResourceCache.STORAGE_MODE_LABELS[storageMode],
+                ResourceCache.REFRESH_MODE_LABELS[refreshMode]
+            };
+        }
+    };
 
     public ResourceCacheModulesDAO () {
         super ();
@@ -91,10 +144,12 @@ public class ResourceCacheModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                ResourceCacheModuleResource
@@ -110,6 +165,7 @@ public class ResourceCacheModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -143,38 +199,51 @@ public class ResourceCacheModulesDAO {
         }
         
         log.debug ("Getting list of groups in " + path);
-        ResourceCacheModule rm = findByPath (path);
-
-        if (rm == null) {
-            log.error ("parsed resource cache module is null.");
-            return null;
-        }
         
-        // get current list of resource cache modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getResourceCacheList (rm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of resource cache modules in display list form
+            //
+            resultList = getResourceCacheList (path);
+
+            if (resultList == null) {
+                log.error ("parsed resource cache module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -197,8 +266,6 @@ public class ResourceCacheModulesDAO {
     public ResourceCacheModule findByPath (String path) {
         ResourceCacheModule rm = new ResourceCacheModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document rmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -221,37 +288,86 @@ public class ResourceCacheModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        rm.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            rmDoc = builder.build (path);
-            Element rootNode = rmDoc.getRootElement();
-//            Namespace ns = rmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<ResourceCache> resourceCaches = new ArrayList<ResourceCache>();
-            List<Element> rmList = rootNode.getChildren();
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
+            //
+            ResourceCacheModule cachedResourceCacheModule = ModuleCache.getInstance().get (f, ResourceCacheModule.class);
+            if (cachedResourceCacheModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new ResourceCacheModule (cachedResourceCacheModule);
+            }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            rm.setPath (path);
+        
+            try {
+                List<ResourceCache> resourceCaches = ModuleXmlReader.read (path, itemHandler);
             
-            log.debug ("Located " + rmList.size() + " child elements.");
+                log.debug ("Located " + resourceCaches.size() + " resource cache elements.");
+            
+                rm.setResourceCaches (resourceCaches);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new ResourceCacheModule (rm));
 
-            // iterate over all the "group" elements
-            // 
-            int i = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element rmChild : rmList) {
-                
-                log.debug ("Examining child #" + i++ + ": " + rmChild.getName() + "{" + rmChild.getNamespace().getURI() + "}");
-                
-                resourceCaches.add (new ResourceCache (rmChild));
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
             }
-            
-            rm.setResourceCaches (resourceCaches);
 
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            return rm;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return rm;
+    /**
+     * <p>
+     * Searches a resource cache module for a resource cache by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the resource cache's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the resource cache module.
+     * @param  id    The ID of the resource cache to look for.
+     * @return       The requested resource cache or <code>null</code> if it does not exist.
+     */
+    public ResourceCache findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            ResourceCacheModule cachedResourceCacheModule = ModuleCache.getInstance().get (new File (path), ResourceCacheModule.class);
+            if (cachedResourceCacheModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedResourceCacheModule.findById (id);
+            }
+        
+            ResourceCache result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            ResourceCacheModule rm = findByPath (path);
+        
+            return (rm != null) ? rm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -262,32 +378,84 @@ public class ResourceCacheModulesDAO {
      * @param  rm  The resource cache module to write out.
      */
     public void serialize (ResourceCacheModule rm) throws Exception {
-        String indent = StringUtils.getIndent (1);
         if (rm.getPath() == null)
             throw new IllegalArgumentException ("Resource Cache module's path may not be null.");
         
-        File f = new File (rm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (rm.getPath() + ".bak"));
+        lock.lock();
+        try {
+            File f = new File (rm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter rmWriter = new ModuleXmlWriter (rm.getPath(), "ResourceCacheModule");
+        
+            try {
+                if (rm.getResourceCaches() != null) {
+                    for (ResourceCache r : rm.getResourceCaches()) {
+                        rmWriter.writeItem (toItemElement (r));
+                    }
+                }
+            
+                rmWriter.finish();
+            } finally {
+                rmWriter.close();
+            }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (rm.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single resource cache change to a resource cache module's XML file. When possible only the changed
+     * resource cache is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module
+     * is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  rm  The resource cache module (already containing the change.)
+     * @param  id  The id of the resource cache being replaced or deleted or <code>null</code> if the resource cache was added.
+     * @param  r  The added or updated resource cache or <code>null</code> if the resource cache was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        ResourceCacheModule rm,
+        String id,
+        ResourceCache r
+    ) throws Exception {
+        if (rm.getPath() == null)
+            throw new IllegalArgumentException ("Resource cache module's path may not be null.");
         
-        Document rmDoc = new Document (new Element ("ResourceCacheModule", "ns1", DAOConstants.MODULES_NS));
-        rmDoc.getRootElement().addContent ("\n");
+        Lock lock = FileLocks.getInstance().writeLock (rm.getPath());
 
-        if (rm.getResourceCaches() != null) {
-            for (ResourceCache r : rm.getResourceCaches()) {
-                Element rNode = r.toElement ("resourceCache", 2).addContent ("\n" + indent);
+        lock.lock();
+        try {
+            Element e = (r != null) ? toItemElement (r) : null;
 
-                rmDoc.getRootElement().addContent (indent);
-                rmDoc.getRootElement().addContent (rNode);
-                rmDoc.getRootElement().addContent ("\n");
-            }
-        }
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("ResourceCacheModule", rm.getPath(), id, e, new ResourceCacheModule (rm)))
+                return;
 
-        xmlo.output (rmDoc, new FileOutputStream (rm.getPath()));
+            if (! ModuleXmlPatcher.patch (rm.getPath(), itemHandler, id, e))
+                serialize (rm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a resource cache laid out as it is in the module file.
+    //
+    private Element toItemElement (ResourceCache r) {
+        return r.toElement ("resourceCache", 2).addContent ("\n" + StringUtils.getIndent (1));
     }
     
     public ResultMessage generate (
@@ -392,52 +560,104 @@ public class ResourceCacheModulesDAO {
             return new ResultMessage ("error", "Resource Caches did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("merging generated resource caches with original resource caches ...");
-        ResourceCacheModule mergedRm = mergeResourceCacheModules (path, generatedXmlPath);
-        
-        // delete the generated resoruce cache module
-        //
-        log.debug ("deleting generated resource caches file ...");
-        (new File (generatedXmlPath)).delete();
+        ResourceCacheModule generatedRm = findByPath (generatedXmlPath);
 
-        // write out the merged resource cache module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged resource caches ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedRm);
-            result = new ResultMessage ("success", "Resource Caches from server " + serverId + ", startPath " + startPath + ", options " + options + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated resource caches!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated resource caches with original resource caches ...");
+            ResourceCacheModule mergedRm = mergeResourceCacheModules (path, generatedRm);
+        
+            // delete the generated resoruce cache module
+            //
+            log.debug ("deleting generated resource caches file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged resource cache module
+            //
+            log.debug ("writing out merged resource caches ...");
+            try {
+                serialize (mergedRm);
+                result = new ResultMessage ("success", "Resource Caches from server " + serverId + ", startPath " + startPath + ", options " + options + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated resource caches!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getResourceCacheList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            ResourceCacheModule rm = ModuleCache.getInstance().get (f, ResourceCacheModule.class);
+            if (rm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getResourceCacheList (rm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (7).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getResourceCacheList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getResourceCacheList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getResourceCacheList (ResourceCacheModule rm) {
-        List<ListResult.Row> rl = new ArrayList<ListResult.Row>();
+        RowStore.Builder rl = new RowStore.Builder (7);
         
         if (rm.getResourceCaches() != null && rm.getResourceCaches().size() > 0) {
             for (ResourceCache r : rm.getResourceCaches()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (r.getId());
-                cell.add ("" + r.isConfigured());
-                cell.add ("" + r.isEnabled());
-                cell.add (r.getResourcePath());
-                cell.add (r.getResourceType());
-                cell.add (ResourceCache.STORAGE_MODE_LABELS[r.getStorageMode()]);
-                cell.add (ResourceCache.REFRESH_MODE_LABELS[r.getRefreshMode()]);
-                
-                rl.add (new ListResult.Row (r.getId(), cell));
+                rl.add (
+                    r.getId(),
+                    r.getId(),
+                    "" + r.isConfigured(),
+                    "" + r.isEnabled(),
+                    r.getResourcePath(),
+                    r.getResourceType(),
+                    ResourceCache.STORAGE_MODE_LABELS[r.getStorageMode()],
+                    ResourceCache.REFRESH_MODE_LABELS[r.getRefreshMode()]
+                );
             }
         }
         
-        return rl;
+        return rl.build();
     }
     
     // writes out a temporary resource cache generation plan
@@ -455,10 +675,9 @@ public class ResourceCacheModulesDAO {
     
     private ResourceCacheModule mergeResourceCacheModules (
         String origPath,
-        String toMergePath
+        ResourceCacheModule toMergeRm
     ) {
         ResourceCacheModule origRm = findByPath (origPath);
-        ResourceCacheModule toMergeRm = findByPath (toMergePath);
         int i;
         
         for (ResourceCache r : toMergeRm.getResourceCaches()) {
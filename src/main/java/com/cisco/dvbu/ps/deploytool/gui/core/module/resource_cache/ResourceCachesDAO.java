@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.resource_cache;
 
 import com.cisco.dvbu.ps.deploytool.gui.resources.ResourceCacheResource;
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class ResourceCachesDAO {
         String path,
         String id
     ) {
-        ResourceCacheModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            log.error ("Unable to locate resource cache module " + path);
-        }
-        
-        log.debug ("Resource cache module located. Looking for resource ID " + id);
-        return rm.findById (id);
+        log.debug ("Looking for resource cache ID " + id + " in resource cache module " + path);
+        return rmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class ResourceCachesDAO {
      * Adds a resource cache to a resource cache module.
      * </p>
      * 
-     * @param  path  The path to the resource cache module.
-     * @param  r     The {@link ResourceCache} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource cache module.
+     * @param  r        The {@link ResourceCache} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        ResourceCache r
+        ResourceCache r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        ResourceCacheModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource Cache module, " + path + ", does not exist!", null);
-        }
+            ResourceCacheModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource Cache module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource cache module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+            msgList = validate (r, rm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            rm.getResourceCaches().add (r);
+                rm.getResourceCaches().add (r);
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Created resource cache " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing resource cache module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize resource cache module, " + path + ": " + e.getMessage(), null);
+                try {
+                    rmDao.serialize (rm, null, r);
+                    result = new ResultMessage ("success", "Created resource cache " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource cache module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize resource cache module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class ResourceCachesDAO {
      * Updates a resource cache in a resource cache module.
      * </p>
      * 
-     * @param  path  The path to the resource cache module.
-     * @param  r     The {@link ResourceCache} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource cache module.
+     * @param  r        The {@link ResourceCache} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        ResourceCache r
+        ResourceCache r,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        ResourceCache origResourceCache = null;
-        
-        ResourceCacheModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource cache module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            ResourceCache origResourceCache = null;
         
-        for (ResourceCache tmp : rm.getResourceCaches()) {
-            if (tmp.getId().equals (r.getOrigId())) {
-                origResourceCache = tmp;
-                break;
+            ResourceCacheModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource cache module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource cache module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+            origResourceCache = rm.findById (r.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
         
-            rm.getResourceCaches().remove(origResourceCache);
-            rm.getResourceCaches().add (r);
+            if (msgList.size() == 0) {
         
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", "Updated resource cache " + r.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing resource cache module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize resource cache module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = rm.getResourceCaches().indexOf (origResourceCache);
+                if (i >= 0)
+                    rm.getResourceCaches().set (i, r);
+                else
+                    rm.getResourceCaches().add (r);
+        
+                try {
+                    rmDao.serialize (rm, (origResourceCache != null) ? origResourceCache.getId() : null, r);
+                    result = new ResultMessage ("success", "Updated resource cache " + r.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource cache module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize resource cache module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class ResourceCachesDAO {
      * Copies one or more resource caches in a resource cache module.
      * </p>
      * 
-     * @param  path  The path to the resource cache module.
-     * @param  ids   The a comma separated list of resource cache IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource cache module.
+     * @param  ids      The a comma separated list of resource cache IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        ResourceCacheModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource Cache module, " + path + ", does not exist!", null);
-        }
+            ResourceCacheModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource Cache module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource cache module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            ResourceCache r = new ResourceCache();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                ResourceCache r = new ResourceCache();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                ResourceCache nr = new ResourceCache (rm.findById (r.getId())); // find the original resource cache and make a copy of it.
+                    ResourceCache nr = new ResourceCache (rm.findById (r.getId())); // find the original resource cache and make a copy of it.
                 
-                if (nr == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate resource cache id \"" + r.getId() + "\"."));
-                    continue;
-                }
+                    if (nr == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate resource cache id \"" + r.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = r.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nr.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nr, rm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nr.setId (rm.newCopyId (r.getId()));
                 
-                // add the copy of the element
-                //
-                rm.getResourceCaches().add (nr);
+                    // add the copy of the element
+                    //
+                    rm.getResourceCaches().add (nr);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource Cache ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource Cache ID \"" + r.getId() + "\" copied to \"" + nr.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource cache module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing resource cache module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several resource caches in a resource cache module and then writes the module once. The
+     * <code>operation</code> property of each resource cache says what to do with it: "add", "edit" (replaces the
+     * resource cache whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path            The path to the resource cache module.
+     * @param  resourceCaches  The list of resource caches to add, update or delete.
+     * @param  version         The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return                 A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<ResourceCache> resourceCaches,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            ResourceCacheModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource Cache module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource cache module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (resourceCaches == null || resourceCaches.size() == 0) {
+                return new ResultMessage ("error", "No resource caches were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (ResourceCache r : resourceCaches) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (r.getOperation() != null) ? r.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getResourceCaches().add (r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created resource cache " + r.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        rm.getResourceCaches().set (rm.getResourceCaches().indexOf (rm.findById (r.getOrigId())), r);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated resource cache " + r.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        rm.getResourceCaches().remove (rm.findById (r.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Resource Cache ID \"" + r.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + r.getOperation() + "\" for resource cache ID \"" + r.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 rmDao.serialize (rm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing resource cache module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing resource cache module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing resource cache module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize resource cache module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class ResourceCachesDAO {
      * Deletes one or more resource caches in a resource cache module.
      * </p>
      * 
-     * @param  path  The path to the resource cache module.
-     * @param  ids   The a comma separated list of resource cache IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the resource cache module.
+     * @param  ids      The a comma separated list of resource cache IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        ResourceCacheModule rm = rmDao.findByPath (path);
-        if (rm == null) {
-            return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
-        }
+            ResourceCacheModule rm = rmDao.findByPath (path);
+            if (rm == null) {
+                return new ResultMessage ("error", "Resource module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Resource cache module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            ResourceCache r = new ResourceCache();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                ResourceCache r = new ResourceCache();
 
-            r.setId (id);
+                r.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (r, rm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the resource cache element
+                // if so, then make sure the item doesn't :)
                 //
-                r = rm.findById (r.getId());
-                rm.getResourceCaches().remove (r);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource Cache ID \"" + r.getId() + "\" deleted."));
-            }
+                    // get rid of the resource cache element
+                    //
+                    r = rm.findById (r.getId());
+                    rm.getResourceCaches().remove (r);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Resource Cache ID \"" + r.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                rmDao.serialize (rm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing resource cache module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing resource cache module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        rmDao.serialize (rm, idArray[0], null);
+                    else
+                        rmDao.serialize (rm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing resource cache module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing resource cache module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
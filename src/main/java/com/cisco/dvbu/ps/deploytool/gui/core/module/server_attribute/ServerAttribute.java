@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.server_attribute;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.core.shared.GenericAttribute;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
@@ -20,7 +21,7 @@ import org.slf4j.LoggerFactory;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class ServerAttribute {
+public class ServerAttribute implements ModuleItem {
 
     public static final int TYPE_ATTRIBUTE = 0;
     public static final int TYPE_ATTRIBUTE_DEF = 1;
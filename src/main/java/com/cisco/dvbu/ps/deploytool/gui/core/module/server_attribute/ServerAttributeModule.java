@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.server_attribute;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class ServerAttributeModule {
 
     String path;
-    List<ServerAttribute> serverAttributes;
+    ItemList<ServerAttribute> serverAttributes;
     
     /**
      * <p>
@@ -28,6 +30,21 @@ public class ServerAttributeModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached server attribute modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the server attribute list (meaning that adding or removing server attributes
+     * in the copy leaves the original alone, but changing a server attribute in the copy will update it in the original.)
+     * </p>
+     */
+    public ServerAttributeModule (ServerAttributeModule sam) {
+        if (sam != null) {
+            this.path = sam.getPath();
+            this.serverAttributes = (sam.getServerAttributes() != null) ? new ItemList<ServerAttribute> (sam.getServerAttributes()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -58,7 +75,7 @@ public class ServerAttributeModule {
      * @param  serverAttributes  The list of server attributes records.
      */
     public void setServerAttributes (List<ServerAttribute> serverAttributes) {
-        this.serverAttributes = serverAttributes;
+        this.serverAttributes = (serverAttributes != null) ? new ItemList<ServerAttribute> (serverAttributes) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class ServerAttributeModule {
         if (this.serverAttributes == null)
             return null;
 
-        for (ServerAttribute tmp : this.serverAttributes) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.serverAttributes.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a server attribute record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the server attribute being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.serverAttributes == null)
+            return id + "_copy";
+
+        return this.serverAttributes.newCopyId (id);
     }
 }
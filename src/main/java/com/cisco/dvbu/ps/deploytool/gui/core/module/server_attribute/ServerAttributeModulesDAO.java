@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
@@ -15,33 +22,31 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ServerAttributeModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +65,51 @@ public class ServerAttributeModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (ServerAttributeModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds server attributes from the item elements of server attribute module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<ServerAttribute> itemHandler = new ModuleXmlReader.ItemHandler<ServerAttribute>() {
+        public ServerAttribute newItem (Element e, String parentName) {
+            return new ServerAttribute (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("ServerAttributeModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of server attribute module files without building server attribute objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "name", "type", "value", "valueArray/item", "valueList/item", "valueMap/entry/key") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            if (! name.equals ("serverAttribute"))
+                return null;
+            
+            String type = (v[2] != null) ? v[2].toUpperCase() : null;
+            String value = v[3];
+            
+            if (v[4] != null) {
+                value = "<Array Value>";
+            } else if (v[5] != null) {
+                value = "<List Value>";
+            } else if (v[6] != null) {
+                value = "<Map Value>";
+            } else if (type != null && type.equals ("PASSWORD_STRING") && value != null) {
+                value = StringUtils.encryptPassword (value).replaceAll (".", "x");
+            }
+            
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                v[1],
+                type,
+                value
+            };
+        }
+    };
 
     public ServerAttributeModulesDAO () {
         super ();
@@ -89,10 +138,12 @@ public class ServerAttributeModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                ServerAttributeModuleResource
@@ -108,6 +159,7 @@ public class ServerAttributeModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -141,38 +193,51 @@ public class ServerAttributeModulesDAO {
         }
         
         log.debug ("Getting list of server attributes in " + path);
-        ServerAttributeModule sam = findByPath (path);
-
-        if (sam == null) {
-            log.error ("parsed server attributes module is null.");
-            return null;
-        }
         
-        // get current list of group modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getServerAttributeList (sam);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of group modules in display list form
+            //
+            resultList = getServerAttributeList (path);
+
+            if (resultList == null) {
+                log.error ("parsed server attributes module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -195,8 +260,6 @@ public class ServerAttributeModulesDAO {
     public ServerAttributeModule findByPath (String path) {
         ServerAttributeModule sam = new ServerAttributeModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document samDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -221,37 +284,86 @@ public class ServerAttributeModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        sam.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            samDoc = builder.build (path);
-            Element rootNode = samDoc.getRootElement();
-//            Namespace ns = samDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<ServerAttribute> serverAttributes = new ArrayList<ServerAttribute>();
-            List<Element> samList = rootNode.getChildren();
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
+            //
+            ServerAttributeModule cachedServerAttributeModule = ModuleCache.getInstance().get (f, ServerAttributeModule.class);
+            if (cachedServerAttributeModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new ServerAttributeModule (cachedServerAttributeModule);
+            }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            sam.setPath (path);
+        
+            try {
+                List<ServerAttribute> serverAttributes = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + serverAttributes.size() + " server attribute elements.");
+            
+                sam.setServerAttributes (serverAttributes);
             
-            log.debug ("Located " + samList.size() + " child elements.");
+                ModuleCache.getInstance().put (f, lastModified, length, new ServerAttributeModule (sam));
 
-            // iterate over all the "server attribute" elements
-            // 
-            int i = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element samChild : samList) {
-                
-                log.debug ("Examining child #" + i++ + ": " + samChild.getName() + "{" + samChild.getNamespace().getURI() + "}");
-                
-                serverAttributes.add (new ServerAttribute (samChild));
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
             }
-            
-            sam.setServerAttributes (serverAttributes);
 
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            return sam;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return sam;
+    /**
+     * <p>
+     * Searches a server attribute module for a server attribute by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the server attribute's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the server attribute module.
+     * @param  id    The ID of the server attribute to look for.
+     * @return       The requested server attribute or <code>null</code> if it does not exist.
+     */
+    public ServerAttribute findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            ServerAttributeModule cachedServerAttributeModule = ModuleCache.getInstance().get (new File (path), ServerAttributeModule.class);
+            if (cachedServerAttributeModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedServerAttributeModule.findById (id);
+            }
+        
+            ServerAttribute result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            ServerAttributeModule sam = findByPath (path);
+        
+            return (sam != null) ? sam.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -262,32 +374,84 @@ public class ServerAttributeModulesDAO {
      * @param  sam  The group module to write out.
      */
     public void serialize (ServerAttributeModule sam) throws Exception {
-        String indent = StringUtils.getIndent (1);
         if (sam.getPath() == null)
             throw new IllegalArgumentException ("Server attribute module's path may not be null.");
         
-        File f = new File (sam.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (sam.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (sam.getPath() + ".bak"));
+        lock.lock();
+        try {
+            File f = new File (sam.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter samWriter = new ModuleXmlWriter (sam.getPath(), "ServerAttributeModule");
+        
+            try {
+                if (sam.getServerAttributes() != null) {
+                    for (ServerAttribute sa : sam.getServerAttributes()) {
+                        samWriter.writeItem (toItemElement (sa));
+                    }
+                }
+            
+                samWriter.finish();
+            } finally {
+                samWriter.close();
+            }
+
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (sam.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single server attribute change to a server attribute module's XML file. When possible only the
+     * changed server attribute is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the
+     * entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  sam  The server attribute module (already containing the change.)
+     * @param  id  The id of the server attribute being replaced or deleted or <code>null</code> if the server attribute was added.
+     * @param  sa  The added or updated server attribute or <code>null</code> if the server attribute was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        ServerAttributeModule sam,
+        String id,
+        ServerAttribute sa
+    ) throws Exception {
+        if (sam.getPath() == null)
+            throw new IllegalArgumentException ("Server attribute module's path may not be null.");
         
-        Document samDoc = new Document (new Element ("ServerAttributeModule", "ns1", DAOConstants.MODULES_NS));
-        samDoc.getRootElement().addContent ("\n");
+        Lock lock = FileLocks.getInstance().writeLock (sam.getPath());
 
-        if (sam.getServerAttributes() != null) {
-            for (ServerAttribute sa : sam.getServerAttributes()) {
-                Element saNode = sa.toElement ("ignored", 2).addContent ("\n" + indent); // element name is ignored as the element will choose its own name.
+        lock.lock();
+        try {
+            Element e = (sa != null) ? toItemElement (sa) : null;
 
-                samDoc.getRootElement().addContent (indent);
-                samDoc.getRootElement().addContent (saNode);
-                samDoc.getRootElement().addContent ("\n");
-            }
-        }
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("ServerAttributeModule", sam.getPath(), id, e, new ServerAttributeModule (sam)))
+                return;
 
-        xmlo.output (samDoc, new FileOutputStream (sam.getPath()));
+            if (! ModuleXmlPatcher.patch (sam.getPath(), itemHandler, id, e))
+                serialize (sam);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a server attribute laid out as it is in the module file.
+    //
+    private Element toItemElement (ServerAttribute sa) {
+        return sa.toElement ("ignored", 2).addContent ("\n" + StringUtils.getIndent (1)); // element name is ignored as the element will choose its own name.
     }
     
     public ResultMessage generate (
@@ -391,42 +555,93 @@ public class ServerAttributeModulesDAO {
             return new ResultMessage ("error", "Server attributes did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("merging generated server attributes with original server attributes ...");
-        ServerAttributeModule mergedSam = mergeServerAttributeModules (path, generatedXmlPath);
-        
-        // delete the generated server attributes module
-        //
-        log.debug ("deleting generated server attirbutes file ...");
-        (new File (generatedXmlPath)).delete();
+        ServerAttributeModule generatedSam = findByPath (generatedXmlPath);
 
-        // write out the merged server attributes module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged server attributes ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedSam);
-            result = new ResultMessage ("success", "Server attributes from server " + serverId + ", start path " + startPath + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable to serialize merged original and generated server attributes!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated server attributes with original server attributes ...");
+            ServerAttributeModule mergedSam = mergeServerAttributeModules (path, generatedSam);
+        
+            // delete the generated server attributes module
+            //
+            log.debug ("deleting generated server attirbutes file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged server attributes module
+            //
+            log.debug ("writing out merged server attributes ...");
+            try {
+                serialize (mergedSam);
+                result = new ResultMessage ("success", "Server attributes from server " + serverId + ", start path " + startPath + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable to serialize merged original and generated server attributes!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getServerAttributeList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            ServerAttributeModule sam = ModuleCache.getInstance().get (f, ServerAttributeModule.class);
+            if (sam != null) {
+                log.debug ("Using cached copy of " + path);
+                return getServerAttributeList (sam);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (4).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getServerAttributeList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getServerAttributeList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getServerAttributeList (ServerAttributeModule sam) {
-        List<ListResult.Row> sal = new ArrayList<ListResult.Row>();
+        RowStore.Builder sal = new RowStore.Builder (4);
         
         if (sam.getServerAttributes() != null && sam.getServerAttributes().size() > 0) {
             for (ServerAttribute sa : sam.getServerAttributes()) {
                 if (sa.getType() == ServerAttribute.TYPE_ATTRIBUTE_DEF)
                     continue;
                 
-                List<String> cell = new ArrayList<String>();
-                
                 String value = sa.getAttribute().getValue();
                 
                 if (sa.getAttribute().getValueArray() != null) {
@@ -439,16 +654,17 @@ public class ServerAttributeModulesDAO {
                     value = value.replaceAll (".", "x");
                 }
                 
-                cell.add (sa.getId());
-                cell.add (sa.getAttribute().getName());
-                cell.add (sa.getAttribute().getType());
-                cell.add (value);
-                
-                sal.add (new ListResult.Row (sa.getId(), cell));
+                sal.add (
+                    sa.getId(),
+                    sa.getId(),
+                    sa.getAttribute().getName(),
+                    sa.getAttribute().getType(),
+                    value
+                );
             }
         }
         
-        return sal;
+        return sal.build();
     }
     
     // writes out a temporary group generation plan
@@ -465,10 +681,9 @@ public class ServerAttributeModulesDAO {
     
     private ServerAttributeModule mergeServerAttributeModules (
         String origPath,
-        String toMergePath
+        ServerAttributeModule toMergeSam
     ) {
         ServerAttributeModule origSam = findByPath (origPath);
-        ServerAttributeModule toMergeSam = findByPath (toMergePath);
         int i;
         
         for (ServerAttribute sa : toMergeSam.getServerAttributes()) {
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.server_attribute;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.ServerAttributeResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class ServerAttributesDAO {
         String path,
         String id
     ) {
-        ServerAttributeModule sam = samDao.findByPath (path);
-        if (sam == null) {
-            log.error ("Unable to locate server attribute module " + path);
-        }
-        
-        log.debug ("Server attribute module located. Looking for server attribute ID " + id);
-        return sam.findById (id);
+        log.debug ("Looking for server attribute ID " + id + " in server attribute module " + path);
+        return samDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class ServerAttributesDAO {
      * Adds a server attribute to a server attribute module.
      * </p>
      * 
-     * @param  path  The path to the server attribute module.
-     * @param  sa    The {@link ServerAttribute} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the server attribute module.
+     * @param  sa       The {@link ServerAttribute} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        ServerAttribute sa
+        ServerAttribute sa,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        ServerAttributeModule sam = samDao.findByPath (path);
-        if (sam == null) {
-            return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
-        }
+            ServerAttributeModule sam = samDao.findByPath (path);
+            if (sam == null) {
+                return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Server attribute module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (sa, sam, DAOConstants.OPERATION_ADD);
+            msgList = validate (sa, sam, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-        sam.getServerAttributes().add (sa);
+            sam.getServerAttributes().add (sa);
         
-            try {
-                samDao.serialize (sam);
-                result = new ResultMessage ("success", "Created server attribute " + sa.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing server attribute module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize server attribute module, " + path + ": " + e.getMessage(), null);
+                try {
+                    samDao.serialize (sam, null, sa);
+                    result = new ResultMessage ("success", "Created server attribute " + sa.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing server attribute module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize server attribute module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class ServerAttributesDAO {
      * Updates a server attribute in a server attribute module.
      * </p>
      * 
-     * @param  path  The path to the server attribute module.
-     * @param  sa    The {@link ServerAttribute} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the server attribute module.
+     * @param  sa       The {@link ServerAttribute} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        ServerAttribute sa
+        ServerAttribute sa,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        ServerAttribute origSa = null;
-        
-        ServerAttributeModule sam = samDao.findByPath (path);
-        if (sam == null) {
-            return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            ServerAttribute origSa = null;
         
-        for (ServerAttribute tmp : sam.getServerAttributes()) {
-            if (tmp.getId().equals (sa.getOrigId())) {
-                origSa = tmp;
-                break;
+            ServerAttributeModule sam = samDao.findByPath (path);
+            if (sam == null) {
+                return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Server attribute module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (sa, sam, DAOConstants.OPERATION_EDIT);
+            origSa = sam.findById (sa.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (sa, sam, DAOConstants.OPERATION_EDIT);
         
-            sam.getServerAttributes().remove (origSa);
-            sam.getServerAttributes().add (sa);
+            if (msgList.size() == 0) {
         
-            try {
-                samDao.serialize (sam);
-                result = new ResultMessage ("success", "Updated server attribute " + sa.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing server attribute module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize server attribute module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = sam.getServerAttributes().indexOf (origSa);
+                if (i >= 0)
+                    sam.getServerAttributes().set (i, sa);
+                else
+                    sam.getServerAttributes().add (sa);
+        
+                try {
+                    samDao.serialize (sam, (origSa != null) ? origSa.getId() : null, sa);
+                    result = new ResultMessage ("success", "Updated server attribute " + sa.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing server attribute module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize server attribute module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class ServerAttributesDAO {
      * Copies one or more server attributes in a server attribute module.
      * </p>
      * 
-     * @param  path  The path to the server attribute module.
-     * @param  ids   The a comma separated list of server attribute IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the server attribute module.
+     * @param  ids      The a comma separated list of server attribute IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        ServerAttributeModule sam = samDao.findByPath (path);
-        if (sam == null) {
-            return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
-        }
+            ServerAttributeModule sam = samDao.findByPath (path);
+            if (sam == null) {
+                return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Server attribute module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            ServerAttribute sa = new ServerAttribute();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                ServerAttribute sa = new ServerAttribute();
 
-            sa.setId (id);
+                sa.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                ServerAttribute nsa = new ServerAttribute (sam.findById (sa.getId())); // find the original server attribute and make a copy of it.
+                    ServerAttribute nsa = new ServerAttribute (sam.findById (sa.getId())); // find the original server attribute and make a copy of it.
                 
-                if (nsa == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate server attribute id \"" + sa.getId() + "\"."));
-                    continue;
-                }
+                    if (nsa == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate server attribute id \"" + sa.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = sa.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nsa.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nsa, sam, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nsa.setId (sam.newCopyId (sa.getId()));
                 
-                // add the copy of the element
-                //
-                sam.getServerAttributes().add (nsa);
+                    // add the copy of the element
+                    //
+                    sam.getServerAttributes().add (nsa);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server attribute ID \"" + sa.getId() + "\" copied to \"" + nsa.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server attribute ID \"" + sa.getId() + "\" copied to \"" + nsa.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    samDao.serialize (sam);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing server attribute module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing server attribute module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several server attributes in a server attribute module and then writes the module once. The
+     * <code>operation</code> property of each server attribute says what to do with it: "add", "edit" (replaces the
+     * server attribute whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path              The path to the server attribute module.
+     * @param  serverAttributes  The list of server attributes to add, update or delete.
+     * @param  version           The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return                   A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<ServerAttribute> serverAttributes,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            ServerAttributeModule sam = samDao.findByPath (path);
+            if (sam == null) {
+                return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
+            }
 
-        if (atLeastOneItemCopied) {
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Server attribute module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (serverAttributes == null || serverAttributes.size() == 0) {
+                return new ResultMessage ("error", "No server attributes were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (ServerAttribute sa : serverAttributes) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (sa.getOperation() != null) ? sa.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        sam.getServerAttributes().add (sa);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created server attribute " + sa.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        sam.getServerAttributes().set (sam.getServerAttributes().indexOf (sam.findById (sa.getOrigId())), sa);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated server attribute " + sa.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        sam.getServerAttributes().remove (sam.findById (sa.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Server attribute ID \"" + sa.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + sa.getOperation() + "\" for server attribute ID \"" + sa.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 samDao.serialize (sam);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing server attribute module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing server attribute module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing server attribute module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize server attribute module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class ServerAttributesDAO {
      * Deletes one or more server attributes in a server attributes module.
      * </p>
      * 
-     * @param  path  The path to the server attribute module.
-     * @param  ids   The a comma separated list of server attribute IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the server attribute module.
+     * @param  ids      The a comma separated list of server attribute IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        ServerAttributeModule sam = samDao.findByPath (path);
-        if (sam == null) {
-            return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
-        }
+            ServerAttributeModule sam = samDao.findByPath (path);
+            if (sam == null) {
+                return new ResultMessage ("error", "Server attribute module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Server attribute module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            ServerAttribute sa = new ServerAttribute();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                ServerAttribute sa = new ServerAttribute();
 
-            sa.setId (id);
+                sa.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (sa, sam, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                sa = sam.findById (sa.getId());
-                sam.getServerAttributes().remove (sa);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server attribute ID \"" + sa.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    sa = sam.findById (sa.getId());
+                    sam.getServerAttributes().remove (sa);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Server attribute ID \"" + sa.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                samDao.serialize (sam);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing group module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        samDao.serialize (sam, idArray[0], null);
+                    else
+                        samDao.serialize (sam);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing group module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.trigger;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.core.shared.CalendarPeriod;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
@@ -20,7 +21,7 @@ import org.jdom2.Element;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class Trigger {
+public class Trigger implements ModuleItem {
 
 //    private static final Logger log = LoggerFactory.getLogger (Trigger.class);
     
@@ -680,7 +681,7 @@ public class Trigger {
             "User Defined Event"
         };
         
-        private static final String[] ELEMENT_NAMES = {
+        public static final String[] ELEMENT_NAMES = {
             "systemEvent",
             "timerEvent",
             "jmsEvent",
@@ -946,7 +947,7 @@ public class Trigger {
             "Send EMail"
         };
 
-        private static final String[] ELEMENT_NAMES = {
+        public static final String[] ELEMENT_NAMES = {
             "executeProcedure",
             "gatherStatistics",
             "reintrospectDatasource",
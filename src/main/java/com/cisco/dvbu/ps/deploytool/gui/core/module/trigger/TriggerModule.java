@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.trigger;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class TriggerModule {
 
     String path;
-    List<Trigger> triggers;
+    ItemList<Trigger> triggers;
     
     /**
      * <p>
@@ -28,6 +30,21 @@ public class TriggerModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached trigger modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the trigger list (meaning that adding or removing triggers
+     * in the copy leaves the original alone, but changing a trigger in the copy will update it in the original.)
+     * </p>
+     */
+    public TriggerModule (TriggerModule tm) {
+        if (tm != null) {
+            this.path = tm.getPath();
+            this.triggers = (tm.getTriggers() != null) ? new ItemList<Trigger> (tm.getTriggers()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -58,7 +75,7 @@ public class TriggerModule {
      * @param  triggers  The list of trigger records.
      */
     public void setTriggers (List<Trigger> triggers) {
-        this.triggers = triggers;
+        this.triggers = (triggers != null) ? new ItemList<Trigger> (triggers) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class TriggerModule {
         if (this.triggers == null)
             return null;
 
-        for (Trigger tmp : this.triggers) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.triggers.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a trigger record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the trigger being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.triggers == null)
+            return id + "_copy";
+
+        return this.triggers.newCopyId (id);
     }
 }
@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
@@ -15,33 +22,31 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.TriggerModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +65,80 @@ public class TriggerModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (TriggerModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds triggers from the item elements of trigger module files. the "trigger" and "schedule" elements
+    // are grouped into parent list elements.
+    //
+    private static final ModuleXmlReader.ItemHandler<Trigger> itemHandler = new ModuleXmlReader.ItemHandler<Trigger>() {
+        public boolean isContainer (String name, int depth) {
+            return depth == 1;
+        }
+        
+        public Trigger newItem (Element e, String parentName) {
+            return new Trigger (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("TriggerModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of trigger module files without building trigger objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> (getListFields()) {
+        public String[] newRow (String name, String parentName, String[] v) {
+            int offset = 5;
+            int conditionType = 0;
+            int actionType = 0;
+            
+            for (int i = 0; i < Trigger.Condition.ELEMENT_NAMES.length; i++) {
+                if (v[offset + i] != null)
+                    conditionType = i;
+            }
+            
+            offset += Trigger.Condition.ELEMENT_NAMES.length;
+            
+            for (int i = 0; i < Trigger.Action.ELEMENT_NAMES.length; i++) {
+                if (v[offset + i] != null)
+                    actionType = i;
+            }
+            
+            boolean trigger = ! name.equals ("schedule");
+            String id = (name.equals ("trigger")) ? v[0] : (name.equals ("schedule")) ? v[4] : null;
+            boolean known = name.equals ("trigger");
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                id,
+                id,
+                (trigger) ? "Trigger" : "Schedule",
+                (known) ? v[1] : null,
+                (known && v[2] != null) ? Trigger.Condition.TYPE_LABELS[conditionType] : null,
+                (known && v[3] != null) ? Trigger.Action.TYPE_LABELS[actionType] : null
+            };
+        }
+    };
+
+    // the trigger list needs the element names of the condition and action types as well as the plain values.
+    //
+    private static String[] getListFields() {
+        List<String> fields = new ArrayList<String>();
+        
+        fields.add ("id");
+        fields.add ("resourcePath");
+        fields.add ("condition");
+        fields.add ("action");
+        fields.add ("scheduleId");
+        
+        for (String n : Trigger.Condition.ELEMENT_NAMES)
+            fields.add ("condition/" + n);
+        
+        for (String n : Trigger.Action.ELEMENT_NAMES)
+            fields.add ("action/" + n);
+        
+        return fields.toArray (new String[fields.size()]);
+    }
 
     public TriggerModulesDAO () {
         super ();
@@ -89,10 +167,12 @@ public class TriggerModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                TriggerModuleResource
@@ -108,6 +188,7 @@ public class TriggerModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -141,38 +222,51 @@ public class TriggerModulesDAO {
         }
         
         log.debug ("Getting list of triggers in " + path);
-        TriggerModule tm = findByPath (path);
-
-        if (tm == null) {
-            log.error ("parsed trigger module is null.");
-            return null;
-        }
         
-        // get current list of trigger modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getTriggerList (tm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of trigger modules in display list form
+            //
+            resultList = getTriggerList (path);
+
+            if (resultList == null) {
+                log.error ("parsed trigger module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -195,8 +289,6 @@ public class TriggerModulesDAO {
     public TriggerModule findByPath (String path) {
         TriggerModule tm = new TriggerModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document tmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -219,43 +311,86 @@ public class TriggerModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        tm.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            tmDoc = builder.build (path);
-            Element rootNode = tmDoc.getRootElement();
-//            Namespace ns = tmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<Trigger> triggers = new ArrayList<Trigger>();
-            List<Element> tmList = rootNode.getChildren();
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
+            //
+            TriggerModule cachedTriggerModule = ModuleCache.getInstance().get (f, TriggerModule.class);
+            if (cachedTriggerModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new TriggerModule (cachedTriggerModule);
+            }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            tm.setPath (path);
+        
+            try {
+                List<Trigger> triggers = ModuleXmlReader.read (path, itemHandler);
             
-            log.debug ("Located " + tmList.size() + " child elements.");
+                log.debug ("Located " + triggers.size() + " trigger and schedule elements.");
+            
+                tm.setTriggers (triggers);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new TriggerModule (tm));
 
-            // iterate over the "trigger" and "schedule" elements
-            // 
-            int i = 0, j = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element tmChild : tmList) {
-                
-                log.debug ("Examining child #" + i++ + ": " + tmChild.getName() + "{" + tmChild.getNamespace().getURI() + "}");
-                
-                // iterate over the "trigger" and "schedule" children
-                //
-                for (Element tChild : tmChild.getChildren()) {
-                    
-                    log.debug ("Examining grandchild #" + j++ + ": " + tChild.getName() + "{" + tChild.getNamespace().getURI() + "}");
-                    triggers.add (new Trigger (tChild));
-                }
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
             }
-            
-            tm.setTriggers (triggers);
 
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            return tm;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return tm;
+    /**
+     * <p>
+     * Searches a trigger module for a trigger by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the trigger's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the trigger module.
+     * @param  id    The ID of the trigger to look for.
+     * @return       The requested trigger or <code>null</code> if it does not exist.
+     */
+    public Trigger findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            TriggerModule cachedTriggerModule = ModuleCache.getInstance().get (new File (path), TriggerModule.class);
+            if (cachedTriggerModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedTriggerModule.findById (id);
+            }
+        
+            Trigger result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            TriggerModule tm = findByPath (path);
+        
+            return (tm != null) ? tm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -266,65 +401,113 @@ public class TriggerModulesDAO {
      * @param  tm  The trigger module to write out.
      */
     public void serialize (TriggerModule tm) throws Exception {
-        String indent = StringUtils.getIndent (1);
-        String indent2 = StringUtils.getIndent (2);
-
         if (tm.getPath() == null)
             throw new IllegalArgumentException ("Trigger module's path may not be null.");
         
-        File f = new File (tm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (tm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (tm.getPath() + ".bak"));
-        }
-        
-        Document tmDoc = new Document (new Element ("TriggerModule", "ns1", DAOConstants.MODULES_NS));
-        tmDoc.getRootElement().addContent ("\n");
+        lock.lock();
+        try {
+            File f = new File (tm.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
         
-        if (tm.getTriggers() != null) {
-            
-            List<Trigger> triggers = new ArrayList<Trigger>();
-            List<Trigger> schedules = new ArrayList<Trigger>();
+            ModuleXmlWriter tmWriter = new ModuleXmlWriter (tm.getPath(), "TriggerModule");
         
-            // separate entries into triggers and schedules lists
-            //
-            for (Trigger t : tm.getTriggers()) {
-                if (t.type == Trigger.TYPE_TRIGGER)
-                    triggers.add (t);
-                else
-                    schedules.add (t);
-            }
+            try {
+                if (tm.getTriggers() != null) {
+                
+                    List<Trigger> triggers = new ArrayList<Trigger>();
+                    List<Trigger> schedules = new ArrayList<Trigger>();
             
-            Element tlNode = new Element ("triggerList");
+                    // separate entries into triggers and schedules lists
+                    //
+                    for (Trigger t : tm.getTriggers()) {
+                        if (t.type == Trigger.TYPE_TRIGGER)
+                            triggers.add (t);
+                        else
+                            schedules.add (t);
+                    }
+                
+                    tmWriter.startContainer ("triggerList");
+                
+                    for (Trigger t : triggers) {
+                        tmWriter.writeItem (toItemElement (t));
+                    }
+                
+                    tmWriter.endContainer();
+                
+                    tmWriter.startContainer ("scheduleList");
+                
+                    for (Trigger t : schedules) {
+                        tmWriter.writeItem (toItemElement (t));
+                    }
+    
+                    tmWriter.endContainer();
+                }
             
-            for (Trigger t : triggers) {
-                tlNode.addContent ("\n" + indent2);
-                tlNode.addContent (t.toElement ("trigger", 3).addContent ("\n" + indent2));
+                tmWriter.finish();
+            } finally {
+                tmWriter.close();
             }
-            
-            tlNode.addContent ("\n" + indent);
 
-            tmDoc.getRootElement().addContent (indent);
-            tmDoc.getRootElement().addContent (tlNode);
-            tmDoc.getRootElement().addContent ("\n");
-            
-            Element slNode = new Element ("scheduleList");
-            
-            for (Trigger t : schedules) {
-                slNode.addContent ("\n" + indent2);
-                slNode.addContent (t.toElement ("schedule", 3).addContent ("\n" + indent2));
-            }
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (tm.getPath());
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            slNode.addContent ("\n" + indent);
+    /**
+     * <p>
+     * Writes a single trigger change to a trigger module's XML file. When possible only the changed
+     * trigger is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module
+     * is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  tm  The trigger module (already containing the change.)
+     * @param  id  The id of the trigger being replaced or deleted or <code>null</code> if the trigger was added.
+     * @param  t  The added or updated trigger or <code>null</code> if the trigger was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        TriggerModule tm,
+        String id,
+        Trigger t
+    ) throws Exception {
+        if (tm.getPath() == null)
+            throw new IllegalArgumentException ("Trigger module's path may not be null.");
+        
+        Lock lock = FileLocks.getInstance().writeLock (tm.getPath());
 
-            tmDoc.getRootElement().addContent (indent);
-            tmDoc.getRootElement().addContent (slNode);
-            tmDoc.getRootElement().addContent ("\n");
-        }
+        lock.lock();
+        try {
+            Element e = (t != null) ? toItemElement (t) : null;
 
-        xmlo.output (tmDoc, new FileOutputStream (tm.getPath()));
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("TriggerModule", tm.getPath(), id, e, new TriggerModule (tm)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (tm.getPath(), itemHandler, id, e))
+                serialize (tm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a trigger laid out as it is in the module file (the element name and
+    // indent level depend on the type.)
+    //
+    private Element toItemElement (Trigger t) {
+        if (t.type == Trigger.TYPE_TRIGGER)
+            return t.toElement ("trigger", 3).addContent ("\n" + StringUtils.getIndent (2));
+        else
+            return t.toElement ("schedule", 3).addContent ("\n" + StringUtils.getIndent (2));
     }
     
     public ResultMessage generate (
@@ -428,50 +611,102 @@ public class TriggerModulesDAO {
             return new ResultMessage ("error", "Triggers did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
-        //
-        log.debug ("merging generated groups with original groups ...");
-        TriggerModule mergedTm = mergeTriggerModules (path, generatedXmlPath);
-        
-        // delete the generated trigger module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("deleting generated trigger file ...");
-        (new File (generatedXmlPath)).delete();
+        TriggerModule generatedTm = findByPath (generatedXmlPath);
 
-        // write out the merged group module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged groups ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedTm);
-            result = new ResultMessage ("success", "Trigger from server " + serverId + ", startPath " + startPath + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated trigger!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated groups with original groups ...");
+            TriggerModule mergedTm = mergeTriggerModules (path, generatedTm);
+        
+            // delete the generated trigger module
+            //
+            log.debug ("deleting generated trigger file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged group module
+            //
+            log.debug ("writing out merged groups ...");
+            try {
+                serialize (mergedTm);
+                result = new ResultMessage ("success", "Trigger from server " + serverId + ", startPath " + startPath + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated trigger!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getTriggerList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            TriggerModule tm = ModuleCache.getInstance().get (f, TriggerModule.class);
+            if (tm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getTriggerList (tm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (5).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getTriggerList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getTriggerList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getTriggerList (TriggerModule tm) {
-        List<ListResult.Row> tl = new ArrayList<ListResult.Row>();
+        RowStore.Builder tl = new RowStore.Builder (5);
         
         if (tm.getTriggers() != null && tm.getTriggers().size() > 0) {
             for (Trigger t : tm.getTriggers()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (t.getId());
-                cell.add ((t.getType() == Trigger.TYPE_TRIGGER) ? "Trigger" : "Schedule");
-                cell.add (t.getResourcePath());
-                cell.add ((t.getType() == Trigger.TYPE_TRIGGER && t.getCondition() != null) ? Trigger.Condition.TYPE_LABELS[t.getCondition().getType()] : null);
-                cell.add ((t.getType() == Trigger.TYPE_TRIGGER && t.getAction() != null) ? Trigger.Action.TYPE_LABELS[t.getAction().getType()] : null);
-                
-                tl.add (new ListResult.Row (t.getId(), cell));
+                tl.add (
+                    t.getId(),
+                    t.getId(),
+                    (t.getType() == Trigger.TYPE_TRIGGER) ? "Trigger" : "Schedule",
+                    t.getResourcePath(),
+                    (t.getType() == Trigger.TYPE_TRIGGER && t.getCondition() != null) ? Trigger.Condition.TYPE_LABELS[t.getCondition().getType()] : null,
+                    (t.getType() == Trigger.TYPE_TRIGGER && t.getAction() != null) ? Trigger.Action.TYPE_LABELS[t.getAction().getType()] : null
+                );
             }
         }
         
-        return tl;
+        return tl.build();
     }
     
     // writes out a temporary trigger generation plan
@@ -488,10 +723,9 @@ public class TriggerModulesDAO {
     
     private TriggerModule mergeTriggerModules (
         String origPath,
-        String toMergePath
+        TriggerModule toMergeTm
     ) {
         TriggerModule origTm = findByPath (origPath);
-        TriggerModule toMergeTm = findByPath (toMergePath);
         int i;
         
         for (Trigger t : toMergeTm.getTriggers()) {
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.trigger;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.TriggerResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class TriggersDAO {
         String path,
         String id
     ) {
-        TriggerModule tm = tmDao.findByPath (path);
-        if (tm == null) {
-            log.error ("Unable to locate trigger module " + path);
-        }
-        
-        log.debug ("Trigger module located. Looking for trigger ID " + id);
-        return tm.findById (id);
+        log.debug ("Looking for trigger ID " + id + " in trigger module " + path);
+        return tmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class TriggersDAO {
      * Adds a trigger to a trigger module.
      * </p>
      * 
-     * @param  path  The path to the trigger module.
-     * @param  t     The {@link Trigger} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the trigger module.
+     * @param  t        The {@link Trigger} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        Trigger t
+        Trigger t,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        TriggerModule tm = tmDao.findByPath (path);
-        if (tm == null) {
-            return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
-        }
+            TriggerModule tm = tmDao.findByPath (path);
+            if (tm == null) {
+                return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Trigger module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (t, tm, DAOConstants.OPERATION_ADD);
+            msgList = validate (t, tm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-        tm.getTriggers().add (t);
+            tm.getTriggers().add (t);
         
-            try {
-                tmDao.serialize (tm);
-                result = new ResultMessage ("success", "Created trigger " + t.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing trigger module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize trigger module, " + path + ": " + e.getMessage(), null);
+                try {
+                    tmDao.serialize (tm, null, t);
+                    result = new ResultMessage ("success", "Created trigger " + t.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing trigger module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize trigger module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class TriggersDAO {
      * Updates a trigger in a trigger module.
      * </p>
      * 
-     * @param  path  The path to the trigger module.
-     * @param  t     The {@link Trigger} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the trigger module.
+     * @param  t        The {@link Trigger} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        Trigger t
+        Trigger t,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        Trigger origTrigger = null;
-        
-        TriggerModule tm = tmDao.findByPath (path);
-        if (tm == null) {
-            return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            Trigger origTrigger = null;
         
-        for (Trigger tmp : tm.getTriggers()) {
-            if (tmp.getId().equals (t.getOrigId())) {
-                origTrigger = tmp;
-                break;
+            TriggerModule tm = tmDao.findByPath (path);
+            if (tm == null) {
+                return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Trigger module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (t, tm, DAOConstants.OPERATION_EDIT);
+            origTrigger = tm.findById (t.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (t, tm, DAOConstants.OPERATION_EDIT);
         
-            tm.getTriggers().remove (origTrigger);
-            tm.getTriggers().add (t);
+            if (msgList.size() == 0) {
         
-            try {
-                tmDao.serialize (tm);
-                result = new ResultMessage ("success", "Updated trigger " + t.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing trigger module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize trigger module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = tm.getTriggers().indexOf (origTrigger);
+                if (i >= 0)
+                    tm.getTriggers().set (i, t);
+                else
+                    tm.getTriggers().add (t);
+        
+                try {
+                    tmDao.serialize (tm, (origTrigger != null) ? origTrigger.getId() : null, t);
+                    result = new ResultMessage ("success", "Updated trigger " + t.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing trigger module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize trigger module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class TriggersDAO {
      * Copies one or more trigger in a trigger module.
      * </p>
      * 
-     * @param  path  The path to the trigger module.
-     * @param  ids   The a comma separated list of trigger IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the trigger module.
+     * @param  ids      The a comma separated list of trigger IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        TriggerModule tm = tmDao.findByPath (path);
-        if (tm == null) {
-            return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
-        }
+            TriggerModule tm = tmDao.findByPath (path);
+            if (tm == null) {
+                return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Trigger module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Trigger t = new Trigger();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Trigger t = new Trigger();
 
-            t.setId (id);
+                t.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (t, tm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (t, tm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                Trigger nt = new Trigger (tm.findById (t.getId())); // find the original trigger and make a copy of it.
+                    Trigger nt = new Trigger (tm.findById (t.getId())); // find the original trigger and make a copy of it.
                 
-                if (nt == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate trigger id \"" + t.getId() + "\"."));
-                    continue;
-                }
+                    if (nt == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate trigger id \"" + t.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = t.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nt.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nt, tm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nt.setId (tm.newCopyId (t.getId()));
                 
-                // add the copy of the element
-                //
-                tm.getTriggers().add (nt);
+                    // add the copy of the element
+                    //
+                    tm.getTriggers().add (nt);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Trigger ID \"" + t.getId() + "\" copied to \"" + nt.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Trigger ID \"" + t.getId() + "\" copied to \"" + nt.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    tmDao.serialize (tm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing trigger module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing trigger module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several triggers in a trigger module and then writes the module once. The
+     * <code>operation</code> property of each trigger says what to do with it: "add", "edit" (replaces the
+     * trigger whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path      The path to the trigger module.
+     * @param  triggers  The list of triggers to add, update or delete.
+     * @param  version   The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return           A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<Trigger> triggers,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            TriggerModule tm = tmDao.findByPath (path);
+            if (tm == null) {
+                return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
+            }
 
-        if (atLeastOneItemCopied) {
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Trigger module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (triggers == null || triggers.size() == 0) {
+                return new ResultMessage ("error", "No triggers were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (Trigger t : triggers) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (t.getOperation() != null) ? t.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (t, tm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        tm.getTriggers().add (t);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created trigger " + t.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (t, tm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        tm.getTriggers().set (tm.getTriggers().indexOf (tm.findById (t.getOrigId())), t);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated trigger " + t.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (t, tm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        tm.getTriggers().remove (tm.findById (t.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "Trigger ID \"" + t.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + t.getOperation() + "\" for trigger ID \"" + t.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 tmDao.serialize (tm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing trigger module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing trigger module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing trigger module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize trigger module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class TriggersDAO {
      * Deletes one or more triggers in a group module.
      * </p>
      * 
-     * @param  path  The path to the trigger module.
-     * @param  ids   The a comma separated list of trigger IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the trigger module.
+     * @param  ids      The a comma separated list of trigger IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        TriggerModule tm = tmDao.findByPath (path);
-        if (tm == null) {
-            return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
-        }
+            TriggerModule tm = tmDao.findByPath (path);
+            if (tm == null) {
+                return new ResultMessage ("error", "Trigger module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "Trigger module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            Trigger t = new Trigger();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                Trigger t = new Trigger();
 
-            t.setId (id);
+                t.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (t, tm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (t, tm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the trigger element
+                // if so, then make sure the item doesn't :)
                 //
-                t = tm.findById (t.getId());
-                tm.getTriggers().remove (t);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "Trigger ID \"" + t.getId() + "\" deleted."));
-            }
+                    // get rid of the trigger element
+                    //
+                    t = tm.findById (t.getId());
+                    tm.getTriggers().remove (t);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Trigger ID \"" + t.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                tmDao.serialize (tm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing trigger module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing trigger module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        tmDao.serialize (tm, idArray[0], null);
+                    else
+                        tmDao.serialize (tm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing trigger module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing trigger module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
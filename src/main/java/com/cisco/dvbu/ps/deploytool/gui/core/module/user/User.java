@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.user;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
 import java.util.ArrayList;
@@ -19,7 +20,7 @@ import org.jdom2.Element;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class User {
+public class User implements ModuleItem {
 
     // attributes used by the UI
     //
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.user;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class UserModule {
 
     String path;
-    List<User> users;
+    ItemList<User> users;
     
     /**
      * <p>
@@ -28,6 +30,21 @@ public class UserModule {
         super ();
     }
 
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached user modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the user list (meaning that adding or removing users
+     * in the copy leaves the original alone, but changing a user in the copy will update it in the original.)
+     * </p>
+     */
+    public UserModule (UserModule um) {
+        if (um != null) {
+            this.path = um.getPath();
+            this.users = (um.getUsers() != null) ? new ItemList<User> (um.getUsers()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -58,7 +75,7 @@ public class UserModule {
      * @param  users  The list of user records.
      */
     public void setUsers (List<User> users) {
-        this.users = users;
+        this.users = (users != null) ? new ItemList<User> (users) : null;
     }
 
     /**
@@ -87,11 +104,21 @@ public class UserModule {
         if (this.users == null)
             return null;
 
-        for (User tmp : this.users) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.users.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of an user record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the user being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.users == null)
+            return id + "_copy";
+
+        return this.users.newCopyId (id);
     }
 }
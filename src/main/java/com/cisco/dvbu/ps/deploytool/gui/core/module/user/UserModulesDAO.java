@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
@@ -15,33 +22,31 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.UserModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
-import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +65,36 @@ public class UserModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (UserModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds users from the item elements of user module files.
+    //
+    private static final ModuleXmlReader.ItemHandler<User> itemHandler = new ModuleXmlReader.ItemHandler<User>() {
+        public User newItem (Element e, String parentName) {
+            return new User (e);
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("UserModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of user module files without building user objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "userName", "domainName", "privilege", "annotation") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                v[1],
+                v[2],
+                v[3],
+                v[4]
+            };
+        }
+    };
 
     public UserModulesDAO () {
         super ();
@@ -89,10 +123,12 @@ public class UserModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                UserModuleResource
@@ -108,6 +144,7 @@ public class UserModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -141,38 +178,51 @@ public class UserModulesDAO {
         }
         
         log.debug ("Getting list of users in " + path);
-        UserModule um = findByPath (path);
-
-        if (um == null) {
-            log.error ("parsed user module is null.");
-            return null;
-        }
         
-        // get current list of user modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getUserList (um);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of user modules in display list form
+            //
+            resultList = getUserList (path);
+
+            if (resultList == null) {
+                log.error ("parsed user module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -195,8 +245,6 @@ public class UserModulesDAO {
     public UserModule findByPath (String path) {
         UserModule um = new UserModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document umDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -221,37 +269,86 @@ public class UserModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        um.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            umDoc = builder.build (path);
-            Element rootNode = umDoc.getRootElement();
-//            Namespace ns = umDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<User> users = new ArrayList<User>();
-            List<Element> umList = rootNode.getChildren();
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
+            //
+            UserModule cachedUserModule = ModuleCache.getInstance().get (f, UserModule.class);
+            if (cachedUserModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new UserModule (cachedUserModule);
+            }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            um.setPath (path);
+        
+            try {
+                List<User> users = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + users.size() + " user elements.");
             
-            log.debug ("Located " + umList.size() + " child elements.");
+                um.setUsers (users);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new UserModule (um));
 
-            // iterate over all the "user" elements
-            // 
-            int i = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element umChild : umList) {
-                
-                log.debug ("Examining child #" + i++ + ": " + umChild.getName() + "{" + umChild.getNamespace().getURI() + "}");
-                
-                users.add (new User (umChild));
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
             }
-            
-            um.setUsers (users);
 
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            return um;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return um;
+    /**
+     * <p>
+     * Searches a user module for an user by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the user's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the user module.
+     * @param  id    The ID of the user to look for.
+     * @return       The requested user or <code>null</code> if it does not exist.
+     */
+    public User findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            UserModule cachedUserModule = ModuleCache.getInstance().get (new File (path), UserModule.class);
+            if (cachedUserModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedUserModule.findById (id);
+            }
+        
+            User result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            UserModule um = findByPath (path);
+        
+            return (um != null) ? um.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -265,30 +362,80 @@ public class UserModulesDAO {
         if (um.getPath() == null)
             throw new IllegalArgumentException ("User module's path may not be null.");
         
-        String indent = StringUtils.getIndent (1);
+        Lock lock = FileLocks.getInstance().writeLock (um.getPath());
+
+        lock.lock();
+        try {
+            File f = new File (um.getPath());
+
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter umWriter = new ModuleXmlWriter (um.getPath(), "UserModule");
         
-        File f = new File (um.getPath());
+            try {
+                if (um.getUsers() != null) {
+                    for (User u : um.getUsers()) {
+                        umWriter.writeItem (toItemElement (u));
+                    }
+                }
+            
+                umWriter.finish();
+            } finally {
+                umWriter.close();
+            }
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (um.getPath() + ".bak"));
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (um.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single user change to an user module's XML file. When possible only the changed user is spliced
+     * into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  um  The user module (already containing the change.)
+     * @param  id  The id of the user being replaced or deleted or <code>null</code> if the user was added.
+     * @param  u  The added or updated user or <code>null</code> if the user was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        UserModule um,
+        String id,
+        User u
+    ) throws Exception {
+        if (um.getPath() == null)
+            throw new IllegalArgumentException ("User module's path may not be null.");
         
-        Document umDoc = new Document (new Element ("UserModule", "ns1", DAOConstants.MODULES_NS));
-        umDoc.getRootElement().addContent ("\n");
+        Lock lock = FileLocks.getInstance().writeLock (um.getPath());
 
-        if (um.getUsers() != null) {
-            for (User u : um.getUsers()) {
-                Element uNode = u.toElement ("user", 2).addContent ("\n" + indent);
+        lock.lock();
+        try {
+            Element e = (u != null) ? toItemElement (u) : null;
 
-                umDoc.getRootElement().addContent (indent);
-                umDoc.getRootElement().addContent (uNode);
-                umDoc.getRootElement().addContent ("\n");
-            }
-        }
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("UserModule", um.getPath(), id, e, new UserModule (um)))
+                return;
 
-        xmlo.output (umDoc, new FileOutputStream (um.getPath()));
+            if (! ModuleXmlPatcher.patch (um.getPath(), itemHandler, id, e))
+                serialize (um);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for an user laid out as it is in the module file.
+    //
+    private Element toItemElement (User u) {
+        return u.toElement ("user", 2).addContent ("\n" + StringUtils.getIndent (1));
     }
     
     public ResultMessage generate (
@@ -392,50 +539,102 @@ public class UserModulesDAO {
             return new ResultMessage ("error", "Users did not get generated! Please see latest PDTool log for more information.", null);
         }
         
-        // merge result module with input module
-        //
-        log.debug ("merging generated users with original users ...");
-        UserModule mergedUm = mergeUserModules (path, generatedXmlPath);
-        
-        // delete the generated user module
+        // the generated module is read before the module is locked so that only one file is locked at a time.
         //
-        log.debug ("deleting generated users file ...");
-        (new File (generatedXmlPath)).delete();
+        UserModule generatedUm = findByPath (generatedXmlPath);
 
-        // write out the merged users module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged users ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedUm);
-            result = new ResultMessage ("success", "Users from server " + serverId + ", domain " + domain + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated users!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated users with original users ...");
+            UserModule mergedUm = mergeUserModules (path, generatedUm);
+        
+            // delete the generated user module
+            //
+            log.debug ("deleting generated users file ...");
+            (new File (generatedXmlPath)).delete();
+
+            // write out the merged users module
+            //
+            log.debug ("writing out merged users ...");
+            try {
+                serialize (mergedUm);
+                result = new ResultMessage ("success", "Users from server " + serverId + ", domain " + domain + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated users!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getUserList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            UserModule um = ModuleCache.getInstance().get (f, UserModule.class);
+            if (um != null) {
+                log.debug ("Using cached copy of " + path);
+                return getUserList (um);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (5).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getUserList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getUserList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getUserList (UserModule um) {
-        List<ListResult.Row> ul = new ArrayList<ListResult.Row>();
+        RowStore.Builder ul = new RowStore.Builder (5);
         
         if (um.getUsers() != null && um.getUsers().size() > 0) {
             for (User u : um.getUsers()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (u.getId());
-                cell.add (u.getUserName());
-                cell.add (u.getDomainName());
-                cell.add (u.getPrivilege());
-                cell.add (u.getAnnotation());
-                
-                ul.add (new ListResult.Row (u.getId(), cell));
+                ul.add (
+                    u.getId(),
+                    u.getId(),
+                    u.getUserName(),
+                    u.getDomainName(),
+                    u.getPrivilege(),
+                    u.getAnnotation()
+                );
             }
         }
         
-        return ul;
+        return ul.build();
     }
     
     // writes out a temporary user generation plan
@@ -452,10 +651,9 @@ public class UserModulesDAO {
     
     private UserModule mergeUserModules (
         String origPath,
-        String toMergePath
+        UserModule toMergeUm
     ) {
         UserModule origUm = findByPath (origPath);
-        UserModule toMergeUm = findByPath (toMergePath);
         int i;
         
         for (User u : toMergeUm.getUsers()) {
@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.user;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.UserResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class UsersDAO {
         String path,
         String id
     ) {
-        UserModule um = umDao.findByPath (path);
-        if (um == null) {
-            log.error ("Unable to locate user module " + path);
-        }
-        
-        log.debug ("User module located. Looking for user ID " + id);
-        return um.findById (id);
+        log.debug ("Looking for user ID " + id + " in user module " + path);
+        return umDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class UsersDAO {
      * Adds a user to a user module.
      * </p>
      * 
-     * @param  path  The path to the user module.
-     * @param  u     The {@link User} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the user module.
+     * @param  u        The {@link User} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        User u
+        User u,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        UserModule um = umDao.findByPath (path);
-        if (um == null) {
-            return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
-        }
+            UserModule um = umDao.findByPath (path);
+            if (um == null) {
+                return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "User module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (u, um, DAOConstants.OPERATION_ADD);
+            msgList = validate (u, um, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            um.getUsers().add (u);
+                um.getUsers().add (u);
         
-            try {
-                umDao.serialize (um);
-                result = new ResultMessage ("success", "Created user " + u.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing user module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize user module, " + path + ": " + e.getMessage(), null);
+                try {
+                    umDao.serialize (um, null, u);
+                    result = new ResultMessage ("success", "Created user " + u.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing user module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize user module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class UsersDAO {
      * Updates a user in a user module.
      * </p>
      * 
-     * @param  path  The path to the user module.
-     * @param  u     The {@link User} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the user module.
+     * @param  u        The {@link User} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        User u
+        User u,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        User origUser = null;
-        
-        UserModule um = umDao.findByPath (path);
-        if (um == null) {
-            return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            User origUser = null;
         
-        for (User tmp : um.getUsers()) {
-            if (tmp.getId().equals (u.getOrigId())) {
-                origUser = tmp;
-                break;
+            UserModule um = umDao.findByPath (path);
+            if (um == null) {
+                return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "User module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (u, um, DAOConstants.OPERATION_EDIT);
+            origUser = um.findById (u.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (u, um, DAOConstants.OPERATION_EDIT);
         
-            um.getUsers().remove (origUser);
-            um.getUsers().add (u);
+            if (msgList.size() == 0) {
         
-            try {
-                umDao.serialize (um);
-                result = new ResultMessage ("success", "Updated user " + u.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing user module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize user module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = um.getUsers().indexOf (origUser);
+                if (i >= 0)
+                    um.getUsers().set (i, u);
+                else
+                    um.getUsers().add (u);
+        
+                try {
+                    umDao.serialize (um, (origUser != null) ? origUser.getId() : null, u);
+                    result = new ResultMessage ("success", "Updated user " + u.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing user module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize user module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class UsersDAO {
      * Copies one or more users in a user module.
      * </p>
      * 
-     * @param  path  The path to the user module.
-     * @param  ids   The a comma separated list of user IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the user module.
+     * @param  ids      The a comma separated list of user IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        UserModule um = umDao.findByPath (path);
-        if (um == null) {
-            return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
-        }
+            UserModule um = umDao.findByPath (path);
+            if (um == null) {
+                return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "User module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            User u = new User();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                User u = new User();
 
-            u.setId (id);
+                u.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (u, um, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (u, um, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                User nu = new User (um.findById (u.getId())); // find the original archive and make a copy of it.
+                    User nu = new User (um.findById (u.getId())); // find the original archive and make a copy of it.
                 
-                if (nu == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate user id \"" + u.getId() + "\"."));
-                    continue;
-                }
+                    if (nu == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate user id \"" + u.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = u.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nu.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nu, um, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nu.setId (um.newCopyId (u.getId()));
                 
-                // add the copy of the element
-                //
-                um.getUsers().add (nu);
+                    // add the copy of the element
+                    //
+                    um.getUsers().add (nu);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "User ID \"" + u.getId() + "\" copied to \"" + nu.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "User ID \"" + u.getId() + "\" copied to \"" + nu.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    umDao.serialize (um);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing user module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing user module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several users in an user module and then writes the module once. The
+     * <code>operation</code> property of each user says what to do with it: "add", "edit" (replaces the
+     * user whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path     The path to the user module.
+     * @param  users    The list of users to add, update or delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<User> users,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            UserModule um = umDao.findByPath (path);
+            if (um == null) {
+                return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "User module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (users == null || users.size() == 0) {
+                return new ResultMessage ("error", "No users were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (User u : users) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (u.getOperation() != null) ? u.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (u, um, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        um.getUsers().add (u);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created user " + u.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (u, um, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        um.getUsers().set (um.getUsers().indexOf (um.findById (u.getOrigId())), u);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated user " + u.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (u, um, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        um.getUsers().remove (um.findById (u.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "User ID \"" + u.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + u.getOperation() + "\" for user ID \"" + u.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 umDao.serialize (um);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing user module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing user module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing user module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize user module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class UsersDAO {
      * Deletes one or more users in a user module.
      * </p>
      * 
-     * @param  path  The path to the user module.
-     * @param  ids   The a comma separated list of user IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the user module.
+     * @param  ids      The a comma separated list of user IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        UserModule um = umDao.findByPath (path);
-        if (um == null) {
-            return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
-        }
+            UserModule um = umDao.findByPath (path);
+            if (um == null) {
+                return new ResultMessage ("error", "User module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "User module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            User u = new User();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                User u = new User();
 
-            u.setId (id);
+                u.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (u, um, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (u, um, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the server element
+                // if so, then make sure the item doesn't :)
                 //
-                u = um.findById (u.getId());
-                um.getUsers().remove (u);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "User ID \"" + u.getId() + "\" deleted."));
-            }
+                    // get rid of the server element
+                    //
+                    u = um.findById (u.getId());
+                    um.getUsers().remove (u);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "User ID \"" + u.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                umDao.serialize (um);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing user module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing user module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        umDao.serialize (um, idArray[0], null);
+                    else
+                        umDao.serialize (um);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing user module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing user module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.vcs;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleItem;
 import com.cisco.dvbu.ps.deploytool.gui.core.shared.EnvironmentVariable;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
 
@@ -22,7 +23,7 @@ import org.slf4j.LoggerFactory;
  * @author Calvin Goodrich
  * @version 1.0
  */
-public class VCS {
+public class VCS implements ModuleItem {
     public static final int TYPE_CONNECTION = 0;
     public static final int TYPE_RESOURCE = 1;
     
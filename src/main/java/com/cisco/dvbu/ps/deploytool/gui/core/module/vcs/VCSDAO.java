@@ -6,10 +6,13 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.vcs;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 import com.cisco.dvbu.ps.deploytool.gui.resources.VCSResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,13 +52,8 @@ public class VCSDAO {
         String path,
         String id
     ) {
-        VCSModule vm = vmDao.findByPath (path);
-        if (vm == null) {
-            log.error ("Unable to locate VCS module " + path);
-        }
-        
-        log.debug ("VCS module located. Looking for VCS ID " + id);
-        return vm.findById (id);
+        log.debug ("Looking for VCS ID " + id + " in VCS module " + path);
+        return vmDao.findItemById (path, id);
     }
   
     /**
@@ -63,40 +61,55 @@ public class VCSDAO {
      * Adds a VCS to a VCS module.
      * </p>
      * 
-     * @param  path  The path to the VCS module.
-     * @param  v     The {@link VCS} to add.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the VCS module.
+     * @param  v        The {@link VCS} to add.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage add (
         String path,
-        VCS v
+        VCS v,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
         
-        VCSModule vm = vmDao.findByPath (path);
-        if (vm == null) {
-            return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
-        }
+            VCSModule vm = vmDao.findByPath (path);
+            if (vm == null) {
+                return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "VCS module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        msgList = validate (v, vm, DAOConstants.OPERATION_ADD);
+            msgList = validate (v, vm, DAOConstants.OPERATION_ADD);
         
-        if (msgList.size() == 0) {
+            if (msgList.size() == 0) {
         
-            vm.getVcsList().add (v);
+                vm.getVcsList().add (v);
             
-            try {
-                vmDao.serialize (vm);
-                result = new ResultMessage ("success", "Created VCS record " + v.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing VCS module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize VCS module, " + path + ": " + e.getMessage(), null);
+                try {
+                    vmDao.serialize (vm, null, v);
+                    result = new ResultMessage ("success", "Created VCS record " + v.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing VCS module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize VCS module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
   
     /**
@@ -104,49 +117,64 @@ public class VCSDAO {
      * Updates a VCS in a VCS module.
      * </p>
      * 
-     * @param  path  The path to the VCS module.
-     * @param  v     The {@link VCS} to update.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the VCS module.
+     * @param  v        The {@link VCS} to update.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage edit (
         String path,
-        VCS v
+        VCS v,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList;
-        ResultMessage result;
-        VCS origVCS = null;
-        
-        VCSModule vm = vmDao.findByPath (path);
-        if (vm == null) {
-            return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
-        }
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList;
+            ResultMessage result;
+            VCS origVCS = null;
         
-        for (VCS tmp : vm.getVcsList()) {
-            if (tmp.getId().equals (v.getOrigId())) {
-                origVCS = tmp;
-                break;
+            VCSModule vm = vmDao.findByPath (path);
+            if (vm == null) {
+                return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "VCS module, " + path + ", was changed by another request. Reload it and try again.", null);
             }
-        }
         
-        msgList = validate (v, vm, DAOConstants.OPERATION_EDIT);
+            origVCS = vm.findById (v.getOrigId());
         
-        if (msgList.size() == 0) {
+            msgList = validate (v, vm, DAOConstants.OPERATION_EDIT);
         
-            vm.getVcsList().remove (origVCS);
-            vm.getVcsList().add (v);
+            if (msgList.size() == 0) {
         
-            try {
-                vmDao.serialize (vm);
-                result = new ResultMessage ("success", "Updated VCS " + v.getId(), null);
-            } catch (Exception e) {
-                log.error ("Error serializing VCS module XML file, " + path + ": " + e.getMessage());
-                return new ResultMessage ("error", "Unable to serialize VCS module, " + path + ": " + e.getMessage(), null);
+                // replace the original in place so that the module file keeps its order.
+                //
+                int i = vm.getVcsList().indexOf (origVCS);
+                if (i >= 0)
+                    vm.getVcsList().set (i, v);
+                else
+                    vm.getVcsList().add (v);
+        
+                try {
+                    vmDao.serialize (vm, (origVCS != null) ? origVCS.getId() : null, v);
+                    result = new ResultMessage ("success", "Updated VCS " + v.getId(), null);
+                } catch (Exception e) {
+                    log.error ("Error serializing VCS module XML file, " + path + ": " + e.getMessage());
+                    return new ResultMessage ("error", "Unable to serialize VCS module, " + path + ": " + e.getMessage(), null);
+                }
+            } else {
+                return new ResultMessage ("error", null, msgList);
             }
-        } else {
-            return new ResultMessage ("error", null, msgList);
-        }
         
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -154,85 +182,192 @@ public class VCSDAO {
      * Copies one or more VCS records in a VCS module.
      * </p>
      * 
-     * @param  path  The path to the VCS module.
-     * @param  ids   The a comma separated list of VCS IDs to copy.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the VCS module.
+     * @param  ids      The a comma separated list of VCS IDs to copy.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     @SuppressWarnings("unused")
 	public ResultMessage copy (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemCopied = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemCopied = false;
+            ResultMessage result;
         
-        VCSModule vm = vmDao.findByPath (path);
-        if (vm == null) {
-            return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
-        }
+            VCSModule vm = vmDao.findByPath (path);
+            if (vm == null) {
+                return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "VCS module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            VCS v = new VCS();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                VCS v = new VCS();
 
-            v.setId (id);
+                v.setId (id);
             
-            // make sure the source item exists.
-            //
-            tmpMsgList = validate (v, vm, DAOConstants.OPERATION_COPY);
+                // make sure the source item exists.
+                //
+                tmpMsgList = validate (v, vm, DAOConstants.OPERATION_COPY);
             
-            // if so, then make the copy
-            //
-            if (tmpMsgList.size() == 0) {
+                // if so, then make the copy
+                //
+                if (tmpMsgList.size() == 0) {
 
-                VCS nv = new VCS (vm.findById (v.getId())); // find the original VCS record and make a copy of it.
+                    VCS nv = new VCS (vm.findById (v.getId())); // find the original VCS record and make a copy of it.
                 
-                if (nv == null) {
-                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate VCS id \"" + v.getId() + "\"."));
-                    continue;
-                }
+                    if (nv == null) {
+                        tmpMsgList.add (new ResultMessage.MessageItem ("id", "Unable to locate VCS id \"" + v.getId() + "\"."));
+                        continue;
+                    }
                 
-                atLeastOneItemCopied = true;
-
-                // generate a new id for the copy. start with the original id + "_copy", then look for
-                // id + "_copy1", id + "_copy2", etc.
-                //
-                int j = 0;
-                do {
-                    String newId = v.getId() + "_copy" + ((j == 0) ? "" : j);
-                    
-                    nv.setId (newId);
+                    atLeastOneItemCopied = true;
 
-                    j++;
-                } while (validate (nv, vm, DAOConstants.OPERATION_COPY).size() == 0);
+                    // generate a new id for the copy. start with the original id + "_copy", then look for
+                    // id + "_copy1", id + "_copy2", etc.
+                    //
+                    nv.setId (vm.newCopyId (v.getId()));
                 
-                // add the copy of the element
-                //
-                vm.getVcsList().add (nv);
+                    // add the copy of the element
+                    //
+                    vm.getVcsList().add (nv);
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "VCS ID \"" + v.getId() + "\" copied to \"" + nv.getId() + "\"."));
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "VCS ID \"" + v.getId() + "\" copied to \"" + nv.getId() + "\"."));
+                }
+
+                msgList.addAll (tmpMsgList);
             }
 
-            msgList.addAll (tmpMsgList);
+            if (atLeastOneItemCopied) {
+                try {
+                    vmDao.serialize (vm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing VCS module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
+            }
+
+            return result;
+        } finally {
+            lock.unlock();
         }
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several VCS records in a VCS module and then writes the module once. The
+     * <code>operation</code> property of each VCS says what to do with it: "add", "edit" (replaces the
+     * VCS whose ID is <code>origId</code>) or "delete" (only the ID is used.) The operations are checked
+     * and applied in order, so an operation may refer to the result of an earlier one. If any operation fails
+     * validation the module is left unchanged.
+     * </p>
+     * 
+     * @param  path     The path to the VCS module.
+     * @param  vcsList  The list of VCS records to add, update or delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operations.
+     */
+    public ResultMessage batch (
+        String path,
+        List<VCS> vcsList,
+        String version
+    ) {
+        Lock lock = FileLocks.getInstance().writeLock (path);
 
-        if (atLeastOneItemCopied) {
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            List<ResultMessage.MessageItem> errorList = new ArrayList<ResultMessage.MessageItem>();
+            ResultMessage result;
+        
+            VCSModule vm = vmDao.findByPath (path);
+            if (vm == null) {
+                return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "VCS module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
+        
+            if (vcsList == null || vcsList.size() == 0) {
+                return new ResultMessage ("error", "No VCS records were submitted.", null);
+            }
+        
+            // the module returned by findByPath() is a private copy, so changes made before a later operation
+            // fails validation are simply thrown away.
+            //
+            for (VCS v : vcsList) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                String operation = (v.getOperation() != null) ? v.getOperation().toLowerCase() : "";
+            
+                if (operation.equals ("add")) {
+                    tmpMsgList = validate (v, vm, DAOConstants.OPERATION_ADD);
+                
+                    if (tmpMsgList.size() == 0) {
+                        vm.getVcsList().add (v);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Created VCS record " + v.getId()));
+                    }
+                } else if (operation.equals ("edit")) {
+                    tmpMsgList = validate (v, vm, DAOConstants.OPERATION_EDIT);
+                
+                    if (tmpMsgList.size() == 0) {
+                
+                        // replace the original in place so that the module file keeps its order.
+                        //
+                        vm.getVcsList().set (vm.getVcsList().indexOf (vm.findById (v.getOrigId())), v);
+                        msgList.add (new ResultMessage.MessageItem ("id", "Updated VCS " + v.getId()));
+                    }
+                } else if (operation.equals ("delete")) {
+                    tmpMsgList = validate (v, vm, DAOConstants.OPERATION_DELETE);
+                
+                    if (tmpMsgList.size() == 0) {
+                        vm.getVcsList().remove (vm.findById (v.getId()));
+                        msgList.add (new ResultMessage.MessageItem ("id", "VCS ID \"" + v.getId() + "\" deleted."));
+                    }
+                } else {
+                    tmpMsgList = new ArrayList<ResultMessage.MessageItem>();
+                    tmpMsgList.add (new ResultMessage.MessageItem ("operation", "Unknown operation \"" + v.getOperation() + "\" for VCS ID \"" + v.getId() + "\"."));
+                }
+            
+                errorList.addAll (tmpMsgList);
+            }
+        
+            if (errorList.size() > 0) {
+                return new ResultMessage ("error", null, errorList);
+            }
+        
             try {
                 vmDao.serialize (vm);
                 result = new ResultMessage ("success", null, msgList);
             } catch (Exception e) {
-                log.error ("Error serializing VCS module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing group module XML file: " + e.getMessage(), null);
+                log.error ("Error serializing VCS module XML file, " + path + ": " + e.getMessage());
+                result = new ResultMessage ("error", "Unable to serialize VCS module, " + path + ": " + e.getMessage(), null);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
+        
+            return result;
+        } finally {
+            lock.unlock();
         }
-
-        return result;
     }
     
     /**
@@ -240,65 +375,85 @@ public class VCSDAO {
      * Deletes one or more VCS records in a VCS module.
      * </p>
      * 
-     * @param  path  The path to the VCS module.
-     * @param  ids   The a comma separated list of VCS IDs to delete.
-     * @return       A message or messages with the result of the operation.
+     * @param  path     The path to the VCS module.
+     * @param  ids      The a comma separated list of VCS IDs to delete.
+     * @param  version  The If-Match header of the request, or <code>null</code> if there isn't one.
+     * @return          A message or messages with the result of the operation.
      */
     public ResultMessage delete (
         String path,
-        String ids
+        String ids,
+        String version
     ) {
-        List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
-        boolean atLeastOneItemDeleted = false;
-        ResultMessage result;
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
+        try {
+            List<ResultMessage.MessageItem> msgList = new ArrayList<ResultMessage.MessageItem>();
+            boolean atLeastOneItemDeleted = false;
+            ResultMessage result;
         
-        VCSModule vm = vmDao.findByPath (path);
-        if (vm == null) {
-            return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
-        }
+            VCSModule vm = vmDao.findByPath (path);
+            if (vm == null) {
+                return new ResultMessage ("error", "VCS module, " + path + ", does not exist!", null);
+            }
+
+            // the module may have been changed since the client read it.
+            //
+            if (! ConditionalWrite.isCurrent (path, version)) {
+                return new ResultMessage (ConditionalWrite.CONFLICT, "VCS module, " + path + ", was changed by another request. Reload it and try again.", null);
+            }
         
-        // iterate over all the input ids
-        //
-        String[] idArray = ids.split (",");
-        for (String id : idArray) {
-            List<ResultMessage.MessageItem> tmpMsgList;
-            VCS v = new VCS();
+            // iterate over all the input ids
+            //
+            String[] idArray = ids.split (",");
+            for (String id : idArray) {
+                List<ResultMessage.MessageItem> tmpMsgList;
+                VCS v = new VCS();
 
-            v.setId (id);
+                v.setId (id);
             
-            // make sure the item exists.
-            //
-            tmpMsgList = validate (v, vm, DAOConstants.OPERATION_DELETE);
+                // make sure the item exists.
+                //
+                tmpMsgList = validate (v, vm, DAOConstants.OPERATION_DELETE);
             
-            // if so, then make sure the item doesn't :)
-            //
-            if (tmpMsgList.size() == 0) {
-                atLeastOneItemDeleted = true;
-                
-                // get rid of the group element
+                // if so, then make sure the item doesn't :)
                 //
-                v = vm.findById (v.getId());
-                vm.getVcsList().remove (v);
+                if (tmpMsgList.size() == 0) {
+                    atLeastOneItemDeleted = true;
                 
-                tmpMsgList.add (new ResultMessage.MessageItem ("id", "VCS ID \"" + v.getId() + "\" deleted."));
-            }
+                    // get rid of the group element
+                    //
+                    v = vm.findById (v.getId());
+                    vm.getVcsList().remove (v);
+                
+                    tmpMsgList.add (new ResultMessage.MessageItem ("id", "VCS ID \"" + v.getId() + "\" deleted."));
+                }
 
-            msgList.addAll (tmpMsgList);
-        }
+                msgList.addAll (tmpMsgList);
+            }
 
-        if (atLeastOneItemDeleted) {
-            try {
-                vmDao.serialize (vm);
-                result = new ResultMessage ("success", null, msgList);
-            } catch (Exception e) {
-                log.error ("Error serializing VCS module XML file: " + e.getMessage());
-                result = new ResultMessage ("error", "Error serializing VCS module XML file: " + e.getMessage(), null);
+            if (atLeastOneItemDeleted) {
+                try {
+                    // a single deletion can be patched out of the module file in place.
+                    //
+                    if (idArray.length == 1)
+                        vmDao.serialize (vm, idArray[0], null);
+                    else
+                        vmDao.serialize (vm);
+                    result = new ResultMessage ("success", null, msgList);
+                } catch (Exception e) {
+                    log.error ("Error serializing VCS module XML file: " + e.getMessage());
+                    result = new ResultMessage ("error", "Error serializing VCS module XML file: " + e.getMessage(), null);
+                }
+            } else {
+                result = new ResultMessage ("error", null, msgList);
             }
-        } else {
-            result = new ResultMessage ("error", null, msgList);
-        }
 
-        return result;
+            return result;
+        } finally {
+            lock.unlock();
+        }
     }
 
     // validates an incoming server payload based on the requested operation
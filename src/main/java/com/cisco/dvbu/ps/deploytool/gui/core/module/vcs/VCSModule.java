@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.core.module.vcs;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ItemList;
+
 import java.util.List;
 
 /**
@@ -17,7 +19,7 @@ import java.util.List;
 public class VCSModule {
 
     String path;
-    List<VCS> vcsList;
+    ItemList<VCS> vcsList;
     
     /**
      * <p>
@@ -27,6 +29,22 @@ public class VCSModule {
     public VCSModule () {
         super ();
     }
+
+    /**
+     * <p>
+     * Copy constructor. Used for handing out copies of cached VCS modules.
+     * 
+     * WARNING!!! - This makes a "shallow" copy of the VCS list (meaning that adding or removing VCSs
+     * in the copy leaves the original alone, but changing a VCS in the copy will update it in the original.)
+     * </p>
+     */
+    public VCSModule (VCSModule vm) {
+        if (vm != null) {
+            this.path = vm.getPath();
+            this.vcsList = (vm.getVcsList() != null) ? new ItemList<VCS> (vm.getVcsList()) : null;
+        }
+    }
+
     /**
      * <p>
      * Sets the <code>path</code> field.
@@ -57,7 +75,7 @@ public class VCSModule {
      * @param  vcsList  The list of VCS records.
      */
     public void setVcsList (List<VCS> vcsList) {
-        this.vcsList = vcsList;
+        this.vcsList = (vcsList != null) ? new ItemList<VCS> (vcsList) : null;
     }
 
     /**
@@ -86,11 +104,21 @@ public class VCSModule {
         if (this.vcsList == null)
             return null;
 
-        for (VCS tmp : this.vcsList) {
-            if (tmp.getId().equals (id))
-                return tmp;
-        }
-        
-        return null;
+        return this.vcsList.findById (id);
+    }
+
+    /**
+     * <p>
+     * Returns an unused ID for a copy of a VCS record (see {@link ItemList#newCopyId}.)
+     * </p>
+     * 
+     * @param  id  The id of the VCS being copied.
+     * @return     The ID to give the copy.
+     */
+    public String newCopyId (String id) {
+        if (this.vcsList == null)
+            return id + "_copy";
+
+        return this.vcsList.newCopyId (id);
     }
 }
@@ -8,6 +8,13 @@ import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.Deploymen
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ListViewCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlPatcher;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlReader;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleXmlWriter;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogsDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
@@ -15,33 +22,32 @@ import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.resources.VCSModuleResource;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute.ExecutePDTool;
-import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.io.FileUtils;
 
-import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 //import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.XMLOutputter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,7 +66,54 @@ public class VCSModulesDAO {
 
     private static final Logger log = LoggerFactory.getLogger (VCSModulesDAO.class);
 
-    private XMLOutputter xmlo = new XMLOutputter();
+    // builds VCS entries from the item elements of VCS module files. VCS connections are grouped into a parent
+    // element. VCS resources are children of the root.
+    //
+    private static final ModuleXmlReader.ItemHandler<VCS> itemHandler = new ModuleXmlReader.ItemHandler<VCS>() {
+        public boolean isContainer (String name, int depth) {
+            return depth == 1 && name.equals ("vcsConnections");
+        }
+        
+        public VCS newItem (Element e, String parentName) {
+            if (parentName.equals ("vcsConnections") || e.getName().equals ("vcsResource"))
+                return new VCS (e);
+            
+            return null;
+        }
+    };
+
+    // journaled changes are compacted with the same handler.
+    //
+    static {
+        ModuleJournal.register ("VCSModule", itemHandler);
+    }
+
+    // pulls the list columns straight out of VCS module files without building VCS objects.
+    //
+    private static final ModuleXmlReader.RowProjection<String[]> listProjection = new ModuleXmlReader.RowProjection<String[]> ("id", "VCS_TYPE", "VCS_REPOSITORY_URL", "resourceType", "resourcePath") {
+        public String[] newRow (String name, String parentName, String[] v) {
+            if (! parentName.equals ("vcsConnections") && ! name.equals ("vcsResource"))
+                return null;
+            
+            boolean connection = name.equals ("vcsConnection");
+            int vcsType = 0;
+            
+            for (int t = 1; v[1] != null && t < VCS.VCS_TYPE_LABELS.length; t++) {
+                if (v[1].equalsIgnoreCase (VCS.VCS_TYPE_LABELS[t]))
+                    vcsType = t;
+            }
+            
+            // the row ID followed by the cells.
+            //
+            return new String[] {
+                v[0],
+                v[0],
+                (connection) ? "Connection" : "Resource",
+                (connection) ? VCS.VCS_TYPE_LABELS[vcsType] : v[3],
+                (connection) ? v[2] : v[4]
+            };
+        }
+    };
 
     public VCSModulesDAO () {
         super ();
@@ -88,10 +141,12 @@ public class VCSModulesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                VCSModuleResource
@@ -107,6 +162,7 @@ public class VCSModulesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -140,38 +196,51 @@ public class VCSModulesDAO {
         }
         
         log.debug ("Getting list of VCS records in " + path);
-        VCSModule vm = findByPath (path);
-
-        if (vm == null) {
-            log.error ("parsed VCS module is null.");
-            return null;
-        }
         
-        // get current list of group modules in display list form
+        // page flips reuse the rows searched and sorted by an earlier request for the same view of the module.
         //
-        resultList = getVCSList (vm);
+        ListViewCache.View view = ListViewCache.getInstance().getView (path, isSearch, filters, searchField, searchString, searchOper, sortIndex, sortOrder, cursor != null);
+        resultList = view.getRows();
         
-        // apply search rules, if any
-        //
-        if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
-            resultList = ListUtils.applySearchRules (
-                             resultList, 
-                             listColumnsInfo, 
-                             searchField, 
-                             searchString, 
-                             searchOper
-                         );
+        if (resultList == null) {
+        
+            // get current list of group modules in display list form
+            //
+            resultList = getVCSList (path);
+
+            if (resultList == null) {
+                log.error ("parsed VCS module is null.");
+                return null;
+            }
+        
+            // apply search rules, if any
+            //
+            if (isSearch != null && isSearch.equalsIgnoreCase ("true")) {
+                resultList = ListUtils.applySearchRules (
+                                 resultList, 
+                                 listColumnsInfo, 
+                                 filters, 
+                                 searchField, 
+                                 searchString, 
+                                 searchOper
+                             );
+            }
+        
+            // apply sorting to the list. cursor paging needs every row to have its own position.
+            //
+            resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+            view.setRows (resultList);
         }
         
-        // apply sorting to the list
-        //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -194,8 +263,6 @@ public class VCSModulesDAO {
     public VCSModule findByPath (String path) {
         VCSModule vm = new VCSModule();
         File f;
-        SAXBuilder builder = new SAXBuilder();
-        Document vmDoc;
         
         log.debug ("Parsing XML of " + path);
 
@@ -218,44 +285,86 @@ public class VCSModulesDAO {
         
         log.debug ("Sanity checks passed.");
         
-        vm.setPath (path);
-        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
         try {
-            vmDoc = builder.build (path);
-            Element rootNode = vmDoc.getRootElement();
-//            Namespace ns = vmDoc.getNamespacesInScope().get(0); // should only be one namespace
-            List<VCS> vcsList = new ArrayList<VCS>();
-            List<Element> vmList = rootNode.getChildren();
+            // hand back a copy of the cached module if the file hasn't changed since it was last parsed.
+            //
+            VCSModule cachedVCSModule = ModuleCache.getInstance().get (f, VCSModule.class);
+            if (cachedVCSModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return new VCSModule (cachedVCSModule);
+            }
+        
+            // capture the file's state before parsing so that a change made during the parse invalidates the cache entry.
+            //
+            long lastModified = f.lastModified();
+            long length = f.length();
+        
+            vm.setPath (path);
+        
+            try {
+                List<VCS> vcsList = ModuleXmlReader.read (path, itemHandler);
+            
+                log.debug ("Located " + vcsList.size() + " VCS elements.");
             
-            log.debug ("Located " + vmList.size() + " child elements.");
+                vm.setVcsList (vcsList);
+            
+                ModuleCache.getInstance().put (f, lastModified, length, new VCSModule (vm));
 
-            // iterate over all the "VCS" elements
-            // 
-            int i = 0;
-            log.debug ("Iterating over child elements.");
-            for (Element vmChild : vmList) {
-                
-                log.debug ("Examining child #" + i++ + ": " + vmChild.getName() + "{" + vmChild.getNamespace().getURI() + "}");
-                
-                if (vmChild.getName().equals ("vcsConnections")) {
-                    for (Element vcNode : vmChild.getChildren()) {
-                        vcsList.add (new VCS (vcNode));
-                    }
-                }
-                
-                if (vmChild.getName().equals ("vcsResource"))
-                    vcsList.add (new VCS (vmChild));
+            } catch (IOException io) {
+                log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
             }
-            
-            vm.setVcsList (vcsList);
 
-        } catch (IOException io) {
-            log.error ("findByPath() unable to load " + path + ":" + io.getMessage());
-        } catch (JDOMException jdomex) {
-            log.error ("findByPath() unable to load " + path + ":" + jdomex.getMessage());
+            return vm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * <p>
+     * Searches a VCS module for a VCS by ID. If the module has been parsed recently the cached copy is
+     * used. Otherwise only the VCS's own element is read from the module file by way of the module's offset
+     * index (see {@link ModuleIndex}.) The entire module is parsed only when the index can't be used.
+     * </p>
+     * 
+     * @param  path  The path to the VCS module.
+     * @param  id    The ID of the VCS to look for.
+     * @return       The requested VCS or <code>null</code> if it does not exist.
+     */
+    public VCS findItemById (
+        String path,
+        String id
+    ) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
         }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
 
-        return vm;
+        lock.lock();
+        try {
+            VCSModule cachedVCSModule = ModuleCache.getInstance().get (new File (path), VCSModule.class);
+            if (cachedVCSModule != null) {
+                log.debug ("Using cached copy of " + path);
+                return cachedVCSModule.findById (id);
+            }
+        
+            VCS result = ModuleIndex.getInstance().findById (path, id, itemHandler);
+            if (result != null)
+                return result;
+        
+            VCSModule vm = findByPath (path);
+        
+            return (vm != null) ? vm.findById (id) : null;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /**
@@ -266,56 +375,108 @@ public class VCSModulesDAO {
      * @param  vm  The VCS module to write out.
      */
     public void serialize (VCSModule vm) throws Exception {
-        String indentStr = StringUtils.getIndent (1);
-        String indentStr2 = StringUtils.getIndent (2);
         if (vm.getPath() == null)
             throw new IllegalArgumentException ("VCS module's path may not be null.");
         
-        File f = new File (vm.getPath());
+        Lock lock = FileLocks.getInstance().writeLock (vm.getPath());
 
-        // if user preferences indicate to save backups of edited files, back up the original file.
-        //
-        if (PreferencesManager.getInstance().getBackupFiles().equals ("true")) {
-            FileUtils.copyFile (f, new File (vm.getPath() + ".bak"));
-        }
-        
-        Document vmDoc = new Document (new Element ("VCSModule", "ns1", DAOConstants.MODULES_NS));
-        vmDoc.getRootElement().addContent ("\n");
+        lock.lock();
+        try {
+            File f = new File (vm.getPath());
 
-        if (vm.getVcsList() != null) {
-            List<VCS> connections = new ArrayList<VCS>();
-            List<VCS> resources = new ArrayList<VCS>();
-            
-            for (VCS v : vm.getVcsList()) {
-                if (v.type == VCS.TYPE_CONNECTION)
-                    connections.add (v);
-                else
-                    resources.add (v);
-            }
-            
-            if (connections.size() > 0) {
-                Element vcNode = new Element ("vcsConnections");
-                
-                for (VCS vc : connections) {
-                    vcNode.addContent ("\n" + indentStr2);
-                    vcNode.addContent (vc.toElement ("vcsConnection", 3).addContent ("\n" + indentStr2));
-                }
+            // if user preferences indicate to save backups of edited files, back up the original file.
+            //
+            BackupStore.getInstance().backup (f);
+        
+            ModuleXmlWriter vmWriter = new ModuleXmlWriter (vm.getPath(), "VCSModule");
+        
+            try {
+                if (vm.getVcsList() != null) {
+                    List<VCS> connections = new ArrayList<VCS>();
+                    List<VCS> resources = new ArrayList<VCS>();
                 
-                vcNode.addContent ("\n" + indentStr);
+                    for (VCS v : vm.getVcsList()) {
+                        if (v.type == VCS.TYPE_CONNECTION)
+                            connections.add (v);
+                        else
+                            resources.add (v);
+                    }
                 
-                vmDoc.getRootElement().addContent (indentStr);
-                vmDoc.getRootElement().addContent (vcNode);
-                vmDoc.getRootElement().addContent ("\n");
+                    if (connections.size() > 0) {
+                        vmWriter.startContainer ("vcsConnections");
+                    
+                        for (VCS vc : connections) {
+                            vmWriter.writeItem (toItemElement (vc));
+                        }
+                    
+                        vmWriter.endContainer();
+                    }
+    
+                    for (VCS vr : resources) {
+                        vmWriter.writeItem (toItemElement (vr));
+                    }
+                }
+            
+                vmWriter.finish();
+            } finally {
+                vmWriter.close();
             }
 
-            for (VCS vr : resources) {
-                vmDoc.getRootElement().addContent (indentStr);
-                vmDoc.getRootElement().addContent (vr.toElement ("vcsResource", 2).addContent ("\n" + indentStr));
-                vmDoc.getRootElement().addContent ("\n");
-            }
+            // the cached copy no longer reflects the file.
+            //
+            ModuleCache.getInstance().invalidate (vm.getPath());
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * <p>
+     * Writes a single VCS change to a VCS module's XML file. When possible only the changed
+     * VCS is spliced into the existing file (see {@link ModuleXmlPatcher}), otherwise the entire module
+     * is serialized.
+     * When the module journal is enabled the change is journaled instead (see {@link ModuleJournal}.)
+     * </p>
+     * 
+     * @param  vm  The VCS module (already containing the change.)
+     * @param  id  The id of the VCS being replaced or deleted or <code>null</code> if the VCS was added.
+     * @param  v  The added or updated VCS or <code>null</code> if the VCS was deleted.
+     * @throws Exception  If the file cannot be written.
+     */
+    public void serialize (
+        VCSModule vm,
+        String id,
+        VCS v
+    ) throws Exception {
+        if (vm.getPath() == null)
+            throw new IllegalArgumentException ("VCS module's path may not be null.");
+        
+        Lock lock = FileLocks.getInstance().writeLock (vm.getPath());
 
-        xmlo.output (vmDoc, new FileOutputStream (vm.getPath()));
+        lock.lock();
+        try {
+            Element e = (v != null) ? toItemElement (v) : null;
+
+            // in journaled mode the change is only appended to the module's journal.
+            //
+            if (ModuleJournal.getInstance().append ("VCSModule", vm.getPath(), id, e, new VCSModule (vm)))
+                return;
+
+            if (! ModuleXmlPatcher.patch (vm.getPath(), itemHandler, id, e))
+                serialize (vm);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // builds the XML element for a VCS laid out as it is in the module file (the element name and
+    // indent level depend on the type.)
+    //
+    private Element toItemElement (VCS v) {
+        if (v.type == VCS.TYPE_CONNECTION)
+            return v.toElement ("vcsConnection", 3).addContent ("\n" + StringUtils.getIndent (2));
+        else
+            return v.toElement ("vcsResource", 2).addContent ("\n" + StringUtils.getIndent (1));
     }
     
     public ResultMessage generate (
@@ -399,7 +560,7 @@ public class VCSModulesDAO {
         // populate the generate module XML with the VCS connection entry specified by the user.
         // the connection entry will then be replaced with the generated VCS records.
         //
-        (new VCSDAO()).add (generatedXmlPath, vconn);
+        (new VCSDAO()).add (generatedXmlPath, vconn, null);
         
         // create a temporary generation deployment plan
         //
@@ -445,60 +606,106 @@ public class VCSModulesDAO {
         (new File (planPath)).delete();
         
         // make sure the vcs resource entries got created (the connection entry identified by vcsConnectionId
-        // should have been replaced.)
+        // should have been replaced.) the generated module is read before the module is locked so that only one
+        // file is locked at a time.
         //
-        if (findByPath (generatedXmlPath).findById (vcsConnectionId) != null) {
-            // delete the generated VCS module
-            //
-            log.debug ("deleting generated VCS file ...");
-            (new File (generatedXmlPath)).delete();
-    
+        VCSModule generatedVm = findByPath (generatedXmlPath);
+
+        // delete the generated VCS module
+        //
+        log.debug ("deleting generated VCS file ...");
+        (new File (generatedXmlPath)).delete();
+
+        if (generatedVm.findById (vcsConnectionId) != null) {
             return new ResultMessage ("error", "VCS entities did not get generated! Please see latest PDTool log for more information.", null);
-        } else {
-            // merge result module with input module
-            //
-            log.debug ("merging generated VCS records with original VCS module entries ...");
-            mergedVm = mergeVCSModules (path, generatedXmlPath);
-            
-            // delete the generated VCS module
-            //
-            log.debug ("deleting generated VCS file ...");
-            (new File (generatedXmlPath)).delete();
         }
 
-        // write out the merged VCS module
+        // the module is merged and written out under its write lock so that no change made to it while PDTool
+        // was running is lost.
         //
-        log.debug ("writing out merged VCS ...");
+        Lock lock = FileLocks.getInstance().writeLock (path);
+
+        lock.lock();
         try {
-            serialize (mergedVm);
-            result = new ResultMessage ("success", "VCS from server " + serverId + ", VCS Connection Id " + vcsConnectionId + ", Starting Path " + startPath + " successfully added.", null);
-        } catch (Exception e) {
-            result = new ResultMessage ("error", "Unable serialize merged original and generated VCS lists!", null);
+            // merge result module with input module
+            //
+            log.debug ("merging generated VCS records with original VCS module entries ...");
+            mergedVm = mergeVCSModules (path, generatedVm);
+
+            // write out the merged VCS module
+            //
+            log.debug ("writing out merged VCS ...");
+            try {
+                serialize (mergedVm);
+                result = new ResultMessage ("success", "VCS from server " + serverId + ", VCS Connection Id " + vcsConnectionId + ", Starting Path " + startPath + " successfully added.", null);
+            } catch (Exception e) {
+                result = new ResultMessage ("error", "Unable serialize merged original and generated VCS lists!", null);
+            }
+        } finally {
+            lock.unlock();
         }
         
         log.debug ("done.");
         return result;
     }
     
+    // builds the display list from the cached module if it's current, otherwise straight from the module file.
+    //
+    private List<ListResult.Row> getVCSList (String path) {
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+        
+        Lock lock = FileLocks.getInstance().readLock (path);
+
+        lock.lock();
+        try {
+            File f = new File (path);
+        
+            VCSModule vm = ModuleCache.getInstance().get (f, VCSModule.class);
+            if (vm != null) {
+                log.debug ("Using cached copy of " + path);
+                return getVCSList (vm);
+            }
+        
+            if (! f.exists() || ! f.canRead()) {
+                log.error ("Error retrieving file \"" + path + "\": file does not exist or is not readable.");
+                return null;
+            }
+        
+            try {
+                return new RowStore.Builder (4).addAll (ModuleXmlReader.project (path, itemHandler, listProjection)).build();
+            } catch (IOException io) {
+                log.error ("getVCSList() unable to load " + path + ":" + io.getMessage());
+            } catch (JDOMException jdomex) {
+                log.error ("getVCSList() unable to load " + path + ":" + jdomex.getMessage());
+            }
+        
+            return new ArrayList<ListResult.Row>();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     // assembles the list result row list
     //
     private List<ListResult.Row> getVCSList (VCSModule vm) {
-        List<ListResult.Row> vl = new ArrayList<ListResult.Row>();
+        RowStore.Builder vl = new RowStore.Builder (4);
         
         if (vm.getVcsList() != null && vm.getVcsList().size() > 0) {
             for (VCS v : vm.getVcsList()) {
-                List<String> cell = new ArrayList<String>();
-                
-                cell.add (v.getId());
-                cell.add ((v.getType() == VCS.TYPE_CONNECTION) ? "Connection" : "Resource");
-                cell.add ((v.getType() == VCS.TYPE_CONNECTION) ? VCS.VCS_TYPE_LABELS[v.getVcsType()] : v.getResourceType());
-                cell.add ((v.getType() == VCS.TYPE_CONNECTION) ? v.getVcsRepositoryUrl() : v.getResourcePath());
-                
-                vl.add (new ListResult.Row (v.getId(), cell));
+                vl.add (
+                    v.getId(),
+                    v.getId(),
+                    (v.getType() == VCS.TYPE_CONNECTION) ? "Connection" : "Resource",
+                    (v.getType() == VCS.TYPE_CONNECTION) ? VCS.VCS_TYPE_LABELS[v.getVcsType()] : v.getResourceType(),
+                    (v.getType() == VCS.TYPE_CONNECTION) ? v.getVcsRepositoryUrl() : v.getResourcePath()
+                );
             }
         }
         
-        return vl;
+        return vl.build();
     }
     
     // writes out a temporary group generation plan
@@ -516,10 +723,9 @@ public class VCSModulesDAO {
     
     private VCSModule mergeVCSModules (
         String origPath,
-        String toMergePath
+        VCSModule toMergeVm
     ) {
         VCSModule origVm = findByPath (origPath);
-        VCSModule toMergeVm = findByPath (toMergePath);
         int i;
         
         for (VCS v : toMergeVm.getVcsList()) {
@@ -0,0 +1,519 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesManager;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
+
+import com.yammer.dropwizard.lifecycle.Managed;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.FileUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Store of backups of the configuration, plan and module files the GUI edits. Replaces the single
+ * <code>&lt;file&gt;.bak</code> copy written before each edit with a history of versions per file.
+ * </p>
+ * <p>
+ * Before a file is overwritten its contents are read and handed to a background writer thread, so the edit doesn't
+ * wait for the backup to be written. The writer stores the contents gzip compressed under the SHA-1 hash of the
+ * contents (<code>&lt;PDTool home&gt;/gui/backups/objects/ab/abcdef...gz</code>), so a version that is already
+ * stored (e.g. a module that was edited back and forth, or many plans with the same contents) isn't written again,
+ * and appends the version to the file's history (<code>&lt;PDTool home&gt;/gui/backups/history/&lt;hash of
+ * path&gt;.log</code>.) Only the {@link #setRetention last versions} of each file are kept. Stored contents no
+ * longer in any history are removed when the server starts and after every {@link #COLLECT_AFTER} pruned versions.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link BackupStore#getInstance} static method to access the instance.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class BackupStore implements Managed {
+    private static final Logger log = LoggerFactory.getLogger (BackupStore.class);
+    private static BackupStore bs = null;
+
+    /**
+     * Default number of versions kept per file.
+     */
+    public static final int DEFAULT_RETENTION = 10;
+
+    /**
+     * Number of pruned versions after which stored contents no longer in any history are removed.
+     */
+    public static final int COLLECT_AFTER = 100;
+
+    // maximum number of backups waiting for the writer. when the queue is full, the backup is written by the thread
+    // making it.
+    //
+    private static final int QUEUE_SIZE = 256;
+
+    private static final Backup STOP = new Backup (null, null, 0);
+
+    private int retention = DEFAULT_RETENTION;
+    private final BlockingQueue<Backup> queue = new LinkedBlockingQueue<Backup> (QUEUE_SIZE);
+    private volatile Thread writer = null;
+    private int pruned = 0; // guarded by "this".
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private BackupStore() {}
+
+    /**
+     * <p>
+     * Returns the instance of the store.
+     * </p>
+     *
+     * @return  The instance.
+     */
+    public static synchronized BackupStore getInstance() {
+        if (bs == null) {
+            log.debug ("Instanciating new object.");
+            bs = new BackupStore();
+        }
+
+        return bs;
+    }
+
+    /**
+     * <p>
+     * Sets the number of versions kept per file.
+     * </p>
+     *
+     * @param  retention  The number of versions. Values less than 1 mean 1.
+     */
+    public void setRetention (int retention) {
+        this.retention = Math.max (1, retention);
+    }
+
+    /**
+     * <p>
+     * Starts the background writer and removes stored contents no longer in any history.
+     * </p>
+     */
+    public synchronized void start() {
+        if (writer != null)
+            return;
+
+        writer = new Thread ("backup-writer") {
+            public void run() {
+                collect();
+
+                try {
+                    Backup b;
+
+                    while ((b = queue.take()) != STOP)
+                        write (b);
+                } catch (InterruptedException e) {
+                    log.warn ("Backup writer interrupted with " + queue.size() + " backups unwritten.");
+                }
+            }
+        };
+
+        writer.setDaemon (true);
+        writer.start();
+    }
+
+    /**
+     * <p>
+     * Writes the backups still waiting and stops the background writer.
+     * </p>
+     *
+     * @throws InterruptedException  If interrupted while waiting for the writer to finish.
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+
+        synchronized (this) {
+            t = writer;
+            writer = null;
+        }
+
+        if (t != null) {
+            queue.put (STOP);
+            t.join();
+        }
+    }
+
+    /**
+     * <p>
+     * Backs up a file that is about to be overwritten, if the user preferences say to back up edited files. The
+     * file's contents are read right away and written to the store in the background.
+     * </p>
+     *
+     * @param  f  The file.
+     * @throws IOException  If the file can't be read.
+     */
+    public void backup (File f) throws IOException {
+        if (PreferencesManager.getInstance() == null || ! "true".equals (PreferencesManager.getInstance().getBackupFiles()))
+            return;
+
+        if (! f.isFile())
+            return;
+
+        Backup b = new Backup (getPath (f), FileUtils.readFileToByteArray (f), f.lastModified());
+
+        // without the writer (e.g. before the server has started) or when it falls behind, the backup is written
+        // here.
+        //
+        if (writer == null || ! queue.offer (b))
+            write (b);
+    }
+
+    /**
+     * <p>
+     * Returns the stored versions of a file.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The versions, newest first. Empty if there are none.
+     */
+    public List<Version> getVersions (String path) {
+        List<Version> result = new ArrayList<Version>();
+
+        synchronized (this) {
+            for (Version v : readHistory (getHistoryFile (getPath (new File (path))))) {
+                if (getObjectFile (v.hash).exists())
+                    result.add (0, v);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Returns the contents of a stored version of a file.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @param  hash  The hash of the version.
+     * @return       The contents or <code>null</code> if the file has no such version.
+     * @throws IOException  If the stored contents can't be read.
+     */
+    public byte[] getContents (
+        String path,
+        String hash
+    ) throws IOException {
+        boolean found = false;
+
+        for (Version v : getVersions (path)) {
+            if (v.hash.equals (hash))
+                found = true;
+        }
+
+        if (! found)
+            return null;
+
+        InputStream in = new GZIPInputStream (new FileInputStream (getObjectFile (hash)));
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+
+            while ((n = in.read (buffer)) > 0)
+                out.write (buffer, 0, n);
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    // stores a backup's contents unless they're stored already and adds the version to the file's history. holds
+    // the lock throughout so that the contents can't be collected before the history refers to them.
+    //
+    private synchronized void write (Backup b) {
+        try {
+            String hash = hash (b.contents);
+            File object = getObjectFile (hash);
+
+            if (! object.exists()) {
+                File tmp = new File (object.getPath() + ".tmp");
+                GZIPOutputStream out;
+
+                object.getParentFile().mkdirs();
+                out = new GZIPOutputStream (new FileOutputStream (tmp));
+
+                try {
+                    out.write (b.contents);
+                } finally {
+                    out.close();
+                }
+
+                if (! tmp.renameTo (object) && ! object.exists())
+                    throw new IOException ("Unable to rename " + tmp.getPath());
+            }
+
+            addVersion (b.path, new Version (b.lastModified, System.currentTimeMillis(), hash, b.contents.length));
+
+            log.debug ("Backed up " + b.path + " as " + hash + ".");
+        } catch (Exception e) {
+            log.error ("Unable to back up " + b.path + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void addVersion (
+        String path,
+        Version version
+    ) throws IOException {
+        File history = getHistoryFile (path);
+        List<Version> versions = readHistory (history);
+
+        // backing up the same contents twice in a row adds nothing to the history.
+        //
+        if (versions.size() > 0 && versions.get (versions.size() - 1).hash.equals (version.hash))
+            return;
+
+        versions.add (version);
+
+        while (versions.size() > retention) {
+            versions.remove (0);
+            pruned++;
+        }
+
+        writeHistory (history, path, versions);
+
+        if (pruned >= COLLECT_AFTER)
+            collect();
+    }
+
+    // removes the stored contents that are no longer in any file's history.
+    //
+    private synchronized void collect() {
+        File[] histories = new File (getStoreDir(), "history").listFiles();
+        File[] buckets = new File (getStoreDir(), "objects").listFiles();
+        Set<String> referenced = new HashSet<String>();
+        int removed = 0;
+
+        pruned = 0;
+
+        if (histories == null || buckets == null)
+            return;
+
+        for (File history : histories) {
+            for (Version v : readHistory (history))
+                referenced.add (v.hash);
+        }
+
+        for (File bucket : buckets) {
+            File[] objects = bucket.listFiles();
+
+            if (objects == null)
+                continue;
+
+            for (File object : objects) {
+                String name = object.getName();
+
+                if (name.endsWith (".gz") && ! referenced.contains (name.substring (0, name.length() - 3)) && object.delete())
+                    removed++;
+            }
+        }
+
+        log.debug ("Removed " + removed + " unreferenced backups.");
+    }
+
+    // reads a history file. the first line is the path of the file the history is of, then one line per version,
+    // oldest first.
+    //
+    private List<Version> readHistory (File history) {
+        List<Version> result = new ArrayList<Version>();
+
+        if (! history.exists())
+            return result;
+
+        BufferedReader br = null;
+
+        try {
+            String line;
+
+            br = new BufferedReader (new InputStreamReader (new FileInputStream (history), "UTF-8"));
+            br.readLine();
+
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split ("\t");
+
+                if (fields.length == 4)
+                    result.add (new Version (Long.parseLong (fields[0]), Long.parseLong (fields[1]), fields[2], Long.parseLong (fields[3])));
+            }
+        } catch (Exception e) {
+            log.error ("Unable to read backup history " + history.getPath() + ": " + e.getMessage());
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void writeHistory (
+        File history,
+        String path,
+        List<Version> versions
+    ) throws IOException {
+        File tmp = new File (history.getPath() + ".tmp");
+        BufferedWriter bw;
+
+        history.getParentFile().mkdirs();
+        bw = new BufferedWriter (new OutputStreamWriter (new FileOutputStream (tmp), "UTF-8"));
+
+        try {
+            bw.write (path);
+            bw.newLine();
+
+            for (Version v : versions) {
+                bw.write (v.lastModified + "\t" + v.backedUp + "\t" + v.hash + "\t" + v.length);
+                bw.newLine();
+            }
+        } finally {
+            bw.close();
+        }
+
+        // windows won't rename over an existing file.
+        //
+        if (! tmp.renameTo (history)) {
+            history.delete();
+
+            if (! tmp.renameTo (history))
+                throw new IOException ("Unable to rename " + tmp.getPath());
+        }
+    }
+
+    private static String getPath (File f) {
+        return f.getAbsolutePath().replace ('\\', '/');
+    }
+
+    private static File getStoreDir() {
+        return new File (FilesDAO.getPdtHome() + "/gui/backups");
+    }
+
+    private static File getHistoryFile (String path) {
+        try {
+            return new File (getStoreDir(), "history/" + hash (path.getBytes ("UTF-8")) + ".log");
+        } catch (IOException e) { // UTF-8 is always supported.
+            throw new IllegalStateException (e);
+        }
+    }
+
+    private static File getObjectFile (String hash) {
+        return new File (getStoreDir(), "objects/" + hash.substring (0, 2) + "/" + hash + ".gz");
+    }
+
+    private static String hash (byte[] data) {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance ("SHA-1");
+        } catch (Exception e) { // SHA-1 is always supported.
+            throw new IllegalStateException (e);
+        }
+
+        return DatatypeConverter.printHexBinary (md.digest (data)).toLowerCase();
+    }
+
+    /**
+     * <p>
+     * A stored version of a file.
+     * </p>
+     */
+    public static class Version {
+        private long lastModified;
+        private long backedUp;
+        private String hash;
+        private long length;
+
+        Version (
+            long lastModified,
+            long backedUp,
+            String hash,
+            long length
+        ) {
+            this.lastModified = lastModified;
+            this.backedUp = backedUp;
+            this.hash = hash;
+            this.length = length;
+        }
+
+        /**
+         * @return  The last modified time of the file when it had this version.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return  The time the file was backed up (just before it was overwritten.)
+         */
+        public long getBackedUp() {
+            return backedUp;
+        }
+
+        /**
+         * @return  The hash of the version's contents. Identifies the version.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return  The size of the version's contents.
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    // contents of a file read before it is overwritten.
+    //
+    private static class Backup {
+        String path;
+        byte[] contents;
+        long lastModified;
+
+        Backup (
+            String path,
+            byte[] contents,
+            long lastModified
+        ) {
+            this.path = path;
+            this.contents = contents;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.ModuleReferenceIndex;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
+import com.cisco.dvbu.ps.deploytool.gui.resources.BackupResource;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
+import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+
+import java.io.File;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.FileUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Data access object for the backups of edited files kept by the {@link BackupStore}. Used by
+ * {@link BackupResource} servlet.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class BackupsDAO {
+
+    private static final Logger log = LoggerFactory.getLogger (BackupsDAO.class);
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     */
+    public BackupsDAO () {}
+
+    /**
+     * <p>
+     * Returns the stored versions of a file, newest first. Each row holds the version's hash, the time it was
+     * backed up, the file's last modified time when it had the version and the version's size.
+     * </p>
+     *
+     * @param  path   The path to the file.
+     * @param  param  Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @return        The list of versions.
+     * @see           BackupResource
+     */
+    public ListResult list (
+        String path,
+        String param
+    ) {
+        List<ListResult.Row> resultList = new ArrayList<ListResult.Row>();
+        SimpleDateFormat sdf = new SimpleDateFormat (ListSorter.DATE_FORMAT);
+
+        if (path == null) {
+            log.error ("Error: \"path\" input may not be NULL.");
+            return null;
+        }
+
+        for (BackupStore.Version v : BackupStore.getInstance().getVersions (path)) {
+            List<String> tmpCell = new ArrayList<String>();
+
+            tmpCell.add (v.getHash());
+            tmpCell.add (sdf.format (new Date (v.getBackedUp())));
+            tmpCell.add (sdf.format (new Date (v.getLastModified())));
+            tmpCell.add (v.getLength() + "");
+
+            resultList.add (new ListResult.Row (v.getHash(), tmpCell));
+        }
+
+        return new ListResult (
+                       1,
+                       1,
+                       resultList.size(),
+                       resultList,
+                       param
+                   );
+    }
+
+    /**
+     * <p>
+     * Puts a stored version of a file back. The file's current contents are backed up first, so a restore can be
+     * undone by restoring the version it replaced.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @param  hash  The hash of the version to restore.
+     * @return       A {@link ResultMessage} object containing the results of the restore request.
+     * @see          BackupResource
+     */
+    public ResultMessage restore (
+        String path,
+        String hash
+    ) {
+        if (path == null || path.length() == 0) {
+            return new ResultMessage ("error", "Error: \"path\" attribute may not be NULL.", null);
+        }
+
+        if (hash == null || hash.length() == 0) {
+            return new ResultMessage ("error", "Error: \"version\" attribute may not be NULL.", null);
+        }
+
+        File f = new File (path);
+
+        try {
+
+            // only files under the PDTool home folder are restored.
+            //
+            if (! f.getCanonicalPath().startsWith (new File (FilesDAO.getPdtHome()).getCanonicalPath() + File.separator)) {
+                return new ResultMessage ("error", "Error restoring file \"" + path + "\": file is not in the PDTool home folder.", null);
+            }
+
+            byte[] contents = BackupStore.getInstance().getContents (path, hash);
+
+            if (contents == null) {
+                return new ResultMessage ("error", "Error restoring file \"" + path + "\": there is no backup " + hash + " of the file.", null);
+            }
+
+            if (f.exists() && ! f.canWrite()) {
+                return new ResultMessage ("error", "Error restoring file \"" + path + "\": file is not writeable.", null);
+            }
+
+            Lock lock = FileLocks.getInstance().writeLock (path);
+
+            lock.lock();
+            try {
+                // the backed up contents should include any journaled module changes.
+                //
+                ModuleJournal.getInstance().compact (path);
+                BackupStore.getInstance().backup (f);
+                FileUtils.writeByteArrayToFile (f, contents);
+                FileLocks.getInstance().changed (path);
+
+                // the cached copies of the old contents no longer reflect the file.
+                //
+                ModuleCache.getInstance().invalidate (path);
+            } finally {
+                lock.unlock();
+            }
+
+            // neither do the module references. the file is re-indexed once its lock is released since the index
+            // reads plans while holding its own lock.
+            //
+            ModuleReferenceIndex.getInstance().reindex (path);
+
+            log.debug ("Restored " + path + " from backup " + hash + ".");
+        } catch (Exception e) {
+            return new ResultMessage ("error", "Error restoring file \"" + path + "\": " + e.getMessage(), null);
+        }
+
+        return new ResultMessage ("success", "Restored file \"" + path + "\" from backup " + hash + ".", null);
+    }
+}
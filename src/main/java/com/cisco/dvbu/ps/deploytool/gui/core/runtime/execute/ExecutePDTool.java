@@ -4,6 +4,7 @@ package com.cisco.dvbu.ps.deploytool.gui.core.runtime.execute;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.log.LogMessageBuffer;
 import com.cisco.dvbu.ps.deploytool.gui.util.OSValidator;
@@ -116,6 +117,14 @@ public class ExecutePDTool {
             return;
         }
         
+        // PDTool reads the module files, so any journaled changes have to be in them.
+        //
+        if (ModuleJournal.getInstance().compactAll() > 0) {
+            log.error ("Errors encountered while writing journaled module changes. Exiting.");
+            launchResult = FAILURE;
+            return;
+        }
+
         // look for module XML files that are using the old XML namespace and update them.
         //
         int errorCount = FilesDAO.updateModuleXmlFiles();
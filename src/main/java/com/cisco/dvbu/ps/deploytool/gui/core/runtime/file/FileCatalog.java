@@ -0,0 +1,709 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.runtime.file;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
+import com.cisco.dvbu.ps.deploytool.gui.util.RowStore;
+import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
+
+import com.yammer.dropwizard.lifecycle.Managed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOCase;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
+import org.apache.commons.io.monitor.FileAlterationMonitor;
+import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.apache.commons.io.monitor.FileEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Live catalog of the files listed by {@link FilesDAO}. Each default file location of the file types
+ * (<code>resources/config</code>, <code>resources/plans</code>, <code>resources/modules</code> and
+ * <code>logs</code>) is watched for files being added, changed and removed, and only those files are opened to read
+ * the lines their file type is recognized by. Lists are served from immutable per file type {@link Snapshot}s that
+ * are only rebuilt after their location has changed.
+ * </p>
+ * <p>
+ * The path, size, last modified time and file types of each file are also saved in a cache file per location
+ * under the GUI's cache directory (<code>&lt;PDTool home&gt;/gui/cache/catalog</code>.) After a restart the first
+ * poll of a location reuses the file types of the files whose size and last modified time still match the cache, so
+ * only files changed while the server was down are opened again. The first poll walks the location with a
+ * {@link FileWalker}, which lists directories and reads files on a pool of {@link #setThreads threads}.
+ * </p>
+ * <p>
+ * The locations are polled by a background thread every {@link #setInterval interval} milliseconds. Polling only
+ * looks at the files' last modified times and sizes. {@link FilesDAO} calls {@link #refresh} after it changes a
+ * file so that its own changes show up right away. With an interval of 0 there is no background thread and a
+ * location is polled each time a snapshot of it is requested.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link FileCatalog#getInstance} static method to access the instance.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class FileCatalog implements Managed {
+    private static final Logger log = LoggerFactory.getLogger (FileCatalog.class);
+    private static FileCatalog fc = null;
+
+    /**
+     * Default number of milliseconds between polls of the file locations.
+     */
+    public static final long DEFAULT_INTERVAL = 2000;
+
+    private static final int CACHE_VERSION = 1;
+
+    private long interval = DEFAULT_INTERVAL;
+    private int threads = FileWalker.DEFAULT_THREADS;
+    private FileAlterationMonitor monitor = null;
+
+    // sets the snapshots of one run of the server apart from those of another so that the version tags of a
+    // previous run don't match.
+    //
+    private final String runId = Long.toString (System.currentTimeMillis(), 36);
+
+    // watched locations keyed by location relative to the PDTool home folder.
+    //
+    private final Map<String, Location> locations = new LinkedHashMap<String, Location>();
+
+    // compiled file type match expressions and the last snapshot of each file type. guarded by "this".
+    //
+    private final Pattern[] matchPatterns;
+    private final Snapshot[] snapshots;
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private FileCatalog() {
+        List<FilesDAO.FileTypeProperty> props = FilesDAO.fileTypeProperties;
+        Map<String, List<Integer>> fileTypes = new LinkedHashMap<String, List<Integer>>();
+
+        matchPatterns = new Pattern[props.size()];
+        snapshots = new Snapshot[props.size()];
+
+        for (int i = 0; i < props.size(); i++) {
+            FilesDAO.FileTypeProperty ftp = props.get (i);
+
+            // the folder type has no location.
+            //
+            if (ftp.defaultFilesLocation.length() == 0)
+                continue;
+
+            matchPatterns[i] = Pattern.compile (ftp.matchRE);
+
+            if (! fileTypes.containsKey (ftp.defaultFilesLocation))
+                fileTypes.put (ftp.defaultFilesLocation, new ArrayList<Integer>());
+
+            fileTypes.get (ftp.defaultFilesLocation).add (i);
+        }
+
+        for (Map.Entry<String, List<Integer>> e : fileTypes.entrySet())
+            locations.put (e.getKey(), new Location (e.getKey(), e.getValue()));
+    }
+
+    /**
+     * <p>
+     * Returns the singleton FileCatalog instance. If it doesn't yet exist, it is created before being returned.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public static synchronized FileCatalog getInstance() {
+        if (fc == null) {
+            log.debug ("Instanciating new object.");
+            fc = new FileCatalog();
+        }
+
+        return fc;
+    }
+
+    /**
+     * <p>
+     * Sets the number of milliseconds between polls of the file locations. Takes effect the next time the
+     * catalog is started.
+     * </p>
+     *
+     * @param  interval  The interval. 0 disables the background thread.
+     */
+    public synchronized void setInterval (long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * <p>
+     * Sets the number of threads that walk a location the first time it is polled.
+     * </p>
+     *
+     * @param  threads  The number of threads.
+     */
+    public synchronized void setThreads (int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * <p>
+     * Returns the number of threads that walk a location the first time it is polled.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public synchronized int getThreads() {
+        return threads;
+    }
+
+    /**
+     * <p>
+     * Starts polling the file locations in the background. The first poll reads the whole catalog.
+     * </p>
+     *
+     * @throws Exception  If the background thread can't be started.
+     */
+    public synchronized void start() throws Exception {
+        if (monitor != null || interval <= 0)
+            return;
+
+        monitor = new FileAlterationMonitor (interval);
+
+        for (Location loc : locations.values())
+            monitor.addObserver (loc.observer);
+
+        monitor.setThreadFactory (new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+                Thread t = new Thread (r, "file-catalog");
+                t.setDaemon (true);
+                return t;
+            }
+        });
+
+        log.debug ("Polling file locations every " + interval + " ms.");
+        monitor.start();
+    }
+
+    /**
+     * <p>
+     * Stops polling the file locations in the background.
+     * </p>
+     *
+     * @throws Exception  If the background thread can't be stopped.
+     */
+    public void stop() throws Exception {
+        FileAlterationMonitor m;
+
+        synchronized (this) {
+            m = monitor;
+            monitor = null;
+        }
+
+        // not holding the lock while waiting for the thread since it takes the lock to poll.
+        //
+        if (m != null)
+            m.stop();
+    }
+
+    /**
+     * <p>
+     * Returns the current snapshot of the files of a file type.
+     * </p>
+     *
+     * @param  fileType  Indicates the file type.
+     * @return           The snapshot or <code>null</code> if the file type doesn't exist or has no location.
+     */
+    public synchronized Snapshot getSnapshot (int fileType) {
+        Location loc = getLocation (fileType);
+
+        if (loc == null)
+            return null;
+
+        // without the background thread (or before its first poll) the location is polled now.
+        //
+        if (monitor == null || ! loc.polled)
+            loc.observer.checkAndNotify();
+
+        Snapshot s = snapshots[fileType];
+
+        if (s == null || s.version != loc.version) {
+            s = buildSnapshot (fileType, loc);
+            snapshots[fileType] = s;
+        }
+
+        return s;
+    }
+
+    /**
+     * <p>
+     * Polls the location of a file type right away. Called after files of the type have been added, changed or
+     * removed so that the next snapshot has the changes without waiting for the background thread.
+     * </p>
+     *
+     * @param  fileType  Indicates the file type.
+     */
+    public synchronized void refresh (int fileType) {
+        Location loc = getLocation (fileType);
+
+        if (loc != null)
+            loc.observer.checkAndNotify();
+    }
+
+    private Location getLocation (int fileType) {
+        if (fileType < 0 || fileType >= FilesDAO.fileTypeProperties.size() || matchPatterns[fileType] == null) {
+            log.warn ("Attempted to retrieve files for non-existent file type: " + fileType);
+            return null;
+        }
+
+        return locations.get (FilesDAO.fileTypeProperties.get (fileType).defaultFilesLocation);
+    }
+
+    private Snapshot buildSnapshot (
+        int fileType,
+        Location loc
+    ) {
+        long typeBit = 1L << fileType;
+        RowStore.Builder rows = new RowStore.Builder (3);
+        Map<String, FileRecord> records = new HashMap<String, FileRecord>();
+        SimpleDateFormat sdf = new SimpleDateFormat (ListSorter.DATE_FORMAT);
+
+        log.debug ("building snapshot of file type " + fileType + " at version " + loc.version);
+
+        for (Entry e : loc.entries.values()) {
+            if ((e.types & typeBit) == 0)
+                continue;
+
+            FileRecord fileRecord = new FileRecord();
+            String name = StringUtils.removeFileSuffix (new File (e.path).getName());
+            String formattedDate = sdf.format (new Date (e.lastModified));
+
+            fileRecord.setName (name);
+            fileRecord.setPath (e.path);
+            fileRecord.setDateModified (formattedDate);
+
+            rows.add (e.path, name, e.path, formattedDate);
+            records.put (e.path, fileRecord);
+        }
+
+        return new Snapshot (loc.version, runId + "-" + fileType + "-" + loc.version, rows.build(), records);
+    }
+
+    /**
+     * <p>
+     * Immutable list of the files of one file type as of a version of their location.
+     * </p>
+     */
+    public static class Snapshot {
+        private long version;
+        private String tag;
+        private List<ListResult.Row> rows;
+        private Map<String, FileRecord> records;
+
+        Snapshot (
+            long version,
+            String tag,
+            List<ListResult.Row> rows,
+            Map<String, FileRecord> records
+        ) {
+            this.version = version;
+            this.tag = tag;
+            this.rows = rows;
+            this.records = records;
+        }
+
+        /**
+         * <p>
+         * Returns a string that identifies the snapshot, for use in entity tags. A changed location gets a new tag
+         * and so does a restarted server.
+         * </p>
+         *
+         * @return     The value.
+         */
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * <p>
+         * Returns the list rows of the files (name, path and date modified), ordered by path.
+         * </p>
+         *
+         * @return     The value. The list is read only.
+         */
+        public List<ListResult.Row> getRows() {
+            return rows;
+        }
+
+        /**
+         * <p>
+         * Returns the paths of the files.
+         * </p>
+         *
+         * @return     The value. The set is read only.
+         */
+        public Set<String> getPaths() {
+            return Collections.unmodifiableSet (records.keySet());
+        }
+
+        /**
+         * <p>
+         * Returns a copy of the record of a file.
+         * </p>
+         *
+         * @param  path  The file path to look for.
+         * @return       The record or <code>null</code> if the file isn't in the snapshot.
+         */
+        public FileRecord getRecord (String path) {
+            FileRecord r = records.get (path);
+
+            if (r == null)
+                return null;
+
+            // callers are free to change the record they get.
+            //
+            FileRecord copy = new FileRecord();
+
+            copy.setName (r.getName());
+            copy.setPath (r.getPath());
+            copy.setDateModified (r.getDateModified());
+
+            return copy;
+        }
+
+        /**
+         * <p>
+         * Returns whether a file is in the snapshot.
+         * </p>
+         *
+         * @param  path  The file path to look for.
+         * @return       The value.
+         */
+        public boolean contains (String path) {
+            return records.containsKey (path);
+        }
+    }
+
+    // a file as of the last poll of its location. types has a bit set for each file type the file is of.
+    //
+    private static class Entry {
+        String path;
+        long lastModified;
+        long length;
+        long types;
+
+        Entry (
+            String path,
+            long lastModified,
+            long length,
+            long types
+        ) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.types = types;
+        }
+    }
+
+    // a watched location. entries is keyed by path and guarded by the catalog's lock, which is held for every poll.
+    //
+    private class Location extends FileAlterationListenerAdaptor {
+        final TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+        final FileAlterationObserver observer;
+        final String relPath;
+        final List<Integer> fileTypes;
+        final int sniffLines;
+        long version = 0;
+        long savedVersion = 0;
+        boolean polled = false;
+
+        // the observer's view of the location, filled in by the first poll's walk.
+        //
+        final FileEntry rootEntry;
+        final FileFilter filter;
+
+        Location (
+            String relPath,
+            List<Integer> fileTypes
+        ) {
+            List<String> suffixes = new ArrayList<String>();
+            int lines = 0;
+
+            this.relPath = relPath;
+            this.fileTypes = fileTypes;
+
+            for (int i : fileTypes) {
+                FilesDAO.FileTypeProperty ftp = FilesDAO.fileTypeProperties.get (i);
+
+                if (! suffixes.contains ("." + ftp.suffix))
+                    suffixes.add ("." + ftp.suffix);
+
+                lines = Math.max (lines, ftp.matchLineNumber);
+            }
+
+            this.sniffLines = lines;
+            this.rootEntry = new FileEntry (new File (FilesDAO.getPdtHome() + "/" + relPath));
+            this.filter = FileFilterUtils.or (DirectoryFileFilter.DIRECTORY, new SuffixFileFilter (suffixes));
+
+            // the observer shares its root entry with the location so that the first poll can fill the tree in
+            // with a parallel walk. after that the observer only reports what changes.
+            //
+            observer = new FileAlterationObserver (rootEntry, filter, IOCase.SYSTEM) {
+
+                           // the monitor calls this when it starts. the tree is left to the first poll.
+                           //
+                           @Override
+                           public void initialize() {}
+
+                           @Override
+                           public void checkAndNotify() {
+                               synchronized (FileCatalog.this) {
+                                   poll();
+                               }
+                           }
+
+                           private void poll() {
+                               if (polled)
+                                   super.checkAndNotify();
+                               else
+                                   load();
+
+                               polled = true;
+
+                               if (savedVersion != version) {
+                                   writeCache();
+                                   savedVersion = version;
+                               }
+                           }
+                       };
+
+            observer.addListener (this);
+        }
+
+        // walks the location with a pool of threads, building the observer's tree and classifying the files. a
+        // file the cache file knows about is only opened again if it has changed since.
+        //
+        private void load() {
+            final Map<String, Entry> cached = readCache();
+            final Map<String, Entry> loaded = new ConcurrentHashMap<String, Entry>();
+
+            new FileWalker (threads, filter).walk (rootEntry, new FileWalker.Visitor() {
+                public void visitFile (File f, FileEntry fe) {
+                    Entry e = (cached != null) ? cached.get (f.getPath()) : null;
+
+                    if (e == null || e.lastModified != fe.getLastModified() || e.length != fe.getLength())
+                        e = classify (f, fe.getLastModified(), fe.getLength());
+
+                    loaded.put (e.path, e);
+                }
+            });
+
+            entries.clear();
+            entries.putAll (loaded);
+            version++;
+        }
+
+        @Override
+        public void onFileCreate (File f) {
+            entries.put (f.getPath(), classify (f, f.lastModified(), f.length()));
+            version++;
+        }
+
+        @Override
+        public void onFileChange (File f) {
+            entries.put (f.getPath(), classify (f, f.lastModified(), f.length()));
+            version++;
+        }
+
+        @Override
+        public void onFileDelete (File f) {
+            entries.remove (f.getPath());
+            version++;
+        }
+
+        // the observer only reports the directory, not the files that were in it.
+        //
+        @Override
+        public void onDirectoryDelete (File d) {
+            String prefix = d.getPath() + File.separator;
+
+            for (Iterator<String> itr = entries.tailMap (prefix).keySet().iterator(); itr.hasNext(); ) {
+                if (! itr.next().startsWith (prefix))
+                    break;
+
+                itr.remove();
+            }
+
+            version++;
+        }
+
+        // reads the lines the location's file types are recognized by and works out which of the file types the
+        // file is of. called on the walk's threads by the first poll.
+        //
+        private Entry classify (
+            File f,
+            long lastModified,
+            long length
+        ) {
+            long types = 0;
+            List<String> lines = new ArrayList<String>();
+
+            try {
+                BufferedReader br = new BufferedReader (new FileReader (f));
+                String line;
+
+                try {
+                    while (lines.size() < sniffLines && (line = br.readLine()) != null)
+                        lines.add (line);
+                } finally {
+                    br.close();
+                }
+            } catch (Exception e) {
+                log.error ("Error reading file \"" + f.getPath() + "\": " + e.getMessage());
+            }
+
+            for (int i : fileTypes) {
+                FilesDAO.FileTypeProperty ftp = FilesDAO.fileTypeProperties.get (i);
+
+                // make sure the line is not null and matches the pattern for the file type.
+                //
+                String line = (ftp.matchLineNumber > 0 && ftp.matchLineNumber <= lines.size()) ? lines.get (ftp.matchLineNumber - 1) : null;
+
+                if (f.getName().endsWith ("." + ftp.suffix) && line != null && matchPatterns[i].matcher (line).matches())
+                    types |= 1L << i;
+            }
+
+            return new Entry (f.getPath(), lastModified, length, types);
+        }
+
+        // the cache file records the location and the file type definitions it was written with so that it isn't
+        // used after either changes.
+        //
+        private String getSignature() {
+            StringBuilder sb = new StringBuilder (observer.getDirectory().getPath());
+
+            for (int i : fileTypes) {
+                FilesDAO.FileTypeProperty ftp = FilesDAO.fileTypeProperties.get (i);
+
+                sb.append ('\u001e').append (i)
+                  .append ('\u001f').append (ftp.suffix)
+                  .append ('\u001f').append (ftp.matchLineNumber)
+                  .append ('\u001f').append (ftp.matchRE);
+            }
+
+            return sb.toString();
+        }
+
+        private File getCacheFile() {
+            if (System.getProperty ("apps.install.dir") == null)
+                return null;
+
+            return new File (FilesDAO.getPdtHome() + "/gui/cache/catalog", relPath.replaceAll ("[^\\w.-]", "_") + ".cat");
+        }
+
+        private Map<String, Entry> readCache() {
+            File cache = getCacheFile();
+
+            if (cache == null || ! cache.exists())
+                return null;
+
+            DataInputStream in = null;
+
+            try {
+                in = new DataInputStream (new BufferedInputStream (new FileInputStream (cache)));
+
+                if (in.readInt() != CACHE_VERSION || ! in.readUTF().equals (getSignature()))
+                    return null;
+
+                int count = in.readInt();
+                Map<String, Entry> result = new HashMap<String, Entry>();
+
+                for (int i = 0; i < count; i++) {
+                    Entry e = new Entry (in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+
+                    result.put (e.path, e);
+                }
+
+                log.debug ("Read " + count + " entries from catalog cache file " + cache.getPath());
+
+                return result;
+            } catch (IOException e) {
+                log.debug ("Unable to read catalog cache file " + cache.getPath() + ": " + e.getMessage());
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        private void writeCache() {
+            File cache = getCacheFile();
+
+            if (cache == null)
+                return;
+
+            DataOutputStream out = null;
+
+            try {
+                cache.getParentFile().mkdirs();
+
+                out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (cache)));
+
+                out.writeInt (CACHE_VERSION);
+                out.writeUTF (getSignature());
+                out.writeInt (entries.size());
+
+                for (Entry e : entries.values()) {
+                    out.writeUTF (e.path);
+                    out.writeLong (e.lastModified);
+                    out.writeLong (e.length);
+                    out.writeLong (e.types);
+                }
+            } catch (IOException e) {
+                log.warn ("Unable to write catalog cache file " + cache.getPath() + ": " + e.getMessage());
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.runtime.file;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Read/write locks for the files the DAOs read and rewrite (module files, deployment plans, deployment profiles and
+ * servers.xml.) A DAO edit reads a whole file, changes it and writes it back, so two requests editing the same file
+ * at once would each write out their own copy and one of the changes would be lost. Readers of a file share its
+ * read lock and go on in parallel; writers take its write lock and are serialized with each other and with the
+ * readers:
+ * </p>
+ * <pre>
+ *     Lock lock = FileLocks.getInstance().writeLock (path);
+ *
+ *     lock.lock();
+ *     try {
+ *         ...
+ *     } finally {
+ *         lock.unlock();
+ *     }
+ * </pre>
+ * <p>
+ * Files are mapped by the hash of their canonical path onto a fixed number of stripes, so the locks don't grow
+ * with the number of files and the different spellings of a file's path share its lock. Two files may share a
+ * stripe, so a thread holding a file's lock should not take the lock of another file. The locks are reentrant, but
+ * a read lock may not be upgraded to a write lock. The time spent waiting for read and write locks is published on
+ * the admin port's metrics page.
+ * </p>
+ * <p>
+ * Each file also has a {@link #getVersion version}. The code writing a file marks it {@link #changed changed}
+ * while holding its write lock, and the version changes when the lock is released, so that a change is seen even
+ * when it leaves the file's last modified time and size as they were (e.g. a change appended to the module's
+ * journal, or a rewrite within the same second that kept the size.) Releasing a write lock without changing the
+ * file keeps the version. Changes made outside the GUI are seen by comparing the file's last modified time and
+ * size to the ones recorded at its last change. A file rewritten without changing what it holds (e.g. when its
+ * journal is compacted into it) is locked with its {@link #rewriteLock rewrite lock} instead, which is its write
+ * lock but always keeps the version.
+ * </p>
+ * <p>
+ * Versions are kept in memory for the most recently used {@link #MAX_VERSIONS} files and are dropped when a file is
+ * deleted. Version numbers are never reused, so a file whose version was dropped gets a new one, as do all the
+ * files when the GUI is restarted.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link FileLocks#getInstance} static method to access the instance.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class FileLocks {
+    private static final Logger log = LoggerFactory.getLogger (FileLocks.class);
+    private static FileLocks fl = null;
+
+    /**
+     * Number of lock stripes.
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Maximum number of files whose version is kept.
+     */
+    public static final int MAX_VERSIONS = 4096;
+
+    private static final Timer readWaits = Metrics.newTimer (FileLocks.class, "read-waits", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    private static final Timer writeWaits = Metrics.newTimer (FileLocks.class, "write-waits", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    // access ordered map of the versions of the files used most recently, keyed by canonical path. the versions and
+    // their files' state are guarded by the map. versions from before a restart don't match the ones after it since
+    // each is prefixed with the time the instance was created.
+    //
+    private final LinkedHashMap<String, Version> versions = new LinkedHashMap<String, Version> (16, 0.75f, true) {
+        protected boolean removeEldestEntry (Map.Entry<String, Version> eldest) {
+            return size() > MAX_VERSIONS;
+        }
+    };
+
+    private final String instance = Long.toString (System.currentTimeMillis(), 36);
+    private long lastNumber = 0;
+
+    // the file each thread last changed and the version the change gave it.
+    //
+    private final ThreadLocal<Written> lastWritten = new ThreadLocal<Written>();
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private FileLocks() {
+        stripes = new ReentrantReadWriteLock[DEFAULT_STRIPES];
+
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * <p>
+     * Returns the instance of the locks.
+     * </p>
+     *
+     * @return  The instance.
+     */
+    public static synchronized FileLocks getInstance() {
+        if (fl == null) {
+            log.debug ("Instanciating new object.");
+            fl = new FileLocks();
+        }
+
+        return fl;
+    }
+
+    /**
+     * <p>
+     * Returns the lock to hold while reading a file.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The read lock.
+     */
+    public Lock readLock (String path) {
+        String key = getKey (path);
+
+        return new TimedLock (getStripe (key), getStripe (key).readLock(), readWaits, null, false);
+    }
+
+    /**
+     * <p>
+     * Returns the lock to hold while changing a file. The file's version changes when the lock is released if the
+     * file was marked {@link #changed changed} or its last modified time or size changed while the lock was held.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The write lock.
+     */
+    public Lock writeLock (String path) {
+        String key = getKey (path);
+
+        return new TimedLock (getStripe (key), getStripe (key).writeLock(), writeWaits, key, true);
+    }
+
+    /**
+     * <p>
+     * Returns the lock to hold while rewriting a file without changing what it holds. It is the file's write lock,
+     * but the file keeps its version when the lock is released.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The write lock.
+     */
+    public Lock rewriteLock (String path) {
+        String key = getKey (path);
+
+        return new TimedLock (getStripe (key), getStripe (key).writeLock(), writeWaits, key, false);
+    }
+
+    /**
+     * <p>
+     * Marks a file as changed. Called by the code writing the file while holding its write lock. The file's version
+     * changes when the lock is released.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     */
+    public void changed (String path) {
+        String key = getKey (path);
+
+        // a file without a version gets a new one when the lock is released anyway.
+        //
+        synchronized (versions) {
+            Version v = versions.get (key);
+
+            if (v != null)
+                v.pending = true;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the version the calling thread's last change to a file gave it. Unlike {@link #getVersion} it isn't
+     * affected by changes other threads made once the calling thread released the file's write lock.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The version or <code>null</code> if the calling thread's last change was to another file.
+     */
+    public Version getWrittenVersion (String path) {
+        Written w = lastWritten.get();
+
+        return (w != null && w.key.equals (getKey (path))) ? w.version : null;
+    }
+
+    /**
+     * <p>
+     * Returns the current version of a file.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The version.
+     */
+    public Version getVersion (String path) {
+        String key = getKey (path);
+        Lock lock = getStripe (key).readLock();
+
+        // the read lock keeps a writer from being caught half way through a rewrite, which would look like a change
+        // made outside the GUI.
+        //
+        lock.lock();
+        try {
+            synchronized (versions) {
+                return observe (key).copy();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // returns the version of a file, first changing it if the file was changed outside the GUI. caller must hold
+    // the lock of "versions".
+    //
+    private Version observe (String key) {
+        File f = new File (key);
+        long lastModified = f.lastModified();
+        long length = f.length();
+        Version v = versions.get (key);
+
+        if (v == null) {
+            v = new Version (++lastNumber, lastModified, length);
+            versions.put (key, v);
+        } else if (v.fileLastModified != lastModified || v.length != length) {
+            v.change (++lastNumber, lastModified, length);
+        }
+
+        return v;
+    }
+
+    // records the file's last modified time and size once its write lock is released for the last time, changing
+    // its version if the file was changed. a rewrite keeps the version. a file that no longer exists is forgotten.
+    //
+    private void written (
+        String key,
+        boolean change
+    ) {
+        File f = new File (key);
+
+        synchronized (versions) {
+            Version v = versions.get (key);
+
+            if (change)
+                lastWritten.remove();
+
+            if (! f.exists()) {
+                versions.remove (key);
+                return;
+            }
+
+            // the version was dropped while the lock was held. the file gets a new one.
+            //
+            if (v == null) {
+                v = new Version (++lastNumber, f.lastModified(), f.length());
+                versions.put (key, v);
+            } else if (change && (v.pending || v.fileLastModified != f.lastModified() || v.length != f.length())) {
+                v.change (++lastNumber, f.lastModified(), f.length());
+            } else {
+                v.record (f.lastModified(), f.length());
+            }
+
+            v.pending = false;
+
+            if (change)
+                lastWritten.set (new Written (key, v.copy()));
+        }
+    }
+
+    // picks up changes made outside the GUI when a file's write lock is first taken, before the holder's own
+    // changes to the file's last modified time and size.
+    //
+    private void acquired (String key) {
+        synchronized (versions) {
+            observe (key);
+        }
+    }
+
+    private String getKey (String path) {
+        if (path == null)
+            return "";
+
+        try {
+            return new File (path).getCanonicalPath();
+        } catch (IOException e) {
+            return new File (path).getAbsolutePath();
+        }
+    }
+
+    private ReentrantReadWriteLock getStripe (String key) {
+
+        // spread the hash so that paths differing only at the end don't crowd the same stripes.
+        //
+        int h = key.hashCode();
+
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * <p>
+     * The version of a file. Two versions of the same file are equal if and only if the file wasn't changed in
+     * between (or was changed outside the GUI without changing its last modified time or size.) The version
+     * numbers of all the files are taken from a single sequence, so no two versions share a number.
+     * </p>
+     *
+     * @author Calvin Goodrich
+     * @version 1.0
+     */
+    public class Version {
+        private long number;
+        private long lastModified;
+        private long fileLastModified;
+        private long length;
+        private boolean pending;
+
+        private Version (
+            long number,
+            long fileLastModified,
+            long length
+        ) {
+            this.number = number;
+            this.lastModified = fileLastModified;
+            this.fileLastModified = fileLastModified;
+            this.length = length;
+        }
+
+        /**
+         * <p>
+         * Returns the version as a string.
+         * </p>
+         *
+         * @return  The version.
+         */
+        public String getToken() {
+            return instance + "." + number;
+        }
+
+        /**
+         * <p>
+         * Returns the time the file was last changed. It is the later of the file's last modified time and the time
+         * the GUI last changed it, since a change may not touch the file (e.g. it went to the module's journal.)
+         * </p>
+         *
+         * @return  The time, in milliseconds since the epoch.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        private void change (
+            long number,
+            long fileLastModified,
+            long length
+        ) {
+            this.number = number;
+            lastModified = Math.max (fileLastModified, System.currentTimeMillis());
+            record (fileLastModified, length);
+        }
+
+        private void record (
+            long fileLastModified,
+            long length
+        ) {
+            this.fileLastModified = fileLastModified;
+            this.length = length;
+            lastModified = Math.max (lastModified, fileLastModified);
+        }
+
+        private Version copy() {
+            Version v = new Version (number, fileLastModified, length);
+
+            v.lastModified = lastModified;
+
+            return v;
+        }
+    }
+
+    // a file and the version a thread's change gave it.
+    //
+    private static class Written {
+        final String key;
+        final Version version;
+
+        Written (
+            String key,
+            Version version
+        ) {
+            this.key = key;
+            this.version = version;
+        }
+    }
+
+    // records how long each acquisition waited for the lock. taking a file's write lock picks up changes made
+    // outside the GUI and releasing it records the write. only the outermost of a thread's nested holds does so.
+    //
+    private class TimedLock implements Lock {
+        private final ReentrantReadWriteLock stripe;
+        private final Lock lock;
+        private final Timer waits;
+        private final String key;
+        private final boolean change;
+
+        TimedLock (
+            ReentrantReadWriteLock stripe,
+            Lock lock,
+            Timer waits,
+            String key,
+            boolean change
+        ) {
+            this.stripe = stripe;
+            this.lock = lock;
+            this.waits = waits;
+            this.key = key;
+            this.change = change;
+        }
+
+        public void lock() {
+            long start = System.nanoTime();
+
+            lock.lock();
+            waits.update (System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            acquired();
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            long start = System.nanoTime();
+
+            lock.lockInterruptibly();
+            waits.update (System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            acquired();
+        }
+
+        public boolean tryLock() {
+            boolean result = lock.tryLock();
+
+            if (result)
+                acquired();
+
+            return result;
+        }
+
+        public boolean tryLock (
+            long time,
+            TimeUnit unit
+        ) throws InterruptedException {
+            long start = System.nanoTime();
+            boolean result = lock.tryLock (time, unit);
+
+            if (result) {
+                waits.update (System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                acquired();
+            }
+
+            return result;
+        }
+
+        public void unlock() {
+            try {
+                if (key != null && stripe.getWriteHoldCount() == 1)
+                    written (key, change);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void acquired() {
+            if (key != null && stripe.getWriteHoldCount() == 1)
+                FileLocks.this.acquired (key);
+        }
+
+        public Condition newCondition() {
+            return lock.newCondition();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.runtime.file;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.File;
+import java.io.FileFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Timer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.comparator.NameFileComparator;
+import org.apache.commons.io.monitor.FileEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Walks a directory tree with a pool of threads. Listing a directory and looking at its files' sizes and dates
+ * costs a round trip per call on network storage, and so does opening a file, so a single thread walking a modules
+ * tree of tens of thousands of files spends nearly all its time waiting. Each directory is listed by its own task
+ * and its files are handed to the {@link Visitor} in batches of {@link #FILE_BATCH} on the pool's threads.
+ * </p>
+ * <p>
+ * The walk builds the same {@link FileEntry} tree a commons-io <code>FileAlterationObserver</code> builds (children
+ * sorted by name with the system's case sensitivity), so an observer created with the tree's root starts out
+ * knowing of every file the walk found. Walk times and the numbers of directories, files and errors are published
+ * on the admin port's metrics page and each walk is logged.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class FileWalker {
+    private static final Logger log = LoggerFactory.getLogger (FileWalker.class);
+
+    /**
+     * Default number of threads walking a tree.
+     */
+    public static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Number of files handed to the visitor by one task.
+     */
+    public static final int FILE_BATCH = 32;
+
+    private static final Timer walks = Metrics.newTimer (FileWalker.class, "walks", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    private static final Counter directories = Metrics.newCounter (FileWalker.class, "directories");
+    private static final Counter files = Metrics.newCounter (FileWalker.class, "files");
+    private static final Counter errors = Metrics.newCounter (FileWalker.class, "errors");
+
+    private int threads;
+    private FileFilter filter;
+
+    /**
+     * <p>
+     * Receives the files found by a walk. Called on the walk's threads, so implementations must be thread safe.
+     * </p>
+     */
+    public interface Visitor {
+
+        /**
+         * <p>
+         * Visits a file.
+         * </p>
+         *
+         * @param  f      The file.
+         * @param  entry  The file's entry, with the size and last modified time read by the walk.
+         * @throws Exception  If the file can't be visited. The walk logs it and goes on with the next file.
+         */
+        void visitFile (File f, FileEntry entry) throws Exception;
+    }
+
+    /**
+     * <p>
+     * Results of a walk.
+     * </p>
+     */
+    public static class Stats {
+        private final AtomicInteger directories = new AtomicInteger();
+        private final AtomicInteger files = new AtomicInteger();
+        private final AtomicInteger errors = new AtomicInteger();
+        private long elapsed;
+
+        public int getDirectories() {
+            return directories.get();
+        }
+
+        public int getFiles() {
+            return files.get();
+        }
+
+        public int getErrors() {
+            return errors.get();
+        }
+
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     *
+     * @param  threads  The number of threads to walk with. Values less than 1 mean 1.
+     * @param  filter   The directories and files to walk, or <code>null</code> for all of them.
+     */
+    public FileWalker (
+        int threads,
+        FileFilter filter
+    ) {
+        this.threads = Math.max (1, threads);
+        this.filter = filter;
+    }
+
+    /**
+     * <p>
+     * Walks the tree under a root directory. The root entry's children (and theirs) are replaced by what the walk
+     * finds.
+     * </p>
+     *
+     * @param  root     The entry of the root directory.
+     * @param  visitor  Receives the files, or <code>null</code> to only build the tree.
+     * @return          The results of the walk.
+     */
+    public Stats walk (
+        FileEntry root,
+        Visitor visitor
+    ) {
+        long start = System.currentTimeMillis();
+        Walk w = new Walk (visitor);
+
+        root.refresh (root.getFile());
+
+        try {
+            if (root.isDirectory()) {
+                w.submitDirectory (root);
+                w.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn ("Interrupted walking " + root.getFile().getPath() + ".");
+        } finally {
+            w.pool.shutdownNow();
+        }
+
+        w.stats.elapsed = System.currentTimeMillis() - start;
+
+        walks.update (w.stats.elapsed, TimeUnit.MILLISECONDS);
+
+        directories.inc (w.stats.getDirectories());
+        files.inc (w.stats.getFiles());
+        errors.inc (w.stats.getErrors());
+
+        log.info ("Walked " + w.stats.getDirectories() + " directories and " + w.stats.getFiles() + " files under " + root.getFile().getPath() +
+                  " in " + w.stats.getElapsed() + " ms with " + threads + " threads (" + w.stats.getErrors() + " errors.)");
+
+        return w.stats;
+    }
+
+    // the state of one walk. the walk is done when the last of its tasks finishes.
+    //
+    private class Walk {
+        final Stats stats = new Stats();
+        final Visitor visitor;
+        final ExecutorService pool;
+        final AtomicInteger pending = new AtomicInteger();
+
+        Walk (Visitor visitor) {
+            this.visitor = visitor;
+            this.pool = Executors.newFixedThreadPool (threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread (Runnable r) {
+                    Thread t = new Thread (r, "file-walker-" + count.incrementAndGet());
+                    t.setDaemon (true);
+                    return t;
+                }
+            });
+        }
+
+        void await() throws InterruptedException {
+            synchronized (pending) {
+                while (pending.get() > 0)
+                    pending.wait();
+            }
+        }
+
+        void submit (final Runnable task) {
+            pending.incrementAndGet();
+
+            pool.execute (new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        stats.errors.incrementAndGet();
+                        log.error ("Error walking files: " + e.getMessage());
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            synchronized (pending) {
+                                pending.notifyAll();
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        void submitDirectory (final FileEntry dir) {
+            submit (new Runnable() {
+                public void run() {
+                    listDirectory (dir);
+                }
+            });
+        }
+
+        // lists a directory the way the observer does and hands out its subdirectories and files.
+        //
+        void listDirectory (FileEntry dir) {
+            File[] children = (filter != null) ? dir.getFile().listFiles (filter) : dir.getFile().listFiles();
+
+            if (children == null)
+                children = FileUtils.EMPTY_FILE_ARRAY;
+
+            Arrays.sort (children, NameFileComparator.NAME_SYSTEM_COMPARATOR);
+
+            FileEntry[] entries = new FileEntry[children.length];
+            List<FileEntry> batch = new ArrayList<FileEntry>();
+
+            stats.directories.incrementAndGet();
+
+            for (int i = 0; i < children.length; i++) {
+                entries[i] = dir.newChildInstance (children[i]);
+
+                // a directory's own entry is refreshed here since its task only lists it.
+                //
+                if (children[i].isDirectory()) {
+                    entries[i].refresh (children[i]);
+                    submitDirectory (entries[i]);
+                } else {
+                    batch.add (entries[i]);
+
+                    if (batch.size() == FILE_BATCH) {
+                        submitFiles (batch);
+                        batch = new ArrayList<FileEntry>();
+                    }
+                }
+            }
+
+            if (batch.size() > 0)
+                submitFiles (batch);
+
+            dir.setChildren (entries);
+        }
+
+        void submitFiles (final List<FileEntry> batch) {
+            submit (new Runnable() {
+                public void run() {
+                    for (FileEntry entry : batch) {
+                        File f = entry.getFile();
+
+                        entry.refresh (f);
+                        stats.files.incrementAndGet();
+
+                        if (visitor == null)
+                            continue;
+
+                        try {
+                            visitor.visitFile (f, entry);
+                        } catch (Exception e) {
+                            stats.errors.incrementAndGet();
+                            log.error ("Error visiting file \"" + f.getPath() + "\": " + e.getMessage());
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
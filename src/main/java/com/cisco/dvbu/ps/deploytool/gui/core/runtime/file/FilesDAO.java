@@ -6,41 +6,32 @@ package com.cisco.dvbu.ps.deploytool.gui.core.runtime.file;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.DAOConstants;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 
-import java.text.SimpleDateFormat;
-
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.apache.commons.io.filefilter.RegexFileFilter;
-import org.apache.commons.io.IOUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.DeploymentPlan;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.DeploymentPlansDAO;
+import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.ModuleReferenceIndex;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.Preferences;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.prefs.PreferencesDAO;
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleJournal;
 import com.cisco.dvbu.ps.deploytool.gui.resources.FileResource;
 import com.cisco.dvbu.ps.deploytool.gui.resources.FileListResource;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListColumnInfo;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResultRowComparator;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListSorter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListUtils;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 import com.cisco.dvbu.ps.deploytool.gui.util.StringUtils;
@@ -105,13 +96,9 @@ public class FilesDAO {
     //
     private Map<String, ListColumnInfo> listColumnsInfo = new HashMap<String, ListColumnInfo>();
 
-    // contains the lists of files for returning in calls to list() method
-    //
-    private List<List<ListResult.Row>> filesLists = new ArrayList<List<ListResult.Row>>();
-    
-    // contains the maps of files used for validating and CRUD operations of files
+    // keeps the lists of files of each file type up to date.
     //
-    private List<Map<String, FileRecord>> filesMaps = new ArrayList<Map<String, FileRecord>>();
+    private FileCatalog catalog = FileCatalog.getInstance();
     
     private static final String pdtHome = System.getProperty ("apps.install.dir").replaceAll ("\\\\", "/");
     
@@ -127,14 +114,7 @@ public class FilesDAO {
         //
         listColumnsInfo.put ("name",         new ListColumnInfo (0, ListResultRowComparator.SORT_TYPE_STRING));
         listColumnsInfo.put ("path",         new ListColumnInfo (1, ListResultRowComparator.SORT_TYPE_STRING));
-        listColumnsInfo.put ("dateModified", new ListColumnInfo (2, ListResultRowComparator.SORT_TYPE_STRING));
-        
-        // initialize file Lists and Maps
-        //
-        for (int i = 0; i < fileTypeProperties.size(); i++) {
-            filesLists.add (new ArrayList<ListResult.Row>());
-            filesMaps.add (new HashMap<String, FileRecord>());
-        }
+        listColumnsInfo.put ("dateModified", new ListColumnInfo (2, ListResultRowComparator.SORT_TYPE_DATE));
     }
 
     /*
@@ -153,10 +133,12 @@ public class FilesDAO {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
      * @return             The requested list of items.
      * @see                FileListResource
@@ -172,6 +154,7 @@ public class FilesDAO {
         String searchField,
         String searchString,
         String searchOper,
+        String cursor,
         String param
     ) {
         List<ListResult.Row> resultList;
@@ -189,13 +172,10 @@ public class FilesDAO {
             log.error ("Requested page number is out of range: " + pageNum);
         }
 
-        // refresh file list for the file type
-        //
-        getFiles (fileType);
-        
         // get current list of files for the file type
         //
-        resultList = this.filesLists.get (fileType);
+        FileCatalog.Snapshot snapshot = catalog.getSnapshot (fileType);
+        resultList = (snapshot != null) ? snapshot.getRows() : null;
         
         if (resultList == null)
             return new ListResult (1, 1, 0, new ArrayList<ListResult.Row>(), null);
@@ -206,21 +186,25 @@ public class FilesDAO {
             resultList = ListUtils.applySearchRules (
                              resultList, 
                              listColumnsInfo, 
+                             filters, 
                              searchField, 
                              searchString, 
                              searchOper
                          );
         }
         
-        // apply sorting to the servers list
+        // apply sorting to the files list. cursor paging needs every row to have its own position.
         //
-        if (sortIndex != null && sortOrder != null) {
-            Collections.sort (resultList, new ListResultRowComparator (
-                                                  listColumnsInfo.get(sortIndex).getIndex(), 
-                                                  sortOrder, 
-                                                  listColumnsInfo.get(sortIndex).getSortType()
-                                              )
-            );
+        resultList = new ListSorter (listColumnsInfo, sortIndex, sortOrder, cursor != null).sort (resultList);
+        
+        if (cursor != null) {
+            return ListUtils.getCursorResult (
+                       resultList,
+                       new ListSorter (listColumnsInfo, sortIndex, sortOrder, true),
+                       numRows,
+                       cursor,
+                       param
+                   );
         }
         
         return ListUtils.getListResult (
@@ -244,9 +228,9 @@ public class FilesDAO {
         String path,
         int fileType
     ) {
-        getFiles (fileType);
+        FileCatalog.Snapshot snapshot = catalog.getSnapshot (fileType);
         
-        return filesMaps.get (fileType).get (path);
+        return (snapshot != null) ? snapshot.getRecord (path) : null;
     }
 
     /**
@@ -262,10 +246,6 @@ public class FilesDAO {
         List<ResultMessage.MessageItem> msgList;
         ResultMessage result;
 
-        // make sure we have the latest version of the servers.xml file
-        //
-        getFiles (fileRecord.getFileType());
-        
         // sanity check the inputs for an "add" operation
         //
         msgList = validateFile (fileRecord, DAOConstants.OPERATION_ADD);
@@ -285,6 +265,7 @@ public class FilesDAO {
                 // copy the file
                 //
                 FileUtils.copyFile (new File (tmplPath), new File (newPath));
+                catalog.refresh (fileRecord.getFileType());
                 
                 result = new ResultMessage ("success", "Created file \"" + newPath + "\" from \"" + tmplPath + "\"", null);
 
@@ -314,10 +295,6 @@ public class FilesDAO {
         List<ResultMessage.MessageItem> msgList;
         ResultMessage result;
 
-        // make sure we have the latest version of the servers.xml file
-        //
-        getFiles (fileRecord.getFileType());
-        
         // sanity check the inputs for an "edit" operation
         //
         msgList = validateFile (fileRecord, DAOConstants.OPERATION_EDIT);
@@ -335,11 +312,25 @@ public class FilesDAO {
                            fileTypeProperties.get (fileRecord.getFileType()).defaultFilesLocation + "/" +             // relative file location for this file type
                            fileRecord.getOrigname() + "." + fileTypeProperties.get (fileRecord.getFileType()).suffix; // the user's submitted original file name plus the suffix for the file type
                 
-                // copy the file
+                // the original file is locked so that it isn't changed while it's being copied and removed.
                 //
-                //FileUtils.moveFile (new File (origPath), new File (newPath)); // fails in Windows due to UAC
-                FileUtils.copyFile (new File (origPath), new File (newPath));
-                FileUtils.deleteQuietly (new File (origPath));
+                Lock lock = FileLocks.getInstance().writeLock (origPath);
+
+                lock.lock();
+                try {
+                    // bring a module file up to date with its journaled changes before it's copied.
+                    //
+                    ModuleJournal.getInstance().compact (origPath);
+
+                    // copy the file
+                    //
+                    //FileUtils.moveFile (new File (origPath), new File (newPath)); // fails in Windows due to UAC
+                    FileUtils.copyFile (new File (origPath), new File (newPath));
+                    FileUtils.deleteQuietly (new File (origPath));
+                } finally {
+                    lock.unlock();
+                }
+                catalog.refresh (fileRecord.getFileType());
                 
                 result = new ResultMessage ("success", "Renamed file \"" + origPath + "\" to \"" + newPath + "\"", null);
             
@@ -380,99 +371,32 @@ public class FilesDAO {
                     case FILE_TYPE_MODULE_VCS:
                         
                         DeploymentPlansDAO dPlansDAO = new DeploymentPlansDAO();
-                        String modHomePathRE = "([$%])MODULE_HOME(\\1)?[/\\\\]" + fileRecord.getOrigname().replaceAll ("[/\\\\]", "[/\\\\]") + "\\.xml";
-                        String fullPathRE = pdtHome.replaceAll ("[/\\\\]", "[/\\\\\\\\]") + "[/\\\\]resources[/\\\\]modules[/\\\\]" + fileRecord.getOrigname().replaceAll ("[/\\\\]", "[/\\\\\\\\]") + "\\.xml";
-                        String combinedRE = "(?:" + modHomePathRE + "|" + fullPathRE + ")";
+                        List<ModuleReferenceIndex.Reference> refs = ModuleReferenceIndex.getInstance().getReferences (fileRecord.getOrigname());
 
-                        // iterate over all the deployment plan files
+                        // only the plans with steps referring to the module are read and rewritten.
                         //
-                        for (ListResult.Row row : list (FILE_TYPE_DEPLOY_PLAN, "false", 10000, 1, "path", "asc", null, null, null, null, null).getRows()) {
-                            String path = row.getId();
+                        for (String path : ModuleReferenceIndex.getPlans (refs)) {
                             
                             DeploymentPlan dp = dPlansDAO.getById (path);
                             boolean planUpdated = false;
                             
+                            if (dp == null)
+                                continue;
+
                             for (DeploymentPlan.Step step : dp.getSteps()) {
-                                for (int p = 1; p <= 9; p++) {
-                                    switch (p) {
-                                        case 1:
-                                            if (step.getParam1() != null && step.getParam1().matches (combinedRE)) {
-                                                step.setParam1 (step.getParam1().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 2:
-                                            if (step.getParam2() != null && step.getParam2().matches (combinedRE)) {
-                                                step.setParam2 (step.getParam2().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 3:
-                                            if (step.getParam3() != null && step.getParam3().matches (combinedRE)) {
-                                                step.setParam3 (step.getParam3().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 4:
-                                            if (step.getParam4() != null && step.getParam4().matches (combinedRE)) {
-                                                step.setParam4 (step.getParam4().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 5:
-                                            if (step.getParam5() != null && step.getParam5().matches (combinedRE)) {
-                                                step.setParam5 (step.getParam5().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 6:
-                                            if (step.getParam6() != null && step.getParam6().matches (combinedRE)) {
-                                                step.setParam6 (step.getParam6().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 7:
-                                            if (step.getParam7() != null && step.getParam7().matches (combinedRE)) {
-                                                step.setParam7 (step.getParam7().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 8:
-                                            if (step.getParam8() != null && step.getParam8().matches (combinedRE)) {
-                                                step.setParam8 (step.getParam8().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
-                                        case 9:
-                                            if (step.getParam9() != null && step.getParam9().matches (combinedRE)) {
-                                                step.setParam9 (step.getParam9().replaceFirst (fileRecord.getOrigname() + "\\.xml$", fileRecord.getName() + ".xml"));
-                                                planUpdated = true;
-                                            }
-                                            
-                                            break;
-                                        
+                                for (ModuleReferenceIndex.Reference ref : refs) {
+                                    
+                                    // skip references the plan no longer has (e.g. it was edited since it was indexed.)
+                                    //
+                                    if (ref.getPlan().equals (path) && ref.getLineNum().equals (step.getLineNum()) && ref.getValue().equals (step.getParam (ref.getParam()))) {
+                                        step.setParam (ref.getParam(), ref.getRenamedValue (fileRecord.getName()));
+                                        planUpdated = true;
                                     }
                                 }
                             }
                             
                             if (planUpdated) {
-                                dPlansDAO.edit (dp);
+                                dPlansDAO.edit (dp, null);
                             }
                         }
                         
@@ -511,10 +435,6 @@ public class FilesDAO {
         boolean atLeastOneFileCopied = false;
         ResultMessage result;
         
-        // make sure we have the latest list of files for this file type
-        //
-        getFiles (fileType);
-        
         // iterate over all the input file paths
         //
         String[] pathArray = paths.split (",");
@@ -568,12 +488,19 @@ public class FilesDAO {
                     j++;
                 } while (validateFile (newFileRecord, DAOConstants.OPERATION_COPY).size() == 0);
     
-                // copy the file
+                // copy the file. it's locked for rewriting since compacting its journal may rewrite it.
                 //
+                Lock lock = FileLocks.getInstance().rewriteLock (fileRecord.getPath());
+
+                lock.lock();
                 try {
+                    ModuleJournal.getInstance().compact (fileRecord.getPath());
                     FileUtils.copyFile(new File (fileRecord.getPath()), new File (newFileRecord.getPath()));
+                    catalog.refresh (fileType);
                 } catch (Exception e) {
                     tmpMsgList.add (new ResultMessage.MessageItem ("path", "Unable to copy \"" + fileRecord.getPath() + "\" to \"" + newFileRecord.getPath() + "\": " + e.getMessage()));
+                } finally {
+                    lock.unlock();
                 }
                 
                 atLeastOneFileCopied = true;
@@ -616,10 +543,6 @@ public class FilesDAO {
         boolean atLeastOneFileDeleted = false;
         ResultMessage result;
         
-        // make sure we have the latest list of files for this file type
-        //
-        getFiles (fileType);
-        
         // iterate over all the input server ids
         //
         String[] pathArray = paths.split (",");
@@ -641,10 +564,17 @@ public class FilesDAO {
     
                 // delete the file
                 //
+                Lock lock = FileLocks.getInstance().writeLock (fileRecord.getPath());
+
+                lock.lock();
                 try {
+                    ModuleJournal.getInstance().discard (fileRecord.getPath());
                     FileUtils.deleteQuietly (new File (fileRecord.getPath()));
+                    catalog.refresh (fileType);
                 } catch (Exception e) {
                     tmpMsgList.add (new ResultMessage.MessageItem ("path", "Unable to delete \"" + fileRecord.getPath() + "\": " + e.getMessage()));
+                } finally {
+                    lock.unlock();
                 }
                 
                 atLeastOneFileDeleted = true;
@@ -728,8 +658,6 @@ public class FilesDAO {
      * @return         The number of errors encountered.
      */
     public static int updateModuleXmlFiles() {
-        int errorCount = 0;
-
         log.debug ("Looking for module XML files still using the Composite namespace ... ");
         log.debug ("PDTool home = " + pdtHome);
         
@@ -738,130 +666,9 @@ public class FilesDAO {
             return 1;
         }
 
-        // retrieve the list of files from the default file location for the file type
-        //
-        File dir = new File (pdtHome + "/" + MODULES_REL_PATH);
-        
-        Collection<File> fileNames = FileUtils.listFiles (
-                                         dir, 
-                                         new RegexFileFilter (".*\\.xml$"), 
-                                         DirectoryFileFilter.DIRECTORY
-                                     );
-
-        for (File f : fileNames) {
-            log.debug ("Updating " + f.getAbsolutePath());
-
-            try {
-
-                FileInputStream fis = new FileInputStream (f);
-                String content = IOUtils.toString (fis, (String) null); // casting null as String to remove ambiguous reference.
-                fis.close();
-
-                content = content.replaceAll ("www.composite.com", "www.dvbu.cisco.com");
-                content = content.replaceAll ("www.cisco.dvbu.com", "www.dvbu.cisco.com");
-
-                FileOutputStream fos = new FileOutputStream (f);
-                IOUtils.write(content, fos, (String) null); // casting null as String to remove ambiguous reference.
-                fos.close();
-
-            } catch (Exception e) {
-                log.error ("Error encountered updating file " + f.getAbsolutePath() + ": " + e.getMessage());
-                errorCount++;
-            }
-        }
-        
-        return errorCount;
-    }
-
-    /*
-     * Supplemental methods.
-     */
-    private void getFiles (int fileType) {
-        List<ListResult.Row> tmpFilesList = new ArrayList<ListResult.Row>();
-        Map<String, FileRecord> tmpFilesMap = new HashMap<String, FileRecord>();
-        SimpleDateFormat sdf = new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss");
-        
-        log.debug ("PDTool home = " + pdtHome);
-        
-        if (pdtHome == null || pdtHome.length() == 0) {
-            log.error ("System property apps.install.dir not set!");
-            return;
-        }
-        
-        if (fileType < 0 || fileType >= fileTypeProperties.size() || fileTypeProperties.get (fileType) == null) {
-            log.warn ("Attempted to retrieve files for non-existent file type: " + fileType);
-            return;
-        }
-        
-        log.debug ("getting recursive directory list of \"" + pdtHome + "/" + fileTypeProperties.get (fileType).defaultFilesLocation + "\"");
-        
-        // retrieve the list of files from the default file location for the file type
+        // only the files that changed since they were last found clean are read (and if need be rewritten.)
         //
-        File dir = new File (pdtHome + "/" + fileTypeProperties.get (fileType).defaultFilesLocation);
-        
-        Collection<File> fileNames = FileUtils.listFiles (
-                                         dir, 
-                                         new RegexFileFilter (".*\\." + fileTypeProperties.get (fileType).suffix + "$"), 
-                                         DirectoryFileFilter.DIRECTORY
-                                     );
-
-        if (fileNames != null) {
-            String formattedDate;
-
-            for (Iterator<File> itr = fileNames.iterator(); itr.hasNext(); ) {
-                File f = itr.next();
-                log.debug ("found file \"" + f.getPath() + "\"");
-                try {
-                    
-                    // search the file for the title comment on the second line
-                    //
-                    BufferedReader br = new BufferedReader (new FileReader (f));
-                    String line = null;
-                    
-                    // skip the correct number of lines for the file type
-                    //
-                    for (int i = 0; i < fileTypeProperties.get (fileType).matchLineNumber; i++)
-                        line = br.readLine();
-
-                    br.close();
-                    
-                    // make sure the line is not null and matches the pattern for the file type.
-                    //
-                    if (line != null && line.matches (fileTypeProperties.get (fileType).matchRE)) {
-                        log.debug ("found " + f.getPath());
-
-                        List<String> tmpCell = new ArrayList<String>();
-                        FileRecord fileRecord = new FileRecord();
-                        
-                        String name = StringUtils.removeFileSuffix (f.getName());
-                        log.debug ("name = " + name);
-
-                        tmpCell.add (name);
-                        fileRecord.setName (name);
-                        
-                        tmpCell.add (f.getPath());
-                        fileRecord.setPath (f.getPath());
-
-                        formattedDate = sdf.format (new Date (f.lastModified()));
-                        tmpCell.add (formattedDate);
-                        fileRecord.setDateModified (formattedDate);
-    
-                        tmpFilesList.add (new ListResult.Row (fileRecord.getPath(), tmpCell));
-                        tmpFilesMap.put (fileRecord.getPath(), fileRecord);
-                    } else {
-                        log.debug ("file \"" + f.getPath() + "\" does not match criteria.");
-                    }
-                } catch (Exception e) {
-                    log.error (e.getMessage());
-                    continue;
-                }
-            }
-        }
-
-        this.filesLists.set (fileType, tmpFilesList);
-        this.filesMaps.set (fileType, tmpFilesMap);
-
-        return;
+        return NamespaceMigrator.getInstance().migrate (new File (pdtHome + "/" + MODULES_REL_PATH), FileCatalog.getInstance().getThreads());
     }
 
     // validates an incoming deployment configuration name payload based on the requested operation
@@ -871,6 +678,7 @@ public class FilesDAO {
         int operation
     ) {
         List<ResultMessage.MessageItem> result = new ArrayList<ResultMessage.MessageItem>();
+        FileCatalog.Snapshot snapshot = catalog.getSnapshot (fileRecord.getFileType());
         log.debug ("validate:\n  name = " + fileRecord.getName() + "\n  path = " + fileRecord.getPath() + "\n  type = " + fileRecord.getFileType());
         
         if (fileRecord.getName() == null || fileRecord.getName().length() == 0) {
@@ -881,7 +689,7 @@ public class FilesDAO {
             //
             String path = pdtHome + "/" + fileTypeProperties.get (fileRecord.getFileType()).defaultFilesLocation + "/" + fileRecord.getName();
 
-            if (filesMaps.get (fileRecord.getFileType()).get (path) != null) {
+            if (snapshot != null && snapshot.contains (path)) {
                 result.add (new ResultMessage.MessageItem ("name", fileTypeProperties.get (fileRecord.getFileType()).nameLabel +" \"" + path + "\" already exists."));
             }
         } else if (operation == DAOConstants.OPERATION_EDIT || operation == DAOConstants.OPERATION_COPY || operation == DAOConstants.OPERATION_DELETE){
@@ -892,7 +700,7 @@ public class FilesDAO {
                               ? pdtHome + "/" + fileTypeProperties.get (fileRecord.getFileType()).defaultFilesLocation + "/" + fileRecord.getOrigname()
                               : fileRecord.getPath();
 
-            if (filesMaps.get (fileRecord.getFileType()).get (path) == null) {
+            if (snapshot == null || ! snapshot.contains (path)) {
                 result.add (new ResultMessage.MessageItem ("path", fileTypeProperties.get (fileRecord.getFileType()).nameLabel + " \"" + path + "\" does not exist."));
             }
         }
@@ -0,0 +1,359 @@
+package com.cisco.dvbu.ps.deploytool.gui.core.runtime.file;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.apache.commons.io.monitor.FileEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Moves the module XML files off the legacy XML namespaces. In the 2014-03-12 release of PDTool, the XML namespace
+ * used was changed from "www.composite.com" to "www.dvbu.cisco.com". A bug in PDTool also used the incorrect
+ * namespace "www.cisco.dvbu.com".
+ * </p>
+ * <p>
+ * Each module file is streamed looking for the legacy namespaces and only the files that have them are rewritten.
+ * Files found to be clean are remembered by their size and last modified time (also across restarts, in
+ * <code>&lt;PDTool home&gt;/gui/cache/namespaces.cache</code>) and aren't opened again until either changes, so a
+ * migration before each execution only costs a walk of the modules folder.
+ * </p>
+ * <p>
+ * This class uses the singleton pattern such that only one instance object will exist at a time. Use the
+ * {@link NamespaceMigrator#getInstance} static method to access the instance.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class NamespaceMigrator {
+    private static final Logger log = LoggerFactory.getLogger (NamespaceMigrator.class);
+    private static NamespaceMigrator nm = null;
+
+    private static final int CACHE_VERSION = 1;
+
+    private static final String NAMESPACE = "www.dvbu.cisco.com";
+    private static final String[] LEGACY_NAMESPACES = { "www.composite.com", "www.cisco.dvbu.com" };
+
+    private final byte[][] legacyBytes;
+    private final byte[] namespaceBytes;
+
+    // size and last modified time of the files known to be clean, keyed by path. null until the cache file is read.
+    //
+    private Map<String, Clean> clean = null;
+
+    // private constructor so that it may not be instantiated by other classes.
+    //
+    private NamespaceMigrator() {
+        legacyBytes = new byte[LEGACY_NAMESPACES.length][];
+
+        for (int i = 0; i < LEGACY_NAMESPACES.length; i++)
+            legacyBytes[i] = ascii (LEGACY_NAMESPACES[i]);
+
+        namespaceBytes = ascii (NAMESPACE);
+    }
+
+    /**
+     * <p>
+     * Returns the instance of the migrator.
+     * </p>
+     *
+     * @return  The instance.
+     */
+    public static synchronized NamespaceMigrator getInstance() {
+        if (nm == null) {
+            log.debug ("Instanciating new object.");
+            nm = new NamespaceMigrator();
+        }
+
+        return nm;
+    }
+
+    /**
+     * <p>
+     * Rewrites the module files under a directory that still use a legacy namespace.
+     * </p>
+     *
+     * @param  dir      The modules directory.
+     * @param  threads  The number of threads to walk the directory with.
+     * @return          The number of errors encountered.
+     */
+    public synchronized int migrate (
+        File dir,
+        int threads
+    ) {
+        final AtomicInteger errorCount = new AtomicInteger();
+        final AtomicInteger scanned = new AtomicInteger();
+        final AtomicInteger rewritten = new AtomicInteger();
+        final Map<String, Clean> known = (clean != null) ? clean : readCache();
+        final Map<String, Clean> seen = new ConcurrentHashMap<String, Clean>();
+
+        FileWalker walker = new FileWalker (
+                                threads,
+                                FileFilterUtils.or (DirectoryFileFilter.DIRECTORY, new SuffixFileFilter (".xml"))
+                            );
+
+        walker.walk (new FileEntry (dir), new FileWalker.Visitor() {
+            public void visitFile (File f, FileEntry entry) {
+                Clean c = known.get (f.getPath());
+
+                // files that haven't changed since they were found clean aren't opened.
+                //
+                if (c != null && c.lastModified == entry.getLastModified() && c.length == entry.getLength()) {
+                    seen.put (f.getPath(), c);
+                    return;
+                }
+
+                try {
+                    scanned.incrementAndGet();
+
+                    if (hasLegacyNamespace (f)) {
+                        Lock lock = FileLocks.getInstance().writeLock (f.getPath());
+
+                        log.debug ("Updating " + f.getAbsolutePath());
+
+                        lock.lock();
+                        try {
+                            rewrite (f);
+                            FileLocks.getInstance().changed (f.getPath());
+                        } finally {
+                            lock.unlock();
+                        }
+
+                        rewritten.incrementAndGet();
+                    }
+
+                    seen.put (f.getPath(), new Clean (f.lastModified(), f.length()));
+                } catch (Exception e) {
+                    log.error ("Error encountered updating file " + f.getAbsolutePath() + ": " + e.getMessage());
+                    errorCount.incrementAndGet();
+                }
+            }
+        });
+
+        // files that were removed are dropped from the clean list along the way.
+        //
+        boolean changed = (scanned.get() > 0 || seen.size() != known.size());
+
+        clean = seen;
+
+        if (changed)
+            writeCache();
+
+        log.debug ("Namespace migration scanned " + scanned.get() + " of " + seen.size() + " module files and rewrote " + rewritten.get() + ".");
+
+        return errorCount.get();
+    }
+
+    // streams a file looking for any of the legacy namespaces. a namespace split across two reads is found since the
+    // tail of each read is kept for the next.
+    //
+    private boolean hasLegacyNamespace (File f) throws IOException {
+        int keep = 0;
+
+        for (byte[] b : legacyBytes)
+            keep = Math.max (keep, b.length - 1);
+
+        byte[] buffer = new byte[8192 + keep];
+        int length = 0;
+        InputStream in = new FileInputStream (f);
+
+        try {
+            int n;
+
+            while ((n = in.read (buffer, length, buffer.length - length)) > 0) {
+                length += n;
+
+                for (byte[] b : legacyBytes) {
+                    if (indexOf (buffer, 0, length, b) >= 0)
+                        return true;
+                }
+
+                int tail = Math.min (keep, length);
+
+                System.arraycopy (buffer, length - tail, buffer, 0, tail);
+                length = tail;
+            }
+        } finally {
+            in.close();
+        }
+
+        return false;
+    }
+
+    // replaces the legacy namespaces byte for byte so that the rest of the file is written back exactly as it was
+    // read, whatever its encoding.
+    //
+    private void rewrite (File f) throws IOException {
+        byte[] data = FileUtils.readFileToByteArray (f);
+
+        for (byte[] b : legacyBytes) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream (data.length + 16);
+            int from = 0;
+            int i;
+
+            while ((i = indexOf (data, from, data.length, b)) >= 0) {
+                out.write (data, from, i - from);
+                out.write (namespaceBytes);
+                from = i + b.length;
+            }
+
+            out.write (data, from, data.length - from);
+            data = out.toByteArray();
+        }
+
+        FileUtils.writeByteArrayToFile (f, data);
+    }
+
+    private static int indexOf (
+        byte[] data,
+        int from,
+        int to,
+        byte[] pattern
+    ) {
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j])
+                    continue outer;
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    private static byte[] ascii (String s) {
+        byte[] result = new byte[s.length()];
+
+        for (int i = 0; i < s.length(); i++)
+            result[i] = (byte) s.charAt (i);
+
+        return result;
+    }
+
+    // the cache file records the namespaces it was written for so that it isn't used after they change.
+    //
+    private String getSignature() {
+        StringBuilder sb = new StringBuilder (NAMESPACE);
+
+        for (String ns : LEGACY_NAMESPACES)
+            sb.append ('\u001f').append (ns);
+
+        return sb.toString();
+    }
+
+    private File getCacheFile() {
+        if (System.getProperty ("apps.install.dir") == null)
+            return null;
+
+        return new File (FilesDAO.getPdtHome() + "/gui/cache", "namespaces.cache");
+    }
+
+    private Map<String, Clean> readCache() {
+        Map<String, Clean> result = new ConcurrentHashMap<String, Clean>();
+        File cache = getCacheFile();
+
+        if (cache == null || ! cache.exists())
+            return result;
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream (new BufferedInputStream (new FileInputStream (cache)));
+
+            if (in.readInt() != CACHE_VERSION || ! in.readUTF().equals (getSignature()))
+                return result;
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++)
+                result.put (in.readUTF(), new Clean (in.readLong(), in.readLong()));
+
+            log.debug ("Read " + count + " entries from namespace cache file " + cache.getPath());
+        } catch (IOException e) {
+            log.debug ("Unable to read namespace cache file " + cache.getPath() + ": " + e.getMessage());
+            result.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void writeCache() {
+        File cache = getCacheFile();
+
+        if (cache == null)
+            return;
+
+        DataOutputStream out = null;
+
+        try {
+            cache.getParentFile().mkdirs();
+
+            out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (cache)));
+
+            out.writeInt (CACHE_VERSION);
+            out.writeUTF (getSignature());
+            out.writeInt (clean.size());
+
+            for (Map.Entry<String, Clean> e : clean.entrySet()) {
+                out.writeUTF (e.getKey());
+                out.writeLong (e.getValue().lastModified);
+                out.writeLong (e.getValue().length);
+            }
+        } catch (IOException e) {
+            log.warn ("Unable to write namespace cache file " + cache.getPath() + ": " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static class Clean {
+        long lastModified;
+        long length;
+
+        Clean (
+            long lastModified,
+            long length
+        ) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -7,12 +7,16 @@ package com.cisco.dvbu.ps.deploytool.gui.resources;
 import com.cisco.dvbu.ps.deploytool.gui.core.module.archive.Archive;
 import com.cisco.dvbu.ps.deploytool.gui.core.module.archive.ArchivesDAO;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
 
 import java.net.URLDecoder;
 
+import java.util.List;
+
 import javax.servlet.http.HttpServletRequest;
 
 import javax.ws.rs.Consumes;
@@ -26,6 +30,8 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,16 +64,19 @@ public class ArchiveResource {
      * Searches for a single {@link Archive} object given a URL encoded ID string.
      * </p>
      * 
-     * @param  path  The URL encoded path to look for.
-     * @param  id    The ID to look for.
-     * @param  req   Servlet request object containing client request parameters.
-     * @return       The requested {@link Archive} as an object. Serialized by Jackson into JSON.
+     * @param  path     The URL encoded path to look for.
+     * @param  id       The ID to look for.
+     * @param  request  JAX-RS request object containing the client's conditional request headers.
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          The requested {@link Archive} as an object. Serialized by Jackson into JSON.
+     *                  A 304 (Not Modified) response if the client's copy is current.
      */
     @GET @Path("{path}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public Archive findById (
+    public Response findById (
         @PathParam ("path") String path,
         @QueryParam("id") String id,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -77,7 +86,13 @@ public class ArchiveResource {
             id = (id != null) ? URLDecoder.decode (id.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.findById (path, id);
+        ConditionalGet cg = ConditionalGet.forFile (path, id);
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.findById (path, id));
     }
 
     /**
@@ -90,11 +105,12 @@ public class ArchiveResource {
      * @param  archive  The {@link Archive} object to add. Ignored if the "ids" parameter is not null.
      * @param  req      Servlet request object containing client request parameters.
      * @return          A {@link ResultMessage} object containing the results of the add request. Serialized by Jackson into JSON.
+     *                  A 409 (Conflict) response if the module was changed since the client read it.
      */
     @POST @Path("{path}")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage create (
+    public Response create (
         @PathParam ("path") String path,
         @QueryParam("ids") String ids,
         Archive archive,
@@ -108,9 +124,9 @@ public class ArchiveResource {
         } catch (Exception ignored) { ; }
         
         if (ids == null || ids.length() == 0) {
-            return dao.add (path, archive);
+            return ConditionalWrite.respond (dao.add (path, archive, req.getHeader ("If-Match")));
         } else {
-            return dao.copy (path, ids);
+            return ConditionalWrite.respond (dao.copy (path, ids, req.getHeader ("If-Match")));
         }
     }
   
@@ -124,11 +140,12 @@ public class ArchiveResource {
      * @param  archive  The {@link Archive} object to edit.
      * @param  req      Servlet request object containing client request parameters.
      * @return          A {@link ResultMessage} object containing the results of the edit request. Serialized by Jackson into JSON.
+     *                  A 409 (Conflict) response if the module was changed since the client read it.
      */
     @PUT @Path("{path}")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage update (
+    public Response update (
         @PathParam ("path") String path,
         Archive archive,
         @Context HttpServletRequest req
@@ -140,7 +157,36 @@ public class ArchiveResource {
             path = (path != null) ? URLDecoder.decode (path.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.edit (path, archive);
+        return ConditionalWrite.respond (dao.edit (path, archive, req.getHeader ("If-Match")));
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several {@link Archive} objects in the specified archive module with a single write
+     * of the module file. The <code>operation</code> property of each archive is "add", "edit" or "delete".
+     * </p>
+     * 
+     * @param  path      The URL encoded path to look for.
+     * @param  archives  The list of {@link Archive} objects to add, update or delete.
+     * @param  req       Servlet request object containing client request parameters.
+     * @return           A {@link ResultMessage} object containing the results of the batch request. Serialized by Jackson into JSON.
+     *                   A 409 (Conflict) response if the module was changed since the client read it.
+     */
+    @POST @Path("{path}/batch")
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response batch (
+        @PathParam ("path") String path,
+        List<Archive> archives,
+        @Context HttpServletRequest req
+    ) {
+        SecurityManager.testAccess (req);
+
+        try {
+            path = (path != null) ? URLDecoder.decode (path.replace('+', ' '), "UTF-8") : null;
+        } catch (Exception ignored) { ; }
+        
+        return ConditionalWrite.respond (dao.batch (path, archives, req.getHeader ("If-Match")));
     }
     
     /**
@@ -152,10 +198,11 @@ public class ArchiveResource {
      * @param  ids   A comma separated list of archive IDs to delete.
      * @param  req   Servlet request object containing client request parameters.
      * @return       A {@link ResultMessage} object containing the results of the delete request. Serialized by Jackson into JSON.
+     *               A 409 (Conflict) response if the module was changed since the client read it.
      */
     @DELETE @Path("{path}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage remove (
+    public Response remove (
         @PathParam ("path") String path,
         @QueryParam("ids") String ids,
         @Context HttpServletRequest req
@@ -167,6 +214,6 @@ public class ArchiveResource {
             ids = (ids != null) ? URLDecoder.decode (ids.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.delete (path, ids);
+        return ConditionalWrite.respond (dao.delete (path, ids, req.getHeader ("If-Match")));
     }
 }
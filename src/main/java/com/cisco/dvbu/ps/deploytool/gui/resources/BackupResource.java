@@ -0,0 +1,103 @@
+package com.cisco.dvbu.ps.deploytool.gui.resources;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.backup.BackupsDAO;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+
+import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
+
+import java.net.URLDecoder;
+
+import javax.servlet.http.HttpServletRequest;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+
+//import org.slf4j.Logger;
+//import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Servlet for listing and restoring the backups of edited files.
+ * </p>
+ * 
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+@Path("/backup")
+public class BackupResource {
+
+//    private static final Logger log = LoggerFactory.getLogger (BackupResource.class);
+    BackupsDAO dao = new BackupsDAO();
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     */
+    public BackupResource () {
+        super ();
+    }
+
+    /**
+     * <p>
+     * Returns a {@link ListResult} object containing the backed up versions of a file, newest first.
+     * </p>
+     * 
+     * @param  path   The URL encoded path to the file.
+     * @param  param  Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param  req    Servlet request object containing client request parameters.
+     * @return        The list of versions. Serialized by Jackson into JSON.
+     */
+    @GET @Path("{path}")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public ListResult list (
+        @PathParam ("path") String path,
+        @QueryParam("param") String param,
+        @Context HttpServletRequest req
+    ) {
+        SecurityManager.testAccess (req);
+
+        try {
+            path = (path != null) ? URLDecoder.decode (path.replace ('+', ' '), "UTF-8") : null;
+        } catch (Exception ignored) { ; }
+
+        return dao.list (path, param);
+    }
+
+    /**
+     * <p>
+     * Restores a backed up version of a file.
+     * </p>
+     * 
+     * @param  path     The URL encoded path to the file.
+     * @param  version  The hash of the version to restore (as listed by {@link #list}.)
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          A {@link ResultMessage} object containing the results of the restore request. Serialized by Jackson into JSON.
+     */
+    @POST @Path("{path}")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public ResultMessage restore (
+        @PathParam ("path") String path,
+        @QueryParam("version") String version,
+        @Context HttpServletRequest req
+    ) {
+        SecurityManager.testAccess (req);
+
+        try {
+            path = (path != null) ? URLDecoder.decode (path.replace ('+', ' '), "UTF-8") : null;
+        } catch (Exception ignored) { ; }
+
+        return dao.restore (path, version);
+    }
+}
@@ -7,7 +7,9 @@ package com.cisco.dvbu.ps.deploytool.gui.resources;
 import com.cisco.dvbu.ps.deploytool.gui.core.module.data_source.DataSource;
 import com.cisco.dvbu.ps.deploytool.gui.core.module.data_source.DataSourceModulesDAO;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResultWriter;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
 
@@ -23,6 +25,8 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
@@ -53,7 +57,8 @@ public class DataSourceModuleResource {
     /**
      * <p>
      * Returns a {@link ListResult} object
-     * containing the requested page of information.
+     * containing the requested page of information, written out
+     * as it goes by {@link ListResultWriter}.
      * </p>
      * 
      * @param id           Path to the archive module file.
@@ -62,17 +67,20 @@ public class DataSourceModuleResource {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param request      JAX-RS request object containing the client's conditional request headers.
      * @param req          Servlet request object containing client request parameters.
-     * @return             The requested list of items.
+     * @return             The requested list of items or 304 (Not Modified) if the client's copy is current.
      */
     @GET @Path("{id}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ListResult list(
+    public Response list(
         @PathParam ("id")           String id,
         @QueryParam("_search")      String isSearch,
         @QueryParam("rows")         int numRows,
@@ -83,7 +91,9 @@ public class DataSourceModuleResource {
         @QueryParam("searchField")  String searchField,
         @QueryParam("searchString") String searchString,
         @QueryParam("searchOper")   String searchOper,
+        @QueryParam("cursor")       String cursor,
         @QueryParam("param")        String param,
+        @Context                    Request request,
         @Context                    HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -92,7 +102,16 @@ public class DataSourceModuleResource {
             id = URLDecoder.decode (id.replace('+', ' '), "UTF-8");
         } catch (Exception ignored) { ; }
         
-        return dao.list(
+        // pick lists may resolve variables in the path with the default deployment profile, so only plain
+        // lists are validated.
+        //
+        ConditionalGet cg = ConditionalGet.forFile ((param == null) ? id : null, req.getQueryString());
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (ListResultWriter.stream (dao.list(
                        id,
                        isSearch,
                        numRows,
@@ -103,8 +122,9 @@ public class DataSourceModuleResource {
                        searchField,
                        searchString,
                        searchOper,
+                       cursor,
                        param
-                   );
+                   )));
     }
 
     /**
@@ -6,6 +6,8 @@ package com.cisco.dvbu.ps.deploytool.gui.resources;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.DeploymentPlan;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.DeploymentPlansDAO;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 
@@ -24,6 +26,8 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
@@ -68,12 +72,13 @@ public class DeploymentPlanResource {
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param request      JAX-RS request object containing the client's conditional request headers.
      * @param req          Servlet request object containing client request parameters.
-     * @return             The requested list of items.
+     * @return             The requested list of items or 304 (Not Modified) if the client's copy is current.
      */
     @GET @Path("{id}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ListResult list(
+    public Response list(
         @PathParam ("id")           String id,
         @QueryParam("_search")      String isSearch,
         @QueryParam("rows")         int numRows,
@@ -85,6 +90,7 @@ public class DeploymentPlanResource {
         @QueryParam("searchString") String searchString,
         @QueryParam("searchOper")   String searchOper,
         @QueryParam("param")        String param,
+        @Context                    Request request,
         @Context                    HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -93,7 +99,13 @@ public class DeploymentPlanResource {
             id = (id != null) ? URLDecoder.decode (id.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.list(
+        ConditionalGet cg = ConditionalGet.forFile (id, req.getQueryString());
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.list(
                        id,
                        isSearch,
                        numRows,
@@ -105,7 +117,7 @@ public class DeploymentPlanResource {
                        searchString,
                        searchOper,
                        param
-                   );
+                   ));
     }
 
     /**
@@ -116,16 +128,18 @@ public class DeploymentPlanResource {
      * @param  dp   The {@link DeploymentPlan} object to update.
      * @param  req  Servlet request object containing client request parameters.
      * @return      A {@link ResultMessage} object containing the results of the edit request. Serialized by Jackson into JSON.
+     *              A 409 (Conflict) response if the plan was changed since the client read it. A successful
+     *              response carries the plan's new entity tag.
      */
     @PUT
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage update (
+    public Response update (
         DeploymentPlan dp,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
 
-        return dao.edit (dp);
+        return ConditionalWrite.respond (dao.edit (dp, req.getHeader ("If-Match")), (dp != null) ? dp.getPath() : null);
     }
 }
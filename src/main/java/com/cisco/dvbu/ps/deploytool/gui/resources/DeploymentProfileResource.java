@@ -6,6 +6,8 @@ package com.cisco.dvbu.ps.deploytool.gui.resources;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfile;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_profile.DeploymentProfilesDAO;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
@@ -22,6 +24,8 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
@@ -52,14 +56,17 @@ public class DeploymentProfileResource {
      * Searches for a single {@link DeploymentProfile} object given a URL encoded ID string.
      * </p>
      * 
-     * @param  id   The URL encoded ID to look for.
-     * @param  req  Servlet request object containing client request parameters.
-     * @return      The requested {@link DeploymentProfile} as an object. Serialized by Jackson into JSON.
+     * @param  id       The URL encoded ID to look for.
+     * @param  request  JAX-RS request object containing the client's conditional request headers.
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          The requested {@link DeploymentProfile} as an object. Serialized by Jackson into JSON.
+     *                  A 304 (Not Modified) response if the client's copy is current.
      */
     @GET @Path("{id}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public DeploymentProfile findById (
+    public Response findById (
         @PathParam ("id") String id,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -68,7 +75,13 @@ public class DeploymentProfileResource {
             id = (id != null) ? URLDecoder.decode (id.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
 
-        return dao.getById (id);
+        ConditionalGet cg = ConditionalGet.forFile (id);
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.getById (id));
     }
 
     /**
@@ -79,16 +92,17 @@ public class DeploymentProfileResource {
      * @param  dp   The {@link DeploymentProfile} object to update.
      * @param  req  Servlet request object containing client request parameters.
      * @return      A {@link ResultMessage} object containing the results of the edit request. Serialized by Jackson into JSON.
+     *              A 409 (Conflict) response if the profile was changed since the client read it.
      */
     @PUT
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage update (
+    public Response update (
         DeploymentProfile dp,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
 
-        return dao.edit (dp);
+        return ConditionalWrite.respond (dao.edit (dp, req.getHeader ("If-Match")));
     }
 }
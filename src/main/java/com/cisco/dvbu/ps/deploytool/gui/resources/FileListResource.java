@@ -9,8 +9,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResultWriter;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileCatalog;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
@@ -45,7 +50,8 @@ public class FileListResource {
     /**
      * <p>
      * Returns a {@link ListResult} object
-     * containing the requested page of information.
+     * containing the requested page of information, written out
+     * as it goes by {@link ListResultWriter}.
      * </p>
      * 
      * @param isSearch     Indicates whether the request is a search request ("true" or "false".)
@@ -53,17 +59,20 @@ public class FileListResource {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param request      JAX-RS request object containing the client's conditional request headers.
      * @param req          Servlet request object containing client request parameters.
-     * @return             The requested list of items.
+     * @return             The requested list of items or 304 (Not Modified) if the client's copy is current.
      */
     @GET
     @Produces({ MediaType.APPLICATION_JSON })
-    public ListResult list(
+    public Response list(
         @QueryParam("fileType")     int fileType,
         @QueryParam("_search")      String isSearch,
         @QueryParam("rows")         int numRows,
@@ -74,12 +83,24 @@ public class FileListResource {
         @QueryParam("searchField")  String searchField,
         @QueryParam("searchString") String searchString,
         @QueryParam("searchOper")   String searchOper,
+        @QueryParam("cursor")       String cursor,
         @QueryParam("param")        String param,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
 
-        return dao.list(
+        // the list is read from the catalog's snapshot of the files of the type, which gets a new tag whenever a
+        // file is added, removed or changed.
+        //
+        FileCatalog.Snapshot snapshot = FileCatalog.getInstance().getSnapshot (fileType);
+        ConditionalGet cg = ConditionalGet.forVersion ((snapshot != null) ? snapshot.getTag() : null, req.getQueryString());
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (ListResultWriter.stream (dao.list(
                        fileType,
                        isSearch,
                        numRows,
@@ -90,7 +111,8 @@ public class FileListResource {
                        searchField,
                        searchString,
                        searchOper,
+                       cursor,
                        param
-                   );
+                   )));
     }
 }
@@ -13,8 +13,12 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.PUT;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileCatalog;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileRecord;
 import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FilesDAO;
 
@@ -59,14 +63,17 @@ public class FileResource {
      * 
      * @param  id       The URL encoded path to look for.
      * @param  fileType An integer indicating what file type is being used.
+     * @param  request  JAX-RS request object containing the client's conditional request headers.
      * @param  req      Servlet request object containing client request parameters.
      * @return          The requested {@link FileRecord} as an object. Serialized by Jackson into JSON.
+     *                  A 304 (Not Modified) response if the client's copy is current.
      */
     @GET @Path("{id}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public FileRecord findById (
+    public Response findById (
         @PathParam ("id") String id,
         @QueryParam ("fileType") int fileType,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -75,7 +82,16 @@ public class FileResource {
             id = (id != null) ? URLDecoder.decode (id.replace ('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.findById (id, fileType);
+        // the record comes from the list of files of the type, so it is validated the same way as the list.
+        //
+        FileCatalog.Snapshot snapshot = FileCatalog.getInstance().getSnapshot (fileType);
+        ConditionalGet cg = ConditionalGet.forVersion ((snapshot != null) ? snapshot.getTag() : null, id);
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.findById (id, fileType));
     }
 
     /**
@@ -6,7 +6,9 @@ package com.cisco.dvbu.ps.deploytool.gui.resources;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.module.group.GroupModulesDAO;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResultWriter;
 
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 
@@ -24,6 +26,8 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
@@ -54,7 +58,8 @@ public class GroupModuleResource {
     /**
      * <p>
      * Returns a {@link ListResult} object
-     * containing the requested page of information.
+     * containing the requested page of information, written out
+     * as it goes by {@link ListResultWriter}.
      * </p>
      * 
      * @param id           Path to the group module file.
@@ -63,17 +68,20 @@ public class GroupModuleResource {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
+     * @param cursor       Cursor paging: the "next" token of the previous page or an empty string for the first
+     *                     page. Page numbers are used when <code>null</code>.
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param request      JAX-RS request object containing the client's conditional request headers.
      * @param req          Servlet request object containing client request parameters.
-     * @return             The requested list of items.
+     * @return             The requested list of items or 304 (Not Modified) if the client's copy is current.
      */
     @GET @Path("{id}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ListResult list(
+    public Response list(
         @PathParam ("id")           String id,
         @QueryParam("_search")      String isSearch,
         @QueryParam("rows")         int numRows,
@@ -84,7 +92,9 @@ public class GroupModuleResource {
         @QueryParam("searchField")  String searchField,
         @QueryParam("searchString") String searchString,
         @QueryParam("searchOper")   String searchOper,
+        @QueryParam("cursor")       String cursor,
         @QueryParam("param")        String param,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -93,7 +103,16 @@ public class GroupModuleResource {
             id = (id != null) ? URLDecoder.decode (id.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.list(
+        // pick lists may resolve variables in the path with the default deployment profile, so only plain
+        // lists are validated.
+        //
+        ConditionalGet cg = ConditionalGet.forFile ((param == null) ? id : null, req.getQueryString());
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (ListResultWriter.stream (dao.list(
                        id,
                        isSearch,
                        numRows,
@@ -104,8 +123,9 @@ public class GroupModuleResource {
                        searchField,
                        searchString,
                        searchOper,
+                       cursor,
                        param
-                   );
+                   )));
     }
 
     /**
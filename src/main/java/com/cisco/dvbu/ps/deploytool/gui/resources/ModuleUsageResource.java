@@ -0,0 +1,81 @@
+package com.cisco.dvbu.ps.deploytool.gui.resources;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.DeploymentPlansDAO;
+import com.cisco.dvbu.ps.deploytool.gui.core.config.deployment_plan.ModuleReferenceIndex;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
+import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
+
+import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
+
+import javax.servlet.http.HttpServletRequest;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+//import org.slf4j.Logger;
+//import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Servlet for finding where a module file is used by the deployment plans.
+ * </p>
+ * 
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+@Path("/module_usage")
+public class ModuleUsageResource {
+
+//    private static final Logger log = LoggerFactory.getLogger (ModuleUsageResource.class);
+    DeploymentPlansDAO dao = new DeploymentPlansDAO();
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     */
+    public ModuleUsageResource () {
+        super ();
+    }
+
+    /**
+     * <p>
+     * Returns a {@link ListResult} object containing the plan steps that refer to a module file.
+     * </p>
+     * 
+     * @param name     The module's path relative to the modules folder, without the ".xml" suffix (e.g. the
+     *                 module's file name.)
+     * @param param    Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param request  JAX-RS request object containing the client's conditional request headers.
+     * @param req      Servlet request object containing client request parameters.
+     * @return         The list of references or 304 (Not Modified) if the client's copy is current.
+     */
+    @GET
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response list(
+        @QueryParam("name")  String name,
+        @QueryParam("param") String param,
+        @Context             Request request,
+        @Context             HttpServletRequest req
+    ) {
+        SecurityManager.testAccess (req);
+
+        ConditionalGet cg = ConditionalGet.forVersion (ModuleReferenceIndex.getInstance().getTag(), req.getQueryString());
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.listModuleUsage (name, param));
+    }
+}
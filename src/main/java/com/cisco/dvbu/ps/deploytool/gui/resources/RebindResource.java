@@ -7,11 +7,15 @@ package com.cisco.dvbu.ps.deploytool.gui.resources;
 import com.cisco.dvbu.ps.deploytool.gui.core.module.rebind.Rebind;
 import com.cisco.dvbu.ps.deploytool.gui.core.module.rebind.RebindsDAO;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
 
 import java.net.URLDecoder;
 
+import java.util.List;
+
 import javax.servlet.http.HttpServletRequest;
 
 import javax.ws.rs.Consumes;
@@ -25,6 +29,8 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,16 +63,19 @@ public class RebindResource {
      * Searches for a single {@link Rebind} object given a URL encoded ID string.
      * </p>
      * 
-     * @param  path  The URL encoded path to look for.
-     * @param  id    The ID to look for.
-     * @param  req   Servlet request object containing client request parameters.
-     * @return       The requested {@link Rebind} as an object. Serialized by Jackson into JSON.
+     * @param  path     The URL encoded path to look for.
+     * @param  id       The ID to look for.
+     * @param  request  JAX-RS request object containing the client's conditional request headers.
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          The requested {@link Rebind} as an object. Serialized by Jackson into JSON.
+     *                  A 304 (Not Modified) response if the client's copy is current.
      */
     @GET @Path("{path}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public Rebind findById (
+    public Response findById (
         @PathParam ("path") String path,
         @QueryParam("id") String id,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -76,7 +85,13 @@ public class RebindResource {
             id = (id != null) ? URLDecoder.decode (id.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.findById (path, id);
+        ConditionalGet cg = ConditionalGet.forFile (path, id);
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.findById (path, id));
     }
 
     /**
@@ -89,11 +104,12 @@ public class RebindResource {
      * @param  rebind   The {@link Rebind} object to add. Ignored if the "ids" parameter is not null.
      * @param  req      Servlet request object containing client request parameters.
      * @return          A {@link ResultMessage} object containing the results of the add request. Serialized by Jackson into JSON.
+     *                  A 409 (Conflict) response if the module was changed since the client read it.
      */
     @POST @Path("{path}")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage create (
+    public Response create (
         @PathParam ("path") String path,
         @QueryParam("ids") String ids,
         Rebind rebind,
@@ -107,9 +123,9 @@ public class RebindResource {
         } catch (Exception ignored) { ; }
         
         if (ids == null || ids.length() == 0) {
-            return dao.add (path, rebind);
+            return ConditionalWrite.respond (dao.add (path, rebind, req.getHeader ("If-Match")));
         } else {
-            return dao.copy (path, ids);
+            return ConditionalWrite.respond (dao.copy (path, ids, req.getHeader ("If-Match")));
         }
     }
   
@@ -123,11 +139,12 @@ public class RebindResource {
      * @param  rebind   The {@link Rebind} object to edit.
      * @param  req      Servlet request object containing client request parameters.
      * @return          A {@link ResultMessage} object containing the results of the edit request. Serialized by Jackson into JSON.
+     *                  A 409 (Conflict) response if the module was changed since the client read it.
      */
     @PUT @Path("{path}")
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage update (
+    public Response update (
         @PathParam ("path") String path,
         Rebind rebind,
         @Context HttpServletRequest req
@@ -139,7 +156,36 @@ public class RebindResource {
             path = (path != null) ? URLDecoder.decode (path.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.edit (path, rebind);
+        return ConditionalWrite.respond (dao.edit (path, rebind, req.getHeader ("If-Match")));
+    }
+    
+    /**
+     * <p>
+     * Adds, updates and deletes several {@link Rebind} objects in the specified rebind module with a single write
+     * of the module file. The <code>operation</code> property of each rebind is "add", "edit" or "delete".
+     * </p>
+     * 
+     * @param  path     The URL encoded path to look for.
+     * @param  rebinds  The list of {@link Rebind} objects to add, update or delete.
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          A {@link ResultMessage} object containing the results of the batch request. Serialized by Jackson into JSON.
+     *                  A 409 (Conflict) response if the module was changed since the client read it.
+     */
+    @POST @Path("{path}/batch")
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response batch (
+        @PathParam ("path") String path,
+        List<Rebind> rebinds,
+        @Context HttpServletRequest req
+    ) {
+        SecurityManager.testAccess (req);
+
+        try {
+            path = (path != null) ? URLDecoder.decode (path.replace('+', ' '), "UTF-8") : null;
+        } catch (Exception ignored) { ; }
+        
+        return ConditionalWrite.respond (dao.batch (path, rebinds, req.getHeader ("If-Match")));
     }
     
     /**
@@ -151,10 +197,11 @@ public class RebindResource {
      * @param  ids   A comma separated list of rebind IDs to delete.
      * @param  req   Servlet request object containing client request parameters.
      * @return       A {@link ResultMessage} object containing the results of the delete request. Serialized by Jackson into JSON.
+     *               A 409 (Conflict) response if the module was changed since the client read it.
      */
     @DELETE @Path("{path}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage remove (
+    public Response remove (
         @PathParam ("path") String path,
         @QueryParam("ids") String ids,
         @Context HttpServletRequest req
@@ -166,6 +213,6 @@ public class RebindResource {
             ids = (ids != null) ? URLDecoder.decode (ids.replace('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.delete (path, ids);
+        return ConditionalWrite.respond (dao.delete (path, ids, req.getHeader ("If-Match")));
     }
 }
@@ -9,9 +9,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
 
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
 import com.cisco.dvbu.ps.deploytool.gui.util.ListResult;
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
 
@@ -54,17 +57,18 @@ public class ServerListResource {
      * @param pageNum      Page number to return (based on numRows.)
      * @param sortIndex    Data element to sort on (as represented by a column in the UI.)
      * @param sortOrder    Sort order ("asc" or "desc".)
-     * @param filters      Multi-row filtering (not currently used.)
+     * @param filters      Multi-rule filtering (jqGrid "filters" JSON.)
      * @param searchField  Search field to search on (isSearch = "true".)
      * @param searchString String to search for (isSearch = "true".)
      * @param searchOper   Search operation (equals or "eq", not equals or "ne", etc.)
      * @param param        Parameter name identifier to pass back when called to generate parameter value pick lists.
+     * @param request      JAX-RS request object containing the client's conditional request headers.
      * @param req          Servlet request object containing client request parameters.
-     * @return             The requested list of items.
+     * @return             The requested list of items or 304 (Not Modified) if the client's copy is current.
      */
     @GET
     @Produces({ MediaType.APPLICATION_JSON })
-    public ListResult list(
+    public Response list(
         @QueryParam("_search")      String isSearch,
         @QueryParam("rows")         int numRows,
         @QueryParam("page")         int pageNum,
@@ -75,11 +79,18 @@ public class ServerListResource {
         @QueryParam("searchString") String searchString,
         @QueryParam("searchOper")   String searchOper,
         @QueryParam("param")        String param,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
 
-        return dao.list(
+        ConditionalGet cg = ConditionalGet.forFile (ServersDAO.getServersXmlPath(), req.getQueryString());
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.list(
                        isSearch,
                        numRows,
                        pageNum,
@@ -90,6 +101,6 @@ public class ServerListResource {
                        searchString,
                        searchOper,
                        param
-                   );
+                   ));
     }
 }
@@ -16,9 +16,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.Server;
 import com.cisco.dvbu.ps.deploytool.gui.core.config.server.ServersDAO;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalGet;
+import com.cisco.dvbu.ps.deploytool.gui.util.ConditionalWrite;
 import com.cisco.dvbu.ps.deploytool.gui.util.ResultMessage;
 import com.cisco.dvbu.ps.deploytool.gui.util.SecurityManager;
 
@@ -53,14 +57,17 @@ public class ServerResource {
      * Searches for a single {@link Server} object given a URL encoded ID string.
      * </p>
      * 
-     * @param  id  The URL encoded ID to look for.
-     * @param  req Servlet request object containing client request parameters.
-     * @return     The requested {@link Server} as an object. Serialized by Jackson into JSON.
+     * @param  id       The URL encoded ID to look for.
+     * @param  request  JAX-RS request object containing the client's conditional request headers.
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          The requested {@link Server} as an object. Serialized by Jackson into JSON.
+     *                  A 304 (Not Modified) response if the client's copy is current.
      */
     @GET @Path("{id}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public Server findById (
+    public Response findById (
         @PathParam ("id") String id,
+        @Context Request request,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
@@ -69,7 +76,13 @@ public class ServerResource {
             id = (id != null) ? URLDecoder.decode (id.replace ('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.findById (id);
+        ConditionalGet cg = ConditionalGet.forFile (ServersDAO.getServersXmlPath(), id);
+        Response notModified = cg.evaluate (request, req);
+
+        if (notModified != null)
+            return notModified;
+
+        return cg.ok (dao.findById (id));
     }
 
     /**
@@ -80,17 +93,18 @@ public class ServerResource {
      * @param  server  The {@link Server} object to add.
      * @param  req     Servlet request object containing client request parameters.
      * @return         A {@link ResultMessage} object containing the results of the add request. Serialized by Jackson into JSON.
+     *                 A 409 (Conflict) response if the servers list was changed since the client read it.
      */
     @POST
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage create (
+    public Response create (
         Server server,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
 
-        return dao.add (server);
+        return ConditionalWrite.respond (dao.add (server, req.getHeader ("If-Match")));
     }
   
     
@@ -102,17 +116,18 @@ public class ServerResource {
      * @param  server  The {@link Server} object to update.
      * @param  req     Servlet request object containing client request parameters.
      * @return         A {@link ResultMessage} object containing the results of the edit request. Serialized by Jackson into JSON.
+     *                 A 409 (Conflict) response if the servers list was changed since the client read it.
      */
     @PUT
     @Consumes({ MediaType.APPLICATION_JSON })
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage update (
+    public Response update (
         Server server,
         @Context HttpServletRequest req
     ) {
         SecurityManager.testAccess (req);
 
-        return dao.edit (server);
+        return ConditionalWrite.respond (dao.edit (server, req.getHeader ("If-Match")));
     }
     
     /**
@@ -123,10 +138,11 @@ public class ServerResource {
      * @param  ids A comma separated list of server IDs to copy.
      * @param  req Servlet request object containing client request parameters.
      * @return     A {@link ResultMessage} object containing the results of the copy request. Serialized by Jackson into JSON.
+     *             A 409 (Conflict) response if the servers list was changed since the client read it.
      */
     @POST @Path("{ids}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage copy (
+    public Response copy (
         @PathParam("ids") String ids,
         @Context HttpServletRequest req
     ) {
@@ -136,7 +152,7 @@ public class ServerResource {
             ids = (ids != null) ? URLDecoder.decode (ids.replace ('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.copy (ids);
+        return ConditionalWrite.respond (dao.copy (ids, req.getHeader ("If-Match")));
     }
 
     /**
@@ -147,10 +163,11 @@ public class ServerResource {
      * @param  ids A comma separated list of server IDs to delete.
      * @param  req Servlet request object containing client request parameters.
      * @return     A {@link ResultMessage} object containing the results of the delete request. Serialized by Jackson into JSON.
+     *             A 409 (Conflict) response if the servers list was changed since the client read it.
      */
     @DELETE @Path("{ids}")
     @Produces({ MediaType.APPLICATION_JSON })
-    public ResultMessage remove (
+    public Response remove (
         @PathParam("ids") String ids,
         @Context HttpServletRequest req
     ) {
@@ -160,6 +177,6 @@ public class ServerResource {
             ids = (ids != null) ? URLDecoder.decode (ids.replace ('+', ' '), "UTF-8") : null;
         } catch (Exception ignored) { ; }
         
-        return dao.delete (ids);
+        return ConditionalWrite.respond (dao.delete (ids, req.getHeader ("If-Match")));
     }
 }
@@ -0,0 +1,235 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Sets the caching headers of the web assets and serves the precompressed copies written by
+ * {@link AssetPackager}. The asset servlet sends an ETag and a Last-Modified date but no Cache-Control header, so
+ * browsers guess how long to keep each asset and every page load re-sends (and Jetty re-compresses) jQuery, jqGrid
+ * and the rest.
+ * </p>
+ * <p>
+ * Requests for an asset with a fingerprint ("v" query parameter) that matches the asset's contents are cached for a
+ * year as immutable: a changed asset gets a new fingerprint and so a new URL. Everything else, the pages in
+ * particular, is sent with "no-cache" so that browsers revalidate it with the asset servlet's ETag.
+ * </p>
+ * <p>
+ * If the client accepts gzip and the asset directory has an up to date <code>&lt;asset&gt;.gz</code> copy, the copy
+ * is sent as is with "Content-Encoding: gzip", which also keeps Jetty's gzip handler from compressing the response
+ * again. Precompressed copies are only served from an assets directory (the "assets: overrides:" setting); assets
+ * served from the jar are compressed by Jetty as before.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class AssetFilter implements Filter {
+    private static final Logger log = LoggerFactory.getLogger (AssetFilter.class);
+
+    /**
+     * Cache-Control header value of fingerprinted assets.
+     */
+    public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /**
+     * Cache-Control header value of everything else.
+     */
+    public static final String REVALIDATE = "no-cache";
+
+    private String uriPath;
+    private File directory;
+    private ServletContext context;
+
+    // fingerprints of the assets in the directory, keyed by canonical path. two requests racing to hash the same
+    // asset just both hash it.
+    //
+    private final ConcurrentHashMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     *
+     * @param  uriPath    The URI path the assets are served under (e.g. "/pdtoolgui/".)
+     * @param  directory  The directory the assets are served from or <code>null</code> if they are served from the
+     *                    class path.
+     */
+    public AssetFilter (
+        String uriPath,
+        String directory
+    ) {
+        this.uriPath = (uriPath.endsWith ("/")) ? uriPath : uriPath + "/";
+        this.directory = (directory != null) ? new File (directory) : null;
+    }
+
+    public void init (FilterConfig filterConfig) throws ServletException {
+        this.context = filterConfig.getServletContext();
+    }
+
+    public void destroy() {}
+
+    /**
+     * <p>
+     * Sets the Cache-Control header of an asset request and sends the precompressed copy of the asset if there is
+     * one the client can use. Otherwise passes the request on to the asset servlet.
+     * </p>
+     *
+     * @param  request   The request.
+     * @param  response  The response.
+     * @param  chain     The rest of the filter chain.
+     * @throws IOException       If the response can't be written.
+     * @throws ServletException  If the asset servlet fails.
+     */
+    public void doFilter (
+        ServletRequest request,
+        ServletResponse response,
+        FilterChain chain
+    ) throws IOException, ServletException {
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        File f = getFile (req);
+        String fingerprint = (f != null) ? getFingerprint (f) : null;
+        String v = req.getParameter (AssetPackager.FINGERPRINT_PARAM);
+
+        // without the file to check against (assets served from the jar), the fingerprint was put there when the
+        // jar was built and is trusted.
+        //
+        boolean immutable = (v != null && (f == null || v.equals (fingerprint)));
+
+        resp.setHeader ("Cache-Control", (immutable) ? IMMUTABLE : REVALIDATE);
+
+        if (f != null && fingerprint != null && acceptsGzip (req)) {
+            File gz = new File (f.getPath() + ".gz");
+
+            // a copy older than the asset was written before the asset was last changed.
+            //
+            if (gz.isFile() && gz.lastModified() >= f.lastModified()) {
+                sendCompressed (req, resp, f, gz, fingerprint);
+                return;
+            }
+        }
+
+        chain.doFilter (request, response);
+    }
+
+    // returns the asset file a request is for, or null if there is no directory or no such file.
+    //
+    private File getFile (HttpServletRequest req) throws IOException {
+        String method = req.getMethod();
+
+        if (directory == null || ! ("GET".equals (method) || "HEAD".equals (method)))
+            return null;
+
+        String uri = req.getRequestURI();
+        String path = (uri.startsWith (uriPath)) ? uri.substring (uriPath.length()) : null;
+
+        if (path == null || path.length() == 0 || path.endsWith ("/"))
+            return null;
+
+        File f = new File (directory, path);
+
+        // don't let "..", symbolic links and the like reach outside of the directory.
+        //
+        if (! f.isFile() || ! f.getCanonicalPath().startsWith (directory.getCanonicalPath() + File.separator))
+            return null;
+
+        return f;
+    }
+
+    // returns the fingerprint of an asset, hashing it only when it has changed since it was last hashed.
+    //
+    private String getFingerprint (File f) {
+        try {
+            String key = f.getCanonicalPath();
+            long lastModified = f.lastModified();
+            long length = f.length();
+            Fingerprint fp = fingerprints.get (key);
+
+            if (fp == null || fp.lastModified != lastModified || fp.length != length) {
+                fp = new Fingerprint (lastModified, length, AssetPackager.fingerprint (f));
+                fingerprints.put (key, fp);
+            }
+
+            return fp.value;
+        } catch (IOException e) {
+            log.error ("Unable to fingerprint asset " + f.getPath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void sendCompressed (
+        HttpServletRequest req,
+        HttpServletResponse resp,
+        File f,
+        File gz,
+        String fingerprint
+    ) throws IOException {
+
+        // the compressed copy is a different representation than the asset servlet's, so it gets its own tag.
+        //
+        String etag = "\"" + fingerprint + "-gz\"";
+
+        resp.setHeader ("ETag", etag);
+        resp.setHeader ("Vary", "Accept-Encoding");
+        resp.setDateHeader ("Last-Modified", f.lastModified());
+
+        if (etag.equals (req.getHeader ("If-None-Match"))) {
+            resp.setStatus (HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String mimeType = context.getMimeType (f.getName());
+
+        resp.setContentType ((mimeType != null) ? mimeType : "application/octet-stream");
+        resp.setHeader ("Content-Encoding", "gzip");
+        resp.setContentLength ((int) gz.length());
+
+        if (! "HEAD".equals (req.getMethod()))
+            FileUtils.copyFile (gz, resp.getOutputStream());
+    }
+
+    private static boolean acceptsGzip (HttpServletRequest req) {
+        String accept = req.getHeader ("Accept-Encoding");
+
+        return accept != null && accept.toLowerCase().matches (".*\\bgzip\\b(?!\\s*;\\s*q\\s*=\\s*0(\\.0*)?\\s*(,|$)).*");
+    }
+
+    private static class Fingerprint {
+        long lastModified;
+        long length;
+        String value;
+
+        Fingerprint (
+            long lastModified,
+            long length,
+            String value
+        ) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.security.MessageDigest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * <p>
+ * Prepares the web assets for distribution. Run by the ant "dist" target on the copy of the web assets that goes into
+ * the distribution:
+ * </p>
+ * <ol>
+ *   <li>References to scripts, style sheets and images in the pages (and to images in the style sheets) get a
+ *       "v" query parameter holding a fingerprint of the referenced file's contents, e.g.
+ *       <code>js/jquery-1.9.1.js?v=3e1b5a0c2f4d</code>. {@link AssetFilter} lets browsers cache fingerprinted
+ *       requests for good since a change to the file changes its URL.</li>
+ *   <li>Each text asset (pages, scripts, style sheets) gets a gzip compressed copy next to it (e.g.
+ *       <code>jquery-1.9.1.js.gz</code>) that {@link AssetFilter} sends to browsers that accept gzip instead of
+ *       compressing the asset on every request.</li>
+ * </ol>
+ * <p>
+ * Usage: <code>java com.cisco.dvbu.ps.deploytool.gui.util.AssetPackager &lt;web assets directory&gt;</code>
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class AssetPackager {
+
+    /**
+     * Name of the query parameter holding the fingerprint of an asset.
+     */
+    public static final String FINGERPRINT_PARAM = "v";
+
+    // suffixes of the assets that are worth compressing. images are compressed already.
+    //
+    private static final List<String> COMPRESSED_SUFFIXES = Arrays.asList (".html", ".htm", ".js", ".css", ".txt", ".json", ".xml", ".svg");
+
+    // suffixes of the assets whose references are fingerprinted. pages aren't since their URLs are bookmarked and
+    // they must always be revalidated to pick up new fingerprints.
+    //
+    private static final Pattern FINGERPRINTED = Pattern.compile (".*\\.(js|css|png|gif|jpg|jpeg|ico)$", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern PAGE_REFERENCE = Pattern.compile ("(\\s(?:src|href)\\s*=\\s*\")([^\"]+)(\")", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STYLE_REFERENCE = Pattern.compile ("(url\\(\\s*['\"]?)([^'\")]+)(['\"]?\\s*\\))", Pattern.CASE_INSENSITIVE);
+
+    // compressed copies that don't save at least this fraction of the original size aren't kept.
+    //
+    private static final double MIN_SAVING = 0.1;
+
+    private File root;
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     *
+     * @param  root  The web assets directory.
+     */
+    public AssetPackager (File root) {
+        this.root = root;
+    }
+
+    /**
+     * <p>
+     * Prepares a web assets directory for distribution.
+     * </p>
+     *
+     * @param  args  The path to the web assets directory.
+     * @throws IOException  If an asset can't be read or written.
+     */
+    public static void main (String[] args) throws IOException {
+        if (args.length != 1 || ! new File (args[0]).isDirectory()) {
+            System.err.println ("usage: AssetPackager <web assets directory>");
+            System.exit (1);
+        }
+
+        new AssetPackager (new File (args[0])).run();
+    }
+
+    /**
+     * <p>
+     * Fingerprints the references in the style sheets and then the pages (so that the pages' fingerprints of the
+     * style sheets are of the rewritten style sheets) and then compresses the text assets.
+     * </p>
+     *
+     * @throws IOException  If an asset can't be read or written.
+     */
+    public void run() throws IOException {
+        List<File> files = new ArrayList<File>();
+
+        listFiles (root, files);
+
+        for (File f : files) {
+            if (f.getName().toLowerCase().endsWith (".css"))
+                rewrite (f, STYLE_REFERENCE);
+        }
+
+        for (File f : files) {
+            String name = f.getName().toLowerCase();
+
+            if (name.endsWith (".html") || name.endsWith (".htm"))
+                rewrite (f, PAGE_REFERENCE);
+        }
+
+        int compressed = 0;
+
+        for (File f : files) {
+            if (compress (f))
+                compressed++;
+        }
+
+        System.out.println ("AssetPackager: " + files.size() + " assets, " + compressed + " compressed copies written.");
+    }
+
+    /**
+     * <p>
+     * Returns the fingerprint of an asset's contents.
+     * </p>
+     *
+     * @param  f  The asset.
+     * @return    The fingerprint (the first 12 hex digits of the MD5 hash of the contents.)
+     * @throws IOException  If the asset can't be read.
+     */
+    public static String fingerprint (File f) throws IOException {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance ("MD5");
+        } catch (Exception e) { // MD5 is always supported.
+            throw new IllegalStateException (e);
+        }
+
+        InputStream in = new FileInputStream (f);
+        byte[] buffer = new byte[8192];
+        int n;
+
+        try {
+            while ((n = in.read (buffer)) > 0)
+                md.update (buffer, 0, n);
+        } finally {
+            in.close();
+        }
+
+        return DatatypeConverter.printHexBinary (md.digest()).substring (0, 12).toLowerCase();
+    }
+
+    // adds a fingerprint to each reference to a local asset in a page or style sheet.
+    //
+    private void rewrite (
+        File f,
+        Pattern reference
+    ) throws IOException {
+        String text = new String (FileUtils.readFileToByteArray (f), "UTF-8");
+        Matcher m = reference.matcher (text);
+        StringBuffer sb = new StringBuffer();
+        int count = 0;
+
+        while (m.find()) {
+            String url = m.group (2);
+            File target = resolve (f, url);
+
+            if (target != null) {
+                url = url + "?" + FINGERPRINT_PARAM + "=" + fingerprint (target);
+                count++;
+            }
+
+            m.appendReplacement (sb, Matcher.quoteReplacement (m.group (1) + url + m.group (3)));
+        }
+
+        m.appendTail (sb);
+
+        if (count > 0)
+            FileUtils.writeByteArrayToFile (f, sb.toString().getBytes ("UTF-8"));
+    }
+
+    // returns the asset referenced by a URL in a page or style sheet, or null if it isn't a local asset that is
+    // fingerprinted (e.g. an absolute URL, a page, or a URL that already has a query string.)
+    //
+    private File resolve (
+        File from,
+        String url
+    ) throws IOException {
+        if (url.indexOf (':') >= 0 || url.indexOf ('?') >= 0 || url.indexOf ('#') >= 0 || ! FINGERPRINTED.matcher (url).matches())
+            return null;
+
+        File target = (url.startsWith ("/")) ? null : new File (from.getParentFile(), url);
+
+        if (target == null || ! target.isFile() || ! target.getCanonicalPath().startsWith (root.getCanonicalPath()))
+            return null;
+
+        return target;
+    }
+
+    // writes the compressed copy of a text asset. returns whether a copy was written.
+    //
+    private boolean compress (File f) throws IOException {
+        String name = f.getName().toLowerCase();
+        File gz = new File (f.getPath() + ".gz");
+        boolean compressible = false;
+
+        for (String suffix : COMPRESSED_SUFFIXES) {
+            if (name.endsWith (suffix))
+                compressible = true;
+        }
+
+        if (! compressible)
+            return false;
+
+        byte[] data = FileUtils.readFileToByteArray (f);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream (data.length / 3 + 64);
+        GZIPOutputStream out = new GZIPOutputStream (bos) {{ def.setLevel (Deflater.BEST_COMPRESSION); }};
+
+        out.write (data);
+        out.close();
+
+        if (bos.size() > data.length * (1 - MIN_SAVING)) {
+            gz.delete();
+            return false;
+        }
+
+        FileUtils.writeByteArrayToFile (gz, bos.toByteArray());
+
+        return true;
+    }
+
+    private static void listFiles (
+        File dir,
+        List<File> files
+    ) {
+        File[] children = dir.listFiles();
+
+        if (children == null)
+            return;
+
+        for (File f : children) {
+            if (f.isDirectory())
+                listFiles (f, files);
+            else if (! f.getName().endsWith (".gz"))
+                files.add (f);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.module.ModuleCache;
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.security.MessageDigest;
+
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * <p>
+ * Validators for conditional GET requests of resources that are read from files. The jqGrid pages poll and refresh
+ * their lists often and most of those requests return the same data as the last time. A resource method builds a
+ * ConditionalGet for the file its response is read from, and if {@link #evaluate} says the client's copy is
+ * still current, returns the 304 (Not Modified) response without reading or parsing anything.
+ * </p>
+ * <p>
+ * The entity tag is strong and is derived from the canonical path, {@link FileLocks#getVersion version} and
+ * {@link ModuleCache#getGeneration generation} of the file (or a version of the data the response is built from),
+ * plus any request parameters that change the response (e.g. the search, sort and page parameters of a list.) The
+ * generation changes with each journaled change of a module, which leaves the module file as it was. The request
+ * parameters are hashed separately and appended to the file's part of the tag, so that any tag a client got for a
+ * file can be sent back in the If-Match header of a change to it (see {@link ConditionalWrite}.) The time the file
+ * was last changed is also sent as the Last-Modified header for clients that only use If-Modified-Since.
+ * Responses are sent with "Cache-Control: no-cache" so browsers revalidate them every time rather than reusing
+ * them without asking.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ConditionalGet {
+
+    private static final ConditionalGet NONE = new ConditionalGet (null, null);
+
+    private EntityTag tag;
+    private Date lastModified;
+
+    private ConditionalGet (
+        EntityTag tag,
+        Date lastModified
+    ) {
+        this.tag = tag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * <p>
+     * Returns the validators of a response read from a single file.
+     * </p>
+     *
+     * @param  path    The path to the file.
+     * @param  params  The request parameters that change the response, if any.
+     * @return         The validators. There are none if <code>path</code> is <code>null</code> or isn't an existing
+     *                 file (e.g. it has variable references in it), in which case the request is always answered in
+     *                 full.
+     */
+    public static ConditionalGet forFile (
+        String path,
+        Object... params
+    ) {
+        if (path == null)
+            return NONE;
+
+        File f = new File (path);
+
+        if (! f.isFile())
+            return NONE;
+
+        // the validators are taken before the file is read, so if it is written in between the client is sent the
+        // new data with the old tag and simply gets it again on its next request.
+        //
+        FileLocks.Version v = FileLocks.getInstance().getVersion (path);
+        String tag = fileTag (f, v);
+
+        if (params.length > 0)
+            tag += "-" + hash (new StringBuilder(), params);
+
+        return new ConditionalGet (new EntityTag (tag), new Date (v.getLastModified()));
+    }
+
+    /**
+     * <p>
+     * Returns the validators of a response built from versioned data held in memory, e.g. a snapshot of a
+     * directory listing. No Last-Modified date is sent since removing a file doesn't make any of the remaining files
+     * newer.
+     * </p>
+     *
+     * @param  version  A string that changes whenever the data does.
+     * @param  params   The request parameters that change the response, if any.
+     * @return          The validators. There are none if <code>version</code> is <code>null</code>.
+     */
+    public static ConditionalGet forVersion (
+        String version,
+        Object... params
+    ) {
+        if (version == null)
+            return NONE;
+
+        return new ConditionalGet (new EntityTag (hash (new StringBuilder (version), params)), null);
+    }
+
+    /**
+     * <p>
+     * Evaluates the request's If-None-Match and If-Modified-Since headers (and If-Match / If-Unmodified-Since)
+     * against the validators. If-Modified-Since is ignored when If-None-Match is present.
+     * </p>
+     *
+     * @param  request  The JAX-RS request.
+     * @param  req      Servlet request object containing client request parameters.
+     * @return          The response to return in place of the resource (304 or 412), or <code>null</code> if the
+     *                  response is to be built.
+     */
+    public Response evaluate (
+        Request request,
+        HttpServletRequest req
+    ) {
+        if (tag == null)
+            return null;
+
+        Response.ResponseBuilder rb = (lastModified == null || req.getHeader ("If-None-Match") != null)
+                                      ? request.evaluatePreconditions (tag)
+                                      : request.evaluatePreconditions (lastModified, tag);
+
+        return (rb != null) ? rb.tag (tag).cacheControl (noCache()).build() : null;
+    }
+
+    /**
+     * <p>
+     * Builds the full response to a request, with the validators.
+     * </p>
+     *
+     * @param  entity  The response entity.
+     * @return         The response. It is 204 (No Content) if <code>entity</code> is <code>null</code>.
+     */
+    public Response ok (Object entity) {
+        if (entity == null)
+            return Response.noContent().build();
+
+        Response.ResponseBuilder rb = Response.ok (entity);
+
+        if (tag != null)
+            rb.tag (tag).cacheControl (noCache());
+
+        if (lastModified != null)
+            rb.lastModified (lastModified);
+
+        return rb.build();
+    }
+
+    /**
+     * <p>
+     * Returns the part of the entity tags of the responses read from a file that is derived from the file.
+     * </p>
+     *
+     * @param  path  The path to the file.
+     * @return       The file's part of the tag, or <code>null</code> if <code>path</code> is <code>null</code> or
+     *               isn't an existing file.
+     */
+    static String fileTag (String path) {
+        if (path == null)
+            return null;
+
+        File f = new File (path);
+
+        if (! f.isFile())
+            return null;
+
+        return fileTag (f, FileLocks.getInstance().getVersion (path));
+    }
+
+    /**
+     * <p>
+     * Returns the part of the entity tags of the responses read from a version of a file that is derived from the
+     * file.
+     * </p>
+     *
+     * @param  f  The file.
+     * @param  v  The version of the file.
+     * @return    The file's part of the tag.
+     */
+    static String fileTag (
+        File f,
+        FileLocks.Version v
+    ) {
+        String path;
+
+        try {
+            path = f.getCanonicalPath();
+        } catch (IOException e) {
+            path = f.getAbsolutePath();
+        }
+
+        // unit separators keep the values from running into each other.
+        //
+        return hash (new StringBuilder (path).append ('\u001f').append (v.getToken()).append ('\u001f').append (ModuleCache.getInstance().getGeneration (f)), new Object[0]);
+    }
+
+    private static String hash (
+        StringBuilder sb,
+        Object[] params
+    ) {
+        for (Object param : params)
+            sb.append ('\u001f').append (param);
+
+        try {
+            return DatatypeConverter.printHexBinary (MessageDigest.getInstance ("MD5").digest (sb.toString().getBytes ("UTF-8"))).toLowerCase();
+        } catch (Exception e) { // MD5 and UTF-8 are always supported.
+            throw new IllegalStateException (e);
+        }
+    }
+
+    private static CacheControl noCache() {
+        CacheControl cc = new CacheControl();
+
+        cc.setNoCache (true);
+        cc.setNoTransform (false);
+
+        return cc;
+    }
+}
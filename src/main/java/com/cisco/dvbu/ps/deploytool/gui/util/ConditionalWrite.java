@@ -0,0 +1,127 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.cisco.dvbu.ps.deploytool.gui.core.runtime.file.FileLocks;
+
+import java.io.File;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>
+ * Optimistic concurrency for the requests that change a file (module items, deployment plans, deployment profiles
+ * and servers.) A client sends back the entity tag it got when it read the file (see {@link ConditionalGet}) in the
+ * If-Match header of its add, copy, batch, PUT or DELETE request. The DAO checks the tag while holding the file's
+ * write lock (see {@link FileLocks}) and if the file was changed since the client read it, returns a
+ * {@link ResultMessage} with the {@link #CONFLICT} status rather than writing over the other change. The resource
+ * returns it as a 409 (Conflict) response.
+ * </p>
+ * <p>
+ * Requests without an If-Match header are applied as before. A client that goes on changing a file without reading
+ * it again (e.g. the deployment plan editor) gets the entity tag of the version its change left in the response.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ConditionalWrite {
+
+    /**
+     * Status of the {@link ResultMessage} returned for a change to a file that was changed since the client read it.
+     */
+    public static final String CONFLICT = "conflict";
+
+    // static methods only.
+    //
+    private ConditionalWrite() {}
+
+    /**
+     * <p>
+     * Returns whether a file is still the version the client read. Called by the DAOs while holding the file's write
+     * lock.
+     * </p>
+     *
+     * @param  path     The path to the file.
+     * @param  ifMatch  The entity tags in the request's If-Match header, or <code>null</code> if there isn't one.
+     * @return          <code>true</code> if <code>ifMatch</code> is <code>null</code> or "*" or one of its tags was
+     *                  sent for the file's current version.
+     */
+    public static boolean isCurrent (
+        String path,
+        String ifMatch
+    ) {
+        if (ifMatch == null || ifMatch.trim().equals ("*"))
+            return true;
+
+        String fileTag = ConditionalGet.fileTag (path);
+
+        if (fileTag == null)
+            return false;
+
+        for (String tag : ifMatch.split (",")) {
+            tag = tag.trim();
+
+            // weak tags are never sent by the resources, but are compared on the same terms.
+            //
+            if (tag.startsWith ("W/"))
+                tag = tag.substring (2);
+
+            if (tag.length() >= 2 && tag.startsWith ("\"") && tag.endsWith ("\""))
+                tag = tag.substring (1, tag.length() - 1);
+
+            // the part after the file's part of the tag is the hash of the request parameters.
+            //
+            int i = tag.indexOf ('-');
+
+            if (i >= 0)
+                tag = tag.substring (0, i);
+
+            if (tag.equals (fileTag))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Builds the response to a request that changes a file.
+     * </p>
+     *
+     * @param  result  The results of the request.
+     * @return         The response. It is 409 (Conflict) if the file was changed since the client read it.
+     */
+    public static Response respond (ResultMessage result) {
+        if (result != null && CONFLICT.equals (result.getStatus()))
+            return Response.status (Response.Status.CONFLICT).entity (result).build();
+
+        return Response.ok (result).build();
+    }
+
+    /**
+     * <p>
+     * Builds the response to a request that changes a file. A successful response carries the entity tag of the
+     * version of the file the change left (see {@link FileLocks#getWrittenVersion}), which the client sends in the
+     * If-Match header of its next change.
+     * </p>
+     *
+     * @param  result  The results of the request.
+     * @param  path    The path to the file.
+     * @return         The response. It is 409 (Conflict) if the file was changed since the client read it.
+     */
+    public static Response respond (
+        ResultMessage result,
+        String path
+    ) {
+        FileLocks.Version v = (path != null) ? FileLocks.getInstance().getWrittenVersion (path) : null;
+
+        if (result == null || ! "success".equals (result.getStatus()) || v == null)
+            return respond (result);
+
+        return Response.ok (result).tag (new EntityTag (ConditionalGet.fileTag (new File (path), v))).build();
+    }
+}
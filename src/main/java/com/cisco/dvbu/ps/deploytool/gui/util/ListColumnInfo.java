@@ -31,8 +31,8 @@ public class ListColumnInfo {
      * </p>
      * 
      * @param index    The index in the column {@link List}
-     * @param sortType Indicates the method used for sorting: {@link ListResultRowComparator#SORT_TYPE_STRING} or 
-     *                 {@link ListResultRowComparator#SORT_TYPE_NUMBER}
+     * @param sortType Indicates the method used for sorting: {@link ListResultRowComparator#SORT_TYPE_STRING}, 
+     *                 {@link ListResultRowComparator#SORT_TYPE_NUMBER} or {@link ListResultRowComparator#SORT_TYPE_DATE}
      */
     public ListColumnInfo (
         int index,
@@ -69,8 +69,8 @@ public class ListColumnInfo {
      * Sets the <code>sortType</code> field.
      * </p>
      * 
-     * @param  sortType  Indicates the method used for sorting: {@link ListResultRowComparator#SORT_TYPE_STRING} or 
-     *                   {@link ListResultRowComparator#SORT_TYPE_NUMBER}
+     * @param  sortType  Indicates the method used for sorting: {@link ListResultRowComparator#SORT_TYPE_STRING}, 
+     *                   {@link ListResultRowComparator#SORT_TYPE_NUMBER} or {@link ListResultRowComparator#SORT_TYPE_DATE}
      */
     public void setSortType (int sortType) {
         this.sortType = sortType;
@@ -0,0 +1,394 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Search rules for a jQuery list, compiled once per request and then applied to every row. Handles both the
+ * single field search (<code>searchField</code>, <code>searchString</code>, <code>searchOper</code>) and the
+ * jqGrid multiple search <code>filters</code> parameter, which is JSON of the form:
+ * </p>
+ * <pre>
+ * { "groupOp": "AND", "rules": [ { "field": "id", "op": "cn", "data": "abc" }, ... ], "groups": [ ... ] }
+ * </pre>
+ * <p>
+ * Comparisons ignore case and leading/trailing white space. Rules on unknown columns and rules with unknown
+ * operators match every row.
+ * </p>
+ * <p>
+ * Rules on the dictionary encoded columns of a {@link RowStore} are tested once per distinct value rather than
+ * once per row.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ListFilter {
+
+    private static final Logger log = LoggerFactory.getLogger (ListFilter.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final int OP_EQ = 1;  // equals
+    private static final int OP_NE = 2;  // not equals
+    private static final int OP_BW = 3;  // begins with
+    private static final int OP_BN = 4;  // does not begin with
+    private static final int OP_EW = 5;  // ends with
+    private static final int OP_EN = 6;  // does not end with
+    private static final int OP_CN = 7;  // contains
+    private static final int OP_NC = 8;  // does not contain
+    private static final int OP_NU = 9;  // is null (empty)
+    private static final int OP_NN = 10; // is not null (not empty)
+    private static final int OP_IN = 11; // is in
+    private static final int OP_NI = 12; // is not in
+    private static final int OP_LT = 13; // less than
+    private static final int OP_LE = 14; // less than or equal
+    private static final int OP_GT = 15; // greater than
+    private static final int OP_GE = 16; // greater than or equal
+
+    private static final String[] OPS = { "eq", "ne", "bw", "bn", "ew", "en", "cn", "nc", "nu", "nn", "in", "ni", "lt", "le", "gt", "ge" };
+
+    private Predicate root;
+
+    // use compile() to create filters.
+    //
+    private ListFilter (Predicate root) {
+        this.root = root;
+    }
+
+    /**
+     * <p>
+     * Compiles the search parameters of a list request. If the <code>filters</code> parameter is set it is used,
+     * otherwise the single field search parameters are used.
+     * </p>
+     *
+     * @param listColumnsInfo  A map of the columns in the table and their search capabilities.
+     * @param filters          The jqGrid multiple search filters (JSON) or <code>null</code>.
+     * @param searchField      Search field to search apply search rules to.
+     * @param searchString     String to search for
+     * @param searchOper       Search operation (equals or "eq", not equals or "ne", etc.)
+     * @return                 The compiled filter or <code>null</code> if there is nothing to filter on.
+     */
+    public static ListFilter compile (
+        Map<String, ListColumnInfo> listColumnsInfo,
+        String filters,
+        String searchField,
+        String searchString,
+        String searchOper
+    ) {
+        Predicate p = null;
+
+        if (filters != null && filters.trim().length() > 0) {
+            try {
+                p = compileGroup (listColumnsInfo, mapper.readTree (filters));
+                return (p != null) ? new ListFilter (p) : null;
+            } catch (Exception e) {
+                log.warn ("Unable to parse search filters, " + filters + ": " + e.getMessage());
+            }
+        }
+
+        p = compileRule (listColumnsInfo, searchField, searchOper, searchString);
+
+        return (p != null) ? new ListFilter (p) : null;
+    }
+
+    /**
+     * <p>
+     * Indicates whether a row passes the filter.
+     * </p>
+     *
+     * @param  r  The row to test.
+     * @return    <code>true</code> if the row passes.
+     */
+    public boolean matches (ListResult.Row r) {
+        return root.matches (r);
+    }
+
+    /**
+     * <p>
+     * Applies the filter to a list of rows.
+     * </p>
+     *
+     * @param  inList  The list of rows to search.
+     * @return         A new list with the rows that pass the filter, in their original order. The list is a
+     *                 {@link RowStore} if <code>inList</code> is.
+     */
+    public List<ListResult.Row> apply (List<ListResult.Row> inList) {
+        if (inList instanceof RowStore) {
+            RowStore store = (RowStore) inList;
+            Predicate p = root.bind (store);
+            int[] rows = new int[store.size()];
+            int count = 0;
+
+            for (int i = 0; i < rows.length; i++) {
+                if (p.matches (store, i))
+                    rows[count++] = i;
+            }
+
+            return store.select (rows, count);
+        }
+
+        List<ListResult.Row> result = new ArrayList<ListResult.Row>();
+
+        for (ListResult.Row r : inList) {
+            if (root.matches (r))
+                result.add (r);
+        }
+
+        return result;
+    }
+
+    // compiles a group of rules and sub-groups. empty groups and groups whose members all match everything
+    // return null (i.e. match everything.)
+    //
+    private static Predicate compileGroup (
+        Map<String, ListColumnInfo> listColumnsInfo,
+        JsonNode group
+    ) {
+        if (group == null || ! group.isObject())
+            return null;
+
+        List<Predicate> members = new ArrayList<Predicate>();
+
+        for (JsonNode rule : group.path ("rules")) {
+            Predicate p = compileRule (listColumnsInfo, rule.path ("field").asText(), rule.path ("op").asText(), rule.path ("data").asText());
+
+            if (p != null)
+                members.add (p);
+        }
+
+        for (JsonNode subGroup : group.path ("groups")) {
+            Predicate p = compileGroup (listColumnsInfo, subGroup);
+
+            if (p != null)
+                members.add (p);
+        }
+
+        if (members.size() == 0)
+            return null;
+
+        if (members.size() == 1)
+            return members.get (0);
+
+        return new Group (group.path ("groupOp").asText().equalsIgnoreCase ("OR"), members.toArray (new Predicate[members.size()]));
+    }
+
+    // compiles a single rule. returns null for rules that match everything (unknown columns or operators.)
+    //
+    private static Predicate compileRule (
+        Map<String, ListColumnInfo> listColumnsInfo,
+        String field,
+        String oper,
+        String data
+    ) {
+        if (field == null || oper == null || listColumnsInfo.get (field) == null)
+            return null;
+
+        for (int i = 0; i < OPS.length; i++) {
+            if (OPS[i].equalsIgnoreCase (oper))
+                return new Rule (listColumnsInfo.get (field), i + 1, (data == null) ? "" : data.trim());
+        }
+
+        return null;
+    }
+
+    // a compiled search rule or group of rules.
+    //
+    private static abstract class Predicate {
+        abstract boolean matches (ListResult.Row r);
+
+        abstract boolean matches (RowStore store, int i);
+
+        // returns a predicate to use on the rows of a store.
+        //
+        Predicate bind (RowStore store) {
+            return this;
+        }
+    }
+
+    private static class Group extends Predicate {
+        private boolean or;
+        private Predicate[] members;
+
+        Group (
+            boolean or,
+            Predicate[] members
+        ) {
+            this.or = or;
+            this.members = members;
+        }
+
+        boolean matches (ListResult.Row r) {
+            for (Predicate p : members) {
+                if (p.matches (r) == or)
+                    return or;
+            }
+
+            return ! or;
+        }
+
+        boolean matches (
+            RowStore store,
+            int i
+        ) {
+            for (Predicate p : members) {
+                if (p.matches (store, i) == or)
+                    return or;
+            }
+
+            return ! or;
+        }
+
+        Predicate bind (RowStore store) {
+            Predicate[] bound = new Predicate[members.length];
+
+            for (int i = 0; i < members.length; i++)
+                bound[i] = members[i].bind (store);
+
+            return new Group (or, bound);
+        }
+    }
+
+    private static class Rule extends Predicate {
+        private int index;
+        private int op;
+        private String data;
+        private Pattern pattern;
+        private Set<String> keys;
+        private boolean number;
+        private int n;
+
+        Rule (
+            ListColumnInfo column,
+            int op,
+            String data
+        ) {
+            this.index = column.getIndex();
+            this.op = op;
+            this.data = data;
+
+            // do the expensive work once rather than for every row.
+            //
+            if (op == OP_CN || op == OP_NC) {
+                pattern = Pattern.compile (Pattern.quote (data), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            } else if (op == OP_IN || op == OP_NI) {
+                keys = new HashSet<String>();
+
+                for (String key : data.split ("\\s*,\\s*"))
+                    keys.add (key.toLowerCase (Locale.ENGLISH));
+            } else if (op >= OP_LT && column.getSortType() == ListResultRowComparator.SORT_TYPE_NUMBER) {
+                try {
+                    n = Integer.parseInt (data);
+                    number = true;
+                } catch (NumberFormatException ignored) { ; }
+            }
+        }
+
+        boolean matches (ListResult.Row r) {
+            return test (r.getCell().get (index));
+        }
+
+        boolean matches (
+            RowStore store,
+            int i
+        ) {
+            return test (store.getValue (i, index));
+        }
+
+        // test each distinct value of a dictionary encoded column up front.
+        //
+        Predicate bind (RowStore store) {
+            String[] dictionary = store.getDictionary (index);
+
+            if (dictionary == null)
+                return this;
+
+            boolean[] results = new boolean[dictionary.length];
+
+            for (int k = 0; k < dictionary.length; k++)
+                results[k] = test (dictionary[k]);
+
+            return new DictionaryRule (this, results);
+        }
+
+        private boolean test (String value) {
+            value = (value == null) ? "" : value.trim();
+
+            switch (op) {
+                case OP_EQ: return value.equalsIgnoreCase (data);
+                case OP_NE: return ! value.equalsIgnoreCase (data);
+                case OP_BW: return value.regionMatches (true, 0, data, 0, data.length());
+                case OP_BN: return ! value.regionMatches (true, 0, data, 0, data.length());
+                case OP_EW: return value.regionMatches (true, value.length() - data.length(), data, 0, data.length());
+                case OP_EN: return ! value.regionMatches (true, value.length() - data.length(), data, 0, data.length());
+                case OP_CN: return pattern.matcher (value).find();
+                case OP_NC: return ! pattern.matcher (value).find();
+                case OP_NU: return value.length() == 0;
+                case OP_NN: return value.length() > 0;
+                case OP_IN: return keys.contains (value.toLowerCase (Locale.ENGLISH));
+                case OP_NI: return ! keys.contains (value.toLowerCase (Locale.ENGLISH));
+                case OP_LT: return compare (value) < 0;
+                case OP_LE: return compare (value) <= 0;
+                case OP_GT: return compare (value) > 0;
+                case OP_GE: return compare (value) >= 0;
+                default:    return true;
+            }
+        }
+
+        // compares the same way ListResultRowComparator sorts: numerically for number columns when both values
+        // are numbers, otherwise as strings.
+        //
+        private int compare (String value) {
+            if (number) {
+                try {
+                    int v = Integer.parseInt (value);
+
+                    return (v < n) ? -1 : (v > n) ? 1 : 0;
+                } catch (NumberFormatException ignored) { ; }
+            }
+
+            return value.compareToIgnoreCase (data);
+        }
+    }
+
+    // a rule bound to a dictionary encoded column, with the result for each distinct value.
+    //
+    private static class DictionaryRule extends Predicate {
+        private Rule rule;
+        private boolean[] results;
+
+        DictionaryRule (
+            Rule rule,
+            boolean[] results
+        ) {
+            this.rule = rule;
+            this.results = results;
+        }
+
+        boolean matches (ListResult.Row r) {
+            return rule.matches (r);
+        }
+
+        boolean matches (
+            RowStore store,
+            int i
+        ) {
+            return results[store.getCode (i, rule.index)];
+        }
+    }
+}
@@ -4,6 +4,8 @@ package com.cisco.dvbu.ps.deploytool.gui.util;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
@@ -12,7 +14,8 @@ import java.util.List;
  * also is used for populating parameter value pick lists in the UI.
  * </p>
  * <p>
- * This is the POJO representation of the JSON format that the jqGrid widget on the UI side expects.
+ * This is the POJO representation of the JSON format that the jqGrid widget on the UI side expects. Results of
+ * cursor (keyset) list requests also carry a <code>next</code> token (see {@link ListUtils#getCursorResult}.)
  * </p>
  * 
  * @author Calvin Goodrich
@@ -24,6 +27,7 @@ public class ListResult {
     private int records;
     private List<Row> rows;
     private String param;
+    private String next;
     
     /**
      * <p>
@@ -167,6 +171,30 @@ public class ListResult {
         return param;
     }
 
+    /**
+     * <p>
+     * Sets the <code>next</code> field.
+     * </p>
+     * 
+     * @param  next  The cursor token for the page after this one or <code>null</code> if this is the last page.
+     */
+    public void setNext (String next) {
+        this.next = next;
+    }
+
+    /**
+     * <p>
+     * Returns the value of the <code>next</code> field. Only cursor list requests set it, so it is left out of
+     * the JSON when it is <code>null</code>.
+     * </p>
+     * 
+     * @return     The value.
+     */
+    @JsonInclude (JsonInclude.Include.NON_NULL)
+    public String getNext () {
+        return next;
+    }
+
     /**
      * <p>
      * Bean object for a row of data in a server list. Intended to be serialized/deserialized by Jackson into/from JSON.
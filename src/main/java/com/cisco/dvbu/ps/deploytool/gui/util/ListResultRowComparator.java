@@ -12,6 +12,10 @@ import java.util.List;
  * <p>
  * Custom RowComparator class for sorting {@link ListResult.Row} objects in a {@link List}.
  * </p>
+ * <p>
+ * Values are converted on every comparison. The list DAOs sort with {@link ListSorter}, which converts each value
+ * once and supports sorting on several columns.
+ * </p>
  *
  * @author Calvin Goodrich
  * @version 1.0
@@ -31,6 +35,11 @@ public class ListResultRowComparator implements Comparator<ListResult.Row> { //
      */
     public static final int SORT_TYPE_NUMBER = 2;
     
+    /**
+     * Indicates a date sort (see {@link ListSorter#DATE_FORMAT}.) Compared as a {@link String} by this class.
+     */
+    public static final int SORT_TYPE_DATE = 3;
+    
     /**
      * <p>
      * Constructor. Defaults to an ascending {@link String} sort of index 0. 
@@ -0,0 +1,153 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.List;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * <p>
+ * Writes a {@link ListResult} to a response as it goes rather than handing the result to Jackson to serialize
+ * as a bean. The JSON is the same as Jackson's, but the rows of a {@link RowStore} page are written straight from
+ * its columns, so a large page (e.g. an export of all rows) never exists as row objects, and the output is
+ * flushed every {@link #FLUSH_ROWS} rows so the client starts receiving it before the last row is written.
+ * </p>
+ * <p>
+ * List resources return the writer from {@link #stream} in place of the {@link ListResult} itself.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ListResultWriter implements StreamingOutput {
+
+    /**
+     * Number of rows written between flushes of the response.
+     */
+    public static final int FLUSH_ROWS = 1000;
+
+    // the response stream belongs to the container, so closing the generator mustn't close it.
+    //
+    private static final JsonFactory factory = new JsonFactory().disable (JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private ListResult result;
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     *
+     * @param  result  The result to write.
+     */
+    public ListResultWriter (ListResult result) {
+        this.result = result;
+    }
+
+    /**
+     * <p>
+     * Returns a writer for a list result, for returning from a resource method.
+     * </p>
+     *
+     * @param  result  The result to write.
+     * @return         The writer or <code>null</code> (no content) if <code>result</code> is <code>null</code>.
+     */
+    public static StreamingOutput stream (ListResult result) {
+        return (result != null) ? new ListResultWriter (result) : null;
+    }
+
+    /**
+     * <p>
+     * Writes the result as JSON.
+     * </p>
+     *
+     * @param  out  The response stream.
+     * @throws IOException  If the response can't be written.
+     */
+    public void write (OutputStream out) throws IOException {
+        JsonGenerator g = factory.createGenerator (out, JsonEncoding.UTF8);
+        List<ListResult.Row> rows = result.getRows();
+
+        // same properties in the same order as Jackson writes the bean.
+        //
+        g.writeStartObject();
+        g.writeNumberField ("total", result.getTotal());
+        g.writeNumberField ("page", result.getPage());
+        g.writeNumberField ("records", result.getRecords());
+        g.writeFieldName ("rows");
+
+        if (rows == null) {
+            g.writeNull();
+        } else if (rows instanceof RowStore) {
+            RowStore store = (RowStore) rows;
+
+            g.writeStartArray();
+
+            for (int i = 0; i < store.size(); i++) {
+                g.writeStartObject();
+                g.writeStringField ("id", store.getId (i));
+                g.writeArrayFieldStart ("cell");
+
+                for (int c = 0; c < store.getColumnCount(); c++)
+                    g.writeString (store.getValue (i, c));
+
+                g.writeEndArray();
+                g.writeEndObject();
+
+                if ((i + 1) % FLUSH_ROWS == 0)
+                    g.flush();
+            }
+
+            g.writeEndArray();
+        } else {
+            int i = 0;
+
+            g.writeStartArray();
+
+            for (ListResult.Row r : rows) {
+                if (r == null) {
+                    g.writeNull();
+                } else {
+                    g.writeStartObject();
+                    g.writeStringField ("id", r.getId());
+                    g.writeFieldName ("cell");
+
+                    if (r.getCell() == null) {
+                        g.writeNull();
+                    } else {
+                        g.writeStartArray();
+
+                        for (String value : r.getCell())
+                            g.writeString (value);
+
+                        g.writeEndArray();
+                    }
+
+                    g.writeEndObject();
+                }
+
+                if (++i % FLUSH_ROWS == 0)
+                    g.flush();
+            }
+
+            g.writeEndArray();
+        }
+
+        g.writeStringField ("param", result.getParam());
+
+        if (result.getNext() != null)
+            g.writeStringField ("next", result.getNext());
+
+        g.writeEndObject();
+        g.close();
+    }
+}
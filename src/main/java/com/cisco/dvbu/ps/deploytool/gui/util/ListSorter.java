@@ -0,0 +1,452 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Sorts jQuery list rows on one or more columns. The sort key of each cell is computed once per row (case folded
+ * strings, and numbers and dates parsed into longs) and the rows are then put in order by a stable merge sort of
+ * their positions, so sorting doesn't convert the same cell value over and over.
+ * </p>
+ * <p>
+ * The sort index may name several columns as the jqGrid widget's multiple column sort does, e.g.
+ * <code>"type asc, id desc"</code>. A column without a direction uses the sort order parameter if it is the last
+ * column and ascending order otherwise. Rows with equal sort keys keep their original order unless they are
+ * ordered by row ID (see {@link ListUtils#getCursorResult}.)
+ * </p>
+ * <p>
+ * Column values are compared as follows: {@link ListResultRowComparator#SORT_TYPE_STRING} ignoring case,
+ * {@link ListResultRowComparator#SORT_TYPE_NUMBER} numerically and {@link ListResultRowComparator#SORT_TYPE_DATE}
+ * chronologically (values must be in {@link #DATE_FORMAT}.) Numbers and dates sort ahead of values that can't be
+ * parsed, which sort among themselves as strings.
+ * </p>
+ * <p>
+ * The keys of a {@link RowStore}'s dictionary encoded columns are computed once per distinct value.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class ListSorter implements Comparator<ListResult.Row> {
+
+    /**
+     * The format of {@link ListResultRowComparator#SORT_TYPE_DATE} column values.
+     */
+    public static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    // below this size merge sort switches to insertion sort.
+    //
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private int[] indexes;    // cell indexes of the sort columns
+    private int[] directions; // 1 = ascending, -1 = descending
+    private int[] sortTypes;
+    private boolean byId;
+    private int idDirection;
+
+    /**
+     * <p>
+     * Constructor.
+     * </p>
+     *
+     * @param listColumnsInfo  A map of the columns in the table and their sort types.
+     * @param sortIndex        The column or comma separated columns (each optionally followed by "asc" or "desc")
+     *                         to sort on. Unknown columns are ignored.
+     * @param sortOrder        Sort order ("asc" or "desc") of the last column.
+     * @param byId             Indicates whether rows with the same sort keys are ordered by row ID.
+     */
+    public ListSorter (
+        Map<String, ListColumnInfo> listColumnsInfo,
+        String sortIndex,
+        String sortOrder,
+        boolean byId
+    ) {
+        List<String> terms = new ArrayList<String>();
+        int defaultDirection = (sortOrder != null && sortOrder.trim().equalsIgnoreCase ("desc")) ? -1 : 1;
+
+        if (sortIndex != null) {
+            for (String term : sortIndex.split (",")) {
+                if (term.trim().length() > 0)
+                    terms.add (term.trim());
+            }
+        }
+
+        List<int[]> columns = new ArrayList<int[]>();
+
+        for (int i = 0; i < terms.size(); i++) {
+            String[] parts = terms.get (i).split ("\\s+");
+            ListColumnInfo lci = listColumnsInfo.get (parts[0]);
+
+            if (lci == null)
+                continue;
+
+            int direction = (i == terms.size() - 1) ? defaultDirection : 1;
+
+            if (parts.length > 1)
+                direction = (parts[1].equalsIgnoreCase ("desc")) ? -1 : 1;
+
+            columns.add (new int[] { lci.getIndex(), direction, lci.getSortType() });
+        }
+
+        this.indexes = new int[columns.size()];
+        this.directions = new int[columns.size()];
+        this.sortTypes = new int[columns.size()];
+
+        for (int i = 0; i < columns.size(); i++) {
+            this.indexes[i] = columns.get (i)[0];
+            this.directions[i] = columns.get (i)[1];
+            this.sortTypes[i] = columns.get (i)[2];
+        }
+
+        this.byId = byId;
+        this.idDirection = (columns.size() > 0) ? directions[columns.size() - 1] : defaultDirection;
+    }
+
+    /**
+     * <p>
+     * Returns the cell indexes of the sort columns.
+     * </p>
+     *
+     * @return     The value.
+     */
+    public int[] getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * <p>
+     * Sorts a list of rows.
+     * </p>
+     *
+     * @param  rows  The rows to sort. The list isn't modified.
+     * @return       A new list with the rows in order or the input list if there is nothing to sort on. The list
+     *               is a {@link RowStore} if <code>rows</code> is.
+     */
+    public List<ListResult.Row> sort (List<ListResult.Row> rows) {
+        int n = rows.size();
+
+        if ((indexes.length == 0 && ! byId) || n < 2)
+            return rows;
+
+        ListResult.Row[] array = null;
+        Keys keys;
+
+        if (rows instanceof RowStore) {
+            keys = new Keys ((RowStore) rows);
+        } else {
+            array = rows.toArray (new ListResult.Row[n]);
+            keys = new Keys (array);
+        }
+
+        int[] order = new int[n];
+
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+
+        mergeSort (order, new int[n], 0, n, keys);
+
+        if (array == null)
+            return ((RowStore) rows).select (order, n);
+
+        List<ListResult.Row> result = new ArrayList<ListResult.Row> (n);
+
+        for (int i = 0; i < n; i++)
+            result.add (array[order[i]]);
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Compares two rows the same way {@link #sort} orders them. Sort keys are computed on every call, so use
+     * {@link #sort} to sort lists.
+     * </p>
+     *
+     * @param  row1  First {@link ListResult.Row} object to compare.
+     * @param  row2  Second {@link ListResult.Row} object to compare.
+     * @return       A negative number, zero, or a positive number if row1 sorts before, with, or after row2.
+     */
+    public int compare (
+        ListResult.Row row1,
+        ListResult.Row row2
+    ) {
+        Keys keys = new Keys (new ListResult.Row[] { row1, row2 });
+
+        return keys.compare (0, 1);
+    }
+
+    // stable merge sort of row positions.
+    //
+    private static void mergeSort (
+        int[] a,
+        int[] tmp,
+        int lo,
+        int hi,
+        Keys keys
+    ) {
+        if (hi - lo <= INSERTION_SORT_SIZE) {
+            for (int i = lo + 1; i < hi; i++) {
+                int x = a[i];
+                int j = i - 1;
+
+                while (j >= lo && keys.compare (a[j], x) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+
+                a[j + 1] = x;
+            }
+
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+
+        mergeSort (a, tmp, lo, mid, keys);
+        mergeSort (a, tmp, mid, hi, keys);
+
+        // already in order.
+        //
+        if (keys.compare (a[mid - 1], a[mid]) <= 0)
+            return;
+
+        System.arraycopy (a, lo, tmp, lo, hi - lo);
+
+        int i = lo;
+        int j = mid;
+
+        for (int k = lo; k < hi; k++) {
+            if (j >= hi || (i < mid && keys.compare (tmp[i], tmp[j]) <= 0))
+                a[k] = tmp[i++];
+            else
+                a[k] = tmp[j++];
+        }
+    }
+
+    // folds a string the same way String.compareToIgnoreCase() does so that comparing folded strings with
+    // compareTo() gives the same result. strings that don't change aren't copied.
+    //
+    private static String fold (String s) {
+        if (s == null)
+            return "";
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt (i);
+
+            if (Character.toLowerCase (Character.toUpperCase (c)) != c) {
+                char[] chars = s.toCharArray();
+
+                for (int j = i; j < chars.length; j++)
+                    chars[j] = Character.toLowerCase (Character.toUpperCase (chars[j]));
+
+                return new String (chars);
+            }
+        }
+
+        return s;
+    }
+
+    // parses a whole number without throwing exceptions for the (common) non-numeric values.
+    //
+    private static boolean isNumber (String s) {
+        int len = s.length();
+        int start = (len > 0 && (s.charAt (0) == '-' || s.charAt (0) == '+')) ? 1 : 0;
+
+        if (len == start || len - start > 18)
+            return false;
+
+        for (int i = start; i < len; i++) {
+            if (s.charAt (i) < '0' || s.charAt (i) > '9')
+                return false;
+        }
+
+        return true;
+    }
+
+    // turns a DATE_FORMAT value into the number yyyyMMddHHmmss, which sorts the same way as the time it stands
+    // for and is much cheaper to get than parsing the date. returns -1 if the value isn't in that format.
+    //
+    private static long parseDate (String s) {
+        if (s.length() != DATE_FORMAT.length())
+            return -1;
+
+        long result = 0;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt (i);
+            char f = DATE_FORMAT.charAt (i);
+
+            if (Character.isLetter (f)) {
+                if (c < '0' || c > '9')
+                    return -1;
+
+                result = result * 10 + (c - '0');
+            } else if (c != f) {
+                return -1;
+            }
+        }
+
+        return result;
+    }
+
+    // the sort keys of a set of rows, one array per sort column.
+    //
+    private class Keys {
+        String[] ids;         // row IDs (only when ordering by row ID)
+        String[][] strings;   // folded values (unparseable values for number and date columns)
+        long[][] numbers;     // parsed values for number and date columns
+        boolean[][] parsed;   // whether the value was parsed
+
+        Keys (int n) {
+            this.ids = (byId) ? new String[n] : null;
+            this.strings = new String[indexes.length][];
+            this.numbers = new long[indexes.length][];
+            this.parsed = new boolean[indexes.length][];
+
+            for (int c = 0; c < indexes.length; c++) {
+                strings[c] = new String[n];
+
+                if (sortTypes[c] == ListResultRowComparator.SORT_TYPE_NUMBER || sortTypes[c] == ListResultRowComparator.SORT_TYPE_DATE) {
+                    numbers[c] = new long[n];
+                    parsed[c] = new boolean[n];
+                }
+            }
+        }
+
+        Keys (ListResult.Row[] rows) {
+            this (rows.length);
+
+            for (int c = 0; c < indexes.length; c++) {
+                for (int r = 0; r < rows.length; r++)
+                    set (c, r, rows[r].getCell().get (indexes[c]));
+            }
+
+            for (int r = 0; ids != null && r < rows.length; r++)
+                ids[r] = rows[r].getId();
+        }
+
+        Keys (RowStore store) {
+            this (store.size());
+
+            int n = store.size();
+
+            for (int c = 0; c < indexes.length; c++) {
+                String[] dictionary = store.getDictionary (indexes[c]);
+
+                if (dictionary == null) {
+                    for (int r = 0; r < n; r++)
+                        set (c, r, store.getValue (r, indexes[c]));
+
+                    continue;
+                }
+
+                // work out the key of each distinct value and then hand them out by dictionary code.
+                //
+                Keys dk = new Keys (dictionary.length, c);
+
+                for (int k = 0; k < dictionary.length; k++)
+                    dk.set (c, k, dictionary[k]);
+
+                for (int r = 0; r < n; r++) {
+                    int k = store.getCode (r, indexes[c]);
+
+                    strings[c][r] = dk.strings[c][k];
+
+                    if (parsed[c] != null) {
+                        numbers[c][r] = dk.numbers[c][k];
+                        parsed[c][r] = dk.parsed[c][k];
+                    }
+                }
+            }
+
+            for (int r = 0; ids != null && r < n; r++)
+                ids[r] = store.getId (r);
+        }
+
+        // keys of the distinct values of sort column c only.
+        //
+        private Keys (
+            int n,
+            int c
+        ) {
+            this.strings = new String[indexes.length][];
+            this.numbers = new long[indexes.length][];
+            this.parsed = new boolean[indexes.length][];
+            this.strings[c] = new String[n];
+
+            if (sortTypes[c] == ListResultRowComparator.SORT_TYPE_NUMBER || sortTypes[c] == ListResultRowComparator.SORT_TYPE_DATE) {
+                numbers[c] = new long[n];
+                parsed[c] = new boolean[n];
+            }
+        }
+
+        // computes the key of a value of sort column c for row r.
+        //
+        void set (
+            int c,
+            int r,
+            String v
+        ) {
+            if (parsed[c] == null) {
+                strings[c][r] = fold (v);
+                return;
+            }
+
+            v = (v == null) ? "" : v.trim();
+
+            if (sortTypes[c] == ListResultRowComparator.SORT_TYPE_NUMBER) {
+                if (isNumber (v)) {
+                    numbers[c][r] = Long.parseLong ((v.charAt (0) == '+') ? v.substring (1) : v);
+                    parsed[c][r] = true;
+                }
+            } else {
+                numbers[c][r] = parseDate (v);
+                parsed[c][r] = numbers[c][r] >= 0;
+            }
+
+            if (! parsed[c][r])
+                strings[c][r] = fold (v);
+        }
+
+        int compare (
+            int r1,
+            int r2
+        ) {
+            for (int c = 0; c < indexes.length; c++) {
+                int result;
+
+                if (parsed[c] != null && (parsed[c][r1] || parsed[c][r2])) {
+                    if (parsed[c][r1] && parsed[c][r2]) {
+                        long n1 = numbers[c][r1];
+                        long n2 = numbers[c][r2];
+
+                        result = (n1 < n2) ? -1 : (n1 > n2) ? 1 : 0;
+                    } else {
+                        result = (parsed[c][r1]) ? -1 : 1;
+                    }
+                } else {
+                    result = strings[c][r1].compareTo (strings[c][r2]);
+                }
+
+                if (result != 0)
+                    return result * directions[c];
+            }
+
+            if (byId) {
+                String id1 = (ids[r1] == null) ? "" : ids[r1];
+                String id2 = (ids[r2] == null) ? "" : ids[r2];
+
+                return id1.compareTo (id2) * idDirection;
+            }
+
+            return 0;
+        }
+    }
+}
@@ -4,11 +4,15 @@ package com.cisco.dvbu.ps.deploytool.gui.util;
  * (c) 2014 Cisco and/or its affiliates. All rights reserved.
  */
 
+import java.io.UnsupportedEncodingException;
+
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.bind.DatatypeConverter;
+
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
@@ -30,11 +34,14 @@ public class ListUtils {
 
     /**
      * <p>
-     * Applies search rules to a result list.
+     * Applies search rules to a result list. The rules are compiled once (see {@link ListFilter}) and then
+     * applied to each row in a single pass. The jqGrid multiple search <code>filters</code> take precedence
+     * over the single field search parameters.
      * </p>
      * 
      * @param inList           The list of rows to search.
      * @param listColumnsInfo  A map of the columns in the table and their search capabilities.
+     * @param filters          Multi-rule filtering (jqGrid "filters" JSON) or <code>null</code>.
      * @param searchField      Search field to search apply search rules to.
      * @param searchString     String to search for
      * @param searchOper       Search operation (equals or "eq", not equals or "ne", etc.)
@@ -43,90 +50,19 @@ public class ListUtils {
     public static List<ListResult.Row> applySearchRules (
         List<ListResult.Row> inList,
         Map<String, ListColumnInfo> listColumnsInfo,
+        String filters,
         String searchField,
         String searchString,
         String searchOper
     ) {
-        List<ListResult.Row> result = new ArrayList<ListResult.Row>();
-        Iterator<ListResult.Row> itr = inList.iterator();
+        ListFilter filter = ListFilter.compile (listColumnsInfo, filters, searchField, searchString, searchOper);
         
-        // if the search field is null or isn't found in the known list of columns
+        // nothing to search on
         //
-        if (searchField == null || listColumnsInfo.get (searchField) == null)
+        if (filter == null)
             return inList;
         
-        // if the search string is null set it to the empty string
-        //
-        if (searchString == null)
-            searchString = "";
-        
-        int searchIndex = listColumnsInfo.get (searchField).getIndex();
-        searchString = searchString.trim();
-        
-        while (itr.hasNext()) {
-            ListResult.Row r = itr.next();
-            String value = r.getCell().get (searchIndex);
-            
-            value = (value == null) ? "" : value.trim();
-            
-            if (searchOper.equalsIgnoreCase ("eq")) { // equals
-                if (value.equalsIgnoreCase (searchString))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("ne")) { // not equals
-                if (! value.equalsIgnoreCase (searchString))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("bw")) { // begins with
-                if (value.matches ("(?i)\\Q" + searchString + "\\E.*"))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("bn")) { // does not begin with
-                if (! value.matches ("(?i)\\Q" + searchString + "\\E.*"))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("ew")) { // ends with
-                if (value.matches ("(?i).*\\Q" + searchString + "\\E"))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("en")) { // does not end with
-                if (! value.matches ("(?i).*\\Q" + searchString + "\\E"))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("cn")) { // contains
-                if (value.matches ("(?i).*\\Q" + searchString + "\\E.*"))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("nc")) { // does not contain
-                if (! value.matches ("(?i).*\\Q" + searchString + "\\E.*"))
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("nu")) { // is null
-                if (value == null)
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("nn")) { // is not null
-                if (value != null)
-                    result.add (r);
-            } else if (searchOper.equalsIgnoreCase ("in")) { // is in
-                String[] searchKeys = searchString.split ("\\s*,\\s*");
-
-                for (int i = 0; i < searchKeys.length; i++) {
-                    if (value.equalsIgnoreCase (searchKeys[i])) {
-                        result.add(r);
-                        break;
-                    }
-                }
-            } else if (searchOper.equalsIgnoreCase ("ni")) { // is not in
-                String[] searchKeys = searchString.split ("\\s*,\\s*");
-                boolean found = false;
-
-                for (int i = 0; i < searchKeys.length; i++) {
-                    if (value.equalsIgnoreCase (searchKeys[i])) {
-                        found = true;
-                        break;
-                    }
-                }
-                
-                if (! found)
-                    result.add(r);
-            } else {
-                result.add(r);
-            }
-        }
-
-        return result;
+        return filter.apply (inList);
     }
     
     /**
@@ -205,4 +141,126 @@ public class ListUtils {
                        param
                    );
     }
+
+    /**
+     * <p>
+     * Constructs a {@link ListResult} return object holding the rows that follow a cursor. Unlike page numbers,
+     * a cursor holds the sort value and ID of the last row returned, so a client walking a list continues
+     * where it left off even if rows were added or removed in the meantime. Finding the cursor's position is a
+     * binary search, so each call only does work in proportion to the page size once the sorted list is
+     * cached.
+     * </p>
+     * <p>
+     * The <code>next</code> field of the result holds the cursor for the following page or is <code>null</code> on
+     * the last page. The <code>records</code> and <code>total</code> fields are the size of the list as of this
+     * call and the <code>page</code> field is the page the first row would be on; they may shift between calls.
+     * </p>
+     * 
+     * @param resultList  The filtered rows sorted by <code>order</code>.
+     * @param order       The sorter the rows were sorted with. It must order rows by row ID (see
+     *                    {@link ListSorter#ListSorter}) so that every row has its own position.
+     * @param numRows     The number of rows in a page.
+     * @param cursor      The <code>next</code> token of the previous page or an empty string for the first page.
+     * @param param       The parameter field in the UI to populate with the values in the returned {@link ListResult} object.
+     * @return            The requested page of items.
+     * @throws IllegalArgumentException  If the cursor isn't one returned by this method.
+     */
+    public static ListResult getCursorResult (
+        List<ListResult.Row> resultList,
+        ListSorter order,
+        int numRows,
+        String cursor,
+        String param
+    ) {
+        int totalRecords = resultList.size();
+        int firstIncl = 0;
+        
+        if (numRows <= 0)
+            numRows = totalRecords;
+        
+        // locate the first row after the cursor.
+        //
+        if (cursor != null && cursor.length() > 0) {
+            int i = Collections.binarySearch (resultList, decodeCursor (cursor, order.getIndexes()), order);
+            
+            firstIncl = (i >= 0) ? i + 1 : -(i + 1);
+        }
+        
+        int lastExcl = Math.min (firstIncl + numRows, totalRecords);
+        int totalPages = (numRows > 0) ? (totalRecords + numRows - 1) / numRows : 0;
+        
+        ListResult result = new ListResult (
+                                totalPages,
+                                (numRows > 0) ? firstIncl / numRows + 1 : 1,
+                                totalRecords,
+                                resultList.subList (firstIncl, lastExcl),
+                                param
+                            );
+        
+        if (lastExcl < totalRecords && lastExcl > firstIncl)
+            result.setNext (encodeCursor (resultList.get (lastExcl - 1), order.getIndexes()));
+        
+        return result;
+    }
+    
+    // cursors are the sort values and row ID separated by NUL characters, base64 encoded with the URL safe
+    // alphabet so that they can be passed as a query parameter as is.
+    //
+    private static String encodeCursor (
+        ListResult.Row r,
+        int[] indexes
+    ) {
+        StringBuilder sb = new StringBuilder();
+        
+        for (int index : indexes) {
+            String value = r.getCell().get (index);
+            
+            sb.append ((value == null) ? "" : value).append ('\u0000');
+        }
+        
+        sb.append ((r.getId() == null) ? "" : r.getId());
+        
+        try {
+            String token = DatatypeConverter.printBase64Binary (sb.toString().getBytes ("UTF-8"));
+            
+            return token.replace ('+', '-').replace ('/', '_').replaceAll ("=+$", "");
+        } catch (UnsupportedEncodingException e) { // UTF-8 is always supported.
+            throw new IllegalStateException (e);
+        }
+    }
+    
+    // makes a row that sorts in the cursor's position.
+    //
+    private static ListResult.Row decodeCursor (
+        String cursor,
+        int[] indexes
+    ) {
+        String s;
+        
+        try {
+            String token = cursor.trim().replace ('-', '+').replace ('_', '/');
+            
+            while (token.length() % 4 != 0)
+                token += "=";
+            
+            s = new String (DatatypeConverter.parseBase64Binary (token), "UTF-8");
+        } catch (Exception e) {
+            throw new IllegalArgumentException ("Invalid list cursor: " + cursor);
+        }
+        
+        String[] parts = s.split ("\u0000", -1);
+        if (parts.length != indexes.length + 1)
+            throw new IllegalArgumentException ("Invalid list cursor: " + cursor);
+        
+        List<String> cell = new ArrayList<String>();
+        
+        for (int i = 0; i < indexes.length; i++) {
+            while (cell.size() <= indexes[i])
+                cell.add (null);
+            
+            cell.set (indexes[i], parts[i]);
+        }
+        
+        return new ListResult.Row (parts[indexes.length], cell);
+    }
 }
@@ -0,0 +1,338 @@
+package com.cisco.dvbu.ps.deploytool.gui.util;
+
+/*
+ * (c) 2014 Cisco and/or its affiliates. All rights reserved.
+ */
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <p>
+ * Read only list of jQuery list rows stored by column rather than by row. A list of {@link ListResult.Row} objects
+ * costs a row object, a cell list and its backing array for every row, and module files repeat the same handful of
+ * values (types, modes, "true" and "false") in every record as separate strings. This list keeps one array of row
+ * IDs and one array per column instead. Columns whose values repeat are dictionary encoded: each distinct value is
+ * kept once and the rows hold an int code into the dictionary.
+ * </p>
+ * <p>
+ * Searching and sorting a store ({@link ListFilter#apply} and {@link ListSorter#sort}) return another store that
+ * shares the columns and just lists the positions of the rows it contains, and work out per dictionary value rather
+ * than per row what they can. Pages are ranges of a store ({@link #subList}) and {@link ListResultWriter} writes them
+ * straight from the columns. {@link ListResult.Row} objects are only built by {@link #get}.
+ * </p>
+ * <p>
+ * Use a {@link Builder} to create stores.
+ * </p>
+ *
+ * @author Calvin Goodrich
+ * @version 1.0
+ */
+public class RowStore extends AbstractList<ListResult.Row> implements RandomAccess {
+
+    // a column is only dictionary encoded if it has at most one distinct value per this many rows.
+    //
+    private static final int DICTIONARY_RATIO = 2;
+
+    // the number of rows looked at before giving up on encoding a column that has too many distinct values.
+    //
+    private static final int DICTIONARY_SAMPLE = 1024;
+
+    private String[] ids;
+    private String[][] values;        // plain columns (null for dictionary encoded columns)
+    private int[][] codes;            // dictionary codes of encoded columns (null for plain columns)
+    private String[][] dictionaries;  // distinct values of encoded columns (null for plain columns)
+    private int[] positions;          // positions of this list's rows in the arrays (null for all in order)
+    private int offset;               // index in positions (or the arrays) of this list's first row
+    private int size;
+
+    private RowStore (
+        String[] ids,
+        String[][] values,
+        int[][] codes,
+        String[][] dictionaries,
+        int[] positions,
+        int offset,
+        int size
+    ) {
+        this.ids = ids;
+        this.values = values;
+        this.codes = codes;
+        this.dictionaries = dictionaries;
+        this.positions = positions;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /**
+     * <p>
+     * Builds a {@link ListResult.Row} holding the values of a row. The row is a copy; changing it doesn't change
+     * the store.
+     * </p>
+     *
+     * @param  i  The index of the row in this list.
+     * @return    The row.
+     */
+    @Override
+    public ListResult.Row get (int i) {
+        int p = position (i);
+        String[] cell = new String[values.length];
+
+        for (int c = 0; c < cell.length; c++)
+            cell[c] = (codes[c] != null) ? dictionaries[c][codes[c][p]] : values[c][p];
+
+        return new ListResult.Row (ids[p], Arrays.asList (cell));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Returns the number of columns (cells per row.)
+     * </p>
+     *
+     * @return     The value.
+     */
+    public int getColumnCount() {
+        return values.length;
+    }
+
+    /**
+     * <p>
+     * Returns the ID of a row without building the row.
+     * </p>
+     *
+     * @param  i  The index of the row in this list.
+     * @return    The value.
+     */
+    public String getId (int i) {
+        return ids[position (i)];
+    }
+
+    /**
+     * <p>
+     * Returns a cell of a row without building the row.
+     * </p>
+     *
+     * @param  i       The index of the row in this list.
+     * @param  column  The index of the cell.
+     * @return         The value.
+     */
+    public String getValue (
+        int i,
+        int column
+    ) {
+        int p = position (i);
+
+        return (codes[column] != null) ? dictionaries[column][codes[column][p]] : values[column][p];
+    }
+
+    /**
+     * <p>
+     * Returns a list of some of the rows of this list. The new list shares this list's columns.
+     * </p>
+     *
+     * @param  rows   The indexes in this list of the rows to include, in the order they are to appear.
+     * @param  count  The number of entries of <code>rows</code> to use.
+     * @return        The new list.
+     */
+    public RowStore select (
+        int[] rows,
+        int count
+    ) {
+        int[] p = new int[count];
+
+        for (int i = 0; i < count; i++)
+            p[i] = position (rows[i]);
+
+        return new RowStore (ids, values, codes, dictionaries, p, 0, count);
+    }
+
+    /**
+     * <p>
+     * Returns a range of the rows of this list. Since stores can't be modified the range is simply another store
+     * sharing this list's columns, so no rows are built or copied.
+     * </p>
+     *
+     * @param  fromIndex  The index of the first row (inclusive.)
+     * @param  toIndex    The index of the last row (exclusive.)
+     * @return            The new list.
+     */
+    @Override
+    public RowStore subList (
+        int fromIndex,
+        int toIndex
+    ) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+            throw new IndexOutOfBoundsException ("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + size);
+
+        return new RowStore (ids, values, codes, dictionaries, positions, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    // returns the distinct values of a dictionary encoded column or null if the column isn't encoded.
+    //
+    String[] getDictionary (int column) {
+        return dictionaries[column];
+    }
+
+    // returns the index into getDictionary() of a row's value. only valid for encoded columns.
+    //
+    int getCode (
+        int i,
+        int column
+    ) {
+        return codes[column][position (i)];
+    }
+
+    private int position (int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException ("Index: " + i + ", Size: " + size);
+
+        return (positions == null) ? offset + i : positions[offset + i];
+    }
+
+    /**
+     * <p>
+     * Collects rows and builds a {@link RowStore} from them. Whether to dictionary encode a column is decided when
+     * the store is built, from the number of distinct values in it.
+     * </p>
+     */
+    public static class Builder {
+        private String[] ids;
+        private String[][] values;
+        private int size = 0;
+
+        /**
+         * <p>
+         * Constructor.
+         * </p>
+         *
+         * @param  columnCount  The number of cells in each row.
+         */
+        public Builder (int columnCount) {
+            this.ids = new String[16];
+            this.values = new String[columnCount][16];
+        }
+
+        /**
+         * <p>
+         * Adds a row.
+         * </p>
+         *
+         * @param  id     The ID of the row.
+         * @param  cells  The cells of the row. Missing cells are <code>null</code> and extra cells are ignored.
+         * @return        This builder.
+         */
+        public Builder add (
+            String id,
+            String... cells
+        ) {
+            append (id, cells, 0);
+
+            return this;
+        }
+
+        /**
+         * <p>
+         * Adds rows held as arrays, e.g. as returned by a module file projection.
+         * </p>
+         *
+         * @param  rows  The rows. The first entry of each array is the ID of the row and the rest are its cells.
+         * @return       This builder.
+         */
+        public Builder addAll (List<String[]> rows) {
+            for (String[] row : rows)
+                append (row[0], row, 1);
+
+            return this;
+        }
+
+        private void append (
+            String id,
+            String[] cells,
+            int offset
+        ) {
+            if (size == ids.length) {
+                int capacity = size + (size >> 1);
+
+                ids = Arrays.copyOf (ids, capacity);
+
+                for (int c = 0; c < values.length; c++)
+                    values[c] = Arrays.copyOf (values[c], capacity);
+            }
+
+            ids[size] = id;
+
+            for (int c = 0; c < values.length; c++)
+                values[c][size] = (offset + c < cells.length) ? cells[offset + c] : null;
+
+            size++;
+        }
+
+        /**
+         * <p>
+         * Builds the store. The builder shouldn't be used afterwards.
+         * </p>
+         *
+         * @return     The store.
+         */
+        public RowStore build() {
+            String[][] plain = new String[values.length][];
+            int[][] codes = new int[values.length][];
+            String[][] dictionaries = new String[values.length][];
+
+            for (int c = 0; c < values.length; c++) {
+                encode (c, plain, codes, dictionaries);
+                values[c] = null;
+            }
+
+            return new RowStore (Arrays.copyOf (ids, size), plain, codes, dictionaries, null, 0, size);
+        }
+
+        // dictionary encodes a column if its values repeat enough, otherwise keeps it as is.
+        //
+        private void encode (
+            int c,
+            String[][] plain,
+            int[][] codes,
+            String[][] dictionaries
+        ) {
+            HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+            int[] code = new int[size];
+
+            for (int r = 0; r < size; r++) {
+                Integer k = dictionary.get (values[c][r]);
+
+                if (k == null) {
+
+                    // too many distinct values to be worth it. columns of IDs, paths and the like are given up on
+                    // as soon as the first rows show it rather than after half the rows have been hashed.
+                    //
+                    if (dictionary.size() >= size / DICTIONARY_RATIO || (r >= DICTIONARY_SAMPLE && dictionary.size() >= r / DICTIONARY_RATIO)) {
+                        plain[c] = Arrays.copyOf (values[c], size);
+                        return;
+                    }
+
+                    k = dictionary.size();
+                    dictionary.put (values[c][r], k);
+                }
+
+                code[r] = k;
+            }
+
+            String[] distinct = new String[dictionary.size()];
+
+            for (String value : dictionary.keySet())
+                distinct[dictionary.get (value)] = value;
+
+            codes[c] = code;
+            dictionaries[c] = distinct;
+        }
+    }
+}
@@ -375,6 +375,25 @@ function myRand() {
     return Math.random() * 100000000000000000;
 }
 
+// jqGrid adds a time stamp ("nd") to every list request so that it is never answered from the browser's cache.
+// the list resources send entity tags with "Cache-Control: no-cache" instead, so without the time stamp the browser
+// revalidates its copy and the server answers 304 (Not Modified) when the list hasn't changed.
+//
+if ($.jgrid) {
+    $.jgrid.defaults = $.extend (true, $.jgrid.defaults || {}, { prmNames: { nd: null } });
+}
+
+// keeps the entity tag of each list a grid loads with the grid (see getVersion()), so that the page's changes to the
+// file the list was read from can be sent with it. the list is the same whether or not it came from the browser's cache.
+//
+if ($.jgrid) {
+    $.jgrid.defaults = $.extend ($.jgrid.defaults || {}, {
+        beforeProcessing: function (data, textStatus, jqXHR) {
+            $(this).data ("version", getVersion (jqXHR));
+        }
+    });
+}
+
 //----------------------
 // Navigation management
 //----------------------
@@ -568,6 +587,42 @@ function processAjaxResult (data, opts) {
     return retVal;
 }
 
+// processes a failed add/edit/copy/delete AJAX call. the server answers 409 (Conflict) with a result message when the
+// file being changed was changed by another request since the page read it. the message is shown the same way as
+// any other failed result (see processAjaxResult() for the options.) anything else should only happen when things
+// go seriously wrong on the server.
+//
+function processAjaxError (jqXHR, textStatus, errorThrown, opts) {
+    if (jqXHR.status == 409) {
+        var data = null;
+
+        try {
+            data = $.parseJSON (jqXHR.responseText);
+        } catch (e) { ; }
+
+        if (data != null) {
+            processAjaxResult (data, opts);
+            return;
+        }
+    }
+
+    myAlert ("textStatus = " + textStatus + "<br/>errorThrown = " + errorThrown);
+}
+
+// returns the entity tag of an AJAX response, which is the version of the file it was read from, or null if it
+// doesn't have one.
+//
+function getVersion (jqXHR) {
+    return (jqXHR && jqXHR.getResponseHeader) ? jqXHR.getResponseHeader ("ETag") : null;
+}
+
+// returns the headers of an AJAX call that changes a file so that the server turns the change down if the file
+// is no longer the version the page read (see getVersion().) no header is sent if the version isn't known.
+//
+function ifMatch (version) {
+    return (version) ? { "If-Match": version } : {};
+}
+
 // processes a generate AJAX call result.
 //
 // "useDialog" indicates whether to highlight add/edit dialog fields in error and display error messages in the add/edit dialog